@@ -0,0 +1,146 @@
+package de.appsist.service.ihs;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+import javax.security.cert.X509Certificate;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerFileUpload;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.http.HttpVersion;
+import org.vertx.java.core.net.NetSocket;
+
+/**
+ * Request without a connection, providing only the method, path and parameters needed to dispatch it. Its response
+ * and socket discard everything written to them.
+ */
+public class BenchmarkRequest implements HttpServerRequest {
+	private final String method;
+	private final String path;
+	private final MultiMap params;
+	private final HttpServerResponse response;
+	private final NetSocket netSocket;
+
+	public BenchmarkRequest(String method, String path) {
+		this.method = method;
+		this.path = path;
+		this.params = new CaseInsensitiveMultiMap();
+		this.response = new BenchmarkResponse();
+		this.netSocket = new BenchmarkSocket();
+	}
+
+	@Override
+	public HttpVersion version() {
+		return HttpVersion.HTTP_1_1;
+	}
+
+	@Override
+	public String method() {
+		return method;
+	}
+
+	@Override
+	public String uri() {
+		return path;
+	}
+
+	@Override
+	public String path() {
+		return path;
+	}
+
+	@Override
+	public String query() {
+		return null;
+	}
+
+	@Override
+	public HttpServerResponse response() {
+		return response;
+	}
+
+	@Override
+	public MultiMap headers() {
+		return new CaseInsensitiveMultiMap();
+	}
+
+	@Override
+	public MultiMap params() {
+		return params;
+	}
+
+	@Override
+	public InetSocketAddress remoteAddress() {
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress localAddress() {
+		return null;
+	}
+
+	@Override
+	public X509Certificate[] peerCertificateChain() {
+		return null;
+	}
+
+	@Override
+	public URI absoluteURI() {
+		return URI.create("http://localhost" + path);
+	}
+
+	@Override
+	public HttpServerRequest bodyHandler(Handler<Buffer> bodyHandler) {
+		return this;
+	}
+
+	@Override
+	public NetSocket netSocket() {
+		return netSocket;
+	}
+
+	@Override
+	public HttpServerRequest expectMultiPart(boolean expect) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest uploadHandler(Handler<HttpServerFileUpload> uploadHandler) {
+		return this;
+	}
+
+	@Override
+	public MultiMap formAttributes() {
+		return new CaseInsensitiveMultiMap();
+	}
+
+	@Override
+	public HttpServerRequest endHandler(Handler<Void> endHandler) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest dataHandler(Handler<Buffer> handler) {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest pause() {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest resume() {
+		return this;
+	}
+
+	@Override
+	public HttpServerRequest exceptionHandler(Handler<Throwable> handler) {
+		return this;
+	}
+}
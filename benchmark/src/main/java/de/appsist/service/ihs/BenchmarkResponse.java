@@ -0,0 +1,191 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Response without a connection, given by {@link BenchmarkRequest}. Status and headers are kept, everything written
+ * is discarded, so handlers can respond without failing the benchmark.
+ */
+public class BenchmarkResponse implements HttpServerResponse {
+	private final MultiMap headers = new CaseInsensitiveMultiMap();
+	private final MultiMap trailers = new CaseInsensitiveMultiMap();
+	private int statusCode = 200;
+	private String statusMessage = "OK";
+	private boolean chunked;
+
+	@Override
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	@Override
+	public HttpServerResponse setStatusCode(int statusCode) {
+		this.statusCode = statusCode;
+		return this;
+	}
+
+	@Override
+	public String getStatusMessage() {
+		return statusMessage;
+	}
+
+	@Override
+	public HttpServerResponse setStatusMessage(String statusMessage) {
+		this.statusMessage = statusMessage;
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse setChunked(boolean chunked) {
+		this.chunked = chunked;
+		return this;
+	}
+
+	@Override
+	public boolean isChunked() {
+		return chunked;
+	}
+
+	@Override
+	public MultiMap headers() {
+		return headers;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(String name, String value) {
+		headers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(CharSequence name, CharSequence value) {
+		headers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(String name, Iterable<String> values) {
+		headers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putHeader(CharSequence name, Iterable<CharSequence> values) {
+		headers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public MultiMap trailers() {
+		return trailers;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(String name, String value) {
+		trailers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(CharSequence name, CharSequence value) {
+		trailers.set(name, value);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(String name, Iterable<String> values) {
+		trailers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse putTrailer(CharSequence name, Iterable<CharSequence> values) {
+		trailers.set(name, values);
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse closeHandler(Handler<Void> handler) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(Buffer chunk) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String chunk, String encoding) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse write(String chunk) {
+		return this;
+	}
+
+	@Override
+	public void end(String chunk) {
+	}
+
+	@Override
+	public void end(String chunk, String encoding) {
+	}
+
+	@Override
+	public void end(Buffer chunk) {
+	}
+
+	@Override
+	public void end() {
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String filename) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String filename, String notFoundFile) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String filename, Handler<AsyncResult<Void>> resultHandler) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse sendFile(String filename, String notFoundFile, Handler<AsyncResult<Void>> resultHandler) {
+		return this;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public HttpServerResponse setWriteQueueMaxSize(int maxSize) {
+		return this;
+	}
+
+	@Override
+	public boolean writeQueueFull() {
+		return false;
+	}
+
+	@Override
+	public HttpServerResponse drainHandler(Handler<Void> handler) {
+		return this;
+	}
+
+	@Override
+	public HttpServerResponse exceptionHandler(Handler<Throwable> handler) {
+		return this;
+	}
+}
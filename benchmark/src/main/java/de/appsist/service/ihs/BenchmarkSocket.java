@@ -0,0 +1,114 @@
+package de.appsist.service.ihs;
+
+import java.net.InetSocketAddress;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.net.NetSocket;
+
+/**
+ * Socket without a connection, given by {@link BenchmarkRequest}. Nothing is ever read, everything written is
+ * discarded.
+ */
+public class BenchmarkSocket implements NetSocket {
+
+	@Override
+	public String writeHandlerID() {
+		return "benchmark-socket";
+	}
+
+	@Override
+	public NetSocket write(Buffer data) {
+		return this;
+	}
+
+	@Override
+	public NetSocket write(String str) {
+		return this;
+	}
+
+	@Override
+	public NetSocket write(String str, String enc) {
+		return this;
+	}
+
+	@Override
+	public NetSocket sendFile(String filename) {
+		return this;
+	}
+
+	@Override
+	public NetSocket sendFile(String filename, Handler<AsyncResult<Void>> resultHandler) {
+		return this;
+	}
+
+	@Override
+	public InetSocketAddress remoteAddress() {
+		return null;
+	}
+
+	@Override
+	public InetSocketAddress localAddress() {
+		return null;
+	}
+
+	@Override
+	public void close() {
+	}
+
+	@Override
+	public NetSocket closeHandler(Handler<Void> handler) {
+		return this;
+	}
+
+	@Override
+	public NetSocket ssl(Handler<Void> handler) {
+		return this;
+	}
+
+	@Override
+	public boolean isSsl() {
+		return false;
+	}
+
+	@Override
+	public NetSocket endHandler(Handler<Void> endHandler) {
+		return this;
+	}
+
+	@Override
+	public NetSocket dataHandler(Handler<Buffer> handler) {
+		return this;
+	}
+
+	@Override
+	public NetSocket pause() {
+		return this;
+	}
+
+	@Override
+	public NetSocket resume() {
+		return this;
+	}
+
+	@Override
+	public NetSocket exceptionHandler(Handler<Throwable> handler) {
+		return this;
+	}
+
+	@Override
+	public NetSocket setWriteQueueMaxSize(int maxSize) {
+		return this;
+	}
+
+	@Override
+	public boolean writeQueueFull() {
+		return false;
+	}
+
+	@Override
+	public NetSocket drainHandler(Handler<Void> handler) {
+		return this;
+	}
+}
@@ -0,0 +1,246 @@
+package de.appsist.service.ihs;
+
+import java.util.Random;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * HTTP load generator for the endpoints of the service.
+ * Sends <code>rate</code> requests per second for <code>duration</code> milliseconds over up to
+ * <code>connections</code> connections. Requests are scheduled at fixed intervals whether or not the previous ones
+ * have been answered, and their latency is measured from the time they were scheduled to be sent. A stalling service
+ * thus shows up in the latency of all requests it delays, including the time they wait for a free connection, rather
+ * than slowing down the generator (coordinated omission). The endpoint of each request is chosen at random according
+ * to the <code>weight</code> of the configured <code>requests</code>. The placeholders <code>{n}</code>,
+ * <code>{measure}</code>, <code>{element}</code> and <code>{user}</code> in the path and the body of a request are
+ * replaced by a random element of the <code>keySpace</code>, its measure, its process element and a random one of
+ * <code>users</code> users.
+ * <p>
+ * Latencies of requests scheduled after <code>warmup</code> milliseconds are recorded per endpoint. Responses with a
+ * status of 400 or above, failed and timed out requests are counted as errors. When the run is complete and all
+ * requests are answered or timed out, the report is published to <code>reportAddress</code>.
+ */
+public class LoadGenerator extends Verticle {
+	private final Random random = new Random();
+	private String basePath;
+	private long timeout;
+	private int keySpace;
+	private int users;
+	private Endpoint[] endpoints;
+	private Endpoint total;
+	private int totalWeight;
+	private HttpClient client;
+	private long interval;
+	private long nextSend;
+	private long measureStart;
+	private long end;
+	private int running;
+	private boolean scheduled;
+	private String reportAddress;
+
+	/*
+	 * Requests and statistics of one endpoint.
+	 */
+	private static class Endpoint {
+		final String name;
+		final String method;
+		final String path;
+		final String body;
+		final int weight;
+		final Histogram latencies = new Histogram();
+		long errors;
+
+		Endpoint(String name, String method, String path, String body, int weight) {
+			this.name = name;
+			this.method = method;
+			this.path = path;
+			this.body = body;
+			this.weight = weight;
+		}
+
+		JsonObject toJson(double seconds) {
+			JsonObject report = new JsonObject();
+			report.putNumber("requests", latencies.getCount());
+			report.putNumber("throughput", seconds > 0 ? Math.round(latencies.getCount() / seconds) : 0);
+			report.putNumber("errors", errors);
+			report.putObject("latency", latencies.toJson());
+			return report;
+		}
+	}
+
+	@Override
+	public void start() {
+		JsonObject config = container.config();
+		basePath = config.getString("basePath", "/services/ihs");
+		timeout = config.getLong("timeout", 5000);
+		keySpace = Math.max(1, config.getInteger("keySpace", 10000));
+		users = Math.max(1, config.getInteger("users", 100));
+		JsonArray requests = config.getArray("requests", defaultRequests());
+		endpoints = new Endpoint[requests.size()];
+		for (int i = 0; i < endpoints.length; i++) {
+			JsonObject request = requests.get(i);
+			endpoints[i] = new Endpoint(request.getString("name", request.getString("path")),
+					request.getString("method", "GET"), request.getString("path"), request.getString("body"),
+					Math.max(0, request.getInteger("weight", 1)));
+			totalWeight += endpoints[i].weight;
+		}
+		total = new Endpoint("total", null, null, null, 0);
+
+		int connections = Math.max(1, config.getInteger("connections", 64));
+		client = vertx.createHttpClient().setHost(config.getString("host", "localhost"))
+				.setPort(config.getInteger("port", 7086)).setKeepAlive(true).setMaxPoolSize(connections);
+		interval = Math.max(1, 1000000000L / Math.max(1, config.getInteger("rate", 2000)));
+		long now = System.nanoTime();
+		nextSend = now;
+		measureStart = now + config.getLong("warmup", 5000) * 1000000L;
+		end = measureStart + config.getLong("duration", 30000) * 1000000L;
+		reportAddress = config.getString("reportAddress", "appsist:benchmark:ihs#report");
+		scheduled = true;
+		vertx.setPeriodic(1, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				// send all requests due by now, also those a delayed timer has missed
+				long now = System.nanoTime();
+				while (nextSend <= now && nextSend < end) {
+					send(nextSend);
+					nextSend += interval;
+				}
+				if (nextSend >= end) {
+					vertx.cancelTimer(timerId);
+					scheduled = false;
+					completeIfDone();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the default mix of requests: mostly single lookups, some batch lookups.
+	 * @return Array of request definitions.
+	 */
+	public static JsonArray defaultRequests() {
+		JsonArray requests = new JsonArray();
+		requests.addObject(request("contentForTask", "GET",
+				"/contentForTask?measureId={measure}&elementId={element}&userId={user}", null, 4));
+		requests.addObject(request("contentForActivity", "GET",
+				"/contentForActivity?measureId={measure}&calledProcess={element}&userId={user}", null, 2));
+		requests.addObject(request("additionalContent", "GET",
+				"/additionalContent?measureId={measure}&elementId={element}&userId={user}", null, 2));
+		requests.addObject(request("contentForSteps", "POST", "/contentForSteps", "{\"userId\":\"{user}\",\"steps\":["
+				+ "{\"type\":\"task\",\"measureId\":\"{measure}\",\"elementId\":\"{element}\"},"
+				+ "{\"type\":\"additional\",\"measureId\":\"{measure}\",\"elementId\":\"{element}\"}]}", 1));
+		return requests;
+	}
+
+	private static JsonObject request(String name, String method, String path, String body, int weight) {
+		JsonObject request = new JsonObject();
+		request.putString("name", name);
+		request.putString("method", method);
+		request.putString("path", path);
+		if (body != null) {
+			request.putString("body", body);
+		}
+		request.putNumber("weight", weight);
+		return request;
+	}
+
+	// send a request scheduled for the given time
+	private void send(final long intendedStart) {
+		running++;
+		final Endpoint endpoint = choose();
+		int n = random.nextInt(keySpace);
+		String user = "user" + random.nextInt(users);
+		final Handler<Boolean> completionHandler = new Handler<Boolean>() {
+			private boolean completed;
+
+			@Override
+			public void handle(Boolean success) {
+				if (completed) {
+					return;
+				}
+				completed = true;
+				if (intendedStart >= measureStart) {
+					long latency = (System.nanoTime() - intendedStart) / 1000;
+					endpoint.latencies.record(latency);
+					total.latencies.record(latency);
+					if (!success) {
+						endpoint.errors++;
+						total.errors++;
+					}
+				}
+				running--;
+				completeIfDone();
+			}
+		};
+		HttpClientRequest request = client.request(endpoint.method, basePath + substitute(endpoint.path, n, user),
+				new Handler<HttpClientResponse>() {
+					@Override
+					public void handle(final HttpClientResponse response) {
+						response.bodyHandler(new Handler<Buffer>() {
+							@Override
+							public void handle(Buffer body) {
+								completionHandler.handle(response.statusCode() < 400);
+							}
+						});
+					}
+				});
+		request.setTimeout(timeout);
+		request.exceptionHandler(new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable cause) {
+				completionHandler.handle(false);
+			}
+		});
+		if (endpoint.body != null) {
+			request.putHeader("Content-Type", "application/json");
+			request.end(substitute(endpoint.body, n, user));
+		} else {
+			request.end();
+		}
+	}
+
+	private void completeIfDone() {
+		if (!scheduled && running == 0) {
+			client.close();
+			vertx.eventBus().publish(reportAddress, report());
+		}
+	}
+
+	private Endpoint choose() {
+		int value = random.nextInt(Math.max(1, totalWeight));
+		for (Endpoint endpoint : endpoints) {
+			value -= endpoint.weight;
+			if (value < 0) {
+				return endpoint;
+			}
+		}
+		return endpoints[0];
+	}
+
+	private static String substitute(String template, int n, String user) {
+		return template.replace("{n}", Integer.toString(n))
+				.replace("{measure}", "Massnahme_" + n / SparqlReplies.ELEMENTS_PER_MEASURE)
+				.replace("{element}", "Task_" + n).replace("{user}", user);
+	}
+
+	private JsonObject report() {
+		double seconds = (end - measureStart) / 1e9;
+		JsonObject report = new JsonObject();
+		report.putNumber("duration", Math.round(seconds * 1000));
+		report.putNumber("rate", Math.round(1e9 / interval));
+		JsonObject endpointReports = new JsonObject();
+		for (Endpoint endpoint : endpoints) {
+			endpointReports.putObject(endpoint.name, endpoint.toJson(seconds));
+		}
+		report.putObject("endpoints", endpointReports);
+		report.putObject("total", total.toJson(seconds));
+		return report;
+	}
+}
@@ -0,0 +1,235 @@
+package de.appsist.service.ihs;
+
+import java.io.File;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+import org.vertx.java.platform.PlatformLocator;
+import org.vertx.java.platform.PlatformManager;
+
+/**
+ * Measures the end-to-end throughput and latency of the service without the Information Workbench and the user model.
+ * Deploys the {@link SemwikiStandIn}, the {@link UserModelStandIn} and the service in one Vert.x instance, waits
+ * <code>startupDelay</code> milliseconds for the service to load its labels, index and snapshot, and runs the
+ * {@link LoadGenerator} against it. The report is logged and written to <code>reportFile</code>.
+ * <p>
+ * Usage: <code>LoadHarness [config.json]</code>. Each section of the optional configuration file is merged into the
+ * default configuration: <code>semwiki</code>, <code>usermodel</code> and <code>load</code> configure the stand-ins
+ * and the load generator, <code>ihs</code> is merged into the configuration of the service. The process exits with
+ * status 1 if more than <code>maxErrorRate</code> of the requests failed, so the harness can gate a build.
+ */
+public class LoadHarness {
+	private static final Logger log = LoggerFactory.getLogger(LoadHarness.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void main(String[] args) throws Exception {
+		JsonObject config = getDefaultConfiguration();
+		if (args.length > 0) {
+			JsonObject fileConfig = new JsonObject(new String(Files.readAllBytes(new File(args[0]).toPath()), UTF8));
+			for (String section : fileConfig.getFieldNames()) {
+				Object value = fileConfig.getField(section);
+				if (value instanceof JsonObject && config.getObject(section) != null) {
+					merge(config.getObject(section), (JsonObject) value);
+				} else {
+					config.putValue(section, value);
+				}
+			}
+		}
+		System.exit(run(config));
+	}
+
+	/**
+	 * Runs the harness.
+	 * @param config Complete configuration of the harness.
+	 * @return <code>0</code> if the error rate is within the limit, <code>1</code> otherwise.
+	 * @throws Exception If a verticle fails to deploy or the run does not complete.
+	 */
+	public static int run(final JsonObject config) throws Exception {
+		final PlatformManager platformManager = PlatformLocator.factory.createPlatformManager();
+		final URL[] classpath = classpath();
+		final JsonObject loadConfig = config.getObject("load");
+		final long startupDelay = config.getLong("startupDelay", 5000);
+
+		final CountDownLatch reportLatch = new CountDownLatch(1);
+		final AtomicReference<JsonObject> report = new AtomicReference<JsonObject>();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		platformManager.vertx().eventBus().registerHandler(loadConfig.getString("reportAddress"),
+				new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						report.set(message.body());
+						reportLatch.countDown();
+					}
+				});
+
+		final Handler<AsyncResult<String>> loadDeployed = new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					failure.set(result.cause());
+					reportLatch.countDown();
+				}
+			}
+		};
+		final Handler<AsyncResult<String>> ihsDeployed = new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					loadDeployed.handle(result);
+					return;
+				}
+				log.info("Service deployed, starting load in " + startupDelay + " ms.");
+				platformManager.vertx().setTimer(Math.max(1, startupDelay), new Handler<Long>() {
+					@Override
+					public void handle(Long timerId) {
+						platformManager.deployVerticle(LoadGenerator.class.getName(), loadConfig, classpath, 1,
+								null, loadDeployed);
+					}
+				});
+			}
+		};
+		final Handler<AsyncResult<String>> standInsDeployed = new Handler<AsyncResult<String>>() {
+			private int remaining = 2;
+
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					loadDeployed.handle(result);
+				} else if (--remaining == 0) {
+					// the service deploys its further instances itself and shares its semwiki limits among them
+					JsonObject ihsConfig = config.getObject("ihs");
+					ihsConfig.getObject("webserver").putNumber("instances",
+							Math.max(1, config.getInteger("instances", 1)));
+					platformManager.deployVerticle(IHSMainVerticle.class.getName(), ihsConfig, classpath, 1, null,
+							ihsDeployed);
+				}
+			}
+		};
+		platformManager.deployVerticle(SemwikiStandIn.class.getName(), config.getObject("semwiki"), classpath, 1,
+				null, standInsDeployed);
+		platformManager.deployVerticle(UserModelStandIn.class.getName(), config.getObject("usermodel"), classpath, 1,
+				null, standInsDeployed);
+
+		long runTime = startupDelay + loadConfig.getLong("warmup") + loadConfig.getLong("duration")
+				+ loadConfig.getLong("timeout") + 60000;
+		boolean completed = reportLatch.await(runTime, TimeUnit.MILLISECONDS);
+		platformManager.stop();
+		if (failure.get() != null) {
+			throw new IllegalStateException("Failed to deploy the harness.", failure.get());
+		}
+		if (!completed) {
+			throw new IllegalStateException("No report received within " + runTime + " ms.");
+		}
+
+		JsonObject result = report.get();
+		String reportFile = config.getString("reportFile");
+		if (reportFile != null) {
+			Files.write(new File(reportFile).toPath(), result.encodePrettily().getBytes(UTF8));
+		}
+		log.info(result.encodePrettily());
+
+		JsonObject total = result.getObject("total");
+		long requests = total.getLong("requests");
+		double errorRate = requests > 0 ? (double) total.getLong("errors") / requests : 1;
+		Number maxErrorRateValue = config.getNumber("maxErrorRate");
+		double maxErrorRate = maxErrorRateValue != null ? maxErrorRateValue.doubleValue() : 0.01;
+		if (errorRate > maxErrorRate) {
+			log.error("Error rate " + errorRate + " exceeds " + maxErrorRate + ".");
+			return 1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Creates the default configuration: a moderately slow semwiki without failures, 2000 requests per second for 30
+	 * seconds after a warmup of 5 seconds and the default request mix of the {@link LoadGenerator}.
+	 * @return Configuration of the harness.
+	 */
+	public static JsonObject getDefaultConfiguration() {
+		JsonObject semwikiConfig = new JsonObject();
+		semwikiConfig.putString("address", "appsist:requests:semwiki");
+		semwikiConfig.putNumber("latency", 5);
+		semwikiConfig.putNumber("latencyJitter", 5);
+		semwikiConfig.putNumber("failureRate", 0);
+		semwikiConfig.putString("failureMode", "fail");
+		semwikiConfig.putNumber("elements", 10000);
+		semwikiConfig.putNumber("contentsPerElement", 2);
+
+		JsonObject usermodelConfig = new JsonObject();
+		usermodelConfig.putNumber("latency", 1);
+		usermodelConfig.putNumber("failureRate", 0);
+
+		JsonObject webserverConfig = new JsonObject();
+		webserverConfig.putNumber("port", 7086);
+		webserverConfig.putString("basePath", "/services/ihs");
+		webserverConfig.putString("statics", new File("").getAbsolutePath());
+		// replaced by the number of instances of the harness, see run
+		webserverConfig.putNumber("instances", 1);
+		JsonObject snapshotConfig = new JsonObject();
+		snapshotConfig.putBoolean("enabled", true);
+		snapshotConfig.putNumber("pageSize", 10000);
+		JsonObject metricsConfig = new JsonObject();
+		metricsConfig.putNumber("publishInterval", 0);
+		JsonObject ihsConfig = new JsonObject();
+		ihsConfig.putObject("webserver", webserverConfig);
+		ihsConfig.putObject("snapshot", snapshotConfig);
+		ihsConfig.putObject("metrics", metricsConfig);
+
+		JsonObject loadConfig = new JsonObject();
+		loadConfig.putString("host", "localhost");
+		loadConfig.putNumber("port", 7086);
+		loadConfig.putString("basePath", "/services/ihs");
+		loadConfig.putNumber("rate", 2000);
+		loadConfig.putNumber("connections", 64);
+		loadConfig.putNumber("warmup", 5000);
+		loadConfig.putNumber("duration", 30000);
+		loadConfig.putNumber("timeout", 5000);
+		loadConfig.putNumber("keySpace", 10000);
+		loadConfig.putNumber("users", 100);
+		loadConfig.putArray("requests", LoadGenerator.defaultRequests());
+		loadConfig.putString("reportAddress", "appsist:benchmark:ihs#report");
+
+		JsonObject config = new JsonObject();
+		config.putObject("semwiki", semwikiConfig);
+		config.putObject("usermodel", usermodelConfig);
+		config.putObject("ihs", ihsConfig);
+		config.putObject("load", loadConfig);
+		config.putNumber("instances", 1);
+		config.putNumber("startupDelay", 5000);
+		config.putNumber("maxErrorRate", 0.01);
+		return config;
+	}
+
+	// merge nested objects, replace everything else
+	private static void merge(JsonObject target, JsonObject source) {
+		for (String field : source.getFieldNames()) {
+			Object value = source.getField(field);
+			if (value instanceof JsonObject && target.getObject(field) != null) {
+				merge(target.getObject(field), (JsonObject) value);
+			} else {
+				target.putValue(field, value);
+			}
+		}
+	}
+
+	private static URL[] classpath() throws MalformedURLException {
+		List<URL> urls = new ArrayList<URL>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			urls.add(new File(entry).toURI().toURL());
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+}
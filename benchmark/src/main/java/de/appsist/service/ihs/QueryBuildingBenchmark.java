@@ -0,0 +1,104 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the queries of the content lookups. The <code>concatenated*</code> benchmarks reproduce how the queries
+ * were built from the prefix string and the raw parameters before the templates were introduced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBuildingBenchmark {
+	private static final String PREFIX_STRING = "PREFIX app: <http://www.appsist.de/ontology/> PREFIX terms: <http://purl.org/dc/terms/>";
+
+	private String measureId;
+	private String processId;
+	private String targetGroup;
+	private List<String> batchProcessIds;
+
+	@Setup
+	public void setUp() {
+		measureId = "b6a7c1f2-0d3e-4f5a-9b8c-7d6e5f4a3b2c";
+		processId = "http://www.appsist.de/ontology/massnahmen/" + measureId + "/Task_0x7e1a";
+		targetGroup = "http://www.appsist.de/ontology/Fachkraft";
+		batchProcessIds = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			batchProcessIds.add("http://www.appsist.de/ontology/massnahmen/" + measureId + "/Task_" + i);
+		}
+	}
+
+	@Benchmark
+	public String concatenatedMeasureQuery() {
+		return PREFIX_STRING + " SELECT DISTINCT ?uri WHERE { ?uri a ?_ FILTER (REGEX(str(?uri),'" + measureId + "$')) }";
+	}
+
+	@Benchmark
+	public String templateMeasureQuery() {
+		return SparqlTemplates.MEASURE_BY_ID.bind(measureId);
+	}
+
+	@Benchmark
+	public String concatenatedInstructionQuery() {
+		return concatenatedInstructionQuery(Collections.singleton(processId));
+	}
+
+	@Benchmark
+	public String templateInstructionQuery() {
+		return SparqlTemplates.INSTRUCTIONS.bind(Collections.singleton(processId));
+	}
+
+	@Benchmark
+	public String concatenatedAdditionalQuery() {
+		return PREFIX_STRING + " SELECT DISTINCT ?p ?inhalt ?vorschau WHERE {"
+				+ valuesClause("p", Collections.singleton(processId))
+				+ " ?inhalt app:informiertUeber ?p FILTER ((NOT EXISTS {?inhalt rdf:type app:Instruktion}) && ((NOT EXISTS {?inhalt app:hatZielgruppe ?_}) || EXISTS {?inhalt app:hatZielgruppe <"
+				+ targetGroup + ">}))" + " OPTIONAL {?inhalt app:hasPreview ?vorschau}}";
+	}
+
+	@Benchmark
+	public String templateAdditionalQuery() {
+		return SparqlTemplates.ADDITIONAL_CONTENTS.bind(Collections.singleton(processId), targetGroup);
+	}
+
+	@Benchmark
+	public String concatenatedBatchQuery() {
+		return concatenatedInstructionQuery(batchProcessIds);
+	}
+
+	@Benchmark
+	public String templateBatchQuery() {
+		return SparqlTemplates.INSTRUCTIONS.bind(batchProcessIds);
+	}
+
+	private static String concatenatedInstructionQuery(Collection<String> processIds) {
+		return PREFIX_STRING + " SELECT DISTINCT ?p ?inhalt WHERE {" + valuesClause("p", processIds)
+				+ " ?inhalt app:informiertUeber ?p . ?inhalt rdf:type app:Instruktion }";
+	}
+
+	private static String valuesClause(String variable, Collection<String> iris) {
+		StringBuilder builder = new StringBuilder("VALUES ?").append(variable).append(" {");
+		for (String iri : iris) {
+			builder.append('<').append(iri).append("> ");
+		}
+		return builder.append('}').toString();
+	}
+}
@@ -0,0 +1,89 @@
+package de.appsist.service.ihs;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Reading semwiki replies with the code replaced by the streaming reader and with the {@link SparqlResultReader}.
+ * <code>mapperFirstValue</code> reads the first value as the single lookups did: a new <code>ObjectMapper</code>
+ * parses the reply into a tree and <code>findValuesAsText("value")</code> collects every value of it.
+ * <code>treeAllBindings</code> reads all bindings from a {@link JsonObject} as the label load did.
+ * <code>streamingFirstValue</code> and <code>streamingAllBindings</code> read the same with the streaming reader, as
+ * the single lookups, the batch lookups and the paged loads do now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplyParsingBenchmark {
+	private static final String[] VARIABLES = { "p", "inhalt" };
+
+	@Param({ "10", "1000", "100000" })
+	public int bindings;
+
+	private String reply;
+
+	@Setup
+	public void setUp() {
+		reply = SparqlReplies.contents(bindings);
+	}
+
+	@Benchmark
+	public String mapperFirstValue() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode root = mapper.readTree(reply);
+		if (root == null) {
+			return null;
+		}
+		List<String> values = root.findValuesAsText("value");
+		return values.isEmpty() ? null : values.get(0);
+	}
+
+	@Benchmark
+	public String streamingFirstValue() throws IOException {
+		return SparqlResultReader.readFirstValue(reply, "inhalt");
+	}
+
+	@Benchmark
+	public void treeAllBindings(Blackhole blackhole) {
+		JsonArray resultBindings = new JsonObject(reply).getObject("results").getArray("bindings");
+		for (Object element : resultBindings) {
+			JsonObject binding = (JsonObject) element;
+			blackhole.consume(binding.getObject("p").getString("value"));
+			blackhole.consume(binding.getObject("inhalt").getString("value"));
+		}
+	}
+
+	@Benchmark
+	public void streamingAllBindings(final Blackhole blackhole) throws IOException {
+		SparqlResultReader.readBindings(reply, VARIABLES, new SparqlResultReader.BindingHandler() {
+			@Override
+			public boolean handle(String[] values) {
+				blackhole.consume(values[0]);
+				blackhole.consume(values[1]);
+				return true;
+			}
+		});
+	}
+}
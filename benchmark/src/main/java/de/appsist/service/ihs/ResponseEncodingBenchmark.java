@@ -0,0 +1,56 @@
+package de.appsist.service.ihs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Encoding the responses of the content lookups into the buffer written to the connection. The <code>json*</code>
+ * benchmarks build and encode a {@link JsonObject} as done before, the <code>direct*</code> benchmarks use the
+ * {@link ContentIdResponses}. <code>*Hit</code> encodes a found content, <code>*Miss</code> the empty object.
+ * Run with <code>-prof gc</code> to see the bytes allocated per response (<code>gc.alloc.rate.norm</code>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseEncodingBenchmark {
+	@Param({ "Inhalt_4711", "Inhalt_Übersicht_\"Prüfen\"" })
+	public String contentId;
+
+	@Benchmark
+	public Buffer jsonHit() {
+		JsonObject cId = new JsonObject();
+		cId.putString("contentId", contentId);
+		// HttpServerResponse.end(String) encodes the string into a new buffer
+		return new Buffer(cId.encode());
+	}
+
+	@Benchmark
+	public Buffer directHit() {
+		return ContentIdResponses.encode(contentId);
+	}
+
+	@Benchmark
+	public Buffer jsonMiss() {
+		return new Buffer(new JsonObject().encode());
+	}
+
+	@Benchmark
+	public Buffer directMiss() {
+		return ContentIdResponses.EMPTY;
+	}
+}
@@ -0,0 +1,88 @@
+package de.appsist.service.ihs;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServerRequest;
+
+/**
+ * Dispatch of requests by the {@link BasePathRouteMatcher} with the route table of the service, extended by the
+ * parameterized routes of a typical REST service in front of the static file route.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouteMatcherBenchmark {
+	private static final String BASE_PATH = "/services/ihs";
+
+	@Param({ "true", "false" })
+	public boolean compiled;
+
+	private BasePathRouteMatcher routeMatcher;
+	private BenchmarkRequest firstRoute;
+	private BenchmarkRequest parameterRoute;
+	private BenchmarkRequest staticFile;
+	private Blackhole blackhole;
+
+	@Setup
+	public void setUp(Blackhole blackhole) {
+		this.blackhole = blackhole;
+		Handler<HttpServerRequest> handler = new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(HttpServerRequest request) {
+				RouteMatcherBenchmark.this.blackhole.consume(request);
+			}
+		};
+		routeMatcher = new BasePathRouteMatcher(BASE_PATH, compiled);
+		routeMatcher.get("/contentForTask", handler);
+		routeMatcher.get("/contentForActivity", handler);
+		routeMatcher.get("/additionalContent", handler);
+		routeMatcher.get("/ready", handler);
+		routeMatcher.get("/metrics", handler);
+		routeMatcher.post("/contentForSteps", handler);
+		for (String resource : new String[] { "measures", "processes", "users", "contents", "groups" }) {
+			routeMatcher.get("/" + resource, handler);
+			routeMatcher.get("/" + resource + "/:id", handler);
+			routeMatcher.get("/" + resource + "/:id/steps/:stepId", handler);
+			routeMatcher.put("/" + resource + "/:id", handler);
+			routeMatcher.delete("/" + resource + "/:id", handler);
+		}
+		routeMatcher.getWithRegEx("/.*", handler);
+
+		firstRoute = new BenchmarkRequest("GET", BASE_PATH + "/contentForTask");
+		parameterRoute = new BenchmarkRequest("GET", BASE_PATH + "/groups/4711/steps/ff2a");
+		staticFile = new BenchmarkRequest("GET", BASE_PATH + "/js/app.js");
+	}
+
+	@Benchmark
+	public void firstRoute() {
+		routeMatcher.handle(firstRoute);
+	}
+
+	@Benchmark
+	public void parameterRoute() {
+		parameterRoute.params().clear();
+		routeMatcher.handle(parameterRoute);
+	}
+
+	@Benchmark
+	public void staticFile() {
+		staticFile.params().clear();
+		routeMatcher.handle(staticFile);
+	}
+}
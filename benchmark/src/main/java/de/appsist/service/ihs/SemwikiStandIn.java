@@ -0,0 +1,287 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * Stand-in for the Information Workbench answering the SparQL queries of the service with generated data.
+ * The ontology consists of <code>elements</code> process elements, grouped into measures of
+ * {@link SparqlReplies#ELEMENTS_PER_MEASURE} elements. Each process element has <code>contentsPerElement</code>
+ * instructions and additional contents, every second additional content is restricted to the target group
+ * <code>employeeType</code>. The successor of <code>Task_i</code> is <code>Task_i+1</code>.
+ * <p>
+ * Replies are delayed by <code>latency</code> plus a random <code>latencyJitter</code> milliseconds. A share of
+ * <code>failureRate</code> queries fails, either with an error reply (<code>failureMode</code> <code>"fail"</code>)
+ * or by not replying at all (<code>"timeout"</code>).
+ * <p>
+ * If <code>httpPort</code> is set, the queries are also answered over HTTP according to the SparQL protocol, as a
+ * stand-in for the endpoint used by the <code>http</code> transport. Results are compressed if the client accepts it.
+ */
+public class SemwikiStandIn extends Verticle {
+	private static final Pattern IRI_PATTERN = Pattern.compile("<([^>]+)>");
+	private static final Pattern STRING_PATTERN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final Pattern PAGE_PATTERN = Pattern.compile("LIMIT (\\d+) OFFSET (\\d+)");
+	private static final Pattern LIMIT_PATTERN = Pattern.compile("LIMIT (\\d+)");
+
+	private final Random random = new Random();
+	private int elements;
+	private int contentsPerElement;
+	private String employeeType;
+	private long latency;
+	private int latencyJitter;
+	private double failureRate;
+	private boolean failByTimeout;
+
+	@Override
+	public void start() {
+		JsonObject config = container.config();
+		elements = config.getInteger("elements", 10000);
+		contentsPerElement = Math.max(1, config.getInteger("contentsPerElement", 1));
+		employeeType = config.getString("employeeType", SparqlReplies.ONTOLOGY + "Fachkraft");
+		latency = config.getLong("latency", 5);
+		latencyJitter = config.getInteger("latencyJitter", 0);
+		failureRate = config.getNumber("failureRate", 0).doubleValue();
+		failByTimeout = "timeout".equals(config.getString("failureMode", "fail"));
+
+		vertx.eventBus().registerHandler(config.getString("address", "appsist:requests:semwiki"),
+				new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(final Message<JsonObject> message) {
+						JsonObject sparql = message.body().getObject("sparql");
+						answer(sparql != null ? sparql.getString("query", "") : "", new Handler<String>() {
+							@Override
+							public void handle(String result) {
+								if (result != null) {
+									message.reply(result);
+								} else {
+									message.fail(500, "Stand-in failure.");
+								}
+							}
+						});
+					}
+				});
+
+		int httpPort = config.getInteger("httpPort", 0);
+		if (httpPort > 0) {
+			vertx.createHttpServer().setCompressionSupported(true).requestHandler(new Handler<HttpServerRequest>() {
+				@Override
+				public void handle(final HttpServerRequest request) {
+					final Handler<String> resultHandler = new Handler<String>() {
+						@Override
+						public void handle(String result) {
+							if (result != null) {
+								request.response().putHeader("Content-Type", "application/sparql-results+json");
+								request.response().end(result);
+							} else {
+								request.response().setStatusCode(500).end();
+							}
+						}
+					};
+					if (!"POST".equals(request.method())) {
+						answer(String.valueOf(request.params().get("query")), resultHandler);
+						return;
+					}
+					request.expectMultiPart(true);
+					request.endHandler(new Handler<Void>() {
+						@Override
+						public void handle(Void event) {
+							answer(String.valueOf(request.formAttributes().get("query")), resultHandler);
+						}
+					});
+				}
+			}).listen(httpPort);
+		}
+	}
+
+	// pass the result to the handler after the latency, null if the query fails
+	private void answer(final String query, final Handler<String> resultHandler) {
+		long delay = latency + (latencyJitter > 0 ? random.nextInt(latencyJitter + 1) : 0);
+		if (delay <= 0) {
+			complete(query, resultHandler);
+			return;
+		}
+		vertx.setTimer(delay, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				complete(query, resultHandler);
+			}
+		});
+	}
+
+	private void complete(String query, Handler<String> resultHandler) {
+		if (failureRate > 0 && random.nextDouble() < failureRate) {
+			if (!failByTimeout) {
+				resultHandler.handle(null);
+			}
+			return;
+		}
+		resultHandler.handle(reply(query));
+	}
+
+	private String reply(String query) {
+		if (query.contains("MIN(?v)")) {
+			return contentList(query);
+		}
+		if (query.contains("?label")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("uri", "label");
+			for (int i = pageStart(query); i < pageEnd(query, elements); i++) {
+				builder.add(SparqlReplies.processElement(i), "Schritt " + i);
+			}
+			return builder.build();
+		}
+		if (query.contains("VALUES ?id")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("id", "uri");
+			for (String measureId : strings(query)) {
+				builder.add(measureId, SparqlReplies.ONTOLOGY + "massnahmen/" + measureId);
+			}
+			return builder.build();
+		}
+		if (query.contains("STRENDS")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("uri");
+			for (String measureId : strings(query)) {
+				builder.add(SparqlReplies.ONTOLOGY + "massnahmen/" + measureId);
+			}
+			return builder.build();
+		}
+		if (query.contains("?zielgruppe")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("p", "inhalt", "zielgruppe");
+			for (int i = pageStart(query); i < pageEnd(query, elements); i++) {
+				String processElement = SparqlReplies.processElement(i);
+				for (int j = 0; j < contentsPerElement; j++) {
+					builder.add(processElement, SparqlReplies.content(processElement, contentsPerElement + j),
+							j % 2 == 1 ? employeeType : null);
+				}
+			}
+			return builder.build();
+		}
+		if (query.contains("?vorschau")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("p", "inhalt", "vorschau");
+			for (String processElement : iris(query)) {
+				for (int j = 0; j < contentsPerElement; j++) {
+					builder.add(processElement, SparqlReplies.content(processElement, contentsPerElement + j), null);
+				}
+			}
+			return builder.build();
+		}
+		if (query.contains("VALUES ?s")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("p", "inhalt");
+			for (String processElement : iris(query)) {
+				int index = elementIndex(processElement);
+				if (index >= 0 && index + 1 < elements) {
+					String successor = SparqlReplies.processElement(index + 1);
+					builder.add(successor, SparqlReplies.content(successor, 0));
+				}
+			}
+			return builder.build();
+		}
+		if (query.contains("VALUES ?p")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("p", "inhalt");
+			for (String processElement : iris(query)) {
+				for (int j = 0; j < contentsPerElement; j++) {
+					builder.add(processElement, SparqlReplies.content(processElement, j));
+				}
+			}
+			return builder.build();
+		}
+		if (query.contains("ORDER BY ?p ?inhalt")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("p", "inhalt");
+			for (int i = pageStart(query); i < pageEnd(query, elements); i++) {
+				String processElement = SparqlReplies.processElement(i);
+				for (int j = 0; j < contentsPerElement; j++) {
+					builder.add(processElement, SparqlReplies.content(processElement, j));
+				}
+			}
+			return builder.build();
+		}
+		if (query.contains("ORDER BY ?uri")) {
+			SparqlReplies.Builder builder = new SparqlReplies.Builder("uri");
+			int measures = (elements + SparqlReplies.ELEMENTS_PER_MEASURE - 1) / SparqlReplies.ELEMENTS_PER_MEASURE;
+			for (int i = pageStart(query); i < pageEnd(query, measures); i++) {
+				builder.add(SparqlReplies.measure(i));
+			}
+			return builder.build();
+		}
+		return new SparqlReplies.Builder().build();
+	}
+
+	// contents of a process element with previews, after the cursor in the order of their URIs
+	private String contentList(String query) {
+		List<String> contents = new ArrayList<String>();
+		Matcher iriMatcher = IRI_PATTERN.matcher(query).region(query.indexOf("informiertUeber"), query.length());
+		String processElement = iriMatcher.find() ? iriMatcher.group(1) : "";
+		List<String> strings = strings(query);
+		String cursor = strings.isEmpty() ? "" : strings.get(strings.size() - 1);
+		Matcher limitMatcher = LIMIT_PATTERN.matcher(query);
+		int limit = limitMatcher.find() ? Integer.parseInt(limitMatcher.group(1)) : Integer.MAX_VALUE;
+
+		// additional contents are those which are no instructions
+		int first = query.contains("NOT EXISTS") ? contentsPerElement : 0;
+		for (int j = 0; j < contentsPerElement; j++) {
+			contents.add(SparqlReplies.content(processElement, first + j));
+		}
+		Collections.sort(contents);
+		SparqlReplies.Builder builder = new SparqlReplies.Builder("inhalt", "vorschau");
+		int count = 0;
+		for (String content : contents) {
+			if (content.compareTo(cursor) > 0 && count++ < limit) {
+				builder.add(content, SparqlReplies.ONTOLOGY + "vorschau/" + content.substring(content.lastIndexOf('/') + 1));
+			}
+		}
+		return builder.build();
+	}
+
+	private static int pageStart(String query) {
+		Matcher matcher = PAGE_PATTERN.matcher(query);
+		return matcher.find() ? Integer.parseInt(matcher.group(2)) : 0;
+	}
+
+	private static int pageEnd(String query, int size) {
+		Matcher matcher = PAGE_PATTERN.matcher(query);
+		if (!matcher.find()) {
+			return size;
+		}
+		return (int) Math.min(size, Long.parseLong(matcher.group(2)) + Long.parseLong(matcher.group(1)));
+	}
+
+	// IRIs bound in the VALUES clause, the prefix declarations and the target group are not part of it
+	private static List<String> iris(String query) {
+		List<String> iris = new ArrayList<String>();
+		int start = query.indexOf('{', query.indexOf("VALUES"));
+		Matcher matcher = IRI_PATTERN.matcher(query).region(start, query.indexOf('}', start));
+		while (matcher.find()) {
+			iris.add(matcher.group(1));
+		}
+		return iris;
+	}
+
+	private static List<String> strings(String query) {
+		List<String> strings = new ArrayList<String>();
+		Matcher matcher = STRING_PATTERN.matcher(query);
+		while (matcher.find()) {
+			strings.add(matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\"));
+		}
+		return strings;
+	}
+
+	private static int elementIndex(String processElement) {
+		int start = processElement.lastIndexOf("/Task_");
+		if (start < 0) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(processElement.substring(start + 6));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
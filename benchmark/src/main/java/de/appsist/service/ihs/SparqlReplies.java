@@ -0,0 +1,119 @@
+package de.appsist.service.ihs;
+
+/**
+ * Generates SparQL JSON results shaped like the replies of the Information Workbench.
+ */
+public final class SparqlReplies {
+	public static final String ONTOLOGY = "http://www.appsist.de/ontology/";
+
+	/**
+	 * Number of process elements per generated measure.
+	 */
+	public static final int ELEMENTS_PER_MEASURE = 20;
+
+	/**
+	 * Builder for a result with arbitrary variables. Values starting with <code>http</code> are written as URIs, all
+	 * others as literals.
+	 */
+	public static final class Builder {
+		private final String[] variables;
+		private final StringBuilder reply;
+		private boolean empty;
+
+		public Builder(String... variables) {
+			this.variables = variables;
+			this.reply = new StringBuilder(256);
+			this.empty = true;
+			reply.append("{\"head\":{\"vars\":[");
+			for (int i = 0; i < variables.length; i++) {
+				if (i > 0) {
+					reply.append(',');
+				}
+				reply.append('"').append(variables[i]).append('"');
+			}
+			reply.append("]},\"results\":{\"bindings\":[");
+		}
+
+		/**
+		 * Adds a binding.
+		 * @param values One value per variable, <code>null</code> for unbound variables.
+		 * @return This builder.
+		 */
+		public Builder add(String... values) {
+			if (!empty) {
+				reply.append(',');
+			}
+			empty = false;
+			reply.append('{');
+			boolean first = true;
+			for (int i = 0; i < variables.length; i++) {
+				if (values[i] == null) {
+					continue;
+				}
+				if (!first) {
+					reply.append(',');
+				}
+				first = false;
+				reply.append('"').append(variables[i]).append("\":{\"type\":\"")
+						.append(values[i].startsWith("http") ? "uri" : "literal").append("\",\"value\":\"")
+						.append(values[i].replace("\\", "\\\\").replace("\"", "\\\"")).append("\"}");
+			}
+			reply.append('}');
+			return this;
+		}
+
+		/**
+		 * Completes the result.
+		 * @return SparQL JSON result.
+		 */
+		public String build() {
+			return reply.append("]}}").toString();
+		}
+	}
+
+	private SparqlReplies() {
+		// static helper
+	}
+
+	/**
+	 * Creates a result binding process elements to contents, as returned by the content queries.
+	 * @param bindings Number of bindings.
+	 * @return SparQL JSON result with the variables <code>p</code> and <code>inhalt</code>.
+	 */
+	public static String contents(int bindings) {
+		Builder builder = new Builder("p", "inhalt");
+		for (int i = 0; i < bindings; i++) {
+			builder.add(processElement(i), content(processElement(i), 0));
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the URI of a generated process element.
+	 * @param index Index of the process element.
+	 * @return URI with the measure and element as last two segments.
+	 */
+	public static String processElement(int index) {
+		return measure(index / ELEMENTS_PER_MEASURE) + "/Task_" + index;
+	}
+
+	/**
+	 * Returns the URI of a generated measure.
+	 * @param index Index of the measure.
+	 * @return URI of the measure.
+	 */
+	public static String measure(int index) {
+		return ONTOLOGY + "massnahmen/Massnahme_" + index;
+	}
+
+	/**
+	 * Returns the URI of a generated content informing about a process element.
+	 * @param processElement URI of the process element.
+	 * @param index Index of the content for the process element.
+	 * @return URI of the content.
+	 */
+	public static String content(String processElement, int index) {
+		return ONTOLOGY + "inhalte/Inhalt_" + processElement.substring(processElement.lastIndexOf('/') + 1) + "_"
+				+ index;
+	}
+}
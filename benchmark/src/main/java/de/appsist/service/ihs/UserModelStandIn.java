@@ -0,0 +1,55 @@
+package de.appsist.service.ihs;
+
+import java.util.Random;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * Stand-in for the user model service answering user information requests with the configured
+ * <code>employeeType</code> for every user. Replies are delayed by <code>latency</code> milliseconds, a share of
+ * <code>failureRate</code> requests fails with an error reply.
+ */
+public class UserModelStandIn extends Verticle {
+	private final Random random = new Random();
+
+	@Override
+	public void start() {
+		JsonObject config = container.config();
+		final long latency = config.getLong("latency", 1);
+		final double failureRate = config.getNumber("failureRate", 0).doubleValue();
+		JsonObject userInformation = new JsonObject();
+		userInformation.putString("employeeType",
+				config.getString("employeeType", SparqlReplies.ONTOLOGY + "Fachkraft"));
+		final JsonObject reply = new JsonObject();
+		reply.putString("status", "ok");
+		reply.putObject("userInformation", userInformation);
+
+		vertx.eventBus().registerHandler(config.getString("address", "appsist:service:usermodel#getUserInformation"),
+				new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(final Message<JsonObject> message) {
+						if (latency <= 0) {
+							answer(message, reply, failureRate);
+							return;
+						}
+						vertx.setTimer(latency, new Handler<Long>() {
+							@Override
+							public void handle(Long timerId) {
+								answer(message, reply, failureRate);
+							}
+						});
+					}
+				});
+	}
+
+	private void answer(Message<JsonObject> message, JsonObject reply, double failureRate) {
+		if (failureRate > 0 && random.nextDouble() < failureRate) {
+			message.fail(500, "Stand-in failure.");
+		} else {
+			message.reply(reply.copy());
+		}
+	}
+}
@@ -1,134 +1,445 @@
-package de.appsist.service.ihs;
-
-import org.vertx.java.core.Handler;
-import org.vertx.java.core.http.HttpServerRequest;
-import org.vertx.java.core.http.RouteMatcher;
-
-/**
- * Extension for the route matcher prepending a base path to all HTTP end points.
- * @author simon.schwantzer(at)im-c.de
- */
-public class BasePathRouteMatcher extends RouteMatcher {
-	private final String basePath;
-	 
-	/**
-	 * Creates a route matcher with the given base path.
-	 * @param basePath Base path to prepend to all endpoints.
-	 */
-	public BasePathRouteMatcher(String basePath) {
-        this.basePath = basePath;
-	}
-	
-	/**
-	 * Return the base path for this route matcher.
-	 * @return Base path for all requests, e.g., "/services/myservices"
-	 */
-	public String getBasePath() { 
-		return basePath;
-	}
-	
-	@Override
-	public void handle(HttpServerRequest request) {
-		super.handle(request);
-	}
-
-	@Override
-	public RouteMatcher get(String pattern, Handler<HttpServerRequest> handler) {
-		return super.get(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher put(String pattern, Handler<HttpServerRequest> handler) {
-		return super.put(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher post(String pattern, Handler<HttpServerRequest> handler) {
-		return super.post(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher delete(String pattern, Handler<HttpServerRequest> handler) {
-		return super.delete(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher options(String pattern, Handler<HttpServerRequest> handler) {
-		return super.options(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher head(String pattern, Handler<HttpServerRequest> handler) {
-		return super.head(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher trace(String pattern, Handler<HttpServerRequest> handler) {
-		return super.trace(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher connect(String pattern, Handler<HttpServerRequest> handler) {
-		return super.connect(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher patch(String pattern, Handler<HttpServerRequest> handler) {
-		return super.patch(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher all(String pattern, Handler<HttpServerRequest> handler) {
-		return super.all(basePath + pattern, handler);
-	}
-
-	@Override
-	public RouteMatcher getWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.getWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher putWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.putWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher postWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.postWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher deleteWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.deleteWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher optionsWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.optionsWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher headWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.headWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher traceWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.traceWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher connectWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.connectWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher patchWithRegEx(String regex, Handler<HttpServerRequest> handler) {
-		return super.patchWithRegEx(basePath + regex, handler);
-	}
-
-	@Override
-	public RouteMatcher allWithRegEx(String regex,Handler<HttpServerRequest> handler) {
-		return super.allWithRegEx(basePath + regex, handler);
-	}
-}
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.RouteMatcher;
+
+/**
+ * Extension for the route matcher prepending a base path to all HTTP end points.
+ * In compiled mode, literal and parameterized patterns are stored in a prefix tree of path segments. Regular
+ * expressions are only evaluated for patterns which cannot be compiled and for routes registered with regular
+ * expressions. The first registered matching route wins in both modes.
+ * @author simon.schwantzer(at)im-c.de
+ */
+public class BasePathRouteMatcher extends RouteMatcher {
+	private static final String[] METHODS = { "GET", "PUT", "POST", "DELETE", "OPTIONS", "HEAD", "TRACE", "CONNECT", "PATCH" };
+	private static final Pattern PARAMETER_PATTERN = Pattern.compile(":([A-Za-z][A-Za-z0-9_]*)");
+	private static final Pattern PARAMETER_SEGMENT_PATTERN = Pattern.compile(":[A-Za-z][A-Za-z0-9_]*");
+	private static final Pattern LITERAL_SEGMENT_PATTERN = Pattern.compile("[A-Za-z0-9_\\-~%!&',;=@]*");
+
+	private final String basePath;
+	private final Map<String, MethodRoutes> compiledRoutes;
+	private Handler<HttpServerRequest> noMatchHandler;
+	private int routeCount;
+
+	/**
+	 * Node of the prefix tree. Each node represents a path segment.
+	 */
+	private static final class Node {
+		final Map<String, Node> literalChildren = new HashMap<String, Node>();
+		Node parameterChild;
+		Route route;
+	}
+
+	/**
+	 * Registered route, either as leaf of the prefix tree or as regular expression.
+	 */
+	private static final class Route {
+		final int order;
+		final Handler<HttpServerRequest> handler;
+		final String[] parameterNames;
+		final Pattern pattern;
+
+		Route(int order, Handler<HttpServerRequest> handler, String[] parameterNames, Pattern pattern) {
+			this.order = order;
+			this.handler = handler;
+			this.parameterNames = parameterNames;
+			this.pattern = pattern;
+		}
+	}
+
+	/**
+	 * Routes registered for a HTTP method.
+	 */
+	private static final class MethodRoutes {
+		final Node root = new Node();
+		final List<Route> regExRoutes = new ArrayList<Route>();
+	}
+
+	/**
+	 * Creates a route matcher with the given base path.
+	 * @param basePath Base path to prepend to all endpoints.
+	 */
+	public BasePathRouteMatcher(String basePath) {
+		this(basePath, false);
+	}
+
+	/**
+	 * Creates a route matcher with the given base path.
+	 * @param basePath Base path to prepend to all endpoints.
+	 * @param compiled If <code>true</code>, patterns are dispatched using a prefix tree, otherwise by the
+	 *        linear matching of the Vert.x route matcher.
+	 */
+	public BasePathRouteMatcher(String basePath, boolean compiled) {
+		this.basePath = basePath;
+		if (compiled) {
+			compiledRoutes = new HashMap<String, MethodRoutes>();
+			for (String method : METHODS) {
+				compiledRoutes.put(method, new MethodRoutes());
+			}
+		} else {
+			compiledRoutes = null;
+		}
+	}
+
+	/**
+	 * Return the base path for this route matcher.
+	 * @return Base path for all requests, e.g., "/services/myservices"
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+
+	@Override
+	public void handle(HttpServerRequest request) {
+		if (compiledRoutes == null) {
+			super.handle(request);
+			return;
+		}
+		MethodRoutes routes = compiledRoutes.get(request.method());
+		if (routes == null || !dispatch(request, routes)) {
+			if (noMatchHandler != null) {
+				noMatchHandler.handle(request);
+			} else {
+				request.response().setStatusCode(404);
+				request.response().end();
+			}
+		}
+	}
+
+	@Override
+	public RouteMatcher noMatch(Handler<HttpServerRequest> handler) {
+		noMatchHandler = handler;
+		return super.noMatch(handler);
+	}
+
+	@Override
+	public RouteMatcher get(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("GET", basePath + pattern, handler);
+		}
+		return super.get(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher put(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("PUT", basePath + pattern, handler);
+		}
+		return super.put(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher post(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("POST", basePath + pattern, handler);
+		}
+		return super.post(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher delete(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("DELETE", basePath + pattern, handler);
+		}
+		return super.delete(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher options(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("OPTIONS", basePath + pattern, handler);
+		}
+		return super.options(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher head(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("HEAD", basePath + pattern, handler);
+		}
+		return super.head(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher trace(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("TRACE", basePath + pattern, handler);
+		}
+		return super.trace(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher connect(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("CONNECT", basePath + pattern, handler);
+		}
+		return super.connect(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher patch(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addPattern("PATCH", basePath + pattern, handler);
+		}
+		return super.patch(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher all(String pattern, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			for (String method : METHODS) {
+				addPattern(method, basePath + pattern, handler);
+			}
+			return this;
+		}
+		return super.all(basePath + pattern, handler);
+	}
+
+	@Override
+	public RouteMatcher getWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("GET", basePath + regex, handler);
+		}
+		return super.getWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher putWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("PUT", basePath + regex, handler);
+		}
+		return super.putWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher postWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("POST", basePath + regex, handler);
+		}
+		return super.postWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher deleteWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("DELETE", basePath + regex, handler);
+		}
+		return super.deleteWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher optionsWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("OPTIONS", basePath + regex, handler);
+		}
+		return super.optionsWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher headWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("HEAD", basePath + regex, handler);
+		}
+		return super.headWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher traceWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("TRACE", basePath + regex, handler);
+		}
+		return super.traceWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher connectWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("CONNECT", basePath + regex, handler);
+		}
+		return super.connectWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher patchWithRegEx(String regex, Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			return addRegEx("PATCH", basePath + regex, handler);
+		}
+		return super.patchWithRegEx(basePath + regex, handler);
+	}
+
+	@Override
+	public RouteMatcher allWithRegEx(String regex,Handler<HttpServerRequest> handler) {
+		if (compiledRoutes != null) {
+			for (String method : METHODS) {
+				addRegEx(method, basePath + regex, handler);
+			}
+			return this;
+		}
+		return super.allWithRegEx(basePath + regex, handler);
+	}
+
+	private RouteMatcher addPattern(String method, String pattern, Handler<HttpServerRequest> handler) {
+		MethodRoutes routes = compiledRoutes.get(method);
+		String[] segments = pattern.split("/", -1);
+		List<String> parameterNames = new ArrayList<String>();
+		boolean compilable = true;
+		for (String segment : segments) {
+			if (PARAMETER_SEGMENT_PATTERN.matcher(segment).matches()) {
+				String name = segment.substring(1);
+				if (parameterNames.contains(name)) {
+					throw new IllegalArgumentException("Cannot use identifier " + name + " more than once in pattern string");
+				}
+				parameterNames.add(name);
+			} else if (!LITERAL_SEGMENT_PATTERN.matcher(segment).matches()) {
+				compilable = false;
+			}
+		}
+		if (!compilable) {
+			routes.regExRoutes.add(compilePattern(pattern, handler));
+			return this;
+		}
+
+		Node node = routes.root;
+		for (String segment : segments) {
+			Node child;
+			if (segment.startsWith(":")) {
+				child = node.parameterChild;
+				if (child == null) {
+					child = node.parameterChild = new Node();
+				}
+			} else {
+				child = node.literalChildren.get(segment);
+				if (child == null) {
+					child = new Node();
+					node.literalChildren.put(segment, child);
+				}
+			}
+			node = child;
+		}
+		if (node.route == null) {
+			// an earlier registration of the same pattern takes precedence
+			node.route = new Route(routeCount, handler, parameterNames.toArray(new String[parameterNames.size()]), null);
+		}
+		routeCount++;
+		return this;
+	}
+
+	private RouteMatcher addRegEx(String method, String regex, Handler<HttpServerRequest> handler) {
+		compiledRoutes.get(method).regExRoutes.add(new Route(routeCount++, handler, null, Pattern.compile(regex)));
+		return this;
+	}
+
+	// compiles a pattern which cannot be stored in the prefix tree the same way as the Vert.x route matcher
+	private Route compilePattern(String pattern, Handler<HttpServerRequest> handler) {
+		Matcher matcher = PARAMETER_PATTERN.matcher(pattern);
+		StringBuffer regex = new StringBuffer();
+		Set<String> parameterNames = new LinkedHashSet<String>();
+		while (matcher.find()) {
+			String name = matcher.group().substring(1);
+			if (!parameterNames.add(name)) {
+				throw new IllegalArgumentException("Cannot use identifier " + name + " more than once in pattern string");
+			}
+			matcher.appendReplacement(regex, "(?<$1>[^\\/]+)");
+		}
+		matcher.appendTail(regex);
+		return new Route(routeCount++, handler, parameterNames.toArray(new String[parameterNames.size()]),
+				Pattern.compile(regex.toString()));
+	}
+
+	private boolean dispatch(HttpServerRequest request, MethodRoutes routes) {
+		String path = request.path();
+		Route treeRoute = null;
+		String[] segments = null;
+		if (path.startsWith(basePath)) {
+			segments = path.split("/", -1);
+			treeRoute = find(routes.root, segments, 0, null);
+		}
+		for (Route route : routes.regExRoutes) {
+			if (treeRoute != null && route.order > treeRoute.order) {
+				break;
+			}
+			Matcher matcher = route.pattern.matcher(path);
+			if (matcher.matches()) {
+				if (route.parameterNames != null) {
+					for (String name : route.parameterNames) {
+						request.params().add(name, matcher.group(name));
+					}
+				} else {
+					for (int i = 0; i < matcher.groupCount(); i++) {
+						request.params().add("param" + i, matcher.group(i + 1));
+					}
+				}
+				route.handler.handle(request);
+				return true;
+			}
+		}
+		if (treeRoute == null) {
+			return false;
+		}
+		if (treeRoute.parameterNames.length > 0) {
+			collectParameters(request, routes.root, segments, treeRoute);
+		}
+		treeRoute.handler.handle(request);
+		return true;
+	}
+
+	// returns the matching route registered first
+	private static Route find(Node node, String[] segments, int index, Route best) {
+		if (index == segments.length) {
+			if (node.route != null && (best == null || node.route.order < best.order)) {
+				return node.route;
+			}
+			return best;
+		}
+		String segment = segments[index];
+		Node literalChild = node.literalChildren.get(segment);
+		if (literalChild != null) {
+			best = find(literalChild, segments, index + 1, best);
+		}
+		if (node.parameterChild != null && !segment.isEmpty()) {
+			best = find(node.parameterChild, segments, index + 1, best);
+		}
+		return best;
+	}
+
+	// walks the path of the given route again to assign the parameter values
+	private static boolean collectParameters(HttpServerRequest request, Node node, String[] segments, Route route) {
+		List<String> values = new ArrayList<String>(route.parameterNames.length);
+		if (!collectParameterValues(node, segments, 0, route, values)) {
+			return false;
+		}
+		for (int i = 0; i < values.size(); i++) {
+			request.params().add(route.parameterNames[i], values.get(i));
+		}
+		return true;
+	}
+
+	private static boolean collectParameterValues(Node node, String[] segments, int index, Route route, List<String> values) {
+		if (index == segments.length) {
+			return node.route == route;
+		}
+		String segment = segments[index];
+		Node literalChild = node.literalChildren.get(segment);
+		if (literalChild != null && collectParameterValues(literalChild, segments, index + 1, route, values)) {
+			return true;
+		}
+		if (node.parameterChild != null && !segment.isEmpty()) {
+			values.add(segment);
+			if (collectParameterValues(node.parameterChild, segments, index + 1, route, values)) {
+				return true;
+			}
+			values.remove(values.size() - 1);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,164 @@
+package de.appsist.service.ihs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Append-only storage for many small strings.
+ * Strings are stored UTF-8 encoded in a single growing byte array and referenced by their offset and length, which
+ * avoids the per-object overhead of keeping them as individual <code>String</code> instances. Stored strings can be
+ * compared with character sequences without decoding them. Instances are not thread safe while they are filled.
+ */
+public class ByteArena {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private byte[] bytes;
+	private int size;
+
+	/**
+	 * Creates an empty arena.
+	 * @param initialCapacity Initial capacity in bytes.
+	 */
+	public ByteArena(int initialCapacity) {
+		bytes = new byte[Math.max(16, initialCapacity)];
+		size = 0;
+	}
+
+	/**
+	 * Appends a part of a character sequence.
+	 * @param s Character sequence to append.
+	 * @param start Index of the first character to append.
+	 * @param end Index after the last character to append.
+	 * @return Offset of the appended string. Its length is the difference of {@link #size()} before and after.
+	 */
+	public int append(CharSequence s, int start, int end) {
+		int offset = size;
+		ensureCapacity(size + (end - start) * 3);
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				bytes[size++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[size++] = (byte) (0xC0 | (c >> 6));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else {
+				bytes[size++] = (byte) (0xE0 | (c >> 12));
+				bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[size++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return offset;
+	}
+
+	/**
+	 * Decodes a stored string.
+	 * @param offset Offset of the string.
+	 * @param length Length of the string in bytes.
+	 * @return Decoded string.
+	 */
+	public String decode(int offset, int length) {
+		return new String(bytes, offset, length, UTF8);
+	}
+
+	/**
+	 * Checks if a stored string equals a part of a character sequence.
+	 * @param offset Offset of the stored string.
+	 * @param length Length of the stored string in bytes.
+	 * @param s Character sequence to compare with.
+	 * @param start Index of the first character to compare.
+	 * @param end Index after the last character to compare.
+	 * @return <code>true</code> if both are equal, <code>false</code> otherwise.
+	 */
+	public boolean equals(int offset, int length, CharSequence s, int start, int end) {
+		int pos = offset;
+		int limit = offset + length;
+		int i = start;
+		while (pos < limit && i < end) {
+			int b = bytes[pos] & 0xFF;
+			if (b < 0x80) {
+				if (s.charAt(i++) != b) {
+					return false;
+				}
+				pos++;
+			} else if (b < 0xE0) {
+				if (pos + 1 >= limit || s.charAt(i++) != (((b & 0x1F) << 6) | (bytes[pos + 1] & 0x3F))) {
+					return false;
+				}
+				pos += 2;
+			} else if (b < 0xF0) {
+				if (pos + 2 >= limit || s.charAt(i++) != (((b & 0x0F) << 12) | ((bytes[pos + 1] & 0x3F) << 6)
+						| (bytes[pos + 2] & 0x3F))) {
+					return false;
+				}
+				pos += 3;
+			} else {
+				if (pos + 3 >= limit || i + 1 >= end) {
+					return false;
+				}
+				int codePoint = ((b & 0x07) << 18) | ((bytes[pos + 1] & 0x3F) << 12) | ((bytes[pos + 2] & 0x3F) << 6)
+						| (bytes[pos + 3] & 0x3F);
+				if (s.charAt(i++) != Character.highSurrogate(codePoint)
+						|| s.charAt(i++) != Character.lowSurrogate(codePoint)) {
+					return false;
+				}
+				pos += 4;
+			}
+		}
+		return pos == limit && i == end;
+	}
+
+	/**
+	 * Returns the number of bytes used.
+	 * @return Size of the arena content in bytes.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Releases unused capacity. Should be called once the arena has been filled completely.
+	 */
+	public void trim() {
+		if (bytes.length > size) {
+			bytes = Arrays.copyOf(bytes, size);
+		}
+	}
+
+	/**
+	 * Writes the content of the arena.
+	 * @param out Stream to write to.
+	 * @throws IOException If the stream fails.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(size);
+		out.write(bytes, 0, size);
+	}
+
+	/**
+	 * Reads an arena written by {@link #write(DataOutputStream)}.
+	 * @param in Buffer to read from.
+	 * @return Arena read.
+	 */
+	public static ByteArena read(ByteBuffer in) {
+		ByteArena arena = new ByteArena(0);
+		arena.bytes = new byte[in.getInt()];
+		in.get(arena.bytes);
+		arena.size = arena.bytes.length;
+		return arena;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length + (bytes.length >> 1)));
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * State of a batch request resolving the content IDs for multiple process steps.
+ * The response is a JSON array which is streamed to the client. Each entry is written as soon as the content
+ * of the step is known and carries the index of the step in the request, so entries may arrive in any order.
+ * Steps whose content could not be resolved, e.g., because the Information Workbench or the user model did not
+ * answer, are marked with <code>"failed": true</code>.
+ */
+public class ContentBatch {
+	private final HttpServerResponse response;
+	private final String[] types;
+	private final String[] measureIds;
+	private final String[] elementIds;
+	private final String[] fullMeasureIds;
+	private final boolean[] completed;
+	private final PipelineMetrics.Trace trace;
+	private int pending;
+	private boolean first;
+	private boolean found;
+	private boolean failed;
+
+	/**
+	 * Creates a batch.
+	 * @param response Response to stream the results to.
+	 * @param steps Array of step objects, each with the fields <code>type</code> (<code>"task"</code>,
+	 *        <code>"activity"</code> or <code>"additional"</code>), <code>measureId</code> and
+	 *        <code>elementId</code> or <code>calledProcess</code> for activities.
+	 * @param trace Trace of the request, finished when the response has been completed.
+	 */
+	public ContentBatch(HttpServerResponse response, JsonArray steps, PipelineMetrics.Trace trace) {
+		this.response = response;
+		this.trace = trace;
+		int size = steps.size();
+		types = new String[size];
+		measureIds = new String[size];
+		elementIds = new String[size];
+		fullMeasureIds = new String[size];
+		completed = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			Object step = steps.get(i);
+			if (step instanceof JsonObject) {
+				JsonObject stepObject = (JsonObject) step;
+				types[i] = stepObject.getString("type", "task");
+				measureIds[i] = stepObject.getString("measureId");
+				elementIds[i] = "activity".equals(types[i])
+						? stepObject.getString("calledProcess", stepObject.getString("elementId"))
+						: stepObject.getString("elementId");
+			}
+		}
+		pending = size;
+		first = true;
+	}
+
+	/**
+	 * Starts the streamed response. If the batch is empty, the response is completed immediately.
+	 */
+	public void start() {
+		response.setChunked(true);
+		response.putHeader("Content-Type", "application/json");
+		response.write("[");
+		if (pending == 0) {
+			end();
+		}
+	}
+
+	/**
+	 * Writes the result for a step. Results for steps already completed are ignored.
+	 * @param index Index of the step.
+	 * @param contentId ID of the content, <code>null</code> or empty if no content has been found.
+	 */
+	public void complete(int index, String contentId) {
+		write(index, contentId, false);
+	}
+
+	/**
+	 * Writes the result for a step whose content could not be resolved. Results for steps already completed are
+	 * ignored.
+	 * @param index Index of the step.
+	 */
+	public void fail(int index) {
+		write(index, null, true);
+	}
+
+	private void write(int index, String contentId, boolean stepFailed) {
+		if (completed[index]) {
+			return;
+		}
+		completed[index] = true;
+		JsonObject entry = new JsonObject();
+		entry.putNumber("index", index);
+		entry.putString("type", types[index]);
+		entry.putString("measureId", measureIds[index]);
+		entry.putString("elementId", elementIds[index]);
+		if (contentId != null && !contentId.isEmpty()) {
+			entry.putString("contentId", contentId);
+			found = true;
+		}
+		if (stepFailed) {
+			entry.putBoolean("failed", true);
+			failed = true;
+		}
+		response.write(first ? entry.encode() : "," + entry.encode());
+		first = false;
+		if (--pending == 0) {
+			end();
+		}
+	}
+
+	private void end() {
+		response.end("]");
+		if (failed) {
+			trace.fail();
+		} else {
+			trace.finish(!found);
+		}
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+	public boolean isCompleted(int index) {
+		return completed[index];
+	}
+
+	public PipelineMetrics.Trace getTrace() {
+		return trace;
+	}
+
+	public String getType(int index) {
+		return types[index];
+	}
+
+	/**
+	 * Checks if the batch contains a step of the given type.
+	 * @param type Type of the step.
+	 * @return <code>true</code> if at least one step has the type, <code>false</code> otherwise.
+	 */
+	public boolean containsType(String type) {
+		for (String stepType : types) {
+			if (type.equals(stepType)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public String getMeasureId(int index) {
+		return measureIds[index];
+	}
+
+	public String getFullMeasureId(int index) {
+		return fullMeasureIds[index];
+	}
+
+	public void setFullMeasureId(int index, String fullMeasureId) {
+		fullMeasureIds[index] = fullMeasureId;
+	}
+
+	/**
+	 * Returns the full URI of the process element of a step.
+	 * @param index Index of the step.
+	 * @return URI of the process element or <code>null</code> if the measure has not been resolved.
+	 */
+	public String getProcessElementUri(int index) {
+		if (fullMeasureIds[index] == null || elementIds[index] == null) {
+			return null;
+		}
+		return fullMeasureIds[index] + "/" + elementIds[index];
+	}
+}
@@ -0,0 +1,206 @@
+package de.appsist.service.ihs;
+
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.HttpHeaders;
+
+import java.nio.charset.Charset;
+
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Writes the responses of the content lookups without building and encoding JSON objects.
+ * The response without a content, <code>{}</code>, is the same for every request and encoded once. A found content
+ * is written as <code>{"contentId": ...}</code> straight into a byte array of the exact size of the response, escaped
+ * as the JSON encoder of Vert.x does. The headers of both responses are encoded once as well.
+ * <p>
+ * The shared buffers are read-only and Vert.x writes duplicates of them, so they can be used by all verticle
+ * instances concurrently.
+ */
+public final class ContentIdResponses {
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final byte[] PREFIX = "{\"contentId\":\"".getBytes(ASCII);
+	private static final byte[] SUFFIX = "\"}".getBytes(ASCII);
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes(ASCII);
+
+	/**
+	 * Response without a content, must not be modified.
+	 */
+	public static final Buffer EMPTY = new Buffer(Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(
+			"{}".getBytes(ASCII))));
+
+	private static final CharSequence CONTENT_TYPE = HttpHeaders.newEntity("Content-Type");
+	private static final CharSequence CONTENT_LENGTH = HttpHeaders.newEntity("Content-Length");
+	private static final CharSequence CACHE_CONTROL = HttpHeaders.newEntity("Cache-Control");
+	private static final CharSequence APPLICATION_JSON = HttpHeaders.newEntity("application/json");
+	private static final CharSequence NO_CACHE = HttpHeaders.newEntity("no-cache");
+	// content lengths of all but unusually long content IDs
+	private static final CharSequence[] CONTENT_LENGTHS = new CharSequence[256];
+
+	static {
+		for (int i = 0; i < CONTENT_LENGTHS.length; i++) {
+			CONTENT_LENGTHS[i] = HttpHeaders.newEntity(Integer.toString(i));
+		}
+	}
+
+	private ContentIdResponses() {
+	}
+
+	/**
+	 * Completes a response with a content ID.
+	 * @param response Response to complete.
+	 * @param contentId ID of the content, an empty ID results in an empty object. <code>null</code> signals that the
+	 *        content could not be resolved and results in an empty object with status 503.
+	 */
+	public static void end(HttpServerResponse response, String contentId) {
+		Buffer body;
+		if (contentId == null) {
+			response.setStatusCode(503);
+			body = EMPTY;
+		} else if (contentId.isEmpty()) {
+			body = EMPTY;
+		} else {
+			body = encode(contentId);
+		}
+		int length = body.length();
+		response.putHeader(CONTENT_TYPE, APPLICATION_JSON);
+		response.putHeader(CACHE_CONTROL, NO_CACHE);
+		response.putHeader(CONTENT_LENGTH,
+				length < CONTENT_LENGTHS.length ? CONTENT_LENGTHS[length] : Integer.toString(length));
+		response.end(body);
+	}
+
+	/**
+	 * Encodes <code>{"contentId": ...}</code>.
+	 * @param contentId ID of the content.
+	 * @return Buffer with the UTF-8 encoded object, exactly as large as the object.
+	 */
+	public static Buffer encode(String contentId) {
+		byte[] bytes = new byte[encodedLength(contentId)];
+		System.arraycopy(PREFIX, 0, bytes, 0, PREFIX.length);
+		int position = writeString(contentId, bytes, PREFIX.length);
+		System.arraycopy(SUFFIX, 0, bytes, position, SUFFIX.length);
+		return new Buffer(Unpooled.wrappedBuffer(bytes));
+	}
+
+	/**
+	 * Returns the length of the encoded object.
+	 * @param contentId ID of the content.
+	 * @return Length of <code>{"contentId": ...}</code> in bytes.
+	 */
+	public static int encodedLength(String contentId) {
+		int length = PREFIX.length + SUFFIX.length;
+		int end = contentId.length();
+		for (int i = 0; i < end; i++) {
+			char c = contentId.charAt(i);
+			if (c == '"' || c == '\\') {
+				length += 2;
+			} else if (c < 0x20) {
+				length += escape(c) != 0 ? 2 : 6;
+			} else if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < end
+					&& Character.isLowSurrogate(contentId.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogates are replaced as by String.getBytes
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Appends a string as JSON string, escaped like the content IDs, for responses which are built as text.
+	 * @param out Builder to append to.
+	 * @param s String to append.
+	 * @param start Index of the first character of the string to append.
+	 * @return The given builder.
+	 */
+	public static StringBuilder appendString(StringBuilder out, String s, int start) {
+		out.append('"');
+		int end = s.length();
+		for (int i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 0x20) {
+				out.append('\\');
+				char escape = escape(c);
+				if (escape != 0) {
+					out.append(escape);
+				} else {
+					out.append("u00").append((char) HEX[c >> 4]).append((char) HEX[c & 0xF]);
+				}
+			} else {
+				out.append(c);
+			}
+		}
+		return out.append('"');
+	}
+
+	// write the escaped, UTF-8 encoded characters, returns the position after them
+	private static int writeString(String s, byte[] bytes, int position) {
+		int end = s.length();
+		for (int i = 0; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				bytes[position++] = '\\';
+				bytes[position++] = (byte) c;
+			} else if (c < 0x20) {
+				bytes[position++] = '\\';
+				char escape = escape(c);
+				if (escape != 0) {
+					bytes[position++] = (byte) escape;
+				} else {
+					bytes[position++] = 'u';
+					bytes[position++] = '0';
+					bytes[position++] = '0';
+					bytes[position++] = HEX[c >> 4];
+					bytes[position++] = HEX[c & 0xF];
+				}
+			} else if (c < 0x80) {
+				bytes[position++] = (byte) c;
+			} else if (c < 0x800) {
+				bytes[position++] = (byte) (0xC0 | (c >> 6));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				bytes[position++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				bytes[position++] = '?';
+			} else {
+				bytes[position++] = (byte) (0xE0 | (c >> 12));
+				bytes[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				bytes[position++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return position;
+	}
+
+	// short escape of a control character, 0 if it has none
+	private static char escape(char c) {
+		switch (c) {
+		case '\b':
+			return 'b';
+		case '\t':
+			return 't';
+		case '\n':
+			return 'n';
+		case '\f':
+			return 'f';
+		case '\r':
+			return 'r';
+		default:
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Streams a page of contents with their previews into a response while the query result is read.
+ * The response is a JSON object <code>{"contents": [{"contentId": ..., "preview": ...}, ...], "next": ...}</code>,
+ * where <code>next</code> is the cursor of the following page and missing on the last page. The entries are
+ * appended as text, escaped by {@link ContentIdResponses#appendString}, and written in chunks of about
+ * <code>chunkSize</code> characters, so neither the result nor a single entry is held in JSON objects. The query has to return one content more than the limit, which is not written but tells if there is a
+ * next page.
+ */
+public class ContentListWriter implements SparqlResultReader.BindingHandler {
+	private final HttpServerResponse response;
+	private final int limit;
+	private final int chunkSize;
+	private final StringBuilder chunk;
+	private int size;
+	private boolean started;
+	private String lastContentUri;
+	private boolean more;
+
+	/**
+	 * Creates a writer.
+	 * @param response Response to write to.
+	 * @param limit Maximum number of contents to write.
+	 * @param chunkSize Number of characters collected before they are written to the response.
+	 */
+	public ContentListWriter(HttpServerResponse response, int limit, int chunkSize) {
+		this.response = response;
+		this.limit = limit;
+		this.chunkSize = chunkSize;
+		this.chunk = new StringBuilder(Math.min(chunkSize, 65536) + 256);
+	}
+
+	/**
+	 * Writes a content.
+	 * @param values URI of the content and of its preview, the preview may be <code>null</code>.
+	 * @return <code>false</code> if the limit has been reached and the rest of the result can be skipped.
+	 */
+	@Override
+	public boolean handle(String[] values) {
+		if (values[0] == null) {
+			return true;
+		}
+		if (size == limit) {
+			more = true;
+			return false;
+		}
+		chunk.append(size == 0 ? "{\"contents\":[{\"contentId\":" : ",{\"contentId\":");
+		ContentIdResponses.appendString(chunk, values[0], values[0].lastIndexOf('/') + 1);
+		if (values[1] != null) {
+			ContentIdResponses.appendString(chunk.append(",\"preview\":"), values[1], 0);
+		}
+		chunk.append('}');
+		size++;
+		lastContentUri = values[0];
+		if (chunk.length() >= chunkSize) {
+			flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Completes the response.
+	 */
+	public void end() {
+		if (size == 0) {
+			chunk.append("{\"contents\":[");
+		}
+		chunk.append(']');
+		if (more) {
+			ContentIdResponses.appendString(chunk.append(",\"next\":"), lastContentUri, 0);
+		}
+		chunk.append('}');
+		if (!started) {
+			// results fitting into a single chunk are sent with a content length
+			response.putHeader("Content-Type", "application/json");
+		}
+		response.end(chunk.toString());
+	}
+
+	/**
+	 * Checks if part of the response has been sent. If not, a failure can still be reported with a status code.
+	 * @return <code>true</code> if the response has been started, <code>false</code> otherwise.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+
+	/**
+	 * Returns the number of contents written.
+	 * @return Number of contents.
+	 */
+	public int size() {
+		return size;
+	}
+
+	private void flush() {
+		if (!started) {
+			started = true;
+			response.setChunked(true);
+			response.putHeader("Content-Type", "application/json");
+		}
+		response.write(chunk.toString());
+		chunk.setLength(0);
+	}
+}
@@ -0,0 +1,166 @@
+package de.appsist.service.ihs;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Speculatively resolves the instructions of the steps following a process element.
+ * Once a step has been served, the client usually asks for one of its successors shortly after. The prefetcher
+ * follows the successor relation of the ontology for up to <code>depth</code> levels in the background and puts the
+ * content IDs found into the content cache, so the next request is answered without a query. Each level costs a
+ * single query resolving the successors together with their instructions.
+ * <p>
+ * The ontology has no successor relation of its own, so prefetching is disabled unless the property path to the
+ * successors is configured as <code>successorPath</code>.
+ * <p>
+ * At most <code>maxConcurrent</code> prefetches run at a time, further prefetches are skipped rather than queued.
+ * Process elements prefetched recently are not prefetched again. Instances are not thread safe and must be used from
+ * the event loop of a single verticle.
+ */
+public class ContentPrefetcher {
+	private static final Logger log = LoggerFactory.getLogger(ContentPrefetcher.class);
+
+	private final SparqlEndpoint endpoint;
+	private final ResultCache<String> contentCache;
+	private final ResultCache<Boolean> prefetched;
+	private final boolean enabled;
+	private final SparqlTemplate successorQuery;
+	private final int depth;
+	private final int maxConcurrent;
+	private final int maxElements;
+	private int running;
+	private long started;
+	private long skipped;
+	private long failed;
+	private long warmed;
+
+	/**
+	 * Creates a prefetcher.
+	 * @param endpoint Endpoint to send the queries to.
+	 * @param contentCache Cache to put the resolved content IDs into, keyed like the instruction lookups.
+	 * @param config Configuration with the fields <code>successorPath</code> (SparQL property path from a process
+	 *        element to its successors, prefetching is disabled without it) and the optional fields
+	 *        <code>enabled</code>, <code>depth</code>, <code>maxConcurrent</code>, <code>maxElements</code> (per
+	 *        prefetch) and <code>ttl</code> and <code>maxEntries</code> for the process elements prefetched
+	 *        recently.
+	 */
+	public ContentPrefetcher(SparqlEndpoint endpoint, ResultCache<String> contentCache, JsonObject config) {
+		this.endpoint = endpoint;
+		this.contentCache = contentCache;
+		this.prefetched = new ResultCache<Boolean>(config);
+		String successorPath = config.getString("successorPath");
+		boolean requested = config.getBoolean("enabled", false);
+		if (requested && successorPath == null) {
+			log.warn("Prefetching is disabled, no successorPath is configured.");
+		}
+		this.enabled = requested && successorPath != null;
+		this.successorQuery = successorPath != null ? SparqlTemplates.successorInstructions(successorPath) : null;
+		this.depth = config.getInteger("depth", 1);
+		this.maxConcurrent = Math.max(1, config.getInteger("maxConcurrent", 4));
+		this.maxElements = Math.max(1, config.getInteger("maxElements", 50));
+	}
+
+	/**
+	 * Starts prefetching the instructions of the successors of a process element, unless the limit of concurrent
+	 * prefetches is reached or the element has been prefetched recently.
+	 * @param processElementUri Full URI of the process element just served.
+	 */
+	public void prefetch(String processElementUri) {
+		if (!enabled || depth < 1 || !SparqlTemplate.isValidIri(processElementUri)
+				|| prefetched.get(processElementUri) != null) {
+			return;
+		}
+		if (running >= maxConcurrent) {
+			skipped++;
+			return;
+		}
+		prefetched.put(processElementUri, Boolean.TRUE);
+		running++;
+		started++;
+		Set<String> visited = new HashSet<String>();
+		visited.add(processElementUri);
+		prefetchLevel(Collections.singleton(processElementUri), visited, 1);
+	}
+
+	/**
+	 * Returns statistics about the prefetches.
+	 * @return JSON object with the number of running, started, skipped and failed prefetches and of the content IDs
+	 *         put into the cache.
+	 */
+	public JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("running", running);
+		statistics.putNumber("started", started);
+		statistics.putNumber("skipped", skipped);
+		statistics.putNumber("failed", failed);
+		statistics.putNumber("warmed", warmed);
+		return statistics;
+	}
+
+	private void prefetchLevel(Collection<String> elements, final Set<String> visited, final int level) {
+		endpoint.query(successorQuery.bind(elements), new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> reply) {
+				if (reply.failed()) {
+					running--;
+					failed++;
+					log.debug("Prefetch failed: " + reply.cause().getMessage());
+					return;
+				}
+				// first instruction per successor, empty if it has none
+				final Map<String, String> contents = new LinkedHashMap<String, String>();
+				try {
+					SparqlResultReader.readBindings(reply.result(), new String[] { "p", "inhalt" },
+							new SparqlResultReader.BindingHandler() {
+								@Override
+								public boolean handle(String[] values) {
+									if (values[0] == null) {
+										return true;
+									}
+									String contentId = contents.get(values[0]);
+									if (contentId == null || (contentId.isEmpty() && values[1] != null)) {
+										contents.put(values[0], values[1] != null
+												? values[1].substring(values[1].lastIndexOf('/') + 1) : "");
+									}
+									return true;
+								}
+							});
+				} catch (Exception e) {
+					running--;
+					failed++;
+					log.warn("Failed to read prefetch result.", e);
+					return;
+				}
+
+				Set<String> successors = new HashSet<String>();
+				for (Map.Entry<String, String> entry : contents.entrySet()) {
+					if (visited.size() >= maxElements) {
+						break;
+					}
+					if (visited.add(entry.getKey())) {
+						contentCache.put("instruction|" + entry.getKey(), entry.getValue());
+						warmed++;
+						if (SparqlTemplate.isValidIri(entry.getKey())) {
+							successors.add(entry.getKey());
+						}
+					}
+				}
+				if (level < depth && !successors.isEmpty()) {
+					prefetchLevel(successors, visited, level + 1);
+				} else {
+					running--;
+				}
+			}
+		});
+	}
+}
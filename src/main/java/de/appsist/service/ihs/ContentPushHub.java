@@ -0,0 +1,391 @@
+package de.appsist.service.ihs;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.http.ServerWebSocket;
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Pushes the content of the current step to subscribed clients, so they do not have to poll for it.
+ * Clients subscribe with their <code>userId</code> and optionally the <code>measureId</code> of their current
+ * process, over a WebSocket or as Server-Sent Events. WebSocket clients change the process by sending
+ * <code>{"measureId": ...}</code>, where <code>null</code> or an empty string subscribe all processes and updates
+ * which are not an object with a string or <code>null</code> are ignored. Whenever the content of a step of the user is resolved, it is pushed as
+ * <code>{"userId": ..., "stepId": ..., "contentId": ...}</code>, where the step ID is
+ * <code>measureId/elementId</code> as sent to the KVD.
+ * <p>
+ * Steps are published on the event bus address <code>address</code>, so the hub of every instance delivers them to
+ * its own connections. Idle subscribers cost a map entry and their connection, a single timer sends heartbeats to
+ * all of them every <code>heartbeatInterval</code> milliseconds. Subscriptions beyond <code>maxSubscribers</code>
+ * are rejected and events are dropped for subscribers which do not read them fast enough.
+ * <p>
+ * The hubs of all instances in a Vert.x instance count the subscriptions per user in its shared data, so steps of
+ * users without any subscriber are not published at all. {@link #close()} must be called when the verticle stops, so
+ * the subscriptions of its connections are not counted any longer.
+ * <p>
+ * Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class ContentPushHub {
+	private static final Logger log = LoggerFactory.getLogger(ContentPushHub.class);
+	private static final String HEARTBEAT_EVENT = ":\n\n";
+	private static final String HEARTBEAT_MESSAGE = "{}";
+
+	private final Vertx vertx;
+	private final String address;
+	private final int maxSubscribers;
+	private final Map<String, List<Subscriber>> subscribers;
+	// number of subscriptions per user of all hubs sharing the address
+	private final ConcurrentMap<String, Integer> subscriptionCounts;
+	private final Handler<Message<JsonObject>> eventHandler;
+	private final long heartbeatTimer;
+	private int size;
+	private long pushed;
+	private long dropped;
+	private long rejected;
+
+	/*
+	 * Connection of a client subscribed for the steps of a user.
+	 */
+	private abstract static class Subscriber {
+		final String userId;
+		String measureId;
+
+		Subscriber(String userId, String measureId) {
+			this.userId = userId;
+			this.measureId = measureId;
+		}
+
+		boolean accepts(String stepId) {
+			return measureId == null || stepId.startsWith(measureId + "/");
+		}
+
+		// write the encoded event, returns false if it has been dropped
+		abstract boolean write(Event event);
+
+		abstract void heartbeat();
+	}
+
+	/*
+	 * Event encoded at most once per format, however many subscribers receive it.
+	 */
+	private static class Event {
+		final String message;
+		private Buffer serverSentEvent;
+
+		Event(String message) {
+			this.message = message;
+		}
+
+		Buffer serverSentEvent() {
+			if (serverSentEvent == null) {
+				serverSentEvent = new Buffer("data: " + message + "\n\n");
+			}
+			return serverSentEvent;
+		}
+	}
+
+	private static class WebSocketSubscriber extends Subscriber {
+		final ServerWebSocket socket;
+
+		WebSocketSubscriber(String userId, String measureId, ServerWebSocket socket) {
+			super(userId, measureId);
+			this.socket = socket;
+		}
+
+		@Override
+		boolean write(Event event) {
+			if (socket.writeQueueFull()) {
+				return false;
+			}
+			socket.writeTextFrame(event.message);
+			return true;
+		}
+
+		@Override
+		void heartbeat() {
+			if (!socket.writeQueueFull()) {
+				socket.writeTextFrame(HEARTBEAT_MESSAGE);
+			}
+		}
+	}
+
+	private static class EventStreamSubscriber extends Subscriber {
+		final HttpServerResponse response;
+
+		EventStreamSubscriber(String userId, String measureId, HttpServerResponse response) {
+			super(userId, measureId);
+			this.response = response;
+		}
+
+		@Override
+		boolean write(Event event) {
+			if (response.writeQueueFull()) {
+				return false;
+			}
+			response.write(event.serverSentEvent());
+			return true;
+		}
+
+		@Override
+		void heartbeat() {
+			if (!response.writeQueueFull()) {
+				response.write(HEARTBEAT_EVENT);
+			}
+		}
+	}
+
+	/**
+	 * Creates a hub and registers it for the steps published by all instances.
+	 * @param vertx Vert.x instance.
+	 * @param config Configuration with the fields <code>address</code>, <code>maxSubscribers</code> and
+	 *        <code>heartbeatInterval</code>.
+	 */
+	public ContentPushHub(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.address = config.getString("address", "appsist:service:ihs#content");
+		this.maxSubscribers = Math.max(0, config.getInteger("maxSubscribers", 10000));
+		this.subscribers = new HashMap<String, List<Subscriber>>();
+		this.subscriptionCounts = vertx.sharedData().getMap("ihs.push.subscriptions:" + address);
+
+		eventHandler = new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				deliver(message.body());
+			}
+		};
+		vertx.eventBus().registerHandler(address, eventHandler);
+		long heartbeatInterval = config.getLong("heartbeatInterval", 30000);
+		if (heartbeatInterval <= 0) {
+			heartbeatTimer = -1;
+		} else {
+			heartbeatTimer = vertx.setPeriodic(heartbeatInterval, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					for (List<Subscriber> userSubscribers : subscribers.values()) {
+						for (Subscriber subscriber : userSubscribers) {
+							subscriber.heartbeat();
+						}
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Publishes the content of a step to the subscribers of the user on all instances. Nothing is published if the
+	 * user has no subscriber.
+	 * @param userId ID of the user.
+	 * @param stepId ID of the step, <code>measureId/elementId</code>.
+	 * @param contentId ID of the content, empty if the step has no content.
+	 */
+	public void publish(String userId, String stepId, String contentId) {
+		if (userId == null || !subscriptionCounts.containsKey(userId)) {
+			return;
+		}
+		JsonObject event = new JsonObject();
+		event.putString("userId", userId);
+		event.putString("stepId", stepId);
+		event.putString("contentId", contentId);
+		vertx.eventBus().publish(address, event);
+	}
+
+	/**
+	 * Subscribes a WebSocket. The socket is rejected if the query has no <code>userId</code> or the hub is full.
+	 * @param socket WebSocket with the query parameters <code>userId</code> and <code>measureId</code>.
+	 */
+	public void subscribe(ServerWebSocket socket) {
+		MultiMap params = parseQuery(socket.query());
+		String userId = params.get("userId");
+		if (userId == null || size >= maxSubscribers) {
+			rejected++;
+			socket.reject();
+			return;
+		}
+		final WebSocketSubscriber subscriber = new WebSocketSubscriber(userId, measureFilter(params.get("measureId")),
+				socket);
+		socket.dataHandler(new Handler<Buffer>() {
+			@Override
+			public void handle(Buffer data) {
+				JsonObject subscription;
+				try {
+					subscription = new JsonObject(data.toString("UTF-8"));
+				} catch (DecodeException e) {
+					log.debug("Ignoring malformed subscription update.");
+					return;
+				}
+				Object measureId = subscription.getField("measureId");
+				if (measureId == null && subscription.containsField("measureId")) {
+					subscriber.measureId = null;
+				} else if (measureId instanceof String) {
+					subscriber.measureId = measureFilter((String) measureId);
+				} else {
+					log.debug("Ignoring subscription update without a measure ID.");
+				}
+			}
+		});
+		socket.closeHandler(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				remove(subscriber);
+			}
+		});
+		add(subscriber);
+	}
+
+	/**
+	 * Subscribes a request for Server-Sent Events. The request fails with 400 if it has no <code>userId</code> and
+	 * with 503 if the hub is full.
+	 * @param request Request with the parameters <code>userId</code> and <code>measureId</code>.
+	 */
+	public void subscribe(HttpServerRequest request) {
+		String userId = request.params().get("userId");
+		HttpServerResponse response = request.response();
+		if (userId == null || size >= maxSubscribers) {
+			rejected++;
+			response.setStatusCode(userId == null ? 400 : 503).end();
+			return;
+		}
+		final EventStreamSubscriber subscriber = new EventStreamSubscriber(userId,
+				measureFilter(request.params().get("measureId")), response);
+		response.setChunked(true);
+		response.putHeader("Content-Type", "text/event-stream");
+		response.putHeader("Cache-Control", "no-cache");
+		response.closeHandler(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				remove(subscriber);
+			}
+		});
+		// send the headers right away
+		response.write(HEARTBEAT_EVENT);
+		add(subscriber);
+	}
+
+	/**
+	 * Returns statistics about the hub.
+	 * @return JSON object with the number of subscribers and counters of this instance.
+	 */
+	public JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("subscribers", size);
+		statistics.putNumber("users", subscribers.size());
+		statistics.putNumber("pushed", pushed);
+		statistics.putNumber("dropped", dropped);
+		statistics.putNumber("rejected", rejected);
+		return statistics;
+	}
+
+	/**
+	 * Stops delivering steps and removes the subscriptions of all connections of this hub from the shared counts.
+	 * The connections themselves are closed by Vert.x when the verticle is undeployed.
+	 */
+	public void close() {
+		vertx.eventBus().unregisterHandler(address, eventHandler);
+		if (heartbeatTimer >= 0) {
+			vertx.cancelTimer(heartbeatTimer);
+		}
+		for (List<Subscriber> userSubscribers : new ArrayList<List<Subscriber>>(subscribers.values())) {
+			for (Subscriber subscriber : new ArrayList<Subscriber>(userSubscribers)) {
+				remove(subscriber);
+			}
+		}
+	}
+
+	// measure ID a subscriber is restricted to, null for all processes
+	private static String measureFilter(String measureId) {
+		return measureId == null || measureId.isEmpty() ? null : measureId;
+	}
+
+	private void deliver(JsonObject body) {
+		String userId = body.getString("userId");
+		String stepId = body.getString("stepId");
+		List<Subscriber> userSubscribers = userId != null ? subscribers.get(userId) : null;
+		if (userSubscribers == null || stepId == null) {
+			return;
+		}
+		Event event = null;
+		for (Subscriber subscriber : userSubscribers) {
+			if (!subscriber.accepts(stepId)) {
+				continue;
+			}
+			if (event == null) {
+				event = new Event(body.encode());
+			}
+			if (subscriber.write(event)) {
+				pushed++;
+			} else {
+				dropped++;
+			}
+		}
+	}
+
+	private void add(Subscriber subscriber) {
+		List<Subscriber> userSubscribers = subscribers.get(subscriber.userId);
+		if (userSubscribers == null) {
+			userSubscribers = new ArrayList<Subscriber>(1);
+			subscribers.put(subscriber.userId, userSubscribers);
+		}
+		userSubscribers.add(subscriber);
+		size++;
+		while (true) {
+			Integer count = subscriptionCounts.get(subscriber.userId);
+			if (count == null ? subscriptionCounts.putIfAbsent(subscriber.userId, 1) == null
+					: subscriptionCounts.replace(subscriber.userId, count, count + 1)) {
+				return;
+			}
+		}
+	}
+
+	private void remove(Subscriber subscriber) {
+		List<Subscriber> userSubscribers = subscribers.get(subscriber.userId);
+		if (userSubscribers != null && userSubscribers.remove(subscriber)) {
+			size--;
+			if (userSubscribers.isEmpty()) {
+				subscribers.remove(subscriber.userId);
+			}
+			while (true) {
+				Integer count = subscriptionCounts.get(subscriber.userId);
+				if (count == null || (count == 1 ? subscriptionCounts.remove(subscriber.userId, count)
+						: subscriptionCounts.replace(subscriber.userId, count, count - 1))) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static MultiMap parseQuery(String query) {
+		MultiMap params = new CaseInsensitiveMultiMap();
+		if (query == null) {
+			return params;
+		}
+		for (String pair : query.split("&")) {
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				try {
+					params.add(URLDecoder.decode(pair.substring(0, separator), "UTF-8"),
+							URLDecoder.decode(pair.substring(separator + 1), "UTF-8"));
+				} catch (UnsupportedEncodingException | IllegalArgumentException e) {
+					// skip malformed parameters
+				}
+			}
+		}
+		return params;
+	}
+}
@@ -0,0 +1,287 @@
+package de.appsist.service.ihs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory copy of the relations used to select contents.
+ * The snapshot maps process elements to their instruction and to their additional contents with the target groups
+ * (<code>app:hatZielgruppe</code>) each additional content is restricted to. Process elements and contents are kept
+ * in {@link UriDictionary} instances, all relations are arrays indexed by the ids of the dictionaries.
+ * <p>
+ * A snapshot is filled by a single thread and must not be modified once it has been published. Since it holds the
+ * complete relations, a process element missing in the snapshot has no content.
+ */
+public class ContentSnapshot {
+	private final UriDictionary processElements;
+	private final UriDictionary contents;
+	private final Map<String, Integer> targetGroups;
+	// content id of the instruction of each process element, -1 if there is none
+	private int[] instructions;
+	// first additional content entry of each process element, -1 if there is none
+	private int[] firstAdditional;
+	private int[] lastAdditional;
+	// additional content entries, linked in the order they have been added
+	private int[] entryContents;
+	private int[] entryNext;
+	private int[] entryGroupStart;
+	private int[] entryGroupCount;
+	private int entryCount;
+	// target groups of the entries, each entry owns a contiguous range
+	private int[] groups;
+	private int groupCount;
+	private final long createdAt;
+
+	/**
+	 * Creates an empty snapshot.
+	 * @param expectedProcessElements Expected number of process elements.
+	 */
+	public ContentSnapshot(int expectedProcessElements) {
+		this(expectedProcessElements, new UriDictionary(2, Math.max(16, expectedProcessElements)),
+				new UriDictionary(1, Math.max(16, expectedProcessElements)), System.currentTimeMillis());
+	}
+
+	private ContentSnapshot(int expectedProcessElements, UriDictionary processElements, UriDictionary contents,
+			long createdAt) {
+		int capacity = Math.max(16, expectedProcessElements);
+		this.processElements = processElements;
+		this.contents = contents;
+		targetGroups = new HashMap<String, Integer>();
+		instructions = new int[capacity];
+		firstAdditional = new int[capacity];
+		lastAdditional = new int[capacity];
+		entryContents = new int[capacity];
+		entryNext = new int[capacity];
+		entryGroupStart = new int[capacity];
+		entryGroupCount = new int[capacity];
+		groups = new int[capacity];
+		this.createdAt = createdAt;
+	}
+
+	/**
+	 * Adds the instruction of a process element. If the process element has an instruction already, it is kept.
+	 * @param processElementUri URI of the process element.
+	 * @param contentUri URI of the instruction.
+	 */
+	public void addInstruction(String processElementUri, String contentUri) {
+		int processElement = processElementId(processElementUri);
+		int content = contents.add(contentUri);
+		if (processElement >= 0 && content >= 0 && instructions[processElement] < 0) {
+			instructions[processElement] = content;
+		}
+	}
+
+	/**
+	 * Adds an additional content of a process element. Rows of the same process element and content must be added
+	 * one after another, each row adds a target group to the content.
+	 * @param processElementUri URI of the process element.
+	 * @param contentUri URI of the additional content.
+	 * @param targetGroupUri URI of a target group the content is restricted to, <code>null</code> if the content is
+	 *        not restricted.
+	 */
+	public void addAdditionalContent(String processElementUri, String contentUri, String targetGroupUri) {
+		int processElement = processElementId(processElementUri);
+		int content = contents.add(contentUri);
+		if (processElement < 0 || content < 0) {
+			return;
+		}
+		// the target groups of an entry are stored contiguously, so only the entry added last can be extended
+		int entry = lastAdditional[processElement];
+		if (entry < 0 || entry != entryCount - 1 || entryContents[entry] != content) {
+			entry = addEntry(processElement, content);
+		}
+		if (targetGroupUri != null) {
+			addGroup(entry, targetGroupId(targetGroupUri));
+		}
+	}
+
+	/**
+	 * Returns the instruction of a process element.
+	 * @param processElementUri URI of the process element.
+	 * @return ID of the instruction, i.e., the last segment of its URI, or an empty string if there is none.
+	 */
+	public String getInstruction(String processElementUri) {
+		int processElement = processElements.find(processElementUri);
+		if (processElement < 0 || instructions[processElement] < 0) {
+			return "";
+		}
+		return contents.getLocalName(instructions[processElement]);
+	}
+
+	/**
+	 * Returns the first additional content of a process element available for a target group.
+	 * @param processElementUri URI of the process element.
+	 * @param targetGroupUri URI of the target group.
+	 * @return ID of the content, i.e., the last segment of its URI, or an empty string if there is none.
+	 */
+	public String getAdditionalContent(String processElementUri, String targetGroupUri) {
+		int processElement = processElements.find(processElementUri);
+		if (processElement < 0) {
+			return "";
+		}
+		Integer targetGroup = targetGroups.get(targetGroupUri);
+		for (int entry = firstAdditional[processElement]; entry >= 0; entry = entryNext[entry]) {
+			if (entryGroupCount[entry] == 0 || (targetGroup != null && hasGroup(entry, targetGroup))) {
+				return contents.getLocalName(entryContents[entry]);
+			}
+		}
+		return "";
+	}
+
+	/**
+	 * Returns the number of process elements with contents.
+	 * @return Number of process elements.
+	 */
+	public int size() {
+		return processElements.size();
+	}
+
+	/**
+	 * Returns the time the snapshot has been created.
+	 * @return Creation time in milliseconds since the epoch.
+	 */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	/**
+	 * Releases unused capacity. Must be called once the snapshot has been filled completely.
+	 */
+	public void trim() {
+		processElements.trim();
+		contents.trim();
+		int size = processElements.size();
+		instructions = Arrays.copyOf(instructions, size);
+		firstAdditional = Arrays.copyOf(firstAdditional, size);
+		lastAdditional = null;
+		entryContents = Arrays.copyOf(entryContents, entryCount);
+		entryNext = Arrays.copyOf(entryNext, entryCount);
+		entryGroupStart = Arrays.copyOf(entryGroupStart, entryCount);
+		entryGroupCount = Arrays.copyOf(entryGroupCount, entryCount);
+		groups = Arrays.copyOf(groups, groupCount);
+	}
+
+	/**
+	 * Writes the snapshot. It must have been trimmed before.
+	 * @param out Stream to write to.
+	 * @throws IOException If the stream fails.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeLong(createdAt);
+		processElements.write(out);
+		contents.write(out);
+		String[] targetGroupUris = new String[targetGroups.size()];
+		for (Map.Entry<String, Integer> targetGroup : targetGroups.entrySet()) {
+			targetGroupUris[targetGroup.getValue()] = targetGroup.getKey();
+		}
+		out.writeInt(targetGroupUris.length);
+		for (String targetGroupUri : targetGroupUris) {
+			SnapshotFile.writeString(out, targetGroupUri);
+		}
+		SnapshotFile.writeInts(out, instructions, processElements.size());
+		SnapshotFile.writeInts(out, firstAdditional, processElements.size());
+		SnapshotFile.writeInts(out, entryContents, entryCount);
+		SnapshotFile.writeInts(out, entryNext, entryCount);
+		SnapshotFile.writeInts(out, entryGroupStart, entryCount);
+		SnapshotFile.writeInts(out, entryGroupCount, entryCount);
+		SnapshotFile.writeInts(out, groups, groupCount);
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #write(DataOutputStream)}.
+	 * @param in Buffer to read from.
+	 * @return Snapshot read, it cannot be extended.
+	 */
+	public static ContentSnapshot read(ByteBuffer in) {
+		long createdAt = in.getLong();
+		ContentSnapshot snapshot = new ContentSnapshot(0, UriDictionary.read(in), UriDictionary.read(in), createdAt);
+		int targetGroupCount = in.getInt();
+		for (int i = 0; i < targetGroupCount; i++) {
+			snapshot.targetGroups.put(SnapshotFile.readString(in), i);
+		}
+		snapshot.instructions = SnapshotFile.readInts(in);
+		snapshot.firstAdditional = SnapshotFile.readInts(in);
+		snapshot.lastAdditional = null;
+		snapshot.entryContents = SnapshotFile.readInts(in);
+		snapshot.entryNext = SnapshotFile.readInts(in);
+		snapshot.entryGroupStart = SnapshotFile.readInts(in);
+		snapshot.entryGroupCount = SnapshotFile.readInts(in);
+		snapshot.entryCount = snapshot.entryContents.length;
+		snapshot.groups = SnapshotFile.readInts(in);
+		snapshot.groupCount = snapshot.groups.length;
+		return snapshot;
+	}
+
+	private int processElementId(String processElementUri) {
+		int size = processElements.size();
+		int id = processElements.add(processElementUri);
+		if (id == size) {
+			if (id == instructions.length) {
+				int capacity = instructions.length * 2;
+				instructions = Arrays.copyOf(instructions, capacity);
+				firstAdditional = Arrays.copyOf(firstAdditional, capacity);
+				lastAdditional = Arrays.copyOf(lastAdditional, capacity);
+			}
+			instructions[id] = -1;
+			firstAdditional[id] = -1;
+			lastAdditional[id] = -1;
+		}
+		return id;
+	}
+
+	private int targetGroupId(String targetGroupUri) {
+		Integer id = targetGroups.get(targetGroupUri);
+		if (id == null) {
+			id = targetGroups.size();
+			targetGroups.put(targetGroupUri, id);
+		}
+		return id;
+	}
+
+	private int addEntry(int processElement, int content) {
+		if (entryCount == entryContents.length) {
+			int capacity = entryContents.length * 2;
+			entryContents = Arrays.copyOf(entryContents, capacity);
+			entryNext = Arrays.copyOf(entryNext, capacity);
+			entryGroupStart = Arrays.copyOf(entryGroupStart, capacity);
+			entryGroupCount = Arrays.copyOf(entryGroupCount, capacity);
+		}
+		int entry = entryCount++;
+		entryContents[entry] = content;
+		entryNext[entry] = -1;
+		entryGroupStart[entry] = groupCount;
+		entryGroupCount[entry] = 0;
+		if (lastAdditional[processElement] < 0) {
+			firstAdditional[processElement] = entry;
+		} else {
+			entryNext[lastAdditional[processElement]] = entry;
+		}
+		lastAdditional[processElement] = entry;
+		return entry;
+	}
+
+	private void addGroup(int entry, int targetGroup) {
+		if (hasGroup(entry, targetGroup)) {
+			return;
+		}
+		if (groupCount == groups.length) {
+			groups = Arrays.copyOf(groups, groups.length * 2);
+		}
+		groups[groupCount++] = targetGroup;
+		entryGroupCount[entry]++;
+	}
+
+	private boolean hasGroup(int entry, int targetGroup) {
+		int end = entryGroupStart[entry] + entryGroupCount[entry];
+		for (int i = entryGroupStart[entry]; i < end; i++) {
+			if (groups[i] == targetGroup) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,45 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Sends queries to the semwiki service over the event bus, which forwards them to the Information Workbench.
+ */
+public class EventBusSparqlTransport implements SparqlTransport {
+	private final Vertx vertx;
+	private final String address;
+
+	/**
+	 * Creates a transport.
+	 * @param vertx Vert.x instance used to send the queries.
+	 * @param address Event bus address of the semwiki service.
+	 */
+	public EventBusSparqlTransport(Vertx vertx, String address) {
+		this.vertx = vertx;
+		this.address = address;
+	}
+
+	@Override
+	public void send(String query, long timeout, final Handler<AsyncResult<String>> resultHandler) {
+		JsonObject message = new JsonObject();
+		JsonObject sQuery = new JsonObject();
+		sQuery.putString("query", query);
+		message.putObject("sparql", sQuery);
+		vertx.eventBus().sendWithTimeout(address, message, timeout, new Handler<AsyncResult<Message<String>>>() {
+			@Override
+			public void handle(AsyncResult<Message<String>> reply) {
+				if (reply.succeeded() && reply.result().body() != null) {
+					resultHandler.handle(new DefaultFutureResult<String>(reply.result().body()));
+				} else {
+					resultHandler.handle(new DefaultFutureResult<String>(
+							reply.failed() ? reply.cause() : new IllegalStateException("Empty reply.")));
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,156 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Histogram of non-negative values with a bounded relative error.
+ * Values are counted in buckets whose width grows with the magnitude of the value, so every bucket covers about
+ * 3% of its value. Recording a value is a few arithmetic operations and an array increment, the memory used does not
+ * depend on the number of values. Instances are not thread safe and must be used from the event loop of a single
+ * verticle.
+ */
+public class Histogram {
+	// values below 2^SUB_BUCKET_BITS are counted exactly, larger values with SUB_BUCKET_BITS significant bits
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int HALF_SUB_BUCKET_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+	private static final int MAX_VALUE_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+	private final long[] counts;
+	private long count;
+	private long sum;
+	private long min;
+	private long max;
+
+	/**
+	 * Creates an empty histogram.
+	 */
+	public Histogram() {
+		counts = new long[indexOf(MAX_VALUE) + 1];
+		reset();
+	}
+
+	/**
+	 * Records a value. Negative values are recorded as zero, values above 2^40 are recorded as 2^40.
+	 * @param value Value to record.
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		} else if (value > MAX_VALUE) {
+			value = MAX_VALUE;
+		}
+		counts[indexOf(value)]++;
+		count++;
+		sum += value;
+		if (value < min) {
+			min = value;
+		}
+		if (value > max) {
+			max = value;
+		}
+	}
+
+	/**
+	 * Returns the number of recorded values.
+	 * @return Number of values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the mean of the recorded values.
+	 * @return Mean or <code>0</code> if no value has been recorded.
+	 */
+	public double getMean() {
+		return count > 0 ? (double) sum / count : 0;
+	}
+
+	/**
+	 * Returns the largest recorded value.
+	 * @return Largest value or <code>0</code> if no value has been recorded.
+	 */
+	public long getMax() {
+		return count > 0 ? max : 0;
+	}
+
+	/**
+	 * Returns the smallest recorded value.
+	 * @return Smallest value or <code>0</code> if no value has been recorded.
+	 */
+	public long getMin() {
+		return count > 0 ? min : 0;
+	}
+
+	/**
+	 * Returns the value at the given percentile.
+	 * @param percentile Percentile between 0 and 100.
+	 * @return Value of the bucket containing the percentile, <code>0</code> if no value has been recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * count);
+		if (rank < 1) {
+			rank = 1;
+		}
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(max, Math.max(min, highestValueOf(i)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		min = Long.MAX_VALUE;
+		max = 0;
+	}
+
+	/**
+	 * Creates a JSON summary of the histogram.
+	 * @return JSON object with the fields count, mean, min, max, p50, p90, p99 and p999.
+	 */
+	public JsonObject toJson() {
+		JsonObject summary = new JsonObject();
+		summary.putNumber("count", count);
+		summary.putNumber("mean", Math.round(getMean()));
+		summary.putNumber("min", getMin());
+		summary.putNumber("max", getMax());
+		summary.putNumber("p50", getValueAtPercentile(50));
+		summary.putNumber("p90", getValueAtPercentile(90));
+		summary.putNumber("p99", getValueAtPercentile(99));
+		summary.putNumber("p999", getValueAtPercentile(99.9));
+		return summary;
+	}
+
+	private static int indexOf(long value) {
+		int highestBit = 63 - Long.numberOfLeadingZeros(value);
+		if (highestBit < SUB_BUCKET_BITS) {
+			return (int) value;
+		}
+		int shift = highestBit - SUB_BUCKET_BITS + 1;
+		return shift * HALF_SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	private static long highestValueOf(int index) {
+		if (index < 2 * HALF_SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / HALF_SUB_BUCKET_COUNT - 1;
+		long subBucket = index - shift * HALF_SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,119 @@
+package de.appsist.service.ihs;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Sends queries directly to the SparQL endpoint of the Information Workbench, saving the hop over the semwiki
+ * service. Queries are posted as forms according to the SparQL protocol on a pool of keep-alive connections.
+ * Requests are pipelined and results are requested gzip-compressed unless disabled.
+ * <p>
+ * Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class HttpSparqlTransport implements SparqlTransport {
+	private static final String RESULT_TYPE = "application/sparql-results+json";
+
+	private final HttpClient client;
+	private final String path;
+
+	/**
+	 * Creates a transport.
+	 * @param vertx Vert.x instance used to create the HTTP client.
+	 * @param config Configuration with the fields <code>reqBaseUrl</code> (host, optionally with the scheme),
+	 *        <code>reqBasePort</code>, <code>reqPath</code>, <code>ssl</code>, <code>trustAll</code>,
+	 *        <code>maxPoolSize</code>, <code>pipelining</code> and <code>compression</code>.
+	 */
+	public HttpSparqlTransport(Vertx vertx, JsonObject config) {
+		String baseUrl = config.getString("reqBaseUrl", "localhost");
+		boolean ssl = config.getBoolean("ssl", baseUrl.startsWith("https://"));
+		String host = baseUrl.replaceFirst("^https?://", "");
+		int end = host.indexOf('/');
+		if (end >= 0) {
+			host = host.substring(0, end);
+		}
+		this.client = vertx.createHttpClient()
+				.setHost(host)
+				.setPort(config.getInteger("reqBasePort", 8443))
+				.setSSL(ssl)
+				.setTrustAll(config.getBoolean("trustAll", false))
+				.setKeepAlive(true)
+				.setMaxPoolSize(Math.max(1, config.getInteger("maxPoolSize", 32)))
+				.setPipelining(config.getBoolean("pipelining", true))
+				.setTryUseCompression(config.getBoolean("compression", true));
+		this.path = config.getString("reqPath", "/sparql");
+	}
+
+	@Override
+	public void send(String query, long timeout, Handler<AsyncResult<String>> resultHandler) {
+		Buffer body;
+		try {
+			body = new Buffer("query=" + URLEncoder.encode(query, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			resultHandler.handle(new DefaultFutureResult<String>(e));
+			return;
+		}
+		final Completion completion = new Completion(resultHandler);
+		HttpClientRequest request = client.post(path, new Handler<HttpClientResponse>() {
+			@Override
+			public void handle(final HttpClientResponse response) {
+				response.exceptionHandler(completion);
+				response.bodyHandler(new Handler<Buffer>() {
+					@Override
+					public void handle(Buffer result) {
+						if (response.statusCode() == 200) {
+							completion.succeed(result.toString("UTF-8"));
+						} else {
+							completion.handle(new IOException("SparQL endpoint answered with " + response.statusCode()
+									+ " " + response.statusMessage() + "."));
+						}
+					}
+				});
+			}
+		});
+		request.putHeader("Content-Type", "application/x-www-form-urlencoded; charset=UTF-8");
+		request.putHeader("Content-Length", Integer.toString(body.length()));
+		request.putHeader("Accept", RESULT_TYPE);
+		request.exceptionHandler(completion);
+		request.setTimeout(timeout);
+		request.end(body);
+	}
+
+	/*
+	 * Passes the first outcome of a request to the result handler, the request and the response may both report
+	 * errors, e.g., a timeout after a partially received result.
+	 */
+	private static class Completion implements Handler<Throwable> {
+		private final Handler<AsyncResult<String>> resultHandler;
+		private boolean completed;
+
+		Completion(Handler<AsyncResult<String>> resultHandler) {
+			this.resultHandler = resultHandler;
+		}
+
+		void succeed(String result) {
+			if (!completed) {
+				completed = true;
+				resultHandler.handle(new DefaultFutureResult<String>(result));
+			}
+		}
+
+		@Override
+		public void handle(Throwable cause) {
+			if (!completed) {
+				completed = true;
+				resultHandler.handle(new DefaultFutureResult<String>(cause));
+			}
+		}
+	}
+}
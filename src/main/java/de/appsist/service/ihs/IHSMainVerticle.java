@@ -17,23 +17,31 @@ package de.appsist.service.ihs;
  * @author <a href="http://tfox.org">Tim Fox</a>
  */
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.http.HttpServer;
 import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.ServerWebSocket;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.DecodeException;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 import org.vertx.java.platform.Verticle;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import de.appsist.commons.misc.StatusSignalConfiguration;
 import de.appsist.commons.misc.StatusSignalSender;
 
@@ -51,9 +59,6 @@ public class IHSMainVerticle
     // verticle logger
     private static final Logger log = LoggerFactory.getLogger(IHSMainVerticle.class);
 
-    // needed prefix string to build SparQL queries
-    final private String prefixString = "PREFIX app: <http://www.appsist.de/ontology/> PREFIX terms: <http://purl.org/dc/terms/>";
-
     // holds allowed content types
     private final List<String> contentTypes = new ArrayList<String>();
 
@@ -64,7 +69,60 @@ public class IHSMainVerticle
     private final String eventbusPrefix = "appsist:";
 
     // step id label map
-    private Map<String, String> stepIdLabelMap ;
+    private StepLabelService stepLabelService;
+
+    // publishes the current steps of the users to the KVD connection in batches
+    private StepEventPublisher stepEventPublisher;
+
+    // client sending SparQL queries to the Information Workbench with timeouts and bounded concurrency
+    private SemwikiClient semwikiClient;
+
+    // endpoint for queries not sent on behalf of a request, e.g., to load indexes
+    private final SparqlEndpoint semwikiEndpoint = new SparqlEndpoint()
+    {
+        @Override
+        public void query(String query, Handler<AsyncResult<String>> resultHandler)
+        {
+            metrics.semwikiQuery();
+            semwikiClient.query(query, resultHandler);
+        }
+    };
+
+    // index of full measure URIs by measure id
+    private MeasureIdIndex measureIdIndex;
+
+    // resolved content ids by normalized query inputs, empty string if no content exists
+    private ResultCache<String> contentCache;
+
+    // lookups currently waiting for a reply from the Information Workbench
+    private final InflightRequests<AsyncResult<String>> measureLookups = new InflightRequests<AsyncResult<String>>();
+    private final InflightRequests<String> contentLookups = new InflightRequests<String>();
+    private final InflightRequests<AsyncResult<String>> userLookups = new InflightRequests<AsyncResult<String>>();
+
+    // warms the content cache with the instructions of the following steps
+    private ContentPrefetcher contentPrefetcher;
+
+    // pushes the contents of new steps to subscribed clients, null if disabled
+    private ContentPushHub contentPushHub;
+
+    // employee types by user id, invalidated by change notifications of the user model
+    private ResultCache<String> userInformationCache;
+
+    // labels, index, caches and content snapshot shared by all instances of this verticle
+    private SharedState sharedState;
+    // true if this instance loads the shared state, all other instances only read it
+    private boolean loader = false;
+    // number of this instance, counted in the order the instances are started
+    private int instanceId;
+
+    private boolean contentSnapshotLoading = false;
+
+    // true once the worker persisting labels, measure index and content snapshot for the next start is deployed
+    private boolean snapshotWriterDeployed = false;
+    private boolean snapshotWriteScheduled = false;
+
+    // latency and throughput of the pipeline stages
+    private final PipelineMetrics metrics = new PipelineMetrics();
     
     @Override
   public void start() {
@@ -82,24 +140,21 @@ public class IHSMainVerticle
         contentTypes.add("activity");
 
         this.basePath = config.getObject("webserver").getString("basePath");
+        semwikiClient = createSemwikiClient();
+        initSharedState();
+        stepEventPublisher = new StepEventPublisher(vertx, stepLabelService, metrics,
+                config.getObject("stepEvents", new JsonObject()));
+        contentPrefetcher = new ContentPrefetcher(semwikiEndpoint, contentCache,
+                config.getObject("prefetch", new JsonObject()));
+        initContentPush();
+        if (loader) {
+            initLoader();
+        }
         // init SparQL prefix string
 
 
         initializeHttpRequestHandlers();
-        vertx.setTimer(2000, new Handler<Long>()
-        {
-
-            @Override
-            public void handle(Long arg0)
-            {
-                //log.info("Initializing stepId Label Map");
-                // UserManager um = UserManager.getInstance();
-                initStepIdLabelMap();
-            }
 
-        });
-        
-        
         log.info("*******************");
         log.info("  Inhalteselektor auf Port "
                 + config.getObject("webserver").getNumber("port") + " gestartet ");
@@ -113,59 +168,466 @@ public class IHSMainVerticle
           statusSignalConfig = new StatusSignalConfiguration();
         }
 
-        StatusSignalSender statusSignalSender =
-          new StatusSignalSender("ihs", vertx, statusSignalConfig);
-        statusSignalSender.start();
+        if (loader) {
+          StatusSignalSender statusSignalSender =
+            new StatusSignalSender("ihs", vertx, statusSignalConfig);
+          statusSignalSender.start();
+        }
+
+        initMetricsPublisher();
 
 
   }
 
+    @Override
+    public void stop() {
+        if (contentPushHub != null) {
+            contentPushHub.close();
+        }
+        if (loader) {
+            // let the next instance started take over loading
+            SharedState.unregister(vertx, sharedState);
+        }
+    }
+
+    /*
+     * Create the hub pushing contents to subscribed clients and accept step changes of other services. A step
+     * change is a message with the fields "userId", "measureId" and "elementId", it is handled like a request for
+     * the task and answered with the content id.
+     */
+    private void initContentPush() {
+        JsonObject pushConfig = config.getObject("push", new JsonObject());
+        if (!pushConfig.getBoolean("enabled", true)) {
+            return;
+        }
+        contentPushHub = new ContentPushHub(vertx, pushConfig);
+        vertx.eventBus().registerHandler(pushConfig.getString("stepAddress", "appsist:service:ihs#stepChanged"),
+                new Handler<Message<JsonObject>>()
+        {
+            @Override
+            public void handle(final Message<JsonObject> message)
+            {
+                final String userId = message.body().getString("userId");
+                final String elementId = message.body().getString("elementId");
+                String measureId = message.body().getString("measureId");
+                final PipelineMetrics.Trace trace = metrics.startRequest();
+                if (measureId == null || measureId.isEmpty() || elementId == null) {
+                    replyWithContentId(message, trace, "");
+                    return;
+                }
+                resolveFullMeasureId(measureId, trace, new Handler<AsyncResult<String>>()
+                {
+                    @Override
+                    public void handle(AsyncResult<String> result)
+                    {
+                        if (result.failed()) {
+                            replyWithContentId(message, trace, null);
+                        } else if (result.result() == null) {
+                            replyWithContentId(message, trace, "");
+                        } else {
+                            loadStepContents(result.result(), elementId, userId, trace, new Handler<String>()
+                            {
+                                @Override
+                                public void handle(String contentId)
+                                {
+                                    replyWithContentId(message, trace, contentId);
+                                }
+                            });
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private static void replyWithContentId(Message<JsonObject> message, PipelineMetrics.Trace trace, String contentId)
+    {
+        JsonObject reply = new JsonObject();
+        if (contentId != null && !contentId.isEmpty()) {
+            reply.putString("contentId", contentId);
+        }
+        message.reply(reply);
+        if (contentId == null) {
+            trace.fail();
+        } else {
+            trace.finish(contentId.isEmpty());
+        }
+    }
+
+    /*
+     * Create the client for the Information Workbench. Queries are sent to the semwiki service over the event bus,
+     * or with the transport "http" directly to the SparQL endpoint configured in the section "sparql".
+     */
+    private SemwikiClient createSemwikiClient() {
+        // the limits apply to the whole deployment, each instance gets its share
+        int instances = Math.max(1, config.getObject("webserver").getInteger("instances", 1));
+        JsonObject semwikiConfig = config.getObject("semwiki", new JsonObject()).copy();
+        shareLimit(semwikiConfig, "maxInFlight", 32, instances);
+        shareLimit(semwikiConfig, "maxQueued", 256, instances);
+        String transport = semwikiConfig.getString("transport", "eventbus");
+        if ("http".equals(transport)) {
+            log.info("Sending SparQL queries directly to the endpoint.");
+            JsonObject sparqlConfig = config.getObject("sparql", new JsonObject()).copy();
+            shareLimit(sparqlConfig, "maxPoolSize", 32, instances);
+            return new SemwikiClient(vertx, semwikiConfig, new HttpSparqlTransport(vertx, sparqlConfig));
+        }
+        if (!"eventbus".equals(transport)) {
+            log.warn("Unknown SparQL transport " + transport + ", using the event bus.");
+        }
+        return new SemwikiClient(vertx, semwikiConfig);
+    }
+
+    private static void shareLimit(JsonObject config, String field, int defaultValue, int instances) {
+        int limit = config.getInteger(field, defaultValue);
+        config.putNumber(field, (limit + instances - 1) / instances);
+    }
+
+    /*
+     * Use the state of the instances started before, or create and register the state and become the loader. All
+     * instances bind the same port, Vert.x distributes the connections among them.
+     */
+    private void initSharedState() {
+        final JsonObject labelConfig = config.getObject("labels", new JsonObject());
+        sharedState = SharedState.register(vertx, new SharedState.Factory()
+        {
+            @Override
+            public SharedState create()
+            {
+                return new SharedState(
+                        new StepLabelService(vertx, semwikiEndpoint, labelConfig.getInteger("pageSize", 10000),
+                                labelConfig.getLong("retryInterval", 10000)),
+                        new MeasureIdIndex(),
+                        new ResultCache<String>(config.getObject("cache", new JsonObject())),
+                        new ResultCache<String>(config.getObject("userCache", new JsonObject())));
+            }
+        });
+        loader = sharedState.claimLoader();
+        instanceId = sharedState.addInstance();
+        int instances = config.getObject("webserver").getInteger("instances", 1);
+        if (instanceId >= instances) {
+            log.warn("Started instance " + (instanceId + 1) + " of " + instances + ". Deploy the module with a single"
+                    + " instance and set webserver.instances instead, the loader deploys the other instances.");
+        }
+        stepLabelService = sharedState.getStepLabelService();
+        measureIdIndex = sharedState.getMeasureIdIndex();
+        contentCache = sharedState.getContentCache();
+        userInformationCache = sharedState.getUserInformationCache();
+    }
+
+    // load and refresh the shared state, only called in the loader instance
+    private void initLoader() {
+        initContentCache();
+        initUserInformationCache();
+        initStepLabelService();
+        restoreSnapshotFile();
+        vertx.setTimer(2000, new Handler<Long>()
+        {
+
+            @Override
+            public void handle(Long arg0)
+            {
+                //log.info("Initializing stepId Label Map");
+                // UserManager um = UserManager.getInstance();
+                stepLabelService.refresh();
+                initMeasureIdIndex();
+                loadContentSnapshot();
+            }
+
+        });
+        long measureIndexRefreshInterval = config.getObject("measureIndex", new JsonObject())
+                .getLong("refreshInterval", 600000);
+        if (measureIndexRefreshInterval > 0) {
+            vertx.setPeriodic(measureIndexRefreshInterval, new Handler<Long>()
+            {
+
+                @Override
+                public void handle(Long timerId)
+                {
+                    initMeasureIdIndex();
+                }
+
+            });
+        }
+        
+        
+        // allow other components to trigger a reload after the ontology has changed
+        String refreshAddress = config.getObject("labels", new JsonObject()).getString("refreshAddress");
+        if (refreshAddress != null) {
+            vertx.eventBus().registerHandler(refreshAddress, new Handler<Message<Object>>()
+            {
+                @Override
+                public void handle(Message<Object> message)
+                {
+                    log.info("Ontology change notified, reloading step labels and measure index.");
+                    stepLabelService.refresh();
+                    initMeasureIdIndex();
+                    loadContentSnapshot();
+                }
+            });
+        }
+
+        long snapshotRefreshInterval = config.getObject("snapshot", new JsonObject()).getLong("refreshInterval", 600000);
+        if (snapshotRefreshInterval > 0) {
+            vertx.setPeriodic(snapshotRefreshInterval, new Handler<Long>()
+            {
+                @Override
+                public void handle(Long timerId)
+                {
+                    loadContentSnapshot();
+                }
+            });
+        }
+
+        int instances = config.getObject("webserver").getInteger("instances", 1);
+        if (instances > 1) {
+            // the additional instances find the registered state and do not load it again
+            container.deployVerticle(IHSMainVerticle.class.getName(), config, instances - 1);
+        }
+    }
+
 
-    private void initStepIdLabelMap() {
-		// create new Map
-    	this.stepIdLabelMap = new HashMap<String,String>();
-		// request labels from Information Workbench
-    	String labelForStepQuery = "PREFIX app: <http://www.appsist.de/ontology/> SELECT DISTINCT ?uri ?label WHERE {?class rdfs:subClassOf* app:Prozesselement . ?uri a ?class . ?uri rdfs:label ?label FILTER(LANGMATCHES(LANG(?label), 'de'))}";
-    	JsonObject message = new JsonObject();
-    	JsonObject sQuery = new JsonObject();
-        sQuery.putString("query", labelForStepQuery);
-        message.putObject("sparql", sQuery);
-    	vertx.eventBus().send(this.eventbusPrefix+"requests:semwiki", message,new Handler<Message<String>>(){
-
-			@Override
-			public void handle(Message<String> queryResult) {
-				JsonObject queryResultObject = new JsonObject(queryResult.body());
-				JsonArray queryResults = queryResultObject.getObject("results").getArray("bindings");
-				for (Object result:queryResults){
-					if (result instanceof JsonObject){
-						JsonObject resultObject = (JsonObject) result;
-						String uriString = resultObject.getObject("uri").getString("value","");
-						// canonicalize URIs
-						String[] uriStringSplitArray = uriString.split("/");
-						String canonicalURIString = uriStringSplitArray[uriStringSplitArray.length-2]+"/"+uriStringSplitArray[uriStringSplitArray.length-1];
-							
-						String labelString = resultObject.getObject("label").getString("value","");
-						// fill stepIdLabelMap
-						stepIdLabelMap.put(canonicalURIString, labelString);
-					}
-				}
-				
-			}
-    	});
-	}
+    private void initStepLabelService() {
+        JsonObject labelConfig = config.getObject("labels", new JsonObject());
+        long refreshInterval = labelConfig.getLong("refreshInterval", 3600000);
+        if (refreshInterval > 0) {
+            vertx.setPeriodic(refreshInterval, new Handler<Long>()
+            {
+                @Override
+                public void handle(Long timerId)
+                {
+                    stepLabelService.refresh();
+                }
+            });
+        }
+    }
     
-    private String getLabelForStepId(String stepId){
-    	if (stepIdLabelMap.keySet().contains(stepId)){
-    		return stepIdLabelMap.get(stepId);
-    	}
-    	
-    	return "Unbekannter Schritt";
+    // publish the metrics periodically next to the status signal
+    private void initMetricsPublisher() {
+        JsonObject metricsConfig = config.getObject("metrics", new JsonObject());
+        final String metricsAddress = metricsConfig.getString("address", this.eventbusPrefix + "service:ihs#metrics");
+        long publishInterval = metricsConfig.getLong("publishInterval", 10000);
+        if (publishInterval > 0) {
+            vertx.setPeriodic(publishInterval, new Handler<Long>()
+            {
+                @Override
+                public void handle(Long timerId)
+                {
+                    metrics.tick();
+                    // every instance publishes its own metrics
+                    JsonObject metricsObject = metrics.toJson();
+                    metricsObject.putNumber("instance", instanceId);
+                    metricsObject.putBoolean("loader", loader);
+                    vertx.eventBus().publish(metricsAddress, metricsObject);
+                }
+            });
+        }
+    }
+
+    private void initContentCache() {
+        JsonObject cacheConfig = config.getObject("cache", new JsonObject());
+        long statisticsInterval = cacheConfig.getLong("statisticsInterval", 60000);
+        if (statisticsInterval > 0) {
+            vertx.setPeriodic(statisticsInterval, new Handler<Long>()
+            {
+
+                @Override
+                public void handle(Long timerId)
+                {
+                    log.info("Content cache statistics: " + contentCache.getStatistics().encode());
+                }
+
+            });
+        }
+    }
+
+    private void initUserInformationCache() {
+        JsonObject userCacheConfig = config.getObject("userCache", new JsonObject());
+        String invalidationAddress = userCacheConfig.getString("invalidationAddress");
+        if (invalidationAddress != null) {
+            vertx.eventBus().registerHandler(invalidationAddress, new Handler<Message<Object>>()
+            {
+                @Override
+                public void handle(Message<Object> message)
+                {
+                    // drop the changed user or all users if the notification does not name one
+                    String userId = null;
+                    if (message.body() instanceof JsonObject) {
+                        userId = ((JsonObject) message.body()).getString("userId");
+                    } else if (message.body() instanceof String) {
+                        userId = (String) message.body();
+                    }
+                    if (userId != null) {
+                        userInformationCache.invalidate(userId);
+                    } else {
+                        userInformationCache.clear();
+                    }
+                }
+            });
+        }
+    }
+
+    // load all known URIs once and index them by their last path segment
+    private void initMeasureIdIndex() {
+        String measureUriQuery = SparqlTemplates.ALL_MEASURES.bind();
+        final UriDictionary uris = new UriDictionary(1, measureIdIndex.size());
+        PagedSparqlLoader loader = new PagedSparqlLoader(semwikiEndpoint,
+                config.getObject("measureIndex", new JsonObject()).getInteger("pageSize", 10000));
+        loader.load(measureUriQuery, new String[] { "uri" }, new SparqlResultReader.BindingHandler()
+        {
+            @Override
+            public boolean handle(String[] values) {
+                if (values[0] != null) {
+                    uris.add(values[0]);
+                }
+                return true;
+            }
+        }, new Handler<AsyncResult<Integer>>()
+        {
+            @Override
+            public void handle(AsyncResult<Integer> result) {
+                if (result.failed()) {
+                    log.warn("Failed to load measure index, keeping previous index.", result.cause());
+                    return;
+                }
+                uris.trim();
+                measureIdIndex.replace(uris);
+                log.debug("Measure index loaded with " + uris.size() + " entries.");
+                scheduleSnapshotFileWrite();
+            }
+        });
+    }
+
+    /*
+     * Export the instructions and additional contents of all process elements into a new snapshot. The current
+     * snapshot, if any, is kept until the new one is complete.
+     */
+    private void loadContentSnapshot() {
+        final JsonObject snapshotConfig = config.getObject("snapshot", new JsonObject());
+        if (!snapshotConfig.getBoolean("enabled", true) || contentSnapshotLoading) {
+            return;
+        }
+        contentSnapshotLoading = true;
+        final long loadStart = System.currentTimeMillis();
+        final PagedSparqlLoader loader = new PagedSparqlLoader(semwikiEndpoint, snapshotConfig.getInteger("pageSize", 10000));
+        ContentSnapshot previous = sharedState.getContentSnapshot();
+        final ContentSnapshot snapshot = new ContentSnapshot(previous != null ? previous.size() : 0);
+        String instructionQuery = SparqlTemplates.ALL_INSTRUCTIONS.bind();
+        final String additionalQuery = SparqlTemplates.ALL_ADDITIONAL_CONTENTS.bind();
+        loader.load(instructionQuery, new String[] { "p", "inhalt" }, new SparqlResultReader.BindingHandler()
+        {
+            @Override
+            public boolean handle(String[] values) {
+                if (values[0] != null && values[1] != null) {
+                    snapshot.addInstruction(values[0], values[1]);
+                }
+                return true;
+            }
+        }, new Handler<AsyncResult<Integer>>()
+        {
+            @Override
+            public void handle(AsyncResult<Integer> result) {
+                if (result.failed()) {
+                    contentSnapshotLoading = false;
+                    log.warn("Failed to export instructions, keeping previous content snapshot.", result.cause());
+                    return;
+                }
+                loader.load(additionalQuery, new String[] { "p", "inhalt", "zielgruppe" }, new SparqlResultReader.BindingHandler()
+                {
+                    @Override
+                    public boolean handle(String[] values) {
+                        if (values[0] != null && values[1] != null) {
+                            snapshot.addAdditionalContent(values[0], values[1], values[2]);
+                        }
+                        return true;
+                    }
+                }, new Handler<AsyncResult<Integer>>()
+                {
+                    @Override
+                    public void handle(AsyncResult<Integer> result) {
+                        contentSnapshotLoading = false;
+                        if (result.failed()) {
+                            log.warn("Failed to export additional contents, keeping previous content snapshot.", result.cause());
+                            return;
+                        }
+                        snapshot.trim();
+                        sharedState.setContentSnapshot(snapshot);
+                        scheduleSnapshotFileWrite();
+                        log.info("Content snapshot loaded with " + snapshot.size() + " process elements in "
+                                + (System.currentTimeMillis() - loadStart) + " ms.");
+                    }
+                });
+            }
+        });
+    }
+
+    /*
+     * Restore the state of the previous run from the snapshot file, if any. The restored data is served right away
+     * and replaced by the regular loads once they have completed. The file is written by a worker verticle, so
+     * writing it does not block the event loop.
+     */
+    private void restoreSnapshotFile() {
+        String snapshotPath = config.getObject("snapshot", new JsonObject()).getString("file");
+        if (snapshotPath == null) {
+            return;
+        }
+        sharedState.setContentSnapshot(new SnapshotFile(snapshotPath).restore(stepLabelService, measureIdIndex));
+        container.deployWorkerVerticle(SnapshotWriter.class.getName(), new JsonObject().putString("file", snapshotPath),
+                1, false, new Handler<AsyncResult<String>>()
+        {
+            @Override
+            public void handle(AsyncResult<String> result)
+            {
+                if (result.failed()) {
+                    log.warn("Failed to deploy the snapshot file writer.", result.cause());
+                    return;
+                }
+                snapshotWriterDeployed = true;
+                scheduleSnapshotFileWrite();
+            }
+        });
+        stepLabelService.updateHandler(new Handler<Void>()
+        {
+            @Override
+            public void handle(Void event)
+            {
+                scheduleSnapshotFileWrite();
+            }
+        });
+    }
+
+    // write the snapshot file shortly after a load has completed, loads completing in between are written together
+    private void scheduleSnapshotFileWrite() {
+        if (!snapshotWriterDeployed || snapshotWriteScheduled) {
+            return;
+        }
+        snapshotWriteScheduled = true;
+        final JsonObject snapshotConfig = config.getObject("snapshot", new JsonObject());
+        vertx.setTimer(snapshotConfig.getLong("writeDelay", 5000), new Handler<Long>()
+        {
+            @Override
+            public void handle(Long timerId)
+            {
+                snapshotWriteScheduled = false;
+                vertx.eventBus().sendWithTimeout(SnapshotWriter.ADDRESS, new JsonObject(),
+                        snapshotConfig.getLong("writeTimeout", 60000), new Handler<AsyncResult<Message<JsonObject>>>()
+                {
+                    @Override
+                    public void handle(AsyncResult<Message<JsonObject>> result)
+                    {
+                        if (result.failed()) {
+                            log.warn("Failed to write snapshot file: " + result.cause().getMessage());
+                        }
+                    }
+                });
+            }
+        });
     }
 
 	private void initializeHttpRequestHandlers()
     {
         // init routematcher with basePath from configuration
-        routeMatcher = new BasePathRouteMatcher(this.basePath);
+        routeMatcher = new BasePathRouteMatcher(this.basePath,
+                config.getObject("webserver").getBoolean("compiledRoutes", true));
         // set handlers here
 
         final String staticFileDirectory = config.getObject("webserver").getString("statics");
@@ -201,298 +663,918 @@ public class IHSMainVerticle
             }
         });
 
+        routeMatcher.get("/ready", new Handler<HttpServerRequest>()
+        {
+            @Override
+            public void handle(HttpServerRequest request)
+            {
+                JsonObject readiness = new JsonObject();
+                readiness.putBoolean("ready", stepLabelService.isReady());
+                readiness.putNumber("stepLabels", stepLabelService.size());
+                readiness.putBoolean("measureIndexLoaded", measureIdIndex.isLoaded());
+                readiness.putBoolean("contentSnapshotLoaded", sharedState.getContentSnapshot() != null);
+                readiness.putNumber("pendingStepEvents", stepEventPublisher.getQueued());
+                request.response().setStatusCode(stepLabelService.isReady() ? 200 : 503);
+                request.response().end(readiness.encode());
+            }
+        });
+
+        routeMatcher.get("/metrics", new Handler<HttpServerRequest>()
+        {
+            @Override
+            public void handle(HttpServerRequest request)
+            {
+                JsonObject metricsObject = metrics.toJson();
+                metricsObject.putNumber("instance", instanceId);
+                metricsObject.putBoolean("loader", loader);
+                metricsObject.putObject("contentCache", contentCache.getStatistics());
+                metricsObject.putObject("userCache", userInformationCache.getStatistics());
+                metricsObject.putObject("semwiki", semwikiClient.getStatistics());
+                metricsObject.putObject("prefetch", contentPrefetcher.getStatistics());
+                metricsObject.putObject("stepEvents", stepEventPublisher.getStatistics());
+                if (contentPushHub != null) {
+                    metricsObject.putObject("push", contentPushHub.getStatistics());
+                }
+                ContentSnapshot contentSnapshot = sharedState.getContentSnapshot();
+                if (contentSnapshot != null) {
+                    JsonObject snapshotObject = new JsonObject();
+                    snapshotObject.putNumber("processElements", contentSnapshot.size());
+                    snapshotObject.putNumber("createdAt", contentSnapshot.getCreatedAt());
+                    snapshotObject.putNumber("age", System.currentTimeMillis() - contentSnapshot.getCreatedAt());
+                    metricsObject.putObject("contentSnapshot", snapshotObject);
+                }
+                request.response().putHeader("Content-Type", "application/json");
+                request.response().end(metricsObject.encode());
+            }
+        });
+
+        final JsonObject batchConfig = config.getObject("batch", new JsonObject());
+        routeMatcher.post("/contentForSteps", new Handler<HttpServerRequest>()
+        {
+            @Override
+            public void handle(final HttpServerRequest request)
+            {
+                readBody(request, batchConfig.getInteger("maxBodySize", 524288), new Handler<Buffer>()
+                {
+                    @Override
+                    public void handle(Buffer body)
+                    {
+                        loadContentsForSteps(request, body, batchConfig.getInteger("maxSteps", 1000));
+                    }
+                });
+            }
+        });
+
+        if (contentPushHub != null) {
+            // subscriptions as Server-Sent Events, WebSockets are accepted on the same path below
+            routeMatcher.get("/subscribe", new Handler<HttpServerRequest>()
+            {
+                @Override
+                public void handle(HttpServerRequest request)
+                {
+                    contentPushHub.subscribe(request);
+                }
+            });
+        }
+
         /*
          * This entry serves files from a directory specified in the configuration. In the
          * default configuration, the files are served from "src/main/resources/www", which is
          * packaged with the module.
          */
+        final StaticFileCache staticFileCache = new StaticFileCache(vertx, staticFileDirectory,
+                config.getObject("webserver").getObject("staticCache", new JsonObject()));
         routeMatcher.getWithRegEx("/.*", new Handler<HttpServerRequest>()
         {
 
             @Override
             public void handle(HttpServerRequest request)
             {
-                request.response().sendFile(staticFileDirectory + request.path());
+                staticFileCache.serve(request);
             }
         });
 
         // start verticle webserver at configured port
-        vertx.createHttpServer().requestHandler(routeMatcher)
-                .listen(config.getObject("webserver").getInteger("port"));
+        HttpServer server = vertx.createHttpServer().requestHandler(routeMatcher);
+        if (contentPushHub != null) {
+            final String subscribePath = basePath + "/subscribe";
+            server.websocketHandler(new Handler<ServerWebSocket>()
+            {
+                @Override
+                public void handle(ServerWebSocket socket)
+                {
+                    if (subscribePath.equals(socket.path())) {
+                        contentPushHub.subscribe(socket);
+                    } else {
+                        socket.reject();
+                    }
+                }
+            });
+        }
+        server.listen(config.getObject("webserver").getInteger("port"));
 
     }
 
-    // find full URI of measure ID
+    /*
+     * Resolve the content of a single step. The full URI of the measure is resolved and, for additional contents,
+     * the employee type of the user is requested concurrently, the content is loaded once both are known.
+     * With the parameter all=true, all contents of the step are listed instead of the first one.
+     */
     private void findFullMeasureId(final HttpServerRequest request, final String contentType)
     {
+        final PipelineMetrics.Trace trace = metrics.startRequest();
         if (!contentTypes.contains(contentType)) {
             // if unknown content type return empty content id and stop
-            request.response().end(new JsonObject().encode());
+            respondWithContentId(request, trace, "");
             return;
         }
 
         log.debug("contents request: " + request.path() + " | " + request.query());
-        JsonObject message = new JsonObject();
         final String measureId = request.params().get("measureId");
         final String elementId = request.params().get("elementId");
         final String userId = request.params().get("userId");
+        final boolean list = "true".equals(request.params().get("all"));
+        if (measureId == null || measureId.isEmpty()) {
+            if (list) {
+                loadContentList(contentType, null, null, userId, request, trace);
+            } else {
+                respondWithContentId(request, trace, "");
+            }
+            return;
+        }
 
-        String sparqlQueryForMeasureId = this.prefixString
- + " SELECT DISTINCT ?uri WHERE { ?uri a ?_ FILTER (REGEX(str(?uri),'" + measureId + "$')) }";
-        JsonObject sQuery = new JsonObject();
-        sQuery.putString("query", sparqlQueryForMeasureId);
-        message.putObject("sparql", sQuery);
-        vertx.eventBus().send(this.eventbusPrefix + "requests:semwiki", message,
-                new Handler<Message<String>>()
-                {
-                    public void handle(Message<String> reply)
-                    {
-                        List<String> foundMeasureIds = new ArrayList<String>();
-                        try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode root = mapper.readTree(reply.body());
-                            if (null != root) {
-                                foundMeasureIds = root.findValuesAsText("value");
-                            }
-
-                        }
-
-                        catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                        if (!foundMeasureIds.isEmpty()) {
-                            String fullMeasureId = foundMeasureIds.get(0);
-                    switch (contentType) {
-                        case "task" :
-                            loadTaskContentsForUser(fullMeasureId, elementId, userId, request);
-                            break;
-                        case "activity" :
-                            loadActivityContentsForUser(fullMeasureId, userId, request);
-                            break;
-                        case "additional" :
-                            getUserInformation(fullMeasureId + "/" + elementId, userId, request);
-                    }
+        StageJoin join = new StageJoin();
+        final StageJoin.Stage<String> measure = join.stage();
+        final StageJoin.Stage<String> employeeType = "additional".equals(contentType) ? join.<String>stage() : null;
+        resolveFullMeasureId(measureId, trace, measure);
+        if (employeeType != null) {
+            // the user model does not depend on the measure
+            requestEmployeeType(userId, employeeType);
+        }
+        join.whenDone(new Handler<StageJoin>()
+        {
+            @Override
+            public void handle(StageJoin result)
+            {
+                String fullMeasureId = measure.result();
+                if (result.failed()) {
+                    respondWithContentId(request, trace, null);
+                } else if (list) {
+                    loadContentList(contentType, fullMeasureId, employeeType != null ? employeeType.result() : null,
+                            userId, request, trace);
+                } else if (fullMeasureId == null) {
+                    respondWithContentId(request, trace, "");
+                } else if (employeeType == null) {
+                    loadContentsForMeasure(contentType, fullMeasureId, elementId, userId, request, trace);
+                } else if (employeeType.result() == null) {
+                    respondWithContentId(request, trace, "");
+                } else {
+                    loadAdditionalContentsForUser(fullMeasureId + "/" + elementId, employeeType.result(), request,
+                            trace);
+                }
+            }
+        });
+    }
 
-                        } else{
-                        	request.response().end(new JsonObject().encode());
+    /*
+     * Resolve the full URI of a measure id from the index, or from the triple store if it is not indexed (yet).
+     * The handler receives null if the measure does not exist.
+     */
+    private void resolveFullMeasureId(String measureId, PipelineMetrics.Trace trace,
+            final Handler<AsyncResult<String>> resultHandler)
+    {
+        final long resolutionStart = System.nanoTime();
+        String indexedMeasureId = measureIdIndex.resolve(measureId);
+        if (indexedMeasureId != null) {
+            metrics.record(PipelineMetrics.MEASURE_RESOLUTION, resolutionStart);
+            resultHandler.handle(new DefaultFutureResult<String>(indexedMeasureId));
+            return;
+        }
+        resolveMeasureId(measureId, trace, new Handler<AsyncResult<String>>()
+        {
+            @Override
+            public void handle(AsyncResult<String> result)
+            {
+                metrics.record(PipelineMetrics.MEASURE_RESOLUTION, resolutionStart);
+                resultHandler.handle(result);
+            }
+        });
+    }
+
+    /*
+     * Look up the full URI of a measure id in the triple store, concurrent lookups for the same id are coalesced.
+     * The handler receives null if the measure does not exist.
+     */
+    private void resolveMeasureId(final String measureId, PipelineMetrics.Trace trace,
+            Handler<AsyncResult<String>> resultHandler)
+    {
+        if (!measureLookups.join(measureId, resultHandler)) {
+            return;
+        }
+        trace.semwikiQuery();
+        // the ID is bound as a literal suffix, it is neither interpreted as a regular expression nor as query text
+        String sparqlQueryForMeasureId = SparqlTemplates.MEASURE_BY_ID.bind(measureId);
+        semwikiClient.query(sparqlQueryForMeasureId,
+                new Handler<AsyncResult<String>>()
+                {
+                    public void handle(AsyncResult<String> reply)
+                    {
+                        if (reply.failed()) {
+                            log.warn("Failed to resolve measure " + measureId + ": " + reply.cause().getMessage());
+                            measureLookups.complete(measureId, reply);
+                            return;
+                        }
+                        String fullMeasureId = null;
+                        try {
+                            fullMeasureId = SparqlResultReader.readFirstValue(reply.result(), "uri");
                         }
 
+                        catch (Exception e) {
+                            log.warn("Failed to read measure query result.", e);
+                            measureLookups.complete(measureId, new DefaultFutureResult<String>(e));
+                            return;
+                        }
+                        if (fullMeasureId != null) {
+                            measureIdIndex.put(fullMeasureId);
+                        }
+                        measureLookups.complete(measureId, new DefaultFutureResult<String>(fullMeasureId));
                     };
 
                 });
+    }
+
+    private void loadContentsForMeasure(String contentType, String fullMeasureId, String elementId,
+            String userId, HttpServerRequest request, PipelineMetrics.Trace trace)
+    {
+        switch (contentType) {
+            case "task" :
+                loadTaskContentsForUser(fullMeasureId, elementId, userId, request, trace);
+                break;
+            case "activity" :
+                loadActivityContentsForUser(fullMeasureId, userId, request, trace);
+        }
+    }
+
+    /*
+     * Resolve the contents for a list of steps. The request body is a JSON object with the fields "userId" and
+     * "steps", an array of objects with the fields "type", "measureId" and "elementId" or "calledProcess".
+     * Each stage is resolved with a single query for all steps. The employee type of the user is requested
+     * concurrently with the measures and the instructions, only the additional contents wait for it.
+     * Requests with more than maxSteps steps are rejected with 413.
+     */
+    private void loadContentsForSteps(HttpServerRequest request, Buffer body, int maxSteps)
+    {
+        JsonArray steps = null;
+        String userId = null;
+        try {
+            JsonObject batchRequest = new JsonObject(body.toString());
+            steps = batchRequest.getArray("steps");
+            userId = batchRequest.getString("userId");
+        } catch (DecodeException e) {
+            // handled below
+        }
+        if (steps == null) {
+            request.response().setStatusCode(400).end();
+            return;
+        }
+        if (steps.size() > maxSteps) {
+            request.response().setStatusCode(413).end();
+            return;
+        }
+        log.debug("batch contents request for " + steps.size() + " steps");
+        final ContentBatch batch = new ContentBatch(request.response(), steps, metrics.startRequest());
+        batch.start();
+
+        StageJoin join = new StageJoin();
+        final StageJoin.Stage<Map<String, List<Integer>>> additionalSteps = join.stage();
+        // a failed user lookup is a result here, the steps of the batch are awaited and failed individually
+        final StageJoin.Stage<AsyncResult<String>> employeeType = join.stage();
+        resolveMeasureIds(batch, additionalSteps.valueHandler());
+        if (batch.containsType("additional")) {
+            requestEmployeeType(userId, employeeType.valueHandler());
+        } else {
+            employeeType.complete(new DefaultFutureResult<String>((String) null));
+        }
+        join.whenDone(new Handler<StageJoin>()
+        {
+            @Override
+            public void handle(StageJoin result)
+            {
+                if (additionalSteps.result().isEmpty()) {
+                    return;
+                }
+                if (employeeType.result().failed()) {
+                    failSteps(batch, additionalSteps.result());
+                } else {
+                    loadAdditionalContentsForBatch(batch, additionalSteps.result(), employeeType.result().result());
+                }
+            }
+        });
+    }
+
+    /*
+     * Read the body of a request of at most maxSize bytes. Larger bodies are rejected with 413 as soon as the
+     * Content-Length or the data received exceeds the limit. The rest of the body is discarded and the connection
+     * is closed once it has been received, closing it earlier could reset it before the client has read the reply.
+     */
+    private static void readBody(final HttpServerRequest request, final int maxSize, final Handler<Buffer> bodyHandler)
+    {
+        class BodyReader implements Handler<Buffer>
+        {
+            final Buffer body = new Buffer(Math.min(maxSize, 4096));
+            boolean rejected = false;
+
+            @Override
+            public void handle(Buffer data)
+            {
+                if (rejected) {
+                    return;
+                }
+                if (body.length() + data.length() > maxSize) {
+                    reject(413);
+                    return;
+                }
+                body.appendBuffer(data);
+            }
 
+            void reject(int statusCode)
+            {
+                rejected = true;
+                request.response().setStatusCode(statusCode).putHeader("Connection", "close").end();
+            }
+        }
+        final BodyReader reader = new BodyReader();
+        String contentLength = request.headers().get("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > maxSize) {
+                    reader.reject(413);
+                }
+            } catch (NumberFormatException e) {
+                reader.reject(400);
+            }
+        }
+        request.dataHandler(reader);
+        request.endHandler(new Handler<Void>()
+        {
+            @Override
+            public void handle(Void event)
+            {
+                if (reader.rejected) {
+                    request.response().close();
+                } else {
+                    bodyHandler.handle(reader.body);
+                }
+            }
+        });
+    }
+
+    /*
+     * Resolve the measures of all steps of a batch, all measures missing in the index are queried at once. The
+     * instructions are loaded right away, the steps of additional contents are passed to the handler.
+     */
+    private void resolveMeasureIds(final ContentBatch batch, final Handler<Map<String, List<Integer>>> additionalStepsHandler)
+    {
+        final Set<String> missingMeasureIds = new LinkedHashSet<String>();
+        for (int i = 0; i < batch.size(); i++) {
+            String measureId = batch.getMeasureId(i);
+            if (measureId == null || !contentTypes.contains(batch.getType(i))) {
+                batch.complete(i, null);
+                continue;
+            }
+            String fullMeasureId = measureIdIndex.resolve(measureId);
+            if (fullMeasureId != null) {
+                batch.setFullMeasureId(i, fullMeasureId);
+            } else {
+                missingMeasureIds.add(measureId);
+            }
+        }
+        if (missingMeasureIds.isEmpty()) {
+            additionalStepsHandler.handle(loadContentsForBatch(batch));
+            return;
+        }
+
+        String sparqlQueryForMeasureIds = SparqlTemplates.MEASURES_BY_IDS.bind(missingMeasureIds);
+        final long resolutionStart = System.nanoTime();
+        batch.getTrace().semwikiQuery();
+        semwikiClient.query(sparqlQueryForMeasureIds, new Handler<AsyncResult<String>>()
+        {
+            @Override
+            public void handle(AsyncResult<String> reply)
+            {
+                final Map<String, String> fullMeasureIds = new HashMap<String, String>();
+                boolean failed = false;
+                try {
+                    if (reply.failed()) {
+                        throw new IOException(reply.cause());
+                    }
+                    SparqlResultReader.readBindings(reply.result(), new String[] { "id", "uri" },
+                            new SparqlResultReader.BindingHandler() {
+
+                        @Override
+                        public boolean handle(String[] values) {
+                            if (values[0] != null && values[1] != null && !fullMeasureIds.containsKey(values[0])) {
+                                fullMeasureIds.put(values[0], values[1]);
+                                measureIdIndex.put(values[1]);
+                            }
+                            return true;
+                        }
+                    });
+                } catch (IOException e) {
+                    log.warn("Failed to read measure query result.", e);
+                    // the steps of the measures not indexed cannot be resolved
+                    failed = true;
+                }
+                metrics.record(PipelineMetrics.MEASURE_RESOLUTION, resolutionStart);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!batch.isCompleted(i) && batch.getFullMeasureId(i) == null) {
+                        if (failed) {
+                            batch.fail(i);
+                        } else {
+                            batch.setFullMeasureId(i, fullMeasureIds.get(batch.getMeasureId(i)));
+                        }
+                    }
+                }
+                additionalStepsHandler.handle(loadContentsForBatch(batch));
+            }
+        });
+    }
+
+    /*
+     * Resolve the instructions of all steps of a batch with one query. Returns the steps of additional contents by
+     * process element, they are resolved with one query once the employee type is known.
+     */
+    private Map<String, List<Integer>> loadContentsForBatch(final ContentBatch batch)
+    {
+        ContentSnapshot contentSnapshot = sharedState.getContentSnapshot();
+        Map<String, List<Integer>> instructionSteps = new LinkedHashMap<String, List<Integer>>();
+        Map<String, List<Integer>> additionalSteps = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (batch.isCompleted(i)) {
+                continue;
+            }
+            String processId = batch.getProcessElementUri(i);
+            if (processId == null) {
+                batch.complete(i, null);
+            } else if (!SparqlTemplate.isValidIri(processId)) {
+                // a malformed element id cannot name a process element
+                batch.complete(i, "");
+            } else if ("additional".equals(batch.getType(i))) {
+                addStep(additionalSteps, processId, i);
+            } else if (contentSnapshot != null) {
+                batch.complete(i, contentSnapshot.getInstruction(processId));
+            } else {
+                String cachedContentId = contentCache.get("instruction|" + processId);
+                if (cachedContentId != null) {
+                    batch.complete(i, cachedContentId);
+                } else {
+                    addStep(instructionSteps, processId, i);
+                }
+            }
+        }
+
+        if (!instructionSteps.isEmpty()) {
+            queryBatchContents(batch, instructionSteps, "instruction|", "",
+                    SparqlTemplates.INSTRUCTIONS.bind(instructionSteps.keySet()));
+        }
+        return additionalSteps;
+    }
+
+    // resolve the additional contents of the steps of a batch for the employee type of the user
+    private void loadAdditionalContentsForBatch(ContentBatch batch, Map<String, List<Integer>> additionalSteps,
+            String employeeType)
+    {
+        if (employeeType == null) {
+            completeSteps(batch, additionalSteps, null);
+            return;
+        }
+        ContentSnapshot snapshot = sharedState.getContentSnapshot();
+        if (snapshot != null || !SparqlTemplate.isValidIri(employeeType)) {
+            for (Map.Entry<String, List<Integer>> entry : additionalSteps.entrySet()) {
+                // a malformed target group cannot match any content
+                String contentId = snapshot != null
+                        ? snapshot.getAdditionalContent(entry.getKey(), employeeType) : "";
+                for (Integer index : entry.getValue()) {
+                    batch.complete(index, contentId);
+                }
+            }
+            return;
+        }
+        String suffix = "|" + employeeType;
+        Map<String, List<Integer>> uncachedSteps = new LinkedHashMap<String, List<Integer>>();
+        for (Map.Entry<String, List<Integer>> entry : additionalSteps.entrySet()) {
+            String cachedContentId = contentCache.get("additional|" + entry.getKey() + suffix);
+            if (cachedContentId != null) {
+                for (Integer index : entry.getValue()) {
+                    batch.complete(index, cachedContentId);
+                }
+            } else {
+                uncachedSteps.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (!uncachedSteps.isEmpty()) {
+            queryBatchContents(batch, uncachedSteps, "additional|", suffix,
+                    SparqlTemplates.ADDITIONAL_CONTENTS.bind(uncachedSteps.keySet(), employeeType));
+        }
+    }
+
+    // query the first ?inhalt for each ?p and complete the steps of the process elements
+    private void queryBatchContents(final ContentBatch batch, final Map<String, List<Integer>> steps,
+            final String cacheKeyPrefix, final String cacheKeySuffix, String query)
+    {
+        final long queryStart = System.nanoTime();
+        batch.getTrace().semwikiQuery();
+        semwikiClient.query(query, new Handler<AsyncResult<String>>()
+        {
+            @Override
+            public void handle(AsyncResult<String> reply)
+            {
+                metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+                final Map<String, String> contentIds = new HashMap<String, String>();
+                try {
+                    if (reply.failed()) {
+                        throw new IOException(reply.cause());
+                    }
+                    SparqlResultReader.readBindings(reply.result(), new String[] { "p", "inhalt" },
+                            new SparqlResultReader.BindingHandler() {
+
+                        @Override
+                        public boolean handle(String[] values) {
+                            if (values[0] != null && values[1] != null && !contentIds.containsKey(values[0])) {
+                                contentIds.put(values[0], values[1].substring(values[1].lastIndexOf("/") + 1));
+                            }
+                            return true;
+                        }
+                    });
+                } catch (IOException e) {
+                    log.warn("Failed to read batch content query result.", e);
+                    failSteps(batch, steps);
+                    return;
+                }
+                for (String processId : steps.keySet()) {
+                    String contentId = contentIds.containsKey(processId) ? contentIds.get(processId) : "";
+                    contentCache.put(cacheKeyPrefix + processId + cacheKeySuffix, contentId);
+                }
+                completeSteps(batch, steps, contentIds);
+            }
+        });
+    }
+
+    private static void failSteps(ContentBatch batch, Map<String, List<Integer>> steps)
+    {
+        for (List<Integer> indexes : steps.values()) {
+            for (Integer index : indexes) {
+                batch.fail(index);
+            }
+        }
+    }
 
+    private static void addStep(Map<String, List<Integer>> steps, String processId, int index)
+    {
+        List<Integer> indexes = steps.get(processId);
+        if (indexes == null) {
+            indexes = new ArrayList<Integer>(1);
+            steps.put(processId, indexes);
+        }
+        indexes.add(index);
     }
 
-    // we need some information about the user
-    // contact usermodel service
+    private static void completeSteps(ContentBatch batch, Map<String, List<Integer>> steps, Map<String, String> contentIds)
+    {
+        for (Map.Entry<String, List<Integer>> entry : steps.entrySet()) {
+            String contentId = contentIds != null ? contentIds.get(entry.getKey()) : null;
+            for (Integer index : entry.getValue()) {
+                batch.complete(index, contentId);
+            }
+        }
+    }
 
-    private void getUserInformation(final String measureId, String userId, final HttpServerRequest request)
+    /*
+     * Resolve the employee type of a user, the handler receives null if it is unknown and fails if the user model
+     * could not be asked. Known employee types are cached per user and concurrent requests for the same user are
+     * coalesced.
+     */
+    private void requestEmployeeType(final String userId, Handler<AsyncResult<String>> employeeTypeHandler)
     {
+        final long lookupStart = System.nanoTime();
+        final String userKey = String.valueOf(userId);
+        String cachedEmployeeType = userInformationCache.get(userKey);
+        if (cachedEmployeeType != null) {
+            metrics.record(PipelineMetrics.USER_LOOKUP, lookupStart);
+            employeeTypeHandler.handle(new DefaultFutureResult<String>(cachedEmployeeType));
+            return;
+        }
+        if (!userLookups.join(userKey, employeeTypeHandler)) {
+            return;
+        }
         JsonObject infoRequest = new JsonObject();
         infoRequest.putString("sid", "sessionId");
         infoRequest.putString("userId", userId);
         infoRequest.putString("token", "token");
-        Handler<Message<JsonObject>> userInformationHandler = new Handler<Message<JsonObject>>()
+        Handler<AsyncResult<Message<JsonObject>>> userInformationHandler = new Handler<AsyncResult<Message<JsonObject>>>()
         {
 
             @Override
-            public void handle(Message<JsonObject> message)
+            public void handle(AsyncResult<Message<JsonObject>> reply)
             {
+                metrics.record(PipelineMetrics.USER_LOOKUP, lookupStart);
+                if (reply.failed()) {
+                    log.warn("Failed to request user information: " + reply.cause().getMessage());
+                    userLookups.complete(userKey, new DefaultFutureResult<String>(reply.cause()));
+                    return;
+                }
                 
-            	JsonObject messageBody = message.body();
-            	if (messageBody.toMap().size() > 0){
-                    processUserInformation(messageBody, measureId, request);
-                } else {
-                    request.response().end(new JsonObject().encode());
-                } 
-            	
+            	JsonObject messageBody = reply.result().body();
+            	String employeeType = null;
+            	if (messageBody != null && messageBody.toMap().size() > 0){
+                    employeeType = processUserInformation(messageBody);
+                }
+            	if (employeeType != null) {
+            	    userInformationCache.put(userKey, employeeType);
+            	}
+            	userLookups.complete(userKey, new DefaultFutureResult<String>(employeeType));
 
             }
 
         };
-        vertx.eventBus().send("appsist:service:usermodel#getUserInformation", infoRequest, userInformationHandler);
+        vertx.eventBus().sendWithTimeout("appsist:service:usermodel#getUserInformation", infoRequest,
+                config.getObject("usermodel", new JsonObject()).getLong("timeout", 5000), userInformationHandler);
     }
 
-    private void processUserInformation(JsonObject messageBody, String measureId, HttpServerRequest request)
+    private String processUserInformation(JsonObject messageBody)
     {
         JsonObject userInformation = messageBody.getObject("userInformation");
+        if (userInformation == null) {
+            return null;
+        }
         
         // store information about user in corresponding maps
         String employeeType = userInformation.getString("employeeType", null);
         if (null != employeeType && !"".equals(employeeType)) {
-            loadAdditionalContentsForUser(measureId, employeeType, request);
-        } else {
-            request.response().end(new JsonObject().encode());
+            return employeeType;
         }
+        return null;
     }
     
     // for one user get list with all cleared measures
     private void loadTaskContentsForUser(String measureId, String elementId, String userId,
-            final HttpServerRequest request)
+            final HttpServerRequest request, final PipelineMetrics.Trace trace)
     {
-
-            //log.info("loadTaskContents request: " + request.path() + " | " + request.query());
-        JsonObject message = new JsonObject();
-        final String taskId = measureId + "/" + elementId;
-        final String bpmnStepId = measureId.substring(measureId.lastIndexOf("/")+1) + "/" + elementId;
-        sendCurrentStepToKVD(userId, bpmnStepId);
-        String sparqlQueryForContents = this.prefixString
-                + " SELECT DISTINCT ?inhalt WHERE {?inhalt app:informiertUeber <"
-                + taskId + "> . ?inhalt rdf:type app:Instruktion } ";
-        //log.info("taskcontent: "+ sparqlQueryForContents);
-        JsonObject sQuery = new JsonObject();
-        sQuery.putString("query", sparqlQueryForContents);
-        message.putObject("sparql", sQuery);
-        vertx.eventBus().send(this.eventbusPrefix + "requests:semwiki", message,
-                new Handler<Message<String>>()
-                {
-                    public void handle(Message<String> reply)
-                    {
-                        try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode root = mapper.readTree(reply.body());
-                            if (null != root) {
-                                List<String> valueList = root.findValuesAsText("value");
-                                if (null != valueList && !valueList.isEmpty()) {
-                                    JsonObject cId = new JsonObject();
-
-                                    String resultString = valueList.get(0);
-                                    resultString = resultString.substring(resultString
-                                            .lastIndexOf("/") + 1);
-                                    cId.putString("contentId", resultString);
-                                    request.response().end(cId.encode());
-                                }
-                                else {
-                                    request.response().end(new JsonObject().encode());
-                                }
-                            }
-                            else {
-                                request.response().end(new JsonObject().encode());
-                            }
-
-                        }
-                        catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    };
-                });
-
+        loadStepContents(measureId, elementId, userId, trace, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                respondWithContentId(request, trace, contentId);
+            }
+        });
     }
 
     // for one user get list with all cleared measures
     private void loadActivityContentsForUser(String measureId, String userId,
-            final HttpServerRequest request)
+            final HttpServerRequest request, final PipelineMetrics.Trace trace)
     {
-       // log.debug("loadActivityContents request: " + request.path() + " | "
-          //      + request.query());
-        JsonObject message = new JsonObject();
         final String calledProcessId = request.params().get("calledProcess");
-        final String taskId = measureId + "/" + calledProcessId;
-        final String bpmnStepId = measureId.substring(measureId.lastIndexOf("/")+1) + "/" + calledProcessId;
-        sendCurrentStepToKVD(userId, bpmnStepId);
-        String sparqlQueryForContents = this.prefixString
-                + " SELECT DISTINCT ?inhalt WHERE {?inhalt app:informiertUeber <"
-                + taskId + "> . ?inhalt rdf:type app:Instruktion } ";
-        //log.info("Activity: "+sparqlQueryForContents);
-        JsonObject sQuery = new JsonObject();
-        sQuery.putString("query", sparqlQueryForContents);
-        message.putObject("sparql", sQuery);
-        vertx.eventBus().send(this.eventbusPrefix + "requests:semwiki", message,
-                new Handler<Message<String>>()
-                {
-                    public void handle(Message<String> reply)
-                    {
-                        try {
-                            ObjectMapper mapper = new ObjectMapper();
-                            JsonNode root = mapper.readTree(reply.body());
-                            if (null != root) {
-                                List<String> valueList = root.findValuesAsText("value");
-                                if (null != valueList && !valueList.isEmpty()) {
-                                    JsonObject cId = new JsonObject();
-
-                                    String resultString = valueList.get(0);
-                                    resultString = resultString
-                                            .substring(resultString.lastIndexOf("/") + 1);
-                                    cId.putString("contentId", resultString);	
-                                    request.response().end(cId.encode());
-                                }
-                                else {
-                                    request.response().end(new JsonObject().encode());
-                                }
-                            }
-                            else {
-                                request.response().end(new JsonObject().encode());
-                            }
-
-                        }
-                        catch (Exception e) {
-                            e.printStackTrace();
-                        }
-                    };
-                });
+        loadStepContents(measureId, calledProcessId, userId, trace, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                respondWithContentId(request, trace, contentId);
+            }
+        });
+    }
 
+    /*
+     * The user has reached a step: send the step to the KVD, find its instruction and push it to the
+     * subscribers of the user. Tasks and activities share the query.
+     */
+    private void loadStepContents(String measureId, String elementId, final String userId,
+            PipelineMetrics.Trace trace, final Handler<String> contentIdHandler)
+    {
+        final String taskId = measureId + "/" + elementId;
+        final String bpmnStepId = measureId.substring(measureId.lastIndexOf("/")+1) + "/" + elementId;
+        stepEventPublisher.publish(userId, bpmnStepId);
+        loadInstructionContents(taskId, trace, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                contentIdHandler.handle(contentId);
+                if (contentId != null && contentPushHub != null) {
+                    contentPushHub.publish(userId, bpmnStepId, contentId);
+                }
+            }
+        });
     }
 
-    private void sendCurrentStepToKVD(String userId, String bpmnStepId) {
-		// TODO Auto-generated method stub
-    	JsonObject stepIdMessage = new JsonObject();
-    	String stepLabel = getLabelForStepId(bpmnStepId);
-    	if (!stepLabel.equals("Unbekannter Schritt")){
-    		
-    		stepIdMessage.putString("userId", userId);
-        	stepIdMessage.putString("stepId", bpmnStepId);
-        	stepIdMessage.putString("stepLabel", stepLabel);
-    		vertx.eventBus().publish("appsist:services:kvdconnection:stepid", stepIdMessage);
-    		//log.info("sending stepid with message: "+ stepIdMessage.encodePrettily());
-    	} else {
-    		log.info("Unknown step :"+ bpmnStepId);
-    	}
-	}
+    // find the instruction for a task or activity
+    private void loadInstructionContents(final String taskId, PipelineMetrics.Trace trace,
+            final Handler<String> contentIdHandler)
+    {
+        ContentSnapshot contentSnapshot = sharedState.getContentSnapshot();
+        if (contentSnapshot != null) {
+            long queryStart = System.nanoTime();
+            String contentId = contentSnapshot.getInstruction(taskId);
+            metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+            contentIdHandler.handle(contentId);
+            return;
+        }
+        if (!SparqlTemplate.isValidIri(taskId)) {
+            contentIdHandler.handle("");
+            return;
+        }
+        String sparqlQueryForContents = SparqlTemplates.INSTRUCTIONS.bind(Collections.singleton(taskId));
+        //log.info("taskcontent: "+ sparqlQueryForContents);
+        queryContentId("instruction|" + taskId, sparqlQueryForContents, trace, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                contentIdHandler.handle(contentId);
+                if (contentId != null) {
+                    // the next request will most likely be for one of the following steps
+                    contentPrefetcher.prefetch(taskId);
+                }
+            }
+        });
+    }
 
+    private void loadAdditionalContentsForUser(String processIds, String stelle, final HttpServerRequest request,
+            final PipelineMetrics.Trace trace)
+    {
+        ContentSnapshot contentSnapshot = sharedState.getContentSnapshot();
+        if (contentSnapshot != null) {
+            long queryStart = System.nanoTime();
+            String contentId = contentSnapshot.getAdditionalContent(processIds, stelle);
+            metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+            respondWithContentId(request, trace, contentId);
+            return;
+        }
+        final String cacheKey = "additional|" + processIds + "|" + stelle;
+        if (!SparqlTemplate.isValidIri(processIds) || !SparqlTemplate.isValidIri(stelle)) {
+            respondWithContentId(request, trace, "");
+            return;
+        }
+        String sparqlQueryForContents = SparqlTemplates.ADDITIONAL_CONTENTS.bind(Collections.singleton(processIds), stelle);
+        queryContentId(cacheKey, sparqlQueryForContents, trace, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                respondWithContentId(request, trace, contentId);
+            }
+        });
+    }
 
-    private void loadAdditionalContentsForUser(String processIds, String stelle, final HttpServerRequest request)
+    /*
+     * Respond with a page of all contents of a step with their previews, ordered by URI. The page holds "limit"
+     * contents after the content given as "cursor", the cursor of the next page is part of the response. Lists are
+     * neither cached nor part of the content snapshot, every page is queried.
+     */
+    private void loadContentList(String contentType, String fullMeasureId, String employeeType, String userId,
+            final HttpServerRequest request, final PipelineMetrics.Trace trace)
     {
-    	processIds = "{<"+processIds+">}";
-        JsonObject message = new JsonObject();
-        String sparqlQueryForContents = this.prefixString + " SELECT DISTINCT ?inhalt ?vorschau WHERE {VALUES ?p " + processIds + " ?inhalt app:informiertUeber ?p FILTER ((NOT EXISTS {?inhalt rdf:type app:Instruktion}) && ((NOT EXISTS {?inhalt app:hatZielgruppe ?_}) || EXISTS {?inhalt app:hatZielgruppe <"+ stelle +">}))"
-        		+ " OPTIONAL {?inhalt app:hasPreview ?vorschau}}";
-        JsonObject sQuery = new JsonObject();
-        sQuery.putString("query", sparqlQueryForContents);
-        message.putObject("sparql", sQuery);
-        vertx.eventBus().send(this.eventbusPrefix + "requests:semwiki", message, new Handler<Message<String>>()
+        JsonObject listConfig = config.getObject("list", new JsonObject());
+        final int chunkSize = listConfig.getInteger("chunkSize", 8192);
+        String cursor = request.params().get("cursor");
+        String limitParam = request.params().get("limit");
+        final int limit;
+        try {
+            limit = limitParam != null ? Integer.parseInt(limitParam) : listConfig.getInteger("defaultLimit", 100);
+        } catch (NumberFormatException e) {
+            request.response().setStatusCode(400).end();
+            trace.fail();
+            return;
+        }
+        if (limit < 1 || limit > listConfig.getInteger("maxLimit", 1000)) {
+            request.response().setStatusCode(400).end();
+            trace.fail();
+            return;
+        }
+
+        String elementId = request.params().get("activity".equals(contentType) ? "calledProcess" : "elementId");
+        String processId = fullMeasureId + "/" + elementId;
+        boolean additional = "additional".equals(contentType);
+        if (fullMeasureId == null || !SparqlTemplate.isValidIri(processId)
+                || (additional && (employeeType == null || !SparqlTemplate.isValidIri(employeeType)))) {
+            new ContentListWriter(request.response(), limit, chunkSize).end();
+            trace.finish(true);
+            return;
+        }
+        if (!additional && cursor == null) {
+            // the first page of a task or activity is a step of the user
+            stepEventPublisher.publish(userId, fullMeasureId.substring(fullMeasureId.lastIndexOf("/") + 1) + "/"
+                    + elementId);
+        }
+        String after = cursor != null ? cursor : "";
+        String query = (additional ? SparqlTemplates.ADDITIONAL_CONTENT_LIST.bind(processId, employeeType, after)
+                : SparqlTemplates.INSTRUCTION_LIST.bind(processId, after)) + " LIMIT " + (limit + 1);
+        final long queryStart = System.nanoTime();
+        trace.semwikiQuery();
+        semwikiClient.query(query, new Handler<AsyncResult<String>>()
         {
-            public void handle(Message<String> reply)
+            @Override
+            public void handle(AsyncResult<String> reply)
             {
+                metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+                if (reply.failed()) {
+                    log.warn("Failed to query content list: " + reply.cause().getMessage());
+                    respondWithContentId(request, trace, null);
+                    return;
+                }
+                ContentListWriter writer = new ContentListWriter(request.response(), limit, chunkSize);
                 try {
-                    ObjectMapper mapper = new ObjectMapper();
-                    JsonNode root = mapper.readTree(reply.body());
-                    root = root.get("results").get("bindings").findValue("inhalt");
-                    if (null != root) {
-                        List<String> valueList = root.findValuesAsText("value");
-                        if (null != valueList && !valueList.isEmpty()) {
-                            JsonObject cId = new JsonObject();
-
-                            String resultString = valueList.get(0);
-                            resultString = resultString.substring(resultString.lastIndexOf("/") + 1);
-                            cId.putString("contentId", resultString);
-                            request.response().end(cId.encode());
-                        }
-                        else {
-                            request.response().end(new JsonObject().encode());
-                        }
-                    }
-                    else {
-                        request.response().end(new JsonObject().encode());
+                    SparqlResultReader.readBindings(reply.result(), new String[] { "inhalt", "vorschau" }, writer);
+                } catch (IOException e) {
+                    log.warn("Failed to read content list result.", e);
+                    if (writer.isStarted()) {
+                        // the status has been sent, a truncated list must not look complete
+                        request.response().close();
+                        trace.fail();
+                    } else {
+                        respondWithContentId(request, trace, null);
                     }
+                    return;
+                }
+                long writeStart = System.nanoTime();
+                writer.end();
+                metrics.record(PipelineMetrics.RESPONSE_WRITE, writeStart);
+                trace.finish(writer.size() == 0);
+            }
+        });
+    }
 
+    /*
+     * Resolve the id of the first ?inhalt found by the given query. Results are cached by the given key and
+     * concurrent queries for the same key are coalesced. The handler receives an empty string if no content
+     * exists and null if the query failed.
+     */
+    private void queryContentId(final String cacheKey, String query, PipelineMetrics.Trace trace,
+            final Handler<String> resultHandler)
+    {
+        final long queryStart = System.nanoTime();
+        String cachedContentId = contentCache.get(cacheKey);
+        if (cachedContentId != null) {
+            metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+            resultHandler.handle(cachedContentId);
+            return;
+        }
+        boolean first = contentLookups.join(cacheKey, new Handler<String>()
+        {
+            @Override
+            public void handle(String contentId)
+            {
+                metrics.record(PipelineMetrics.CONTENT_QUERY, queryStart);
+                resultHandler.handle(contentId);
+            }
+        });
+        if (!first) {
+            return;
+        }
+        trace.semwikiQuery();
+        semwikiClient.query(query, new Handler<AsyncResult<String>>()
+        {
+            public void handle(AsyncResult<String> reply)
+            {
+                if (reply.failed()) {
+                    log.warn("Failed to query content: " + reply.cause().getMessage());
+                    contentLookups.complete(cacheKey, null);
+                    return;
+                }
+                String resultString = null;
+                try {
+                    resultString = SparqlResultReader.readFirstValue(reply.result(), "inhalt");
+                    if (null != resultString) {
+                        resultString = resultString.substring(resultString.lastIndexOf("/") + 1);
+                    } else {
+                        resultString = "";
+                    }
+                    contentCache.put(cacheKey, resultString);
                 }
                 catch (Exception e) {
-                    e.printStackTrace();
+                    log.warn("Failed to read content query result.", e);
                 }
+                contentLookups.complete(cacheKey, resultString);
             };
         });
+    }
 
+    /*
+     * Respond with the given content id, an empty id results in an empty object. A null id signals that the
+     * content could not be resolved, e.g., because the Information Workbench is overloaded or did not answer in
+     * time, and results in an empty object with status 503.
+     */
+    private void respondWithContentId(HttpServerRequest request, PipelineMetrics.Trace trace, String contentId)
+    {
+        long writeStart = System.nanoTime();
+        ContentIdResponses.end(request.response(), contentId);
+        metrics.record(PipelineMetrics.RESPONSE_WRITE, writeStart);
+        if (contentId == null) {
+            trace.fail();
+        } else {
+            trace.finish(contentId.isEmpty());
+        }
     }
 
 
@@ -507,21 +1589,133 @@ public class IHSMainVerticle
         JsonObject webserverConfig = new JsonObject();
         webserverConfig.putNumber("port", 7086);
         webserverConfig.putString("basePath", "/services/ihs");
+        webserverConfig.putBoolean("compiledRoutes", true);
+        // number of verticle instances serving requests, the module itself must be deployed with one instance: the
+        // first instance loads the shared state and deploys the others, which share the semwiki and pool limits
+        webserverConfig.putNumber("instances", 1);
         // TODO: test statics with relative path
         // until now only full path is working
 
         webserverConfig.putString("statics",
                 "/Users/midi01/Work/svn_repositories/AppSist-svn/dfki/ihs/src/main/resources/www");
 
+        JsonObject staticCacheConfig = new JsonObject();
+        staticCacheConfig.putBoolean("enabled", true);
+        staticCacheConfig.putNumber("maxFileSize", 1048576);
+        staticCacheConfig.putNumber("maxTotalSize", 33554432);
+        staticCacheConfig.putNumber("compressionThreshold", 1024);
+        staticCacheConfig.putNumber("revalidateInterval", 5000);
+        staticCacheConfig.putNumber("maxAge", 0);
+        webserverConfig.putObject("staticCache", staticCacheConfig);
+
         defaultConfig.putObject("webserver", webserverConfig);
 
         JsonObject sparqlConfig = new JsonObject();
         sparqlConfig.putString("reqBaseUrl", "localhost");
         sparqlConfig.putString("reqPath", "/sparql");
         sparqlConfig.putNumber("reqBasePort", 8443);
+        sparqlConfig.putBoolean("ssl", false);
+        sparqlConfig.putBoolean("trustAll", false);
+        sparqlConfig.putNumber("maxPoolSize", 32);
+        sparqlConfig.putBoolean("pipelining", true);
+        sparqlConfig.putBoolean("compression", true);
         sparqlConfig.putString("ontologyPrefix", "app:");
         sparqlConfig.putString("ontologyUri", "http://www.appsist.de/ontology/");
         defaultConfig.putObject("sparql", sparqlConfig);
+
+        JsonObject semwikiConfig = new JsonObject();
+        semwikiConfig.putString("transport", "eventbus");
+        semwikiConfig.putString("address", "appsist:requests:semwiki");
+        semwikiConfig.putNumber("timeout", 5000);
+        semwikiConfig.putNumber("maxInFlight", 32);
+        semwikiConfig.putNumber("maxQueued", 256);
+        semwikiConfig.putNumber("failureThreshold", 5);
+        semwikiConfig.putNumber("resetTimeout", 10000);
+        defaultConfig.putObject("semwiki", semwikiConfig);
+
+        JsonObject usermodelConfig = new JsonObject();
+        usermodelConfig.putNumber("timeout", 5000);
+        defaultConfig.putObject("usermodel", usermodelConfig);
+
+        JsonObject labelConfig = new JsonObject();
+        labelConfig.putNumber("pageSize", 10000);
+        labelConfig.putNumber("refreshInterval", 3600000);
+        labelConfig.putNumber("retryInterval", 10000);
+        labelConfig.putString("refreshAddress", "appsist:service:ihs#refresh");
+        defaultConfig.putObject("labels", labelConfig);
+
+        JsonObject measureIndexConfig = new JsonObject();
+        measureIndexConfig.putNumber("refreshInterval", 600000);
+        measureIndexConfig.putNumber("pageSize", 10000);
+        defaultConfig.putObject("measureIndex", measureIndexConfig);
+
+        JsonObject cacheConfig = new JsonObject();
+        cacheConfig.putBoolean("enabled", true);
+        cacheConfig.putNumber("ttl", 300000);
+        cacheConfig.putNumber("maxEntries", 10000);
+        cacheConfig.putString("eviction", "lru");
+        cacheConfig.putNumber("statisticsInterval", 60000);
+        defaultConfig.putObject("cache", cacheConfig);
+
+        JsonObject stepEventConfig = new JsonObject();
+        stepEventConfig.putString("address", "appsist:services:kvdconnection:stepid");
+        stepEventConfig.putNumber("flushInterval", 50);
+        stepEventConfig.putNumber("maxBatchSize", 100);
+        stepEventConfig.putNumber("maxQueued", 10000);
+        stepEventConfig.putNumber("maxUsers", 10000);
+        stepEventConfig.putNumber("unknownStepLogInterval", 60000);
+        defaultConfig.putObject("stepEvents", stepEventConfig);
+
+        JsonObject prefetchConfig = new JsonObject();
+        // requires the successorPath of the ontology, e.g., "app:hatNachfolger"
+        prefetchConfig.putBoolean("enabled", false);
+        prefetchConfig.putNumber("depth", 1);
+        prefetchConfig.putNumber("maxConcurrent", 4);
+        prefetchConfig.putNumber("maxElements", 50);
+        prefetchConfig.putNumber("ttl", 60000);
+        prefetchConfig.putNumber("maxEntries", 10000);
+        defaultConfig.putObject("prefetch", prefetchConfig);
+
+        JsonObject snapshotConfig = new JsonObject();
+        snapshotConfig.putBoolean("enabled", true);
+        snapshotConfig.putNumber("refreshInterval", 600000);
+        snapshotConfig.putNumber("pageSize", 10000);
+        snapshotConfig.putString("file", "ihs-snapshot.bin");
+        snapshotConfig.putNumber("writeDelay", 5000);
+        snapshotConfig.putNumber("writeTimeout", 60000);
+        defaultConfig.putObject("snapshot", snapshotConfig);
+
+        JsonObject userCacheConfig = new JsonObject();
+        userCacheConfig.putBoolean("enabled", true);
+        userCacheConfig.putNumber("ttl", 1800000);
+        userCacheConfig.putNumber("maxEntries", 5000);
+        userCacheConfig.putString("eviction", "lru");
+        userCacheConfig.putString("invalidationAddress", "appsist:service:usermodel#userInformationChanged");
+        defaultConfig.putObject("userCache", userCacheConfig);
+
+        JsonObject batchConfig = new JsonObject();
+        batchConfig.putNumber("maxSteps", 1000);
+        batchConfig.putNumber("maxBodySize", 524288);
+        defaultConfig.putObject("batch", batchConfig);
+
+        JsonObject listConfig = new JsonObject();
+        listConfig.putNumber("defaultLimit", 100);
+        listConfig.putNumber("maxLimit", 1000);
+        listConfig.putNumber("chunkSize", 8192);
+        defaultConfig.putObject("list", listConfig);
+
+        JsonObject pushConfig = new JsonObject();
+        pushConfig.putBoolean("enabled", true);
+        pushConfig.putString("address", "appsist:service:ihs#content");
+        pushConfig.putString("stepAddress", "appsist:service:ihs#stepChanged");
+        pushConfig.putNumber("maxSubscribers", 10000);
+        pushConfig.putNumber("heartbeatInterval", 30000);
+        defaultConfig.putObject("push", pushConfig);
+
+        JsonObject metricsConfig = new JsonObject();
+        metricsConfig.putNumber("publishInterval", 10000);
+        metricsConfig.putString("address", "appsist:service:ihs#metrics");
+        defaultConfig.putObject("metrics", metricsConfig);
         return defaultConfig;
     }
 
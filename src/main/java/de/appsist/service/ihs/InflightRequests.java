@@ -0,0 +1,102 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Coalesces concurrent lookups for the same key.
+ * The first caller for a key performs the lookup, later callers attach to it until it is completed and receive
+ * the same result. A lookup not completed within <code>maxAge</code> milliseconds is considered lost: the next
+ * caller for the key starts a new lookup, whose result is passed to all handlers waiting for the key, so a lost
+ * reply never blocks the key for good. Instances are not thread safe and must be used from the event loop of a
+ * single verticle.
+ * @param <T> Type of the lookup result.
+ */
+public class InflightRequests<T> {
+	private static final Logger log = LoggerFactory.getLogger(InflightRequests.class);
+	private static final long DEFAULT_MAX_AGE = 30000;
+
+	private final Map<String, Lookup<T>> pending;
+	private final long maxAgeNanos;
+
+	/*
+	 * Handlers waiting for the lookup of a key.
+	 */
+	private static class Lookup<T> {
+		final List<Handler<T>> handlers = new ArrayList<Handler<T>>(2);
+		long deadline;
+	}
+
+	/**
+	 * Creates an empty registry whose lookups are considered lost after 30 seconds.
+	 */
+	public InflightRequests() {
+		this(DEFAULT_MAX_AGE);
+	}
+
+	/**
+	 * Creates an empty registry.
+	 * @param maxAge Time in milliseconds after which a lookup is considered lost and started again.
+	 */
+	public InflightRequests(long maxAge) {
+		pending = new HashMap<String, Lookup<T>>();
+		maxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAge);
+	}
+
+	/**
+	 * Registers a handler for the result of the lookup for the given key.
+	 * @param key Key of the lookup.
+	 * @param handler Handler to call when the lookup is completed.
+	 * @return <code>true</code> if no lookup is in flight for the key or it is considered lost and the caller has to
+	 *         start it, <code>false</code> if the handler has been attached to a running lookup.
+	 */
+	public boolean join(String key, Handler<T> handler) {
+		long now = System.nanoTime();
+		Lookup<T> lookup = pending.get(key);
+		if (lookup == null) {
+			lookup = new Lookup<T>();
+			pending.put(key, lookup);
+		} else if (now - lookup.deadline < 0) {
+			lookup.handlers.add(handler);
+			return false;
+		}
+		// new or lost lookup, the handlers still waiting receive the result of the new one
+		lookup.handlers.add(handler);
+		lookup.deadline = now + maxAgeNanos;
+		return true;
+	}
+
+	/**
+	 * Completes the lookup for the given key and passes the result to all attached handlers. A handler throwing an
+	 * exception does not keep the result from the others.
+	 * @param key Key of the lookup.
+	 * @param result Result of the lookup, may be <code>null</code>.
+	 */
+	public void complete(String key, T result) {
+		Lookup<T> lookup = pending.remove(key);
+		if (lookup != null) {
+			for (Handler<T> handler : lookup.handlers) {
+				try {
+					handler.handle(result);
+				} catch (RuntimeException e) {
+					log.error("Failed to handle the result of the lookup " + key, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of lookups in flight.
+	 * @return Number of keys with a running lookup.
+	 */
+	public int size() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,105 @@
+package de.appsist.service.ihs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Local index resolving short measure IDs to the full URI of the measure.
+ * URIs are keyed by their last path segment and kept in {@link UriDictionary} instances. A full load is built off
+ * to the side and swapped in as a whole, URIs found by single lookups in between are kept until the next full load
+ * replaces them.
+ * <p>
+ * The index may be shared by multiple event loops. Lookups in the loaded URIs do not lock, URIs learned by single
+ * lookups are guarded by the index itself.
+ */
+public class MeasureIdIndex {
+	private volatile UriDictionary loadedUris;
+	private UriDictionary learnedUris; // guarded by this
+	private volatile boolean loaded;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public MeasureIdIndex() {
+		loadedUris = new UriDictionary(1, 0);
+		learnedUris = new UriDictionary(1, 0);
+		loaded = false;
+	}
+
+	/**
+	 * Resolves a measure ID to the full URI of the measure.
+	 * @param measureId Measure ID, i.e., the trailing part of the measure URI.
+	 * @return Full URI of the measure or <code>null</code> if the ID is not indexed.
+	 */
+	public String resolve(String measureId) {
+		if (measureId == null || measureId.isEmpty()) {
+			return null;
+		}
+		int keyStart = measureId.lastIndexOf('/') + 1;
+		UriDictionary uris = loadedUris;
+		int id = uris.findLocal(measureId, keyStart, measureId.length());
+		String uri;
+		if (id >= 0) {
+			uri = uris.getUri(id);
+		} else {
+			synchronized (this) {
+				id = learnedUris.findLocal(measureId, keyStart, measureId.length());
+				if (id < 0) {
+					return null;
+				}
+				uri = learnedUris.getUri(id);
+			}
+		}
+		if (keyStart > 0 && !uri.endsWith(measureId)) {
+			// the ID spans multiple segments which do not match the indexed URI
+			return null;
+		}
+		return uri;
+	}
+
+	/**
+	 * Adds a single URI to the index, e.g., after it has been resolved by a query.
+	 * @param uri Full URI of the measure.
+	 */
+	public synchronized void put(String uri) {
+		if (loadedUris.findLocal(uri, uri.lastIndexOf('/') + 1, uri.length()) < 0) {
+			learnedUris.add(uri);
+		}
+	}
+
+	/**
+	 * Replaces the content of the index with the result of a full load.
+	 * @param uris Dictionary of the measure URIs with one local segment. It must not be modified afterwards.
+	 */
+	public synchronized void replace(UriDictionary uris) {
+		loadedUris = uris;
+		learnedUris = new UriDictionary(1, 0);
+		loaded = true;
+	}
+
+	/**
+	 * Writes the URIs of the last full load.
+	 * @param out Stream to write to.
+	 * @throws IOException If the stream fails.
+	 * @see #replace(UriDictionary)
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		loadedUris.write(out);
+	}
+
+	/**
+	 * Checks if a full load has been applied to the index.
+	 * @return <code>true</code> if the index has been loaded at least once, <code>false</code> otherwise.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns the number of indexed URIs.
+	 * @return Number of URIs from the last full load and single lookups.
+	 */
+	public synchronized int size() {
+		return loadedUris.size() + learnedUris.size();
+	}
+}
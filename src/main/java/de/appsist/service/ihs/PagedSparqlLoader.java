@@ -0,0 +1,75 @@
+package de.appsist.service.ihs;
+
+import java.io.IOException;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.impl.DefaultFutureResult;
+
+/**
+ * Loads the result of a query in pages using LIMIT and OFFSET.
+ * Pages are requested one after another, so large results never arrive in a single reply. The query must order
+ * its solutions to get stable pages.
+ */
+public class PagedSparqlLoader {
+	private final SparqlEndpoint endpoint;
+	private final int pageSize;
+
+	/**
+	 * Creates a loader.
+	 * @param endpoint Endpoint to send the queries to.
+	 * @param pageSize Maximum number of solutions per page.
+	 */
+	public PagedSparqlLoader(SparqlEndpoint endpoint, int pageSize) {
+		this.endpoint = endpoint;
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Loads all solutions of a query.
+	 * @param query Ordered SparQL query without LIMIT and OFFSET.
+	 * @param variables Names of the variables to read.
+	 * @param bindingHandler Handler for each binding. Returning <code>false</code> stops loading.
+	 * @param completionHandler Handler receiving the number of bindings read, or the failure.
+	 */
+	public void load(String query, String[] variables, SparqlResultReader.BindingHandler bindingHandler,
+			Handler<AsyncResult<Integer>> completionHandler) {
+		loadPage(query, variables, bindingHandler, completionHandler, 0);
+	}
+
+	private void loadPage(final String query, final String[] variables,
+			final SparqlResultReader.BindingHandler bindingHandler,
+			final Handler<AsyncResult<Integer>> completionHandler, final int offset) {
+		endpoint.query(query + " LIMIT " + pageSize + " OFFSET " + offset, new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> result) {
+				if (result.failed()) {
+					completionHandler.handle(new DefaultFutureResult<Integer>(result.cause()));
+					return;
+				}
+				final int[] count = { 0 };
+				final boolean[] stopped = { false };
+				try {
+					SparqlResultReader.readBindings(result.result(), variables, new SparqlResultReader.BindingHandler() {
+						@Override
+						public boolean handle(String[] values) {
+							count[0]++;
+							if (!bindingHandler.handle(values)) {
+								stopped[0] = true;
+							}
+							return !stopped[0];
+						}
+					});
+				} catch (IOException e) {
+					completionHandler.handle(new DefaultFutureResult<Integer>(e));
+					return;
+				}
+				if (count[0] < pageSize || stopped[0]) {
+					completionHandler.handle(new DefaultFutureResult<Integer>(offset + count[0]));
+				} else {
+					loadPage(query, variables, bindingHandler, completionHandler, offset + pageSize);
+				}
+			}
+		});
+	}
+}
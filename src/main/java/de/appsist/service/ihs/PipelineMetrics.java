@@ -0,0 +1,161 @@
+package de.appsist.service.ihs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Latency and throughput metrics of the content selection pipeline.
+ * The duration of each stage is recorded in microseconds in a {@link Histogram}. Requests are followed by a
+ * {@link Trace} counting the queries sent to the Information Workbench on their behalf and recording how they ended.
+ * Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class PipelineMetrics {
+	public static final String MEASURE_RESOLUTION = "measureResolution";
+	public static final String CONTENT_QUERY = "contentQuery";
+	public static final String USER_LOOKUP = "userLookup";
+	public static final String KVD_PUBLISH = "kvdPublish";
+	public static final String RESPONSE_WRITE = "responseWrite";
+	public static final String REQUEST = "request";
+
+	private final Map<String, Histogram> stages;
+	private final Histogram semwikiQueriesPerRequest;
+	private final long startTime;
+	private long requests;
+	private long inFlight;
+	private long errors;
+	private long emptyResults;
+	private long semwikiQueries;
+	private long lastTick;
+	private long requestsAtLastTick;
+	private double requestsPerSecond;
+
+	/**
+	 * Creates empty metrics.
+	 */
+	public PipelineMetrics() {
+		stages = new LinkedHashMap<String, Histogram>();
+		for (String stage : new String[] { MEASURE_RESOLUTION, CONTENT_QUERY, USER_LOOKUP, KVD_PUBLISH,
+				RESPONSE_WRITE, REQUEST }) {
+			stages.put(stage, new Histogram());
+		}
+		semwikiQueriesPerRequest = new Histogram();
+		startTime = System.currentTimeMillis();
+		lastTick = System.nanoTime();
+	}
+
+	/**
+	 * Starts following a request.
+	 * @return Trace of the request, must be finished when the response has been sent.
+	 */
+	public Trace startRequest() {
+		requests++;
+		inFlight++;
+		return new Trace();
+	}
+
+	/**
+	 * Records the duration of a stage.
+	 * @param stage Name of the stage, one of the constants of this class.
+	 * @param startNanos Start of the stage as returned by {@link System#nanoTime()}.
+	 */
+	public void record(String stage, long startNanos) {
+		stages.get(stage).record((System.nanoTime() - startNanos) / 1000);
+	}
+
+	/**
+	 * Counts a query sent to the Information Workbench which does not belong to a request, e.g., to load an index.
+	 */
+	public void semwikiQuery() {
+		semwikiQueries++;
+	}
+
+	/**
+	 * Updates the throughput. Should be called periodically, the throughput reported is the mean since the
+	 * previous call.
+	 */
+	public void tick() {
+		long now = System.nanoTime();
+		long elapsed = now - lastTick;
+		if (elapsed > 0) {
+			requestsPerSecond = (requests - requestsAtLastTick) * 1e9 / elapsed;
+		}
+		lastTick = now;
+		requestsAtLastTick = requests;
+	}
+
+	/**
+	 * Creates a JSON representation of the metrics. Durations are given in microseconds.
+	 * @return JSON object with counters and a summary of each stage.
+	 */
+	public JsonObject toJson() {
+		JsonObject metrics = new JsonObject();
+		metrics.putNumber("timestamp", System.currentTimeMillis());
+		metrics.putNumber("uptime", System.currentTimeMillis() - startTime);
+		metrics.putNumber("requests", requests);
+		metrics.putNumber("inFlight", inFlight);
+		metrics.putNumber("requestsPerSecond", Math.round(requestsPerSecond * 100) / 100.0);
+		metrics.putNumber("errors", errors);
+		metrics.putNumber("emptyResults", emptyResults);
+		long finished = requests - inFlight;
+		metrics.putNumber("errorRate", finished > 0 ? (double) errors / finished : 0);
+		metrics.putNumber("emptyResultRate", finished > 0 ? (double) emptyResults / finished : 0);
+		metrics.putNumber("semwikiQueries", semwikiQueries);
+		metrics.putObject("semwikiQueriesPerRequest", semwikiQueriesPerRequest.toJson());
+		JsonObject stageMetrics = new JsonObject();
+		for (Map.Entry<String, Histogram> entry : stages.entrySet()) {
+			stageMetrics.putObject(entry.getKey(), entry.getValue().toJson());
+		}
+		metrics.putObject("stages", stageMetrics);
+		return metrics;
+	}
+
+	/**
+	 * Trace of a single request.
+	 */
+	public class Trace {
+		private final long start;
+		private int semwikiQueryCount;
+		private boolean finished;
+
+		private Trace() {
+			start = System.nanoTime();
+		}
+
+		/**
+		 * Counts a query sent to the Information Workbench for the request.
+		 */
+		public void semwikiQuery() {
+			semwikiQueryCount++;
+			semwikiQueries++;
+		}
+
+		/**
+		 * Finishes the trace of a request which has been answered. Later calls are ignored.
+		 * @param empty <code>true</code> if no content has been found, <code>false</code> otherwise.
+		 */
+		public void finish(boolean empty) {
+			if (finished) {
+				return;
+			}
+			finished = true;
+			inFlight--;
+			if (empty) {
+				emptyResults++;
+			}
+			semwikiQueriesPerRequest.record(semwikiQueryCount);
+			record(REQUEST, start);
+		}
+
+		/**
+		 * Finishes the trace of a request which has failed. Later calls are ignored.
+		 */
+		public void fail() {
+			if (!finished) {
+				errors++;
+				finish(false);
+			}
+		}
+	}
+}
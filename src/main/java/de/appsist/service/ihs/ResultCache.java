@@ -0,0 +1,211 @@
+package de.appsist.service.ihs;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Bounded cache for resolved query results.
+ * Entries expire after a configurable time to live. If the cache is full, the least recently used (LRU) or least
+ * frequently used (LFU) entry is evicted. Hits, misses, evictions and expirations are counted.
+ * <p>
+ * LFU ages the counts: a new entry starts with the use count of the entry evicted last. Otherwise a new entry would
+ * always have the lowest count and be evicted next, while entries used often in the past would never leave.
+ * @param <V> Type of the cached values.
+ */
+public class ResultCache<V> {
+	/**
+	 * Strategy to select the entry to evict if the cache is full.
+	 */
+	public enum EvictionPolicy {
+		LRU, LFU
+	}
+
+	private static final class Entry<V> implements Comparable<Entry<V>> {
+		final String key;
+		final V value;
+		final long expires;
+		final long sequence;
+		long uses;
+
+		Entry(String key, V value, long expires, long sequence) {
+			this.key = key;
+			this.value = value;
+			this.expires = expires;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Entry<V> other) {
+			if (uses != other.uses) {
+				return uses < other.uses ? -1 : 1;
+			}
+			return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+		}
+	}
+
+	private final long ttl;
+	private final int maxEntries;
+	private final EvictionPolicy evictionPolicy;
+	private final Map<String, Entry<V>> entries;
+	private final TreeSet<Entry<V>> usageOrder;
+	private long sequence;
+	// use count of the entry evicted last, the initial count of new entries for LFU
+	private long age;
+	private long hits, misses, evictions, expirations;
+
+	/**
+	 * Creates a cache.
+	 * @param ttl Time to live of an entry in milliseconds.
+	 * @param maxEntries Maximum number of entries. If zero or less, nothing is cached.
+	 * @param evictionPolicy Strategy to select the entry to evict.
+	 */
+	public ResultCache(long ttl, int maxEntries, EvictionPolicy evictionPolicy) {
+		this.ttl = ttl;
+		this.maxEntries = ttl > 0 ? maxEntries : 0;
+		this.evictionPolicy = evictionPolicy;
+		if (evictionPolicy == EvictionPolicy.LRU) {
+			entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+			usageOrder = null;
+		} else {
+			entries = new HashMap<String, Entry<V>>();
+			usageOrder = new TreeSet<Entry<V>>();
+		}
+	}
+
+	/**
+	 * Creates a cache from a configuration object.
+	 * @param config Configuration with the optional fields <code>enabled</code>, <code>ttl</code> (ms),
+	 *        <code>maxEntries</code> and <code>eviction</code> (<code>"lru"</code> or <code>"lfu"</code>).
+	 */
+	public ResultCache(JsonObject config) {
+		this(config.getLong("ttl", 300000),
+				config.getBoolean("enabled", true) ? config.getInteger("maxEntries", 10000) : 0,
+				"lfu".equalsIgnoreCase(config.getString("eviction", "lru")) ? EvictionPolicy.LFU : EvictionPolicy.LRU);
+	}
+
+	/**
+	 * Returns the cached value for the given key.
+	 * @param key Normalized key of the query.
+	 * @return Cached value or <code>null</code> if the key is not cached or the entry has expired.
+	 */
+	public synchronized V get(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses++;
+			return null;
+		}
+		if (entry.expires <= System.currentTimeMillis()) {
+			remove(entry);
+			expirations++;
+			misses++;
+			return null;
+		}
+		if (usageOrder != null) {
+			usageOrder.remove(entry);
+			entry.uses++;
+			usageOrder.add(entry);
+		}
+		hits++;
+		return entry.value;
+	}
+
+	/**
+	 * Adds or replaces a value. If the cache is full, an entry is evicted.
+	 * @param key Normalized key of the query.
+	 * @param value Value to cache.
+	 */
+	public synchronized void put(String key, V value) {
+		if (maxEntries <= 0 || value == null) {
+			return;
+		}
+		Entry<V> previous = entries.get(key);
+		if (previous != null) {
+			remove(previous);
+		} else if (entries.size() >= maxEntries) {
+			evict();
+		}
+		Entry<V> entry = new Entry<V>(key, value, System.currentTimeMillis() + ttl, sequence++);
+		entries.put(key, entry);
+		if (usageOrder != null) {
+			entry.uses = age;
+			usageOrder.add(entry);
+		}
+	}
+
+	/**
+	 * Removes the entry for the given key.
+	 * @param key Normalized key of the query.
+	 */
+	public synchronized void invalidate(String key) {
+		Entry<V> entry = entries.get(key);
+		if (entry != null) {
+			remove(entry);
+		}
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		if (usageOrder != null) {
+			usageOrder.clear();
+		}
+		age = 0;
+	}
+
+	/**
+	 * Returns the number of cached entries, including expired entries not yet removed.
+	 * @return Number of entries.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the statistics of this cache.
+	 * @return JSON object with the fields <code>size</code>, <code>maxEntries</code>, <code>eviction</code>,
+	 *         <code>hits</code>, <code>misses</code>, <code>evictions</code>, <code>expirations</code> and
+	 *         <code>hitRatio</code>.
+	 */
+	public synchronized JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("size", entries.size());
+		statistics.putNumber("maxEntries", maxEntries);
+		statistics.putString("eviction", evictionPolicy.name().toLowerCase());
+		statistics.putNumber("hits", hits);
+		statistics.putNumber("misses", misses);
+		statistics.putNumber("evictions", evictions);
+		statistics.putNumber("expirations", expirations);
+		long requests = hits + misses;
+		statistics.putNumber("hitRatio", requests > 0 ? (double) hits / requests : 0d);
+		return statistics;
+	}
+
+	private void evict() {
+		Entry<V> victim;
+		if (usageOrder != null) {
+			victim = usageOrder.first();
+			age = victim.uses;
+		} else {
+			victim = entries.values().iterator().next();
+		}
+		remove(victim);
+		if (victim.expires <= System.currentTimeMillis()) {
+			expirations++;
+		} else {
+			evictions++;
+		}
+	}
+
+	private void remove(Entry<V> entry) {
+		entries.remove(entry.key);
+		if (usageOrder != null) {
+			usageOrder.remove(entry);
+		}
+	}
+}
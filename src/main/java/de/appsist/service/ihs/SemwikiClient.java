@@ -0,0 +1,209 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Client sending SparQL queries to the Information Workbench over a {@link SparqlTransport}, the event bus by
+ * default. Every query is sent with a reply timeout. At most <code>maxInFlight</code> queries are outstanding at a time,
+ * further queries wait in a bounded queue for at most the timeout. Queries exceeding the queue are rejected at once.
+ * A circuit breaker rejects all queries for <code>resetTimeout</code> milliseconds after
+ * <code>failureThreshold</code> consecutive failures, then lets a single query through to probe the backend.
+ * Rejected queries fail with a {@link SemwikiUnavailableException}.
+ * <p>
+ * Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class SemwikiClient implements SparqlEndpoint {
+	private static final Logger log = LoggerFactory.getLogger(SemwikiClient.class);
+
+	private enum CircuitState {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final Vertx vertx;
+	private final SparqlTransport transport;
+	private final long timeout;
+	private final int maxInFlight;
+	private final int maxQueued;
+	private final int failureThreshold;
+	private final long resetTimeout;
+	private final Deque<PendingQuery> queue;
+	private int inFlight;
+	private CircuitState state;
+	private int consecutiveFailures;
+	private long openedAt;
+	private long probeStartedAt;
+	private long sent;
+	private long failed;
+	private long timedOut;
+	private long rejected;
+
+	/**
+	 * Creates a client sending the queries to the semwiki service over the event bus.
+	 * @param vertx Vert.x instance used to send the queries.
+	 * @param config Configuration with the fields <code>address</code>, <code>timeout</code>,
+	 *        <code>maxInFlight</code>, <code>maxQueued</code>, <code>failureThreshold</code> and
+	 *        <code>resetTimeout</code>.
+	 */
+	public SemwikiClient(Vertx vertx, JsonObject config) {
+		this(vertx, config, new EventBusSparqlTransport(vertx, config.getString("address", "appsist:requests:semwiki")));
+	}
+
+	/**
+	 * Creates a client.
+	 * @param vertx Vert.x instance used for the timers.
+	 * @param config Configuration with the fields <code>timeout</code>, <code>maxInFlight</code>,
+	 *        <code>maxQueued</code>, <code>failureThreshold</code> and <code>resetTimeout</code>.
+	 * @param transport Transport sending the queries.
+	 */
+	public SemwikiClient(Vertx vertx, JsonObject config, SparqlTransport transport) {
+		this.vertx = vertx;
+		this.transport = transport;
+		this.timeout = config.getLong("timeout", 5000);
+		this.maxInFlight = Math.max(1, config.getInteger("maxInFlight", 32));
+		this.maxQueued = Math.max(0, config.getInteger("maxQueued", 256));
+		this.failureThreshold = Math.max(1, config.getInteger("failureThreshold", 5));
+		this.resetTimeout = config.getLong("resetTimeout", 10000);
+		this.queue = new ArrayDeque<PendingQuery>();
+		this.state = CircuitState.CLOSED;
+	}
+
+	@Override
+	public void query(String query, Handler<AsyncResult<String>> resultHandler) {
+		if (!allowRequest()) {
+			reject(resultHandler, "Information Workbench unavailable, circuit open.");
+			return;
+		}
+		if (inFlight < maxInFlight) {
+			send(new PendingQuery(query, resultHandler));
+			return;
+		}
+		if (queue.size() >= maxQueued) {
+			reject(resultHandler, "Information Workbench overloaded, " + queue.size() + " queries queued.");
+			return;
+		}
+		final PendingQuery pending = new PendingQuery(query, resultHandler);
+		queue.addLast(pending);
+		pending.timerId = vertx.setTimer(timeout, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				// still waiting for a free slot, give up to keep the latency bounded
+				if (queue.remove(pending)) {
+					timedOut++;
+					pending.resultHandler.handle(new DefaultFutureResult<String>(
+							new SemwikiUnavailableException("Query timed out in queue after " + timeout + " ms.")));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns statistics about the client.
+	 * @return JSON object with the current load, the state of the circuit breaker and counters.
+	 */
+	public JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("inFlight", inFlight);
+		statistics.putNumber("queued", queue.size());
+		statistics.putString("circuit", state.name().toLowerCase());
+		statistics.putNumber("sent", sent);
+		statistics.putNumber("failed", failed);
+		statistics.putNumber("timedOut", timedOut);
+		statistics.putNumber("rejected", rejected);
+		return statistics;
+	}
+
+	private boolean allowRequest() {
+		switch (state) {
+			case OPEN :
+				if (System.currentTimeMillis() - openedAt < resetTimeout) {
+					return false;
+				}
+				// let the next query probe the backend
+				state = CircuitState.HALF_OPEN;
+				probeStartedAt = System.currentTimeMillis();
+				return true;
+			case HALF_OPEN :
+				// a probe is outstanding, unless it has been dropped from the queue
+				if (System.currentTimeMillis() - probeStartedAt < 2 * timeout) {
+					return false;
+				}
+				probeStartedAt = System.currentTimeMillis();
+				return true;
+			default :
+				return true;
+		}
+	}
+
+	private void send(final PendingQuery pending) {
+		inFlight++;
+		sent++;
+		transport.send(pending.query, timeout, new Handler<AsyncResult<String>>() {
+			@Override
+			public void handle(AsyncResult<String> reply) {
+				inFlight--;
+				if (reply.succeeded()) {
+					onSuccess();
+				} else {
+					onFailure(reply.cause());
+				}
+				pending.resultHandler.handle(reply);
+				sendQueued();
+			}
+		});
+	}
+
+	private void sendQueued() {
+		while (inFlight < maxInFlight && !queue.isEmpty()) {
+			PendingQuery pending = queue.pollFirst();
+			vertx.cancelTimer(pending.timerId);
+			if (!allowRequest()) {
+				reject(pending.resultHandler, "Information Workbench unavailable, circuit open.");
+				continue;
+			}
+			send(pending);
+		}
+	}
+
+	private void onSuccess() {
+		consecutiveFailures = 0;
+		if (state != CircuitState.CLOSED) {
+			log.info("Information Workbench available again, closing circuit.");
+			state = CircuitState.CLOSED;
+		}
+	}
+
+	private void onFailure(Throwable cause) {
+		failed++;
+		consecutiveFailures++;
+		if (state == CircuitState.HALF_OPEN || (state == CircuitState.CLOSED && consecutiveFailures >= failureThreshold)) {
+			log.warn("Information Workbench failing, opening circuit for " + resetTimeout + " ms: " + cause.getMessage());
+			state = CircuitState.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+
+	private void reject(Handler<AsyncResult<String>> resultHandler, String reason) {
+		rejected++;
+		resultHandler.handle(new DefaultFutureResult<String>(new SemwikiUnavailableException(reason)));
+	}
+
+	private static class PendingQuery {
+		private final String query;
+		private final Handler<AsyncResult<String>> resultHandler;
+		private long timerId;
+
+		public PendingQuery(String query, Handler<AsyncResult<String>> resultHandler) {
+			this.query = query;
+			this.resultHandler = resultHandler;
+		}
+	}
+}
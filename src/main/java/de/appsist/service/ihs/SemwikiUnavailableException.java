@@ -0,0 +1,13 @@
+package de.appsist.service.ihs;
+
+/**
+ * Signals that a query has not been sent to the Information Workbench because it is overloaded or failing.
+ * Requests failing with this exception should be answered with <code>503 Service Unavailable</code>.
+ */
+public class SemwikiUnavailableException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	public SemwikiUnavailableException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,142 @@
+package de.appsist.service.ihs;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.shareddata.Shareable;
+
+/**
+ * State shared by all instances of the service deployed in the same Vert.x instance.
+ * The state is created once by the first instance registering, the other instances get the registered state. The
+ * instance claiming the loader role alone loads the labels, the measure index and the content snapshot and publishes
+ * them here. All other instances only read the shared state, so the load on the Information Workbench does not grow
+ * with the number of instances.
+ * <p>
+ * All members are safe to be used from multiple event loops. The content snapshot is immutable once published.
+ */
+public class SharedState implements Shareable {
+	private static final String MAP_NAME = "de.appsist.service.ihs";
+	private static final String STATE_KEY = "state";
+
+	private final StepLabelService stepLabelService;
+	private final MeasureIdIndex measureIdIndex;
+	private final ResultCache<String> contentCache;
+	private final ResultCache<String> userInformationCache;
+	private volatile ContentSnapshot contentSnapshot;
+	private final AtomicInteger instances = new AtomicInteger();
+	private final AtomicBoolean loaderClaimed = new AtomicBoolean();
+
+	/**
+	 * Creates the state when no instance has registered one yet.
+	 */
+	public interface Factory {
+		SharedState create();
+	}
+
+	/**
+	 * Creates a state for an instance which may become the loader.
+	 * @param stepLabelService Service providing the step labels.
+	 * @param measureIdIndex Index of the measure URIs.
+	 * @param contentCache Cache of resolved content IDs.
+	 * @param userInformationCache Cache of employee types.
+	 */
+	public SharedState(StepLabelService stepLabelService, MeasureIdIndex measureIdIndex,
+			ResultCache<String> contentCache, ResultCache<String> userInformationCache) {
+		this.stepLabelService = stepLabelService;
+		this.measureIdIndex = measureIdIndex;
+		this.contentCache = contentCache;
+		this.userInformationCache = userInformationCache;
+	}
+
+	/**
+	 * Returns the registered state, or creates and registers one if no instance has registered one before. Only the
+	 * first instance creates the labels, index and caches, instances starting concurrently wait for it.
+	 * @param vertx Vert.x instance whose shared data is used.
+	 * @param factory Factory called if no state is registered.
+	 * @return State to be used by the calling instance.
+	 */
+	public static SharedState register(Vertx vertx, Factory factory) {
+		ConcurrentMap<String, SharedState> map = map(vertx);
+		synchronized (SharedState.class) {
+			SharedState state = map.get(STATE_KEY);
+			if (state == null) {
+				state = factory.create();
+				map.put(STATE_KEY, state);
+			}
+			return state;
+		}
+	}
+
+	/**
+	 * Returns the state registered by the loader.
+	 * @param vertx Vert.x instance whose shared data is used.
+	 * @return Registered state, <code>null</code> if no instance has registered one.
+	 */
+	public static SharedState get(Vertx vertx) {
+		return map(vertx).get(STATE_KEY);
+	}
+
+	/**
+	 * Removes a state registered before, so that the next instance started becomes the loader.
+	 * @param vertx Vert.x instance whose shared data is used.
+	 * @param state State registered by the loader.
+	 */
+	public static void unregister(Vertx vertx, SharedState state) {
+		map(vertx).remove(STATE_KEY, state);
+	}
+
+	private static ConcurrentMap<String, SharedState> map(Vertx vertx) {
+		return vertx.sharedData().getMap(MAP_NAME);
+	}
+
+	/**
+	 * Claims the loader role for the calling instance.
+	 * @return <code>true</code> for the first instance calling, which becomes the loader, <code>false</code> for all
+	 *         others.
+	 */
+	public boolean claimLoader() {
+		return loaderClaimed.compareAndSet(false, true);
+	}
+
+	/**
+	 * Numbers an instance using this state, e.g., to tell their metrics apart.
+	 * @return Number of the instance, counting from zero in the order the instances are started.
+	 */
+	public int addInstance() {
+		return instances.getAndIncrement();
+	}
+
+	public StepLabelService getStepLabelService() {
+		return stepLabelService;
+	}
+
+	public MeasureIdIndex getMeasureIdIndex() {
+		return measureIdIndex;
+	}
+
+	public ResultCache<String> getContentCache() {
+		return contentCache;
+	}
+
+	public ResultCache<String> getUserInformationCache() {
+		return userInformationCache;
+	}
+
+	/**
+	 * Returns the current content snapshot.
+	 * @return Snapshot of all contents, <code>null</code> until loaded or if disabled.
+	 */
+	public ContentSnapshot getContentSnapshot() {
+		return contentSnapshot;
+	}
+
+	/**
+	 * Publishes a new content snapshot.
+	 * @param contentSnapshot Complete snapshot, it must not be modified afterwards.
+	 */
+	public void setContentSnapshot(ContentSnapshot contentSnapshot) {
+		this.contentSnapshot = contentSnapshot;
+	}
+}
@@ -0,0 +1,203 @@
+package de.appsist.service.ihs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Binary file persisting the step labels, the measure index and the content snapshot between restarts.
+ * The file starts with a magic number, the format version and its creation time, followed by one section per
+ * structure and a CRC32 checksum of everything before it. Files of other versions or with a wrong checksum are
+ * ignored. The file is memory-mapped for reading, so restoring it costs little more than copying the arrays.
+ * <p>
+ * Reading and writing block. The file is restored once when the loader starts and written by the
+ * {@link SnapshotWriter} worker, never on an event loop serving requests.
+ */
+public class SnapshotFile {
+	private static final Logger log = LoggerFactory.getLogger(SnapshotFile.class);
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAGIC = 0x49485353; // "IHSS"
+	public static final int FORMAT_VERSION = 1;
+
+	private final String path;
+
+	/**
+	 * Creates a handle for a snapshot file.
+	 * @param path Path of the file.
+	 */
+	public SnapshotFile(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Restores the step labels and the measure index from the file. Sections missing in the file are skipped. All
+	 * sections are read before any of them is applied, so a file failing to be read changes nothing.
+	 * @param stepLabelService Service to restore the labels of.
+	 * @param measureIdIndex Index to restore.
+	 * @return Content snapshot stored in the file, <code>null</code> if the file does not exist, is invalid or holds
+	 *         no content snapshot.
+	 */
+	public ContentSnapshot restore(StepLabelService stepLabelService, MeasureIdIndex measureIdIndex) {
+		File file = new File(path);
+		if (!file.isFile()) {
+			return null;
+		}
+		long start = System.currentTimeMillis();
+		MappedByteBuffer in;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			log.warn("Failed to map snapshot file " + path, e);
+			return null;
+		}
+		if (in.limit() < 20 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+			log.info("Ignoring snapshot file " + path + " of unknown format.");
+			return null;
+		}
+		ByteBuffer content = in.duplicate();
+		content.position(0);
+		content.limit(in.limit() - 4);
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		while (content.hasRemaining()) {
+			int length = Math.min(chunk.length, content.remaining());
+			content.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		if ((int) crc.getValue() != in.getInt(in.limit() - 4)) {
+			log.warn("Ignoring snapshot file " + path + " with wrong checksum.");
+			return null;
+		}
+
+		StepLabelService.Labels labels = null;
+		UriDictionary measureUris = null;
+		ContentSnapshot contentSnapshot = null;
+		long createdAt;
+		try {
+			createdAt = in.getLong();
+			if (in.get() != 0) {
+				labels = StepLabelService.Labels.read(in);
+			}
+			if (in.get() != 0) {
+				measureUris = UriDictionary.read(in);
+			}
+			if (in.get() != 0) {
+				contentSnapshot = ContentSnapshot.read(in);
+			}
+		} catch (RuntimeException e) {
+			log.warn("Failed to read snapshot file " + path, e);
+			return null;
+		}
+		if (labels != null) {
+			stepLabelService.restore(labels);
+		}
+		if (measureUris != null) {
+			measureIdIndex.replace(measureUris);
+		}
+		log.info("Restored snapshot of " + new Date(createdAt) + " in " + (System.currentTimeMillis() - start) + " ms.");
+		return contentSnapshot;
+	}
+
+	/**
+	 * Writes the file. The content is written to a temporary file first which atomically replaces the file when
+	 * complete, so a crash leaves either the previous or the new file. The content is streamed to the temporary file
+	 * and checksummed on the way, it is not copied in memory.
+	 * @param stepLabelService Service providing the labels, skipped if it is not ready.
+	 * @param measureIdIndex Index to write, skipped if it is not loaded.
+	 * @param contentSnapshot Content snapshot to write, may be <code>null</code>.
+	 * @throws IOException If the file cannot be written or replaced.
+	 */
+	public void write(StepLabelService stepLabelService, MeasureIdIndex measureIdIndex,
+			ContentSnapshot contentSnapshot) throws IOException {
+		Path target = Paths.get(path);
+		Path temp = Paths.get(path + ".tmp");
+		try (OutputStream file = Files.newOutputStream(temp)) {
+			CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeBoolean(stepLabelService.isReady());
+			if (stepLabelService.isReady()) {
+				stepLabelService.write(out);
+			}
+			out.writeBoolean(measureIdIndex.isLoaded());
+			if (measureIdIndex.isLoaded()) {
+				measureIdIndex.write(out);
+			}
+			out.writeBoolean(contentSnapshot != null);
+			if (contentSnapshot != null) {
+				contentSnapshot.write(out);
+			}
+			out.writeInt((int) checked.getChecksum().getValue());
+			out.flush();
+		}
+		Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Writes the first elements of an array.
+	 * @param out Stream to write to.
+	 * @param values Array to write.
+	 * @param count Number of elements to write.
+	 * @throws IOException If the stream fails.
+	 */
+	public static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+		out.writeInt(count);
+		for (int i = 0; i < count; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * Reads an array written by {@link #writeInts(DataOutputStream, int[], int)}.
+	 * @param in Buffer to read from.
+	 * @return Array read.
+	 */
+	public static int[] readInts(ByteBuffer in) {
+		int[] values = new int[in.getInt()];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * 4);
+		return values;
+	}
+
+	/**
+	 * Writes a string as UTF-8 with a preceding length.
+	 * @param out Stream to write to.
+	 * @param value String to write.
+	 * @throws IOException If the stream fails.
+	 */
+	public static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * @param in Buffer to read from.
+	 * @return String read.
+	 */
+	public static String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
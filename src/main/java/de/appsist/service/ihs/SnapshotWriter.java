@@ -0,0 +1,50 @@
+package de.appsist.service.ihs;
+
+import java.io.IOException;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * Worker verticle writing the {@link SnapshotFile}. It is deployed by the loader instance with the configuration
+ * field "file" naming the file. Each message sent to {@link #ADDRESS} writes the current shared state, the reply is
+ * empty on success, otherwise the message is failed. Encoding and writing the file block, so they run here instead of
+ * on an event loop serving requests.
+ */
+public class SnapshotWriter extends Verticle {
+	private static final Logger log = LoggerFactory.getLogger(SnapshotWriter.class);
+
+	/**
+	 * Address of the writer on the event bus.
+	 */
+	public static final String ADDRESS = "de.appsist.service.ihs#writeSnapshot";
+
+	@Override
+	public void start() {
+		final SnapshotFile snapshotFile = new SnapshotFile(container.config().getString("file"));
+		vertx.eventBus().registerHandler(ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				SharedState state = SharedState.get(vertx);
+				if (state == null) {
+					message.fail(0, "No state to write.");
+					return;
+				}
+				long start = System.currentTimeMillis();
+				try {
+					snapshotFile.write(state.getStepLabelService(), state.getMeasureIdIndex(),
+							state.getContentSnapshot());
+				} catch (IOException e) {
+					message.fail(0, e.toString());
+					return;
+				}
+				log.debug("Snapshot file written in " + (System.currentTimeMillis() - start) + " ms.");
+				message.reply(new JsonObject());
+			}
+		});
+	}
+}
@@ -0,0 +1,16 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+
+/**
+ * Endpoint answering SparQL queries.
+ */
+public interface SparqlEndpoint {
+	/**
+	 * Sends a query.
+	 * @param query SparQL query.
+	 * @param resultHandler Handler for the SparQL JSON result.
+	 */
+	void query(String query, Handler<AsyncResult<String>> resultHandler);
+}
@@ -0,0 +1,140 @@
+package de.appsist.service.ihs;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Streaming reader for SparQL JSON results (<code>application/sparql-results+json</code>).
+ * Only the values of the requested variables are extracted from <code>results.bindings</code>, no tree is built
+ * for the reply. Reading stops as soon as the handler does not request further bindings.
+ * The reader is stateless and may be shared, the underlying parser factory recycles its buffers.
+ */
+public final class SparqlResultReader {
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	/**
+	 * Handler for the bindings of a result.
+	 */
+	public interface BindingHandler {
+		/**
+		 * Handles a single binding.
+		 * @param values Values of the requested variables in the requested order, <code>null</code> for unbound
+		 *        variables. The array is reused for the next binding.
+		 * @return <code>true</code> to continue with the next binding, <code>false</code> to stop reading.
+		 */
+		boolean handle(String[] values);
+	}
+
+	private static final class FirstValueHandler implements BindingHandler {
+		String value;
+
+		@Override
+		public boolean handle(String[] values) {
+			if (values[0] != null) {
+				value = values[0];
+				return false;
+			}
+			return true;
+		}
+	}
+
+	private SparqlResultReader() {
+		// static helper
+	}
+
+	/**
+	 * Returns the value of the first binding of the given variable.
+	 * @param body SparQL JSON result.
+	 * @param variable Name of the variable, without question mark.
+	 * @return Value of the variable or <code>null</code> if no binding exists.
+	 * @throws IOException Failed to parse the result.
+	 */
+	public static String readFirstValue(String body, String variable) throws IOException {
+		FirstValueHandler handler = new FirstValueHandler();
+		readBindings(body, new String[] { variable }, handler);
+		return handler.value;
+	}
+
+	/**
+	 * Reads the bindings of a result.
+	 * @param body SparQL JSON result.
+	 * @param variables Names of the variables to extract, without question mark.
+	 * @param handler Handler called for each binding.
+	 * @throws IOException Failed to parse the result.
+	 */
+	public static void readBindings(String body, String[] variables, BindingHandler handler) throws IOException {
+		JsonParser parser = jsonFactory.createParser(body);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("SparQL result is not a JSON object.");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				parser.nextToken();
+				if ("results".equals(fieldName) && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String resultsFieldName = parser.getCurrentName();
+						parser.nextToken();
+						if ("bindings".equals(resultsFieldName) && parser.getCurrentToken() == JsonToken.START_ARRAY) {
+							readBindingArray(parser, variables, handler);
+							return;
+						}
+						parser.skipChildren();
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static void readBindingArray(JsonParser parser, String[] variables, BindingHandler handler)
+			throws IOException {
+		String[] values = new String[variables.length];
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				int index = indexOf(variables, parser.getCurrentName());
+				parser.nextToken();
+				if (index >= 0 && parser.getCurrentToken() == JsonToken.START_OBJECT) {
+					values[index] = readTermValue(parser);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (!handler.handle(values)) {
+				return;
+			}
+		}
+	}
+
+	private static String readTermValue(JsonParser parser) throws IOException {
+		String value = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			boolean isValue = "value".equals(parser.getCurrentName());
+			parser.nextToken();
+			if (isValue) {
+				value = parser.getText();
+			} else {
+				parser.skipChildren();
+			}
+		}
+		return value;
+	}
+
+	private static int indexOf(String[] variables, String name) {
+		for (int i = 0; i < variables.length; i++) {
+			if (variables[i].equals(name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
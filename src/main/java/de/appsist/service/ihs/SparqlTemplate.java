@@ -0,0 +1,225 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * SparQL query with typed parameter slots.
+ * The query text is split into its constant fragments once, binding parameters only appends the fragments and the
+ * encoded parameters. Parameters are validated and encoded according to the type of their slot, so request
+ * parameters can never change the structure of the query. Lists are sorted and deduplicated and whitespace is
+ * collapsed, so equal parameters always result in the same query text and plan caches of the triple store can hit.
+ * <p>
+ * Slots are written as <code>{iri}</code> (a single IRI), <code>{iris}</code> (a list of IRIs, e.g., for a
+ * <code>VALUES</code> clause), <code>{string}</code> (a string literal) and <code>{strings}</code> (a list of string
+ * literals). Templates are immutable and may be shared.
+ */
+public final class SparqlTemplate {
+	private enum SlotType {
+		IRI("{iri}"), IRIS("{iris}"), STRING("{string}"), STRINGS("{strings}");
+
+		private final String placeholder;
+
+		private SlotType(String placeholder) {
+			this.placeholder = placeholder;
+		}
+	}
+
+	private final String name;
+	private final String[] fragments;
+	private final SlotType[] slots;
+	private final int length;
+
+	private SparqlTemplate(String name, String[] fragments, SlotType[] slots) {
+		this.name = name;
+		this.fragments = fragments;
+		this.slots = slots;
+		int length = 0;
+		for (String fragment : fragments) {
+			length += fragment.length();
+		}
+		this.length = length;
+	}
+
+	/**
+	 * Compiles a template.
+	 * @param name Name of the template used in error messages.
+	 * @param text Query text with slots.
+	 * @return Compiled template.
+	 */
+	public static SparqlTemplate compile(String name, String text) {
+		String query = text.trim().replaceAll("\\s+", " ");
+		List<String> fragments = new ArrayList<String>();
+		List<SlotType> slots = new ArrayList<SlotType>();
+		int start = 0;
+		while (true) {
+			int next = -1;
+			SlotType slot = null;
+			for (SlotType type : SlotType.values()) {
+				int index = query.indexOf(type.placeholder, start);
+				if (index >= 0 && (next < 0 || index < next)) {
+					next = index;
+					slot = type;
+				}
+			}
+			if (slot == null) {
+				fragments.add(query.substring(start));
+				break;
+			}
+			fragments.add(query.substring(start, next));
+			slots.add(slot);
+			start = next + slot.placeholder.length();
+		}
+		return new SparqlTemplate(name, fragments.toArray(new String[fragments.size()]),
+				slots.toArray(new SlotType[slots.size()]));
+	}
+
+	/**
+	 * Binds parameters to the slots of the template.
+	 * @param parameters One parameter per slot in the order of the slots: a <code>String</code> for single values, a
+	 *        collection of strings for lists.
+	 * @return Query text.
+	 * @throws IllegalArgumentException If the number of parameters does not match, a parameter has the wrong type, a
+	 *         list is empty or an IRI is invalid.
+	 */
+	public String bind(Object... parameters) {
+		if (parameters.length != slots.length) {
+			throw new IllegalArgumentException("Template " + name + " expects " + slots.length + " parameters, got "
+					+ parameters.length + ".");
+		}
+		if (slots.length == 0) {
+			return fragments[0];
+		}
+		StringBuilder query = new StringBuilder(length + 64 * slots.length);
+		for (int i = 0; i < slots.length; i++) {
+			query.append(fragments[i]);
+			switch (slots[i]) {
+				case IRI :
+					appendIri(query, single(i, parameters[i]));
+					break;
+				case STRING :
+					appendString(query, single(i, parameters[i]));
+					break;
+				case IRIS :
+					appendList(query, list(i, parameters[i]), true);
+					break;
+				case STRINGS :
+					appendList(query, list(i, parameters[i]), false);
+					break;
+			}
+		}
+		return query.append(fragments[slots.length]).toString();
+	}
+
+	/**
+	 * Returns the name of the template.
+	 * @return Name given when compiled.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Checks if a string can be bound as an IRI, i.e., it is absolute and contains none of the characters excluded
+	 * from IRI references by the SparQL grammar.
+	 * @param iri String to check, may be <code>null</code>.
+	 * @return <code>true</code> if the string is a valid IRI, <code>false</code> otherwise.
+	 */
+	public static boolean isValidIri(String iri) {
+		if (iri == null || iri.indexOf(':') <= 0) {
+			return false;
+		}
+		for (int i = 0; i < iri.length(); i++) {
+			char c = iri.charAt(i);
+			if (c <= 0x20 || c == '<' || c == '>' || c == '"' || c == '{' || c == '}' || c == '|' || c == '^'
+					|| c == '`' || c == '\\') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String single(int slot, Object parameter) {
+		if (!(parameter instanceof String)) {
+			throw new IllegalArgumentException("Parameter " + slot + " of template " + name + " must be a string.");
+		}
+		return (String) parameter;
+	}
+
+	private Collection<String> list(int slot, Object parameter) {
+		if (!(parameter instanceof Collection) || ((Collection<?>) parameter).isEmpty()) {
+			throw new IllegalArgumentException("Parameter " + slot + " of template " + name
+					+ " must be a non-empty collection.");
+		}
+		TreeSet<String> values = new TreeSet<String>();
+		for (Object value : (Collection<?>) parameter) {
+			values.add(single(slot, value));
+		}
+		return values;
+	}
+
+	private void appendList(StringBuilder query, Collection<String> values, boolean iris) {
+		boolean first = true;
+		for (String value : values) {
+			if (!first) {
+				query.append(' ');
+			}
+			first = false;
+			if (iris) {
+				appendIri(query, value);
+			} else {
+				appendString(query, value);
+			}
+		}
+	}
+
+	private void appendIri(StringBuilder query, String iri) {
+		if (!isValidIri(iri)) {
+			throw new IllegalArgumentException("Invalid IRI for template " + name + ": " + iri);
+		}
+		query.append('<').append(iri).append('>');
+	}
+
+	private static void appendString(StringBuilder query, String value) {
+		query.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"' :
+					query.append("\\\"");
+					break;
+				case '\'' :
+					query.append("\\'");
+					break;
+				case '\\' :
+					query.append("\\\\");
+					break;
+				case '\n' :
+					query.append("\\n");
+					break;
+				case '\r' :
+					query.append("\\r");
+					break;
+				case '\t' :
+					query.append("\\t");
+					break;
+				case '\b' :
+					query.append("\\b");
+					break;
+				case '\f' :
+					query.append("\\f");
+					break;
+				default :
+					query.append(c);
+			}
+		}
+		query.append('"');
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
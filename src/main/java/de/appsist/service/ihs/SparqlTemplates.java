@@ -0,0 +1,105 @@
+package de.appsist.service.ihs;
+
+/**
+ * Registry of the SparQL queries sent to the Information Workbench.
+ * Every query shape is compiled once. Queries with parameters are built by binding them to the template, see
+ * {@link SparqlTemplate}.
+ */
+public final class SparqlTemplates {
+	/**
+	 * Prefixes declared by all queries.
+	 */
+	public static final String PREFIXES = "PREFIX app: <http://www.appsist.de/ontology/> PREFIX terms: <http://purl.org/dc/terms/>";
+
+	/**
+	 * URI of a measure by its ID. Parameters: measure ID (string).
+	 */
+	public static final SparqlTemplate MEASURE_BY_ID = SparqlTemplate.compile("measureById", PREFIXES
+			+ " SELECT DISTINCT ?uri WHERE { ?uri a ?_ FILTER (STRENDS(str(?uri), {string})) }");
+
+	/**
+	 * URIs of multiple measures by their IDs. Parameters: measure IDs (strings).
+	 */
+	public static final SparqlTemplate MEASURES_BY_IDS = SparqlTemplate.compile("measuresByIds", PREFIXES
+			+ " SELECT DISTINCT ?id ?uri WHERE { VALUES ?id { {strings} } ?uri a ?_ FILTER (STRENDS(str(?uri), ?id)) }");
+
+	/**
+	 * All measure URIs, ordered for paging.
+	 */
+	public static final SparqlTemplate ALL_MEASURES = SparqlTemplate.compile("allMeasures", PREFIXES
+			+ " SELECT DISTINCT ?uri WHERE { ?uri a ?_ } ORDER BY ?uri");
+
+	/**
+	 * Instructions of process elements. Parameters: process element IRIs.
+	 */
+	public static final SparqlTemplate INSTRUCTIONS = SparqlTemplate.compile("instructions", PREFIXES
+			+ " SELECT DISTINCT ?p ?inhalt WHERE { VALUES ?p { {iris} } ?inhalt app:informiertUeber ?p ."
+			+ " ?inhalt rdf:type app:Instruktion }");
+
+	/**
+	 * Additional contents of process elements for a target group. Parameters: process element IRIs, target group
+	 * IRI.
+	 */
+	public static final SparqlTemplate ADDITIONAL_CONTENTS = SparqlTemplate.compile("additionalContents", PREFIXES
+			+ " SELECT DISTINCT ?p ?inhalt ?vorschau WHERE { VALUES ?p { {iris} } ?inhalt app:informiertUeber ?p"
+			+ " FILTER ((NOT EXISTS {?inhalt rdf:type app:Instruktion}) && ((NOT EXISTS {?inhalt app:hatZielgruppe ?_})"
+			+ " || EXISTS {?inhalt app:hatZielgruppe {iri}})) OPTIONAL {?inhalt app:hasPreview ?vorschau}}");
+
+	/**
+	 * Instructions of a process element with a preview each, ordered by URI, after a cursor. Parameters: process
+	 * element IRI, URI of the last content of the previous page (string, empty for the first page). A LIMIT is
+	 * appended for paging.
+	 */
+	public static final SparqlTemplate INSTRUCTION_LIST = SparqlTemplate.compile("instructionList", PREFIXES
+			+ " SELECT ?inhalt (MIN(?v) AS ?vorschau) WHERE { ?inhalt app:informiertUeber {iri} ."
+			+ " ?inhalt rdf:type app:Instruktion OPTIONAL {?inhalt app:hasPreview ?v} FILTER (STR(?inhalt) > {string}) }"
+			+ " GROUP BY ?inhalt ORDER BY STR(?inhalt)");
+
+	/**
+	 * Additional contents of a process element for a target group with a preview each, ordered by URI, after a
+	 * cursor. Parameters: process element IRI, target group IRI, URI of the last content of the previous page
+	 * (string, empty for the first page). A LIMIT is appended for paging.
+	 */
+	public static final SparqlTemplate ADDITIONAL_CONTENT_LIST = SparqlTemplate.compile("additionalContentList",
+			PREFIXES + " SELECT ?inhalt (MIN(?v) AS ?vorschau) WHERE { ?inhalt app:informiertUeber {iri}"
+					+ " FILTER ((NOT EXISTS {?inhalt rdf:type app:Instruktion}) && ((NOT EXISTS {?inhalt app:hatZielgruppe ?_})"
+					+ " || EXISTS {?inhalt app:hatZielgruppe {iri}})) OPTIONAL {?inhalt app:hasPreview ?v}"
+					+ " FILTER (STR(?inhalt) > {string}) } GROUP BY ?inhalt ORDER BY STR(?inhalt)");
+
+	/**
+	 * Instructions of all process elements, ordered for paging.
+	 */
+	public static final SparqlTemplate ALL_INSTRUCTIONS = SparqlTemplate.compile("allInstructions", PREFIXES
+			+ " SELECT DISTINCT ?p ?inhalt WHERE { ?inhalt app:informiertUeber ?p . ?inhalt rdf:type app:Instruktion }"
+			+ " ORDER BY ?p ?inhalt");
+
+	/**
+	 * Additional contents of all process elements with their target groups, ordered for paging.
+	 */
+	public static final SparqlTemplate ALL_ADDITIONAL_CONTENTS = SparqlTemplate.compile("allAdditionalContents",
+			PREFIXES + " SELECT DISTINCT ?p ?inhalt ?zielgruppe WHERE { ?inhalt app:informiertUeber ?p"
+					+ " FILTER NOT EXISTS {?inhalt rdf:type app:Instruktion} OPTIONAL {?inhalt app:hatZielgruppe ?zielgruppe}}"
+					+ " ORDER BY ?p ?inhalt ?zielgruppe");
+
+	/**
+	 * German labels of all process elements, ordered for paging.
+	 */
+	public static final SparqlTemplate STEP_LABELS = SparqlTemplate.compile("stepLabels", PREFIXES
+			+ " SELECT DISTINCT ?uri ?label WHERE {?class rdfs:subClassOf* app:Prozesselement . ?uri a ?class ."
+			+ " ?uri rdfs:label ?label FILTER(LANGMATCHES(LANG(?label), 'de'))} ORDER BY ?uri ?label");
+
+	private SparqlTemplates() {
+	}
+
+	/**
+	 * Compiles the template resolving the successors of process elements together with their instructions.
+	 * Parameters: process element IRIs.
+	 * @param successorPath SparQL property path from a process element to its successors.
+	 * @return Compiled template.
+	 */
+	public static SparqlTemplate successorInstructions(String successorPath) {
+		return SparqlTemplate.compile("successorInstructions", PREFIXES + " SELECT DISTINCT ?p ?inhalt WHERE {"
+				+ " VALUES ?s { {iris} } ?s " + successorPath + " ?p ."
+				+ " OPTIONAL { ?inhalt app:informiertUeber ?p . ?inhalt rdf:type app:Instruktion } }");
+	}
+}
@@ -0,0 +1,18 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+
+/**
+ * Transport carrying single SparQL queries to the Information Workbench, without any flow control.
+ * See {@link SemwikiClient} for the queueing and the circuit breaker in front of it.
+ */
+public interface SparqlTransport {
+	/**
+	 * Sends a query.
+	 * @param query SparQL query.
+	 * @param timeout Time in milliseconds after which the query fails if no result has been received.
+	 * @param resultHandler Handler for the SparQL JSON result.
+	 */
+	void send(String query, long timeout, Handler<AsyncResult<String>> resultHandler);
+}
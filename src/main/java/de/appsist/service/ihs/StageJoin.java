@@ -0,0 +1,160 @@
+package de.appsist.service.ihs;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+
+/**
+ * Joins stages of a request that run concurrently.
+ * Each stage is created with {@link #stage()} and completed with its result or a failure, in any order and also
+ * before {@link #whenDone(Handler)} is called. The done handler is called exactly once: when all stages have
+ * succeeded or as soon as the first stage has failed, so a request is never left waiting for stages whose results
+ * cannot be used anymore. Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class StageJoin {
+	private int remaining;
+	private Throwable cause;
+	private boolean done;
+	private Handler<StageJoin> doneHandler;
+
+	/**
+	 * Stage of a join, receiving the result of an asynchronous operation.
+	 * @param <T> Type of the result.
+	 */
+	public static class Stage<T> implements Handler<AsyncResult<T>> {
+		private final StageJoin join;
+		private boolean completed;
+		private T result;
+		private Throwable cause;
+
+		private Stage(StageJoin join) {
+			this.join = join;
+		}
+
+		@Override
+		public void handle(AsyncResult<T> asyncResult) {
+			if (asyncResult.failed()) {
+				fail(asyncResult.cause());
+			} else {
+				complete(asyncResult.result());
+			}
+		}
+
+		/**
+		 * Completes the stage successfully. Later completions of the stage are ignored.
+		 * @param result Result of the stage, may be <code>null</code>.
+		 */
+		public void complete(T result) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			this.result = result;
+			join.stageCompleted(null);
+		}
+
+		/**
+		 * Completes the stage with a failure. Later completions of the stage are ignored.
+		 * @param cause Cause of the failure.
+		 */
+		public void fail(Throwable cause) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			this.cause = cause;
+			join.stageCompleted(cause);
+		}
+
+		/**
+		 * Returns a handler completing the stage successfully with the value passed to it, for operations reporting
+		 * their result without an {@link AsyncResult}.
+		 * @return Handler completing the stage.
+		 */
+		public Handler<T> valueHandler() {
+			return new Handler<T>() {
+				@Override
+				public void handle(T value) {
+					complete(value);
+				}
+			};
+		}
+
+		public boolean isCompleted() {
+			return completed;
+		}
+
+		public boolean failed() {
+			return cause != null;
+		}
+
+		/**
+		 * Returns the result of the stage.
+		 * @return Result, <code>null</code> if the stage is not completed or has failed.
+		 */
+		public T result() {
+			return result;
+		}
+
+		public Throwable cause() {
+			return cause;
+		}
+	}
+
+	/**
+	 * Adds a stage to the join.
+	 * @return New stage.
+	 * @throws IllegalStateException If the join is already done.
+	 */
+	public <T> Stage<T> stage() {
+		if (done) {
+			throw new IllegalStateException("Join is already done.");
+		}
+		remaining++;
+		return new Stage<T>(this);
+	}
+
+	/**
+	 * Sets the handler to call when the join is done. If it is already done, the handler is called immediately.
+	 * @param doneHandler Handler receiving this join.
+	 */
+	public void whenDone(Handler<StageJoin> doneHandler) {
+		this.doneHandler = doneHandler;
+		if (remaining == 0 || cause != null) {
+			fireDone();
+		}
+	}
+
+	/**
+	 * Checks if a stage has failed.
+	 * @return <code>true</code> if a stage has failed, <code>false</code> otherwise.
+	 */
+	public boolean failed() {
+		return cause != null;
+	}
+
+	/**
+	 * Returns the failure of the first stage failed.
+	 * @return Cause of the failure, <code>null</code> if no stage has failed.
+	 */
+	public Throwable cause() {
+		return cause;
+	}
+
+	private void stageCompleted(Throwable stageCause) {
+		remaining--;
+		if (stageCause != null && cause == null) {
+			cause = stageCause;
+		}
+		if (doneHandler != null && (remaining == 0 || cause != null)) {
+			fireDone();
+		}
+	}
+
+	private void fireDone() {
+		if (done) {
+			return;
+		}
+		done = true;
+		doneHandler.handle(this);
+	}
+}
@@ -0,0 +1,391 @@
+package de.appsist.service.ihs;
+
+import io.netty.buffer.Unpooled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.file.FileProps;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.http.impl.MimeMapping;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * In-memory cache for static files.
+ * Files are cached lazily in direct buffers together with a gzip compressed copy and precompressed variants found
+ * next to the file (<code>.br</code>, <code>.gz</code>). Responses carry ETag and Last-Modified headers, conditional
+ * requests are answered with 304. Each variant has its own ETag, the compressed ones end with <code>-gz</code> or
+ * <code>-br</code>, and responses vary on Accept-Encoding. Cached files are revalidated periodically and dropped if they have changed.
+ * Files exceeding the maximum cache size are sent from disk.
+ */
+public class StaticFileCache {
+	private static final String[] COMPRESSIBLE_TYPES = { "text/", "application/javascript", "application/json",
+		"application/xml", "image/svg+xml" };
+
+	private final Vertx vertx;
+	private final String directory;
+	private final boolean enabled;
+	private final long maxFileSize;
+	private final long maxTotalSize;
+	private final int compressionThreshold;
+	private final String cacheControl;
+	private final Map<String, Entry> entries;
+	private final InflightRequests<Entry> loads;
+	private long totalSize;
+
+	/**
+	 * Cached file with its variants.
+	 */
+	private static final class Entry {
+		final String file;
+		final String contentType;
+		final Date lastModified;
+		final long size;
+		final String lastModifiedHeader;
+		// every variant is a representation of its own and needs its own entity tag
+		final String etag;
+		final String gzipEtag;
+		final String brotliEtag;
+		final Buffer identity;
+		final Buffer gzip;
+		final Buffer brotli;
+
+		Entry(String file, String contentType, FileProps props, String tag, Buffer identity, Buffer gzip, Buffer brotli) {
+			this.file = file;
+			this.contentType = contentType;
+			this.lastModified = props.lastModifiedTime();
+			this.size = props.size();
+			this.lastModifiedHeader = formatDate(lastModified);
+			this.etag = "\"" + tag + "\"";
+			this.gzipEtag = "\"" + tag + "-gz\"";
+			this.brotliEtag = "\"" + tag + "-br\"";
+			this.identity = identity;
+			this.gzip = gzip;
+			this.brotli = brotli;
+		}
+
+		long memorySize() {
+			return identity.length() + (gzip != null ? gzip.length() : 0) + (brotli != null ? brotli.length() : 0);
+		}
+	}
+
+	/**
+	 * Creates a cache for static files.
+	 * @param vertx Vert.x instance to access the file system.
+	 * @param directory Directory to serve the files from.
+	 * @param config Configuration with the optional fields <code>enabled</code>, <code>maxFileSize</code>,
+	 *        <code>maxTotalSize</code> (bytes), <code>compressionThreshold</code> (bytes),
+	 *        <code>revalidateInterval</code> (ms) and <code>maxAge</code> (s).
+	 */
+	public StaticFileCache(Vertx vertx, String directory, JsonObject config) {
+		this.vertx = vertx;
+		this.directory = directory;
+		this.enabled = config.getBoolean("enabled", true);
+		this.maxFileSize = config.getLong("maxFileSize", 1048576);
+		this.maxTotalSize = config.getLong("maxTotalSize", 33554432);
+		this.compressionThreshold = config.getInteger("compressionThreshold", 1024);
+		long maxAge = config.getLong("maxAge", 0);
+		this.cacheControl = maxAge > 0 ? "public, max-age=" + maxAge : "no-cache";
+		this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+		this.loads = new InflightRequests<Entry>();
+
+		long revalidateInterval = config.getLong("revalidateInterval", 5000);
+		if (enabled && revalidateInterval > 0) {
+			vertx.setPeriodic(revalidateInterval, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					revalidate();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Serves the file for the path of the given request.
+	 * @param request Request for a static file.
+	 */
+	public void serve(final HttpServerRequest request) {
+		final String path = request.path();
+		if (path.contains("..")) {
+			notFound(request);
+			return;
+		}
+		final String file = directory + path;
+		if (!enabled) {
+			request.response().sendFile(file);
+			return;
+		}
+		Entry entry = entries.get(path);
+		if (entry != null) {
+			respond(request, entry);
+			return;
+		}
+		boolean first = loads.join(path, new Handler<Entry>() {
+			@Override
+			public void handle(Entry loadedEntry) {
+				if (loadedEntry != null) {
+					respond(request, loadedEntry);
+				} else {
+					request.response().sendFile(file);
+				}
+			}
+		});
+		if (first) {
+			load(path, file);
+		}
+	}
+
+	/**
+	 * Removes all cached files.
+	 */
+	public void clear() {
+		entries.clear();
+		totalSize = 0;
+	}
+
+	/**
+	 * Returns the statistics of this cache.
+	 * @return JSON object with the number of cached files and their size in bytes.
+	 */
+	public JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("files", entries.size());
+		statistics.putNumber("bytes", totalSize);
+		return statistics;
+	}
+
+	// loads a file with its variants, the waiting requests receive null if the file is not cached
+	private void load(final String path, final String file) {
+		vertx.fileSystem().props(file, new Handler<AsyncResult<FileProps>>() {
+			@Override
+			public void handle(AsyncResult<FileProps> propsResult) {
+				if (propsResult.failed() || !propsResult.result().isRegularFile()
+						|| propsResult.result().size() > maxFileSize) {
+					loads.complete(path, null);
+					return;
+				}
+				final FileProps props = propsResult.result();
+				vertx.fileSystem().readFile(file, new Handler<AsyncResult<Buffer>>() {
+					@Override
+					public void handle(AsyncResult<Buffer> fileResult) {
+						if (fileResult.failed()) {
+							loads.complete(path, null);
+							return;
+						}
+						final byte[] content = fileResult.result().getBytes();
+						vertx.fileSystem().readFile(file + ".br", new Handler<AsyncResult<Buffer>>() {
+							@Override
+							public void handle(final AsyncResult<Buffer> brotliResult) {
+								vertx.fileSystem().readFile(file + ".gz", new Handler<AsyncResult<Buffer>>() {
+									@Override
+									public void handle(AsyncResult<Buffer> gzipResult) {
+										Entry entry = createEntry(file, props, content,
+												brotliResult.succeeded() ? brotliResult.result().getBytes() : null,
+												gzipResult.succeeded() ? gzipResult.result().getBytes() : null);
+										store(path, entry);
+										loads.complete(path, entry);
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	private Entry createEntry(String file, FileProps props, byte[] content, byte[] brotli, byte[] gzip) {
+		String contentType = getContentType(file);
+		if (gzip == null && content.length >= compressionThreshold && isCompressible(contentType)) {
+			gzip = compress(content);
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		String tag = Long.toHexString(checksum.getValue()) + "-" + Integer.toHexString(content.length);
+		return new Entry(file, contentType, props, tag, toDirectBuffer(content),
+				gzip != null ? toDirectBuffer(gzip) : null, brotli != null ? toDirectBuffer(brotli) : null);
+	}
+
+	private void store(String path, Entry entry) {
+		Entry previous = entries.put(path, entry);
+		if (previous != null) {
+			totalSize -= previous.memorySize();
+		}
+		totalSize += entry.memorySize();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (totalSize > maxTotalSize && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			if (eldest == entry) {
+				continue;
+			}
+			iterator.remove();
+			totalSize -= eldest.memorySize();
+		}
+	}
+
+	private void respond(HttpServerRequest request, Entry entry) {
+		HttpServerResponse response = request.response();
+		Buffer body = entry.identity;
+		String etag = entry.etag;
+		String encoding = null;
+		String acceptEncoding = request.headers().get("Accept-Encoding");
+		if (acceptEncoding != null) {
+			if (entry.brotli != null && acceptsEncoding(acceptEncoding, "br")) {
+				encoding = "br";
+				body = entry.brotli;
+				etag = entry.brotliEtag;
+			} else if (entry.gzip != null && acceptsEncoding(acceptEncoding, "gzip")) {
+				encoding = "gzip";
+				body = entry.gzip;
+				etag = entry.gzipEtag;
+			}
+		}
+		response.putHeader("ETag", etag);
+		response.putHeader("Last-Modified", entry.lastModifiedHeader);
+		response.putHeader("Cache-Control", cacheControl);
+		response.putHeader("Vary", "Accept-Encoding");
+		if (isNotModified(request, entry, etag)) {
+			response.setStatusCode(304);
+			response.end();
+			return;
+		}
+		if (entry.contentType != null) {
+			response.putHeader("Content-Type", entry.contentType);
+		}
+		if (encoding != null) {
+			response.putHeader("Content-Encoding", encoding);
+		}
+		response.end(body);
+	}
+
+	// the entity tag is the one of the variant selected for the request
+	private static boolean isNotModified(HttpServerRequest request, Entry entry, String etag) {
+		String ifNoneMatch = request.headers().get("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if ("*".equals(tag) || etag.equals(tag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		String ifModifiedSince = request.headers().get("If-Modified-Since");
+		if (ifModifiedSince != null) {
+			try {
+				Date since = createDateFormat().parse(ifModifiedSince);
+				return entry.lastModified.getTime() / 1000 <= since.getTime() / 1000;
+			} catch (java.text.ParseException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	// drops all entries whose file has been changed or deleted
+	private void revalidate() {
+		List<Map.Entry<String, Entry>> cachedEntries = new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+		for (Map.Entry<String, Entry> cachedEntry : cachedEntries) {
+			final String path = cachedEntry.getKey();
+			final Entry entry = cachedEntry.getValue();
+			vertx.fileSystem().props(entry.file, new Handler<AsyncResult<FileProps>>() {
+				@Override
+				public void handle(AsyncResult<FileProps> propsResult) {
+					boolean changed = propsResult.failed()
+							|| propsResult.result().size() != entry.size
+							|| !propsResult.result().lastModifiedTime().equals(entry.lastModified);
+					if (changed && entries.containsKey(path) && entries.get(path) == entry) {
+						entries.remove(path);
+						totalSize -= entry.memorySize();
+					}
+				}
+			});
+		}
+	}
+
+	private static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+		for (String token : acceptEncoding.split(",")) {
+			String[] parts = token.trim().split(";");
+			if (parts[0].trim().equalsIgnoreCase(encoding)) {
+				return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+			}
+		}
+		return false;
+	}
+
+	private static boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		for (String type : COMPRESSIBLE_TYPES) {
+			if (contentType.startsWith(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String getContentType(String file) {
+		int dot = file.lastIndexOf('.');
+		if (dot < 0 || dot < file.lastIndexOf('/')) {
+			return null;
+		}
+		return MimeMapping.getMimeTypeForExtension(file.substring(dot + 1));
+	}
+
+	private static byte[] compress(byte[] content) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2);
+			GZIPOutputStream gzipStream = new GZIPOutputStream(bytes);
+			gzipStream.write(content);
+			gzipStream.close();
+			byte[] compressed = bytes.toByteArray();
+			return compressed.length < content.length ? compressed : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// direct buffers are wrapped as unreleasable by Buffer and freed by the garbage collector once evicted
+	private static Buffer toDirectBuffer(byte[] content) {
+		ByteBuffer directBuffer = ByteBuffer.allocateDirect(content.length);
+		directBuffer.put(content);
+		directBuffer.flip();
+		return new Buffer(Unpooled.wrappedBuffer(directBuffer));
+	}
+
+	private static void notFound(HttpServerRequest request) {
+		request.response().setStatusCode(404);
+		request.response().end();
+	}
+
+	private static SimpleDateFormat createDateFormat() {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format;
+	}
+
+	private static String formatDate(Date date) {
+		return createDateFormat().format(date);
+	}
+}
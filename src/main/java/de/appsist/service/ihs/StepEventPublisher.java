@@ -0,0 +1,213 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Publishes the steps users are working on to the KVD connection.
+ * Step events are queued and flushed after <code>flushInterval</code> milliseconds or once <code>maxBatchSize</code>
+ * events are queued, so content requests do not wait for the publish. An event repeating the last step queued for
+ * the same user is dropped. Until the step labels have been loaded, events are kept in the queue and flushed once the
+ * labels are ready. Events for unknown steps are dropped and logged at most once per
+ * <code>unknownStepLogInterval</code>, neither they nor events dropped from a full queue count as the last step.
+ * <p>
+ * The last steps are kept by each publisher, i.e., per verticle instance. Requests of a user handled by different
+ * instances may publish the same step once per instance.
+ * <p>
+ * Events are published individually to <code>address</code>, as expected by the KVD connection. If
+ * <code>batchAddress</code> is configured, each flush is published there instead as a single message with the field
+ * <code>events</code>. Instances are not thread safe and must be used from the event loop of a single verticle.
+ */
+public class StepEventPublisher {
+	private static final Logger log = LoggerFactory.getLogger(StepEventPublisher.class);
+
+	private final Vertx vertx;
+	private final StepLabelService stepLabelService;
+	private final PipelineMetrics metrics;
+	private final String address;
+	private final String batchAddress;
+	private final long flushInterval;
+	private final int maxBatchSize;
+	private final int maxQueued;
+	private final long unknownStepLogInterval;
+	private final List<String[]> queue;
+	private final Map<String, String> lastStepByUser;
+	private boolean flushScheduled;
+	private long lastUnknownStepLog;
+	private long unknownStepsSinceLog;
+	private long published;
+	private long duplicates;
+	private long unknown;
+	private long dropped;
+
+	/**
+	 * Creates a publisher. Must be called on the event loop the publisher is used from.
+	 * @param vertx Vert.x instance used to publish the events.
+	 * @param stepLabelService Service providing the labels of the steps.
+	 * @param metrics Metrics to record the duration of the flushes in.
+	 * @param config Configuration with the optional fields <code>address</code>, <code>batchAddress</code>,
+	 *        <code>flushInterval</code>, <code>maxBatchSize</code>, <code>maxQueued</code>, <code>maxUsers</code> and
+	 *        <code>unknownStepLogInterval</code>.
+	 */
+	public StepEventPublisher(Vertx vertx, StepLabelService stepLabelService, PipelineMetrics metrics,
+			JsonObject config) {
+		this.vertx = vertx;
+		this.stepLabelService = stepLabelService;
+		this.metrics = metrics;
+		this.address = config.getString("address", "appsist:services:kvdconnection:stepid");
+		this.batchAddress = config.getString("batchAddress");
+		this.flushInterval = Math.max(1, config.getLong("flushInterval", 50));
+		this.maxBatchSize = Math.max(1, config.getInteger("maxBatchSize", 100));
+		this.maxQueued = Math.max(maxBatchSize, config.getInteger("maxQueued", 10000));
+		this.unknownStepLogInterval = config.getLong("unknownStepLogInterval", 60000);
+		this.queue = new ArrayList<String[]>();
+		final int maxUsers = Math.max(1, config.getInteger("maxUsers", 10000));
+		this.lastStepByUser = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+				return size() > maxUsers;
+			}
+		};
+
+		// the labels may be loaded on the event loop of another instance
+		final Context context = vertx.currentContext();
+		stepLabelService.whenReady(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				context.runOnContext(new Handler<Void>() {
+					@Override
+					public void handle(Void event) {
+						flush();
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Queues a step event.
+	 * @param userId ID of the user.
+	 * @param stepId Canonical step ID, i.e., the last two segments of the URI of the process element.
+	 */
+	public void publish(String userId, String stepId) {
+		if (stepId == null) {
+			return;
+		}
+		String user = String.valueOf(userId);
+		if (stepId.equals(lastStepByUser.get(user))) {
+			duplicates++;
+			return;
+		}
+		if (stepLabelService.isReady() && stepLabelService.getLabel(stepId) == null) {
+			unknownStep(stepId);
+			return;
+		}
+		if (queue.size() >= maxQueued) {
+			if (dropped++ == 0) {
+				log.warn("Step event queue full, dropping step events.");
+			}
+			return;
+		}
+		queue.add(new String[] { userId, stepId });
+		lastStepByUser.put(user, stepId);
+		if (queue.size() >= maxBatchSize && stepLabelService.isReady()) {
+			flush();
+		} else if (!flushScheduled) {
+			flushScheduled = true;
+			vertx.setTimer(flushInterval, new Handler<Long>() {
+				@Override
+				public void handle(Long timerId) {
+					flushScheduled = false;
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the number of queued events.
+	 * @return Number of events not published yet.
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Returns statistics about the publisher.
+	 * @return JSON object with the number of queued events and counters of published, duplicate, unknown and
+	 *         dropped events.
+	 */
+	public JsonObject getStatistics() {
+		JsonObject statistics = new JsonObject();
+		statistics.putNumber("queued", queue.size());
+		statistics.putNumber("published", published);
+		statistics.putNumber("duplicates", duplicates);
+		statistics.putNumber("unknown", unknown);
+		statistics.putNumber("dropped", dropped);
+		return statistics;
+	}
+
+	private void flush() {
+		if (queue.isEmpty() || !stepLabelService.isReady()) {
+			// flushed once the labels are ready
+			return;
+		}
+		long publishStart = System.nanoTime();
+		JsonArray batch = batchAddress != null ? new JsonArray() : null;
+		for (String[] event : queue) {
+			String stepLabel = stepLabelService.getLabel(event[1]);
+			if (stepLabel == null) {
+				// queued before the labels were ready, the step must not suppress a later event of the user
+				String user = String.valueOf(event[0]);
+				if (event[1].equals(lastStepByUser.get(user))) {
+					lastStepByUser.remove(user);
+				}
+				unknownStep(event[1]);
+				continue;
+			}
+			JsonObject stepIdMessage = new JsonObject();
+			stepIdMessage.putString("userId", event[0]);
+			stepIdMessage.putString("stepId", event[1]);
+			stepIdMessage.putString("stepLabel", stepLabel);
+			if (batch != null) {
+				batch.addObject(stepIdMessage);
+			} else {
+				vertx.eventBus().publish(address, stepIdMessage);
+			}
+			published++;
+		}
+		queue.clear();
+		if (batch != null && batch.size() > 0) {
+			vertx.eventBus().publish(batchAddress, new JsonObject().putArray("events", batch));
+		}
+		metrics.record(PipelineMetrics.KVD_PUBLISH, publishStart);
+	}
+
+	private void unknownStep(String stepId) {
+		unknown++;
+		long now = System.currentTimeMillis();
+		if (now - lastUnknownStepLog < unknownStepLogInterval) {
+			unknownStepsSinceLog++;
+			return;
+		}
+		if (unknownStepsSinceLog > 0) {
+			log.info("Unknown step :" + stepId + " (" + unknownStepsSinceLog + " more unknown steps not logged)");
+		} else {
+			log.info("Unknown step :" + stepId);
+		}
+		lastUnknownStepLog = now;
+		unknownStepsSinceLog = 0;
+	}
+}
@@ -0,0 +1,263 @@
+package de.appsist.service.ihs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Service providing the labels of process steps.
+ * The map of step IDs to labels is loaded in pages and built off to the side. Once complete, it replaces the
+ * current map as a whole, so readers never see a partially loaded map. Until the first load has finished the
+ * service is not ready.
+ * <p>
+ * Step IDs are kept in a {@link UriDictionary} and labels in a {@link ByteArena}, so a loaded map consists of a few
+ * arrays instead of two strings and a map entry per step.
+ * <p>
+ * Loads must be started from a single event loop. Labels may be read and ready handlers registered from any thread,
+ * ready handlers are called on the thread completing the first load.
+ */
+public class StepLabelService {
+	private static final Logger log = LoggerFactory.getLogger(StepLabelService.class);
+
+	private final Vertx vertx;
+	private final PagedSparqlLoader loader;
+	private final long retryInterval;
+	private final List<Handler<Void>> readyHandlers;
+	private volatile Labels labels;
+	private volatile boolean ready;
+	private Handler<Void> updateHandler;
+	private boolean loading;
+	private boolean refreshRequested;
+
+	/**
+	 * Creates the service. No labels are loaded until {@link #refresh()} is called.
+	 * @param vertx Vert.x instance used for retry timers.
+	 * @param endpoint Endpoint to load the labels from.
+	 * @param pageSize Number of labels to load per query.
+	 * @param retryInterval Delay in milliseconds before a failed initial load is retried.
+	 */
+	public StepLabelService(Vertx vertx, SparqlEndpoint endpoint, int pageSize, long retryInterval) {
+		this.vertx = vertx;
+		this.loader = new PagedSparqlLoader(endpoint, pageSize);
+		this.retryInterval = retryInterval;
+		this.readyHandlers = new ArrayList<Handler<Void>>();
+		this.labels = new Labels(0);
+		this.ready = false;
+	}
+
+	/**
+	 * Returns the label for a step.
+	 * @param stepId Canonical step ID, i.e., the last two segments of the URI of the process element.
+	 * @return Label of the step or <code>null</code> if the step is unknown.
+	 */
+	public String getLabel(String stepId) {
+		return labels.get(stepId);
+	}
+
+	/**
+	 * Checks if the labels have been loaded at least once.
+	 * @return <code>true</code> if the service is ready, <code>false</code> otherwise.
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Returns the number of known steps.
+	 * @return Number of labels in the current map.
+	 */
+	public int size() {
+		return labels.size();
+	}
+
+	/**
+	 * Registers a handler called once the service is ready. If it is ready already, the handler is called
+	 * immediately.
+	 * @param readyHandler Handler to call.
+	 */
+	public void whenReady(Handler<Void> readyHandler) {
+		synchronized (readyHandlers) {
+			if (!ready) {
+				readyHandlers.add(readyHandler);
+				return;
+			}
+		}
+		readyHandler.handle(null);
+	}
+
+	/**
+	 * Sets a handler called whenever a new map of labels has been loaded.
+	 * @param updateHandler Handler to call, may be <code>null</code>.
+	 */
+	public void updateHandler(Handler<Void> updateHandler) {
+		this.updateHandler = updateHandler;
+	}
+
+	/**
+	 * Writes the current labels.
+	 * @param out Stream to write to.
+	 * @throws IOException If the stream fails.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		labels.write(out);
+	}
+
+	/**
+	 * Replaces the current labels with labels read by {@link Labels#read(ByteBuffer)}, e.g., from a snapshot file.
+	 * The service is ready afterwards.
+	 * @param restored Labels to use, they must not be modified afterwards.
+	 */
+	void restore(Labels restored) {
+		labels = restored;
+		setReady();
+	}
+
+	/**
+	 * Reloads all labels. If a load is running, another load is started after it has finished.
+	 */
+	public void refresh() {
+		if (loading) {
+			refreshRequested = true;
+			return;
+		}
+		loading = true;
+		final Labels newLabels = new Labels(labels.size());
+		loader.load(SparqlTemplates.STEP_LABELS.bind(), new String[] { "uri", "label" }, new SparqlResultReader.BindingHandler() {
+			@Override
+			public boolean handle(String[] values) {
+				if (values[0] != null) {
+					newLabels.put(values[0], values[1] != null ? values[1] : "");
+				}
+				return true;
+			}
+		}, new Handler<AsyncResult<Integer>>() {
+			@Override
+			public void handle(AsyncResult<Integer> result) {
+				loading = false;
+				if (result.succeeded()) {
+					newLabels.trim();
+					labels = newLabels;
+					log.info("Loaded " + newLabels.size() + " step labels.");
+					setReady();
+					if (updateHandler != null) {
+						updateHandler.handle(null);
+					}
+				} else {
+					log.warn("Failed to load step labels, keeping " + labels.size() + " labels.", result.cause());
+					if (!ready && retryInterval > 0) {
+						vertx.setTimer(retryInterval, new Handler<Long>() {
+							@Override
+							public void handle(Long timerId) {
+								refresh();
+							}
+						});
+					}
+				}
+				if (refreshRequested) {
+					refreshRequested = false;
+					refresh();
+				}
+			}
+		});
+	}
+
+	private void setReady() {
+		List<Handler<Void>> handlers;
+		synchronized (readyHandlers) {
+			if (ready) {
+				return;
+			}
+			ready = true;
+			handlers = new ArrayList<Handler<Void>>(readyHandlers);
+			readyHandlers.clear();
+		}
+		for (Handler<Void> handler : handlers) {
+			handler.handle(null);
+		}
+	}
+
+	/**
+	 * Map of step IDs to labels. Step IDs are the last two segments of the URIs of the process elements, the label of
+	 * the entry with id <code>i</code> is stored between <code>ends[i - 1]</code> and <code>ends[i]</code>.
+	 */
+	static class Labels {
+		private final UriDictionary stepIds;
+		private final ByteArena text;
+		private int[] ends;
+		// labels decoded so far, a label may be decoded twice by concurrent readers
+		private String[] decoded;
+
+		public Labels(int expectedSize) {
+			stepIds = new UriDictionary(2, expectedSize);
+			text = new ByteArena(expectedSize * 24);
+			ends = new int[Math.max(16, expectedSize)];
+			decoded = new String[ends.length];
+		}
+
+		private Labels(UriDictionary stepIds, ByteArena text, int[] ends) {
+			this.stepIds = stepIds;
+			this.text = text;
+			this.ends = ends;
+			this.decoded = new String[ends.length];
+		}
+
+		public static Labels read(ByteBuffer in) {
+			return new Labels(UriDictionary.read(in), ByteArena.read(in), SnapshotFile.readInts(in));
+		}
+
+		public void write(DataOutputStream out) throws IOException {
+			stepIds.write(out);
+			text.write(out);
+			SnapshotFile.writeInts(out, ends, stepIds.size());
+		}
+
+		public void put(String uri, String label) {
+			int size = stepIds.size();
+			int id = stepIds.add(uri);
+			if (id < size) {
+				// invalid URI or step already labeled
+				return;
+			}
+			if (id == ends.length) {
+				ends = Arrays.copyOf(ends, ends.length * 2);
+				decoded = Arrays.copyOf(decoded, ends.length);
+			}
+			text.append(label, 0, label.length());
+			ends[id] = text.size();
+		}
+
+		public String get(String stepId) {
+			int id = stepIds.findLocal(stepId);
+			if (id < 0) {
+				return null;
+			}
+			String label = decoded[id];
+			if (label == null) {
+				int start = id > 0 ? ends[id - 1] : 0;
+				label = text.decode(start, ends[id] - start);
+				decoded[id] = label;
+			}
+			return label;
+		}
+
+		public int size() {
+			return stepIds.size();
+		}
+
+		public void trim() {
+			stepIds.trim();
+			text.trim();
+			ends = Arrays.copyOf(ends, stepIds.size());
+			decoded = Arrays.copyOf(decoded, ends.length);
+		}
+	}
+}
@@ -0,0 +1,346 @@
+package de.appsist.service.ihs;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact dictionary of URIs.
+ * Each URI is split into a namespace and a local name consisting of its last path segments, e.g.,
+ * "http://www.appsist.de/ontology/" and "measure/element" for two local segments. Namespaces are shared by all
+ * entries, local names are stored in a {@link ByteArena}. Entries are numbered in the order they are added and can
+ * be looked up by their local name without creating substrings.
+ * <p>
+ * URIs are decoded when they are first requested and kept for later lookups, so the URIs in use are built once
+ * while the rest stays compact.
+ * <p>
+ * Instances are not thread safe while they are filled. Once filled, they may be published to other threads and
+ * read concurrently.
+ */
+public class UriDictionary {
+	private final int localSegments;
+	private final List<String> namespaces;
+	private final Map<String, Integer> namespaceIds;
+	private ByteArena localNames;
+	private int[] namespaceOfEntry;
+	private int[] offsets;
+	private int[] lengths;
+	private int[] hashes;
+	// entries with the same local name in other namespaces, -1 terminates the chain
+	private int[] next;
+	// open addressing table of entry ids plus one, zero marks a free slot
+	private int[] table;
+	// URIs decoded so far, concurrent readers may decode the same URI twice but always see complete strings
+	private String[] uris;
+	private int size;
+	private int lastNamespace;
+
+	/**
+	 * Creates an empty dictionary.
+	 * @param localSegments Number of trailing path segments forming the local name.
+	 * @param expectedSize Expected number of entries.
+	 */
+	public UriDictionary(int localSegments, int expectedSize) {
+		if (localSegments < 1) {
+			throw new IllegalArgumentException("At least one local segment is required.");
+		}
+		int capacity = Math.max(16, expectedSize);
+		this.localSegments = localSegments;
+		namespaces = new ArrayList<String>();
+		namespaceIds = new HashMap<String, Integer>();
+		localNames = new ByteArena(capacity * 16);
+		namespaceOfEntry = new int[capacity];
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		hashes = new int[capacity];
+		next = new int[capacity];
+		table = new int[tableSize(capacity)];
+		uris = new String[capacity];
+		size = 0;
+		lastNamespace = -1;
+	}
+
+	/**
+	 * Adds a URI. If an entry with the same namespace and local name exists, it is returned instead.
+	 * @param uri URI to add.
+	 * @return Id of the entry or <code>-1</code> if the URI has less segments than required for the local name.
+	 */
+	public int add(String uri) {
+		int localStart = localStart(uri, uri.length());
+		if (localStart < 0 || localStart == uri.length()) {
+			return -1;
+		}
+		int namespace = namespaceId(uri, localStart);
+		int hash = hash(uri, localStart, uri.length());
+		int slot = slot(hash, uri, localStart, uri.length());
+		int first = table[slot] - 1;
+		for (int id = first; id >= 0; id = next[id]) {
+			if (namespaceOfEntry[id] == namespace) {
+				return id;
+			}
+		}
+
+		if (size == offsets.length) {
+			grow();
+			if (first < 0) {
+				slot = slot(hash, uri, localStart, uri.length());
+			}
+		}
+		int id = size++;
+		namespaceOfEntry[id] = namespace;
+		offsets[id] = localNames.append(uri, localStart, uri.length());
+		lengths[id] = localNames.size() - offsets[id];
+		hashes[id] = hash;
+		next[id] = -1;
+		if (first < 0) {
+			table[slot] = id + 1;
+		} else {
+			int last = first;
+			while (next[last] >= 0) {
+				last = next[last];
+			}
+			next[last] = id;
+		}
+		return id;
+	}
+
+	/**
+	 * Looks up an entry by its full URI.
+	 * @param uri URI of the entry.
+	 * @return Id of the entry or <code>-1</code> if the URI is not in the dictionary.
+	 */
+	public int find(String uri) {
+		int localStart = localStart(uri, uri.length());
+		if (localStart < 0) {
+			return -1;
+		}
+		for (int id = findLocal(uri, localStart, uri.length()); id >= 0; id = next[id]) {
+			String namespace = namespaces.get(namespaceOfEntry[id]);
+			if (namespace.length() == localStart && uri.startsWith(namespace)) {
+				return id;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Looks up an entry by its local name. If the local name exists in multiple namespaces, the entry added first is
+	 * returned.
+	 * @param s Character sequence containing the local name.
+	 * @param start Index of the first character of the local name.
+	 * @param end Index after the last character of the local name.
+	 * @return Id of the entry or <code>-1</code> if no entry has the given local name.
+	 */
+	public int findLocal(CharSequence s, int start, int end) {
+		return table[slot(hash(s, start, end), s, start, end)] - 1;
+	}
+
+	/**
+	 * Looks up an entry by its local name.
+	 * @param localName Local name of the entry.
+	 * @return Id of the entry or <code>-1</code> if no entry has the given local name.
+	 * @see #findLocal(CharSequence, int, int)
+	 */
+	public int findLocal(String localName) {
+		return findLocal(localName, 0, localName.length());
+	}
+
+	/**
+	 * Returns the URI of an entry.
+	 * @param id Id of the entry.
+	 * @return Full URI.
+	 */
+	public String getUri(int id) {
+		String uri = uris[id];
+		if (uri == null) {
+			uri = namespaces.get(namespaceOfEntry[id]) + localNames.decode(offsets[id], lengths[id]);
+			uris[id] = uri;
+		}
+		return uri;
+	}
+
+	/**
+	 * Returns the local name of an entry.
+	 * @param id Id of the entry.
+	 * @return Local name, i.e., the trailing segments of the URI.
+	 */
+	public String getLocalName(int id) {
+		return localNames.decode(offsets[id], lengths[id]);
+	}
+
+	/**
+	 * Returns the number of entries.
+	 * @return Number of URIs in the dictionary.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Releases unused capacity. Should be called once the dictionary has been filled completely.
+	 */
+	public void trim() {
+		localNames.trim();
+		namespaceOfEntry = Arrays.copyOf(namespaceOfEntry, size);
+		offsets = Arrays.copyOf(offsets, size);
+		lengths = Arrays.copyOf(lengths, size);
+		hashes = Arrays.copyOf(hashes, size);
+		next = Arrays.copyOf(next, size);
+		uris = Arrays.copyOf(uris, size);
+	}
+
+	/**
+	 * Writes the dictionary.
+	 * @param out Stream to write to.
+	 * @throws IOException If the stream fails.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(localSegments);
+		out.writeInt(namespaces.size());
+		for (String namespace : namespaces) {
+			SnapshotFile.writeString(out, namespace);
+		}
+		SnapshotFile.writeInts(out, namespaceOfEntry, size);
+		SnapshotFile.writeInts(out, offsets, size);
+		SnapshotFile.writeInts(out, lengths, size);
+		SnapshotFile.writeInts(out, hashes, size);
+		SnapshotFile.writeInts(out, next, size);
+		localNames.write(out);
+	}
+
+	/**
+	 * Reads a dictionary written by {@link #write(DataOutputStream)}.
+	 * @param in Buffer to read from.
+	 * @return Dictionary read.
+	 */
+	public static UriDictionary read(ByteBuffer in) {
+		UriDictionary dictionary = new UriDictionary(in.getInt(), 0);
+		int namespaceCount = in.getInt();
+		for (int i = 0; i < namespaceCount; i++) {
+			String namespace = SnapshotFile.readString(in);
+			dictionary.namespaceIds.put(namespace, i);
+			dictionary.namespaces.add(namespace);
+		}
+		dictionary.namespaceOfEntry = SnapshotFile.readInts(in);
+		dictionary.offsets = SnapshotFile.readInts(in);
+		dictionary.lengths = SnapshotFile.readInts(in);
+		dictionary.hashes = SnapshotFile.readInts(in);
+		dictionary.next = SnapshotFile.readInts(in);
+		dictionary.localNames = ByteArena.read(in);
+		dictionary.size = dictionary.offsets.length;
+		dictionary.uris = new String[dictionary.size];
+
+		// only the first entry of each local name is in the table, the others are reached through next
+		boolean[] chained = new boolean[dictionary.size];
+		for (int id = 0; id < dictionary.size; id++) {
+			if (dictionary.next[id] >= 0) {
+				chained[dictionary.next[id]] = true;
+			}
+		}
+		dictionary.table = new int[tableSize(Math.max(16, dictionary.size))];
+		int mask = dictionary.table.length - 1;
+		for (int id = 0; id < dictionary.size; id++) {
+			if (chained[id]) {
+				continue;
+			}
+			int slot = dictionary.hashes[id] & mask;
+			while (dictionary.table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			dictionary.table[slot] = id + 1;
+		}
+		return dictionary;
+	}
+
+	/**
+	 * Returns the start of the local name of a URI.
+	 * @param s Character sequence containing the URI.
+	 * @param end Index after the last character of the URI.
+	 * @return Index of the first character of the local name or <code>-1</code> if the URI has less segments than
+	 *         required.
+	 */
+	public int localStart(CharSequence s, int end) {
+		int segments = 1;
+		for (int i = end - 1; i >= 0; i--) {
+			if (s.charAt(i) == '/') {
+				if (segments == localSegments) {
+					return i + 1;
+				}
+				segments++;
+			}
+		}
+		return segments == localSegments ? 0 : -1;
+	}
+
+	private int namespaceId(String uri, int length) {
+		if (lastNamespace >= 0) {
+			String namespace = namespaces.get(lastNamespace);
+			if (namespace.length() == length && uri.startsWith(namespace)) {
+				return lastNamespace;
+			}
+		}
+		String namespace = uri.substring(0, length);
+		Integer id = namespaceIds.get(namespace);
+		if (id == null) {
+			id = namespaces.size();
+			namespaces.add(namespace);
+			namespaceIds.put(namespace, id);
+		}
+		lastNamespace = id;
+		return id;
+	}
+
+	// returns the slot holding the local name or the free slot it would be stored in
+	private int slot(int hash, CharSequence s, int start, int end) {
+		int mask = table.length - 1;
+		int slot = hash & mask;
+		while (true) {
+			int id = table[slot] - 1;
+			if (id < 0 || (hashes[id] == hash && localNames.equals(offsets[id], lengths[id], s, start, end))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private void grow() {
+		int capacity = Math.max(16, offsets.length * 2);
+		namespaceOfEntry = Arrays.copyOf(namespaceOfEntry, capacity);
+		offsets = Arrays.copyOf(offsets, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		hashes = Arrays.copyOf(hashes, capacity);
+		next = Arrays.copyOf(next, capacity);
+		uris = Arrays.copyOf(uris, capacity);
+		int[] oldTable = table;
+		table = new int[tableSize(capacity)];
+		int mask = table.length - 1;
+		for (int entry : oldTable) {
+			if (entry == 0) {
+				continue;
+			}
+			int slot = hashes[entry - 1] & mask;
+			while (table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = entry;
+		}
+	}
+
+	private static int hash(CharSequence s, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + s.charAt(i);
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	// keeps the load factor of the table at or below one half
+	private static int tableSize(int capacity) {
+		return Integer.highestOneBit(capacity - 1) << 2;
+	}
+}
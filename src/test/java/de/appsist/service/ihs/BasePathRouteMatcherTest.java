@@ -0,0 +1,234 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Dispatch of the {@link BasePathRouteMatcher}. Every case is run in compiled mode and with the Vert.x route matcher,
+ * both have to select the same route.
+ */
+public class BasePathRouteMatcherTest {
+	private static final String BASE_PATH = "/services/ihs";
+
+	/**
+	 * Sets up the routes of a test case.
+	 */
+	private interface Routes {
+		void register(BasePathRouteMatcher matcher);
+	}
+
+	@Test
+	public void testLiteralRoute() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/contents", handler("contents"));
+				matcher.get("/metrics", handler("metrics"));
+			}
+		};
+		assertRoute(routes, "GET", BASE_PATH + "/metrics", "metrics{}");
+		assertRoute(routes, "GET", BASE_PATH + "/contents", "contents{}");
+		assertRoute(routes, "GET", BASE_PATH + "/contents/", "404");
+		assertRoute(routes, "GET", "/contents", "404");
+	}
+
+	@Test
+	public void testFirstRegisteredRouteWins() {
+		Routes parameterFirst = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/steps/:stepId", handler("step"));
+				matcher.get("/steps/all", handler("all"));
+			}
+		};
+		assertRoute(parameterFirst, "GET", BASE_PATH + "/steps/all", "step{stepId=all}");
+
+		Routes literalFirst = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/steps/all", handler("all"));
+				matcher.get("/steps/:stepId", handler("step"));
+			}
+		};
+		assertRoute(literalFirst, "GET", BASE_PATH + "/steps/all", "all{}");
+		assertRoute(literalFirst, "GET", BASE_PATH + "/steps/Step_1", "step{stepId=Step_1}");
+	}
+
+	@Test
+	public void testSamePatternRegisteredTwice() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/steps/:stepId", handler("first"));
+				matcher.get("/steps/:id", handler("second"));
+			}
+		};
+		assertRoute(routes, "GET", BASE_PATH + "/steps/Step_1", "first{stepId=Step_1}");
+	}
+
+	@Test
+	public void testParametersAfterBacktracking() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/processes/main/steps", handler("literal"));
+				matcher.get("/processes/:processId/:stepId", handler("parameters"));
+			}
+		};
+		assertRoute(routes, "GET", BASE_PATH + "/processes/main/steps", "literal{}");
+		assertRoute(routes, "GET", BASE_PATH + "/processes/main/Step_1",
+				"parameters{processId=main, stepId=Step_1}");
+		assertRoute(routes, "GET", BASE_PATH + "/processes//Step_1", "404");
+	}
+
+	@Test
+	public void testRegExRoutesKeepRegistrationOrder() {
+		Routes regExFirst = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.getWithRegEx("/steps/(S[^/]*)", handler("regex"));
+				matcher.get("/steps/:stepId", handler("step"));
+			}
+		};
+		assertRoute(regExFirst, "GET", BASE_PATH + "/steps/Step_1", "regex{param0=Step_1}");
+		assertRoute(regExFirst, "GET", BASE_PATH + "/steps/Task_1", "step{stepId=Task_1}");
+
+		Routes patternFirst = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/steps/:stepId", handler("step"));
+				matcher.getWithRegEx("/steps/(S[^/]*)", handler("regex"));
+			}
+		};
+		assertRoute(patternFirst, "GET", BASE_PATH + "/steps/Step_1", "step{stepId=Step_1}");
+	}
+
+	@Test
+	public void testPatternWhichCannotBeCompiled() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/files/:name.json", handler("json"));
+				matcher.get("/files/:name", handler("file"));
+			}
+		};
+		assertRoute(routes, "GET", BASE_PATH + "/files/labels.json", "json{name=labels}");
+		assertRoute(routes, "GET", BASE_PATH + "/files/labels", "file{name=labels}");
+	}
+
+	@Test
+	public void testMethods() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.post("/contents", handler("post"));
+				matcher.all("/contents", handler("all"));
+				matcher.get("/contents", handler("get"));
+			}
+		};
+		assertRoute(routes, "POST", BASE_PATH + "/contents", "post{}");
+		assertRoute(routes, "GET", BASE_PATH + "/contents", "all{}");
+		assertRoute(routes, "DELETE", BASE_PATH + "/contents", "all{}");
+	}
+
+	@Test
+	public void testNoMatchHandler() {
+		Routes routes = new Routes() {
+			@Override
+			public void register(BasePathRouteMatcher matcher) {
+				matcher.get("/contents", handler("contents"));
+				matcher.noMatch(handler("noMatch"));
+			}
+		};
+		assertRoute(routes, "GET", BASE_PATH + "/unknown", "noMatch{}");
+		assertRoute(routes, "PUT", BASE_PATH + "/contents", "noMatch{}");
+	}
+
+	private static void assertRoute(Routes routes, String method, String path, String expected) {
+		for (boolean compiled : new boolean[] { true, false }) {
+			BasePathRouteMatcher matcher = new BasePathRouteMatcher(BASE_PATH, compiled);
+			routes.register(matcher);
+			String mode = compiled ? "compiled " : "linear ";
+			assertEquals(mode + method + " " + path, expected, dispatch(matcher, method, path));
+		}
+	}
+
+	// returns the name of the handler called with the request parameters, or the status code set
+	private static String dispatch(BasePathRouteMatcher matcher, String method, String path) {
+		FakeRequest request = new FakeRequest(method, path);
+		matcher.handle(request.proxy);
+		return request.result;
+	}
+
+	private static Handler<HttpServerRequest> handler(final String name) {
+		return new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(HttpServerRequest request) {
+				Map<String, String> params = new TreeMap<String, String>();
+				for (Map.Entry<String, String> entry : request.params()) {
+					params.put(entry.getKey(), entry.getValue());
+				}
+				((FakeRequest) Proxy.getInvocationHandler(request)).result = name + params;
+			}
+		};
+	}
+
+	/**
+	 * Request providing method, path and parameters, recording the status code of the response.
+	 */
+	private static final class FakeRequest implements InvocationHandler {
+		final HttpServerRequest proxy;
+		final HttpServerResponse response;
+		final MultiMap params = new CaseInsensitiveMultiMap();
+		final String method;
+		final String path;
+		String result;
+
+		FakeRequest(String method, String path) {
+			this.method = method;
+			this.path = path;
+			proxy = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { HttpServerRequest.class }, this);
+			response = (HttpServerResponse) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { HttpServerResponse.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("setStatusCode")) {
+								result = String.valueOf(args[0]);
+							}
+							return method.getReturnType().isInstance(proxy) ? proxy : null;
+						}
+					});
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "method":
+				return this.method;
+			case "path":
+				return path;
+			case "uri":
+				return path;
+			case "params":
+				return params;
+			case "response":
+				return response;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Streaming of batch results by the {@link ContentBatch}.
+ */
+public class ContentBatchTest {
+
+	@Test
+	public void testEntriesAreStreamedAsCompleted() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		RecordedResponse response = new RecordedResponse();
+		ContentBatch batch = new ContentBatch(response.proxy,
+				steps(step("task", "M1", "Task_1"), step("activity", "M1", null), step("additional", "M2", "Task_2")),
+				metrics.startRequest());
+		batch.start();
+		assertTrue(response.chunked);
+		assertEquals("application/json", response.headers.get("Content-Type"));
+		assertEquals("[", response.body());
+
+		batch.complete(2, "Inhalt_2");
+		assertEquals(2, response.writes);
+		batch.complete(0, "");
+		batch.complete(0, "Inhalt_0");
+		assertFalse(response.ended);
+		batch.complete(1, "Inhalt_1");
+		assertTrue(response.ended);
+
+		JsonArray entries = new JsonArray(response.body());
+		assertEquals(3, entries.size());
+		assertEntry((JsonObject) entries.get(0), 2, "additional", "M2", "Task_2", "Inhalt_2");
+		assertEntry((JsonObject) entries.get(1), 0, "task", "M1", "Task_1", null);
+		assertEntry((JsonObject) entries.get(2), 1, "activity", "M1", "Sub_1", "Inhalt_1");
+		JsonObject json = metrics.toJson();
+		assertEquals(0L, json.getLong("inFlight").longValue());
+		assertEquals(0L, json.getLong("errors").longValue());
+		assertEquals(0L, json.getLong("emptyResults").longValue());
+	}
+
+	@Test
+	public void testFailedSteps() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		RecordedResponse response = new RecordedResponse();
+		ContentBatch batch = new ContentBatch(response.proxy, steps(step("task", "M1", "Task_1"),
+				step("task", "M1", "Task_2")), metrics.startRequest());
+		batch.start();
+		batch.fail(1);
+		// a step already failed keeps its entry
+		batch.complete(1, "Inhalt_1");
+		batch.complete(0, "Inhalt_0");
+
+		JsonArray entries = new JsonArray(response.body());
+		assertEquals(2, entries.size());
+		JsonObject failed = entries.get(0);
+		assertEquals(1, failed.getInteger("index").intValue());
+		assertTrue(failed.getBoolean("failed"));
+		assertNull(failed.getString("contentId"));
+		JsonObject found = entries.get(1);
+		assertEquals("Inhalt_0", found.getString("contentId"));
+		assertNull(found.getField("failed"));
+		assertEquals(1L, metrics.toJson().getLong("errors").longValue());
+	}
+
+	@Test
+	public void testEmptyBatch() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		RecordedResponse response = new RecordedResponse();
+		new ContentBatch(response.proxy, new JsonArray(), metrics.startRequest()).start();
+		assertTrue(response.ended);
+		assertEquals("[]", response.body());
+		JsonObject json = metrics.toJson();
+		assertEquals(0L, json.getLong("inFlight").longValue());
+		assertEquals(1L, json.getLong("emptyResults").longValue());
+	}
+
+	@Test
+	public void testStepsWithoutContent() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		RecordedResponse response = new RecordedResponse();
+		ContentBatch batch = new ContentBatch(response.proxy, steps(step("task", "M1", "Task_1"), "not a step"),
+				metrics.startRequest());
+		batch.start();
+		assertEquals("task", batch.getType(0));
+		assertNull(batch.getType(1));
+		assertNull(batch.getMeasureId(1));
+		batch.complete(1, null);
+		batch.complete(0, "");
+		assertEquals("[{\"index\":1,\"type\":null,\"measureId\":null,\"elementId\":null},"
+				+ "{\"index\":0,\"type\":\"task\",\"measureId\":\"M1\",\"elementId\":\"Task_1\"}]", response.body());
+		assertEquals(1L, metrics.toJson().getLong("emptyResults").longValue());
+	}
+
+	@Test
+	public void testProcessElementUri() {
+		ContentBatch batch = new ContentBatch(new RecordedResponse().proxy, steps(step("task", "M1", "Task_1"),
+				step("task", "M2", null), step("additional", "M3", "Task_3")), new PipelineMetrics().startRequest());
+		assertTrue(batch.containsType("additional"));
+		assertFalse(batch.containsType("activity"));
+		batch.setFullMeasureId(0, TestOntology.ONTOLOGY + "M1");
+		batch.setFullMeasureId(1, TestOntology.ONTOLOGY + "M2");
+		assertEquals(TestOntology.ONTOLOGY + "M1/Task_1", batch.getProcessElementUri(0));
+		assertNull(batch.getProcessElementUri(1));
+		assertNull(batch.getProcessElementUri(2));
+	}
+
+	private static JsonArray steps(Object... steps) {
+		JsonArray array = new JsonArray();
+		for (Object step : steps) {
+			array.add(step);
+		}
+		return array;
+	}
+
+	private static JsonObject step(String type, String measureId, String elementId) {
+		JsonObject step = new JsonObject().putString("type", type).putString("measureId", measureId);
+		if ("activity".equals(type)) {
+			step.putString("calledProcess", "Sub_1");
+		} else {
+			step.putString("elementId", elementId);
+		}
+		return step;
+	}
+
+	private static void assertEntry(JsonObject entry, int index, String type, String measureId, String elementId,
+			String contentId) {
+		assertEquals(index, entry.getInteger("index").intValue());
+		assertEquals(type, entry.getString("type"));
+		assertEquals(measureId, entry.getString("measureId"));
+		assertEquals(elementId, entry.getString("elementId"));
+		assertEquals(contentId, entry.getString("contentId"));
+	}
+}
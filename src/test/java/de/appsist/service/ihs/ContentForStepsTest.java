@@ -0,0 +1,148 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Batch requests of <code>POST /contentForSteps</code> against a small ontology. Instructions are served from the
+ * content cache or queried, the content snapshot is disabled.
+ */
+public class ContentForStepsTest {
+	private static final String MEASURES = TestOntology.ONTOLOGY + "massnahmen/";
+	private static final String CONTENTS = TestOntology.ONTOLOGY + "inhalte/";
+	private static final String SKILLED = TestOntology.ONTOLOGY + "Fachkraft";
+
+	private TestOntology ontology;
+	private ServiceFixture service;
+
+	@Before
+	public void setUp() throws Exception {
+		ontology = new TestOntology()
+				.measure(MEASURES + "M1")
+				.label(MEASURES + "M1/Task_1", "Schritt 1")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_1")
+				.instruction(MEASURES + "M1/Task_2", CONTENTS + "Inhalt_2b")
+				.instruction(MEASURES + "M1/Task_2", CONTENTS + "Inhalt_2a")
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_B", SKILLED)
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_C");
+		JsonObject batchConfig = new JsonObject().putNumber("maxSteps", 4).putNumber("maxBodySize", 1024);
+		service = new ServiceFixture(ontology, new JsonObject().putObject("batch", batchConfig));
+		service.employeeType("u1", SKILLED);
+		service.employeeType("u2", TestOntology.ONTOLOGY + "Laie");
+		service.start();
+	}
+
+	@After
+	public void tearDown() {
+		service.stop();
+	}
+
+	@Test
+	public void testCacheHitsAndQueryResults() throws Exception {
+		JsonArray entries = post("u1", task("M1", "Task_1"), task("M1", "Task_2"));
+		assertEquals(2, entries.size());
+		assertEquals("Inhalt_1", entry(entries, 0).getString("contentId"));
+		assertEquals("Inhalt_2a", entry(entries, 1).getString("contentId"));
+		assertEquals(1, ontology.count("instructions"));
+
+		// Task_1 is cached, Task_3 has no instruction, the measure M9 is unknown
+		entries = post("u1", task("M1", "Task_1"), task("M1", "Task_3"), additional("M1", "Task_1"),
+				task("M9", "Task_1"));
+		assertEquals(4, entries.size());
+		assertEquals("Inhalt_1", entry(entries, 0).getString("contentId"));
+		assertNull(entry(entries, 1).getString("contentId"));
+		assertEquals("Zusatz_B", entry(entries, 2).getString("contentId"));
+		assertNull(entry(entries, 3).getString("contentId"));
+		assertEquals(2, ontology.count("instructions"));
+		assertEquals(1, ontology.count("additionalContents"));
+		assertEquals(1, ontology.count("measuresByIds"));
+
+		// everything but the unknown measure is cached now, the other user gets the unrestricted content
+		int queries = ontology.getQueries().size();
+		entries = post("u1", task("M1", "Task_3"), additional("M1", "Task_1"), task("M1", "Task_2"));
+		assertEquals("Zusatz_B", entry(entries, 1).getString("contentId"));
+		assertEquals("Inhalt_2a", entry(entries, 2).getString("contentId"));
+		entries = post("u2", additional("M1", "Task_1"));
+		assertEquals("Zusatz_C", entry(entries, 0).getString("contentId"));
+		assertEquals(Arrays.asList("additionalContents"), ontology.getQueries().subList(queries,
+				ontology.getQueries().size()));
+	}
+
+	@Test
+	public void testFailedSteps() throws Exception {
+		post("u1", task("M1", "Task_1"));
+		ontology.failAfter(ontology.getQueries().size());
+		JsonArray entries = post("u1", task("M1", "Task_1"), task("M1", "Task_2"), additional("M1", "Task_1"));
+		assertEquals(3, entries.size());
+		assertEquals("Inhalt_1", entry(entries, 0).getString("contentId"));
+		assertNull(entry(entries, 0).getField("failed"));
+		assertTrue(entry(entries, 1).getBoolean("failed"));
+		assertTrue(entry(entries, 2).getBoolean("failed"));
+
+		// failures are not cached
+		ontology.failAfter(-1);
+		entries = post("u1", task("M1", "Task_2"));
+		assertEquals("Inhalt_2a", entry(entries, 0).getString("contentId"));
+		assertNull(entry(entries, 0).getField("failed"));
+	}
+
+	@Test
+	public void testRejectedRequests() throws Exception {
+		assertEquals(400, service.post("/contentForSteps", "{\"steps\":").status);
+		assertEquals(400, service.post("/contentForSteps", "{\"userId\":\"u1\"}").status);
+		assertEquals(413, service.post("/contentForSteps", request("u1", task("M1", "Task_1"), task("M1", "Task_1"),
+				task("M1", "Task_1"), task("M1", "Task_1"), task("M1", "Task_1"))).status);
+
+		StringBuilder userId = new StringBuilder();
+		while (userId.length() < 1024) {
+			userId.append("user");
+		}
+		assertEquals(413, service.post("/contentForSteps", request(userId.toString(), task("M1", "Task_1"))).status);
+		assertEquals(0, ontology.count("instructions"));
+		// the service keeps accepting requests
+		assertEquals(1, post("u1", task("M1", "Task_1")).size());
+	}
+
+	private JsonArray post(String userId, JsonObject... steps) throws Exception {
+		ServiceFixture.Response response = service.post("/contentForSteps", request(userId, steps));
+		assertEquals(200, response.status);
+		return new JsonArray(response.body);
+	}
+
+	private static String request(String userId, JsonObject... steps) {
+		JsonArray stepArray = new JsonArray();
+		for (JsonObject step : steps) {
+			stepArray.addObject(step);
+		}
+		return new JsonObject().putString("userId", userId).putArray("steps", stepArray).encode();
+	}
+
+	private static JsonObject task(String measureId, String elementId) {
+		return new JsonObject().putString("type", "task").putString("measureId", measureId)
+				.putString("elementId", elementId);
+	}
+
+	private static JsonObject additional(String measureId, String elementId) {
+		return new JsonObject().putString("type", "additional").putString("measureId", measureId)
+				.putString("elementId", elementId);
+	}
+
+	// the entries are streamed in any order
+	private static JsonObject entry(JsonArray entries, int index) {
+		for (Object entry : entries) {
+			if (((JsonObject) entry).getInteger("index") == index) {
+				return (JsonObject) entry;
+			}
+		}
+		throw new AssertionError("No entry for step " + index + " in " + entries.encode());
+	}
+}
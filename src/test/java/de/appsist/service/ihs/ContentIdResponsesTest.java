@@ -0,0 +1,151 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Encoding of the content lookup responses. The bytes written have to be the same as those of the JSON encoder of
+ * Vert.x.
+ */
+public class ContentIdResponsesTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Test
+	public void testPlainId() {
+		assertEncodedAsVertx("Inhalt_Task_0_0");
+		assertEncodedAsVertx("inhalte/Inhalt_1");
+		assertEncodedAsVertx("a b?c=d&e#f");
+	}
+
+	@Test
+	public void testQuoteAndBackslash() {
+		assertEncodedAsVertx("\"");
+		assertEncodedAsVertx("\\");
+		assertEncodedAsVertx("say \"hi\\\"");
+		assertEquals("{\"contentId\":\"a\\\"b\\\\c\"}", encode("a\"b\\c"));
+	}
+
+	@Test
+	public void testControlCharacters() {
+		assertEncodedAsVertx("a\bb\tc\nd\fe\rf");
+		assertEquals("{\"contentId\":\"\\b\\t\\n\\f\\r\"}", encode("\b\t\n\f\r"));
+		for (char c = 0; c < 0x20; c++) {
+			assertEncodedAsVertx("x" + c + "y");
+		}
+		assertEquals("{\"contentId\":\"\\u0001\\u001F\"}", encode("\u0001\u001f"));
+		assertEncodedAsVertx("\u007f");
+	}
+
+	@Test
+	public void testMultiByteCharacters() {
+		assertEncodedAsVertx("Ma\u00dfnahme_\u00dcbergabe");
+		assertEncodedAsVertx("\u07ff\u0800\u20ac\uffff");
+	}
+
+	@Test
+	public void testSurrogatePairs() {
+		assertEncodedAsVertx("\ud83d\ude00");
+		assertEncodedAsVertx("a\ud800\udc00b\udbff\udfff");
+	}
+
+	@Test
+	public void testUnpairedSurrogates() {
+		assertEncodedAsVertx("a\ud83d");
+		assertEncodedAsVertx("\ude00a");
+		assertEncodedAsVertx("\ud83d\ud83d\ude00");
+		assertEncodedAsVertx("\ude00\ud83d");
+	}
+
+	@Test
+	public void testFoundContent() {
+		RecordedResponse response = end("Inhalt_1");
+		assertEquals(200, response.status);
+		assertEquals("{\"contentId\":\"Inhalt_1\"}", response.body);
+		assertEquals("application/json", response.headers.get("Content-Type"));
+		assertEquals("no-cache", response.headers.get("Cache-Control"));
+		assertEquals(String.valueOf(response.body.getBytes(UTF8).length), response.headers.get("Content-Length"));
+	}
+
+	@Test
+	public void testLongContentId() {
+		StringBuilder contentId = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			contentId.append("Inhalt_\u00fc");
+		}
+		RecordedResponse response = end(contentId.toString());
+		assertEquals(String.valueOf(response.body.getBytes(UTF8).length), response.headers.get("Content-Length"));
+		assertEquals(new JsonObject().putString("contentId", contentId.toString()).encode(), response.body);
+	}
+
+	@Test
+	public void testNoContent() {
+		RecordedResponse response = end("");
+		assertEquals(200, response.status);
+		assertEquals("{}", response.body);
+		assertEquals("2", response.headers.get("Content-Length"));
+	}
+
+	@Test
+	public void testUnresolvedContent() {
+		RecordedResponse response = end(null);
+		assertEquals(503, response.status);
+		assertEquals("{}", response.body);
+	}
+
+	private static void assertEncodedAsVertx(String contentId) {
+		byte[] expected = new JsonObject().putString("contentId", contentId).encode().getBytes(UTF8);
+		assertArrayEquals(contentId, expected, ContentIdResponses.encode(contentId).getBytes());
+		assertEquals(contentId, expected.length, ContentIdResponses.encodedLength(contentId));
+	}
+
+	private static String encode(String contentId) {
+		return new String(ContentIdResponses.encode(contentId).getBytes(), UTF8);
+	}
+
+	private static RecordedResponse end(String contentId) {
+		RecordedResponse recorded = new RecordedResponse();
+		HttpServerResponse response = (HttpServerResponse) Proxy.newProxyInstance(
+				ContentIdResponsesTest.class.getClassLoader(), new Class<?>[] { HttpServerResponse.class }, recorded);
+		ContentIdResponses.end(response, contentId);
+		return recorded;
+	}
+
+	/**
+	 * Records the status, headers and body written to a response.
+	 */
+	private static final class RecordedResponse implements InvocationHandler {
+		final Map<String, String> headers = new HashMap<String, String>();
+		int status = 200;
+		String body;
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "setStatusCode":
+				status = (Integer) args[0];
+				break;
+			case "putHeader":
+				headers.put(args[0].toString(), args[1].toString());
+				break;
+			case "end":
+				body = new String(((Buffer) args[0]).getBytes(), UTF8);
+				break;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+			return method.getReturnType().isInstance(proxy) ? proxy : null;
+		}
+	}
+}
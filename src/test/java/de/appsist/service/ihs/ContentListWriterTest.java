@@ -0,0 +1,146 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URLEncoder;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Pages written by the {@link ContentListWriter}, on their own and as listed by the service with limit and cursor.
+ */
+public class ContentListWriterTest {
+	private static final String MEASURES = TestOntology.ONTOLOGY + "massnahmen/";
+	private static final String CONTENTS = TestOntology.ONTOLOGY + "inhalte/";
+	private static final String SKILLED = TestOntology.ONTOLOGY + "Fachkraft";
+
+	@Test
+	public void testLimitAndNextCursor() {
+		RecordedResponse response = new RecordedResponse();
+		ContentListWriter writer = new ContentListWriter(response.proxy, 2, 8192);
+		assertTrue(writer.handle(new String[] { CONTENTS + "Inhalt_1", "http://example.org/1.png" }));
+		assertTrue(writer.handle(new String[] { CONTENTS + "Inhalt_2", null }));
+		// the content after the limit is not written but tells that there is a next page
+		assertFalse(writer.handle(new String[] { CONTENTS + "Inhalt_3", null }));
+		writer.end();
+		assertEquals(2, writer.size());
+		assertFalse(response.chunked);
+		assertEquals("application/json", response.headers.get("Content-Type"));
+		assertEquals("{\"contents\":[{\"contentId\":\"Inhalt_1\",\"preview\":\"http://example.org/1.png\"},"
+				+ "{\"contentId\":\"Inhalt_2\"}],\"next\":\"" + CONTENTS + "Inhalt_2\"}", response.body());
+	}
+
+	@Test
+	public void testLastAndEmptyPage() {
+		RecordedResponse response = new RecordedResponse();
+		ContentListWriter writer = new ContentListWriter(response.proxy, 2, 8192);
+		assertTrue(writer.handle(new String[] { CONTENTS + "Inhalt_1", null }));
+		assertTrue(writer.handle(new String[] { null, null }));
+		writer.end();
+		assertEquals("{\"contents\":[{\"contentId\":\"Inhalt_1\"}]}", response.body());
+
+		response = new RecordedResponse();
+		new ContentListWriter(response.proxy, 2, 8192).end();
+		assertEquals("{\"contents\":[]}", response.body());
+	}
+
+	@Test
+	public void testChunks() {
+		RecordedResponse response = new RecordedResponse();
+		ContentListWriter writer = new ContentListWriter(response.proxy, 10, 40);
+		for (int i = 0; i < 5; i++) {
+			writer.handle(new String[] { CONTENTS + "Inhalt_" + i, null });
+		}
+		assertTrue(writer.isStarted());
+		writer.end();
+		assertTrue(response.chunked);
+		assertTrue(response.writes > 1);
+		JsonArray contents = new JsonObject(response.body()).getArray("contents");
+		assertEquals(5, contents.size());
+		assertEquals("Inhalt_4", ((JsonObject) contents.get(4)).getString("contentId"));
+	}
+
+	@Test
+	public void testEntriesAreEscapedLikeJsonObjects() {
+		String[] ids = { "Inhalt \"1\"", "a\\b", "tab\tnew\nline\r\b\f", "\u0001\u001f", "Schr\u00e4ubchen \u20ac",
+				"\ud83d\ude00" };
+		for (String id : ids) {
+			RecordedResponse response = new RecordedResponse();
+			ContentListWriter writer = new ContentListWriter(response.proxy, 1, 8192);
+			writer.handle(new String[] { CONTENTS + id, "http://example.org/" + id });
+			writer.handle(new String[] { CONTENTS + id + "2", null });
+			writer.end();
+			JsonObject entry = new JsonObject().putString("contentId", id).putString("preview",
+					"http://example.org/" + id);
+			String next = new JsonObject().putString("next", CONTENTS + id).encode();
+			assertEquals("{\"contents\":[" + entry.encode() + "]," + next.substring(1), response.body());
+		}
+	}
+
+	@Test
+	public void testPagingThroughTheService() throws Exception {
+		TestOntology ontology = new TestOntology()
+				.measure(MEASURES + "M1")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_3")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_1")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_2")
+				.instruction(MEASURES + "M1/Task_2", CONTENTS + "Inhalt_9")
+				.preview(CONTENTS + "Inhalt_2", "http://example.org/2.png")
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_A", TestOntology.ONTOLOGY + "Laie")
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_B", SKILLED)
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_C");
+		ServiceFixture service = new ServiceFixture(ontology, new JsonObject());
+		service.employeeType("u1", SKILLED);
+		service.start();
+		try {
+			String task = "/contentForTask?measureId=M1&elementId=Task_1&userId=u1&all=true&limit=2";
+			JsonObject page = get(service, task);
+			assertEquals("[Inhalt_1, Inhalt_2]", contentIds(page));
+			assertEquals("http://example.org/2.png", ((JsonObject) page.getArray("contents").get(1))
+					.getString("preview"));
+			assertEquals(CONTENTS + "Inhalt_2", page.getString("next"));
+
+			page = get(service, task + "&cursor=" + URLEncoder.encode(page.getString("next"), "UTF-8"));
+			assertEquals("[Inhalt_3]", contentIds(page));
+			assertNull(page.getString("next"));
+
+			// a limit which fits all contents exactly has no next page either
+			page = get(service, "/contentForTask?measureId=M1&elementId=Task_1&userId=u1&all=true&limit=3");
+			assertEquals("[Inhalt_1, Inhalt_2, Inhalt_3]", contentIds(page));
+			assertNull(page.getString("next"));
+
+			String additional = "/additionalContent?measureId=M1&elementId=Task_1&userId=u1&all=true&limit=1";
+			page = get(service, additional);
+			assertEquals("[Zusatz_B]", contentIds(page));
+			page = get(service, additional + "&cursor=" + URLEncoder.encode(page.getString("next"), "UTF-8"));
+			assertEquals("[Zusatz_C]", contentIds(page));
+			assertNull(page.getString("next"));
+			assertEquals(3, ontology.count("instructionList"));
+			assertEquals(2, ontology.count("additionalContentList"));
+
+			assertEquals(400, service.get(task.replace("limit=2", "limit=0")).status);
+			assertEquals(400, service.get(task.replace("limit=2", "limit=x")).status);
+		} finally {
+			service.stop();
+		}
+	}
+
+	private static JsonObject get(ServiceFixture service, String path) throws Exception {
+		ServiceFixture.Response response = service.get(path);
+		assertEquals(200, response.status);
+		return new JsonObject(response.body);
+	}
+
+	private static String contentIds(JsonObject page) {
+		StringBuilder ids = new StringBuilder("[");
+		for (Object entry : page.getArray("contents")) {
+			ids.append(ids.length() > 1 ? ", " : "").append(((JsonObject) entry).getString("contentId"));
+		}
+		return ids.append(']').toString();
+	}
+}
@@ -0,0 +1,137 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Prefetching by the {@link ContentPrefetcher} along a chain of successors, with its limits, and the prefetched
+ * contents being served by the service without a query.
+ */
+public class ContentPrefetcherTest {
+	private static final String MEASURE = TestOntology.ONTOLOGY + "massnahmen/M1/";
+	private static final String CONTENTS = TestOntology.ONTOLOGY + "inhalte/";
+	private static final String SUCCESSOR_PATH = "app:hatNachfolger";
+
+	private TestOntology ontology;
+	private ResultCache<String> contentCache;
+
+	@Before
+	public void setUp() {
+		// Task_1 -> Task_2 -> Task_3 -> Task_4 -> Task_5, Task_3 has no instruction
+		ontology = new TestOntology().measure(TestOntology.ONTOLOGY + "massnahmen/M1");
+		for (int i = 1; i <= 5; i++) {
+			if (i != 3) {
+				ontology.instruction(MEASURE + "Task_" + i, CONTENTS + "Inhalt_" + i);
+			}
+			if (i < 5) {
+				ontology.successor(MEASURE + "Task_" + i, MEASURE + "Task_" + (i + 1));
+			}
+		}
+		contentCache = new ResultCache<String>(new JsonObject());
+	}
+
+	@Test
+	public void testDepth() {
+		ContentPrefetcher prefetcher = prefetcher(new JsonObject().putNumber("depth", 2));
+		prefetcher.prefetch(MEASURE + "Task_1");
+		assertEquals(2, ontology.count("successorInstructions"));
+		assertEquals("Inhalt_2", contentCache.get("instruction|" + MEASURE + "Task_2"));
+		// a successor without an instruction is cached as having none
+		assertEquals("", contentCache.get("instruction|" + MEASURE + "Task_3"));
+		assertNull(contentCache.get("instruction|" + MEASURE + "Task_4"));
+		assertNull(contentCache.get("instruction|" + MEASURE + "Task_1"));
+		JsonObject statistics = prefetcher.getStatistics();
+		assertEquals(2L, statistics.getLong("warmed").longValue());
+		assertEquals(0, statistics.getInteger("running").intValue());
+
+		// prefetched recently
+		prefetcher.prefetch(MEASURE + "Task_1");
+		assertEquals(2, ontology.count("successorInstructions"));
+		assertEquals(1L, prefetcher.getStatistics().getLong("started").longValue());
+	}
+
+	@Test
+	public void testMaxElements() {
+		// the element served counts as well
+		ContentPrefetcher prefetcher = prefetcher(new JsonObject().putNumber("depth", 4).putNumber("maxElements", 3));
+		prefetcher.prefetch(MEASURE + "Task_1");
+		assertEquals("Inhalt_2", contentCache.get("instruction|" + MEASURE + "Task_2"));
+		assertEquals("", contentCache.get("instruction|" + MEASURE + "Task_3"));
+		assertNull(contentCache.get("instruction|" + MEASURE + "Task_4"));
+		assertEquals(3, ontology.count("successorInstructions"));
+		JsonObject statistics = prefetcher.getStatistics();
+		assertEquals(2L, statistics.getLong("warmed").longValue());
+		assertEquals(0, statistics.getInteger("running").intValue());
+	}
+
+	@Test
+	public void testPrefetchesAreSkippedAtMaxConcurrent() {
+		ContentPrefetcher prefetcher = prefetcher(new JsonObject().putNumber("maxConcurrent", 1));
+		ontology.hold();
+		prefetcher.prefetch(MEASURE + "Task_1");
+		prefetcher.prefetch(MEASURE + "Task_3");
+		JsonObject statistics = prefetcher.getStatistics();
+		assertEquals(1, statistics.getInteger("running").intValue());
+		assertEquals(1L, statistics.getLong("skipped").longValue());
+		assertEquals(1, ontology.count("successorInstructions"));
+
+		ontology.resume();
+		assertEquals(0, prefetcher.getStatistics().getInteger("running").intValue());
+		// the skipped element is not marked as prefetched
+		prefetcher.prefetch(MEASURE + "Task_3");
+		assertEquals("Inhalt_4", contentCache.get("instruction|" + MEASURE + "Task_4"));
+		assertEquals(2L, prefetcher.getStatistics().getLong("started").longValue());
+	}
+
+	@Test
+	public void testFailedPrefetch() {
+		ContentPrefetcher prefetcher = prefetcher(new JsonObject().putNumber("depth", 2));
+		ontology.failAfter(1);
+		prefetcher.prefetch(MEASURE + "Task_1");
+		JsonObject statistics = prefetcher.getStatistics();
+		assertEquals(1L, statistics.getLong("failed").longValue());
+		assertEquals(0, statistics.getInteger("running").intValue());
+		assertEquals("Inhalt_2", contentCache.get("instruction|" + MEASURE + "Task_2"));
+	}
+
+	@Test
+	public void testPrefetchedContentIsServedFromCache() throws Exception {
+		JsonObject prefetchConfig = new JsonObject().putBoolean("enabled", true)
+				.putString("successorPath", SUCCESSOR_PATH).putNumber("depth", 1);
+		ServiceFixture service = new ServiceFixture(ontology, new JsonObject().putObject("prefetch", prefetchConfig));
+		service.start();
+		try {
+			assertEquals("Inhalt_1", contentId(service, "Task_1"));
+			assertEquals(1, ontology.count("instructions"));
+			long deadline = System.currentTimeMillis() + 5000;
+			JsonObject prefetch;
+			do {
+				Thread.sleep(20);
+				prefetch = new JsonObject(service.get("/metrics").body).getObject("prefetch");
+			} while (prefetch.getLong("warmed") < 1 && System.currentTimeMillis() < deadline);
+			assertEquals(1L, prefetch.getLong("warmed").longValue());
+
+			// the successor is answered by the entry put by the prefetcher
+			assertEquals("Inhalt_2", contentId(service, "Task_2"));
+			assertEquals(1, ontology.count("instructions"));
+		} finally {
+			service.stop();
+		}
+	}
+
+	private ContentPrefetcher prefetcher(JsonObject config) {
+		return new ContentPrefetcher(ontology, contentCache, config.putBoolean("enabled", true)
+				.putString("successorPath", SUCCESSOR_PATH));
+	}
+
+	private static String contentId(ServiceFixture service, String elementId) throws Exception {
+		ServiceFixture.Response response = service.get("/contentForTask?measureId=M1&elementId=" + elementId
+				+ "&userId=u1");
+		assertEquals(200, response.status);
+		return new JsonObject(response.body).getString("contentId");
+	}
+}
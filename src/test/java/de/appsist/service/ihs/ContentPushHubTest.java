@@ -0,0 +1,368 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.ServerWebSocket;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Subscriptions, filtering and dropping of events by the {@link ContentPushHub}, and the subscription counts shared
+ * by the hubs of all instances. The hubs run on a single event loop like the hub of a verticle.
+ */
+public class ContentPushHubTest {
+	private static final String ADDRESS = "test:push";
+
+	private Vertx vertx;
+	private Context context;
+	private ContentPushHub hub;
+	private Map<String, Integer> counts;
+
+	/*
+	 * WebSocket recording the frames written to it.
+	 */
+	private static class Socket implements InvocationHandler {
+		final ServerWebSocket proxy;
+		final String query;
+		final List<String> frames = new ArrayList<String>();
+		boolean writeQueueFull;
+		boolean rejected;
+		Handler<Buffer> dataHandler;
+		Handler<Void> closeHandler;
+
+		Socket(String query) {
+			this.query = query;
+			proxy = (ServerWebSocket) Proxy.newProxyInstance(Socket.class.getClassLoader(),
+					new Class<?>[] { ServerWebSocket.class }, this);
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			switch (method.getName()) {
+			case "query":
+				return query;
+			case "writeQueueFull":
+				return writeQueueFull;
+			case "writeTextFrame":
+				frames.add((String) args[0]);
+				break;
+			case "reject":
+				rejected = true;
+				break;
+			case "dataHandler":
+				dataHandler = (Handler<Buffer>) args[0];
+				break;
+			case "closeHandler":
+				closeHandler = (Handler<Void>) args[0];
+				break;
+			default:
+				throw new UnsupportedOperationException(method.getName());
+			}
+			return method.getReturnType().isInstance(proxy) ? proxy : null;
+		}
+
+		// content IDs of the events received
+		List<String> contents() {
+			List<String> contents = new ArrayList<String>();
+			for (String frame : frames) {
+				contents.add(new JsonObject(frame).getString("contentId"));
+			}
+			return contents;
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = VertxFactory.newVertx();
+		final AtomicReference<Context> hubContext = new AtomicReference<Context>();
+		final CountDownLatch started = new CountDownLatch(1);
+		vertx.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				hubContext.set(vertx.currentContext());
+				started.countDown();
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		context = hubContext.get();
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub = createHub(4);
+			}
+		});
+		counts = vertx.sharedData().getMap("ihs.push.subscriptions:" + ADDRESS);
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testEventsAreFiltered() throws Exception {
+		Socket all = subscribe("userId=u1");
+		Socket m1 = subscribe("userId=u1&measureId=M1");
+		Socket other = subscribe("userId=u2");
+		RecordedResponse m2 = subscribe("u1", "M2");
+		assertEquals("text/event-stream", m2.headers.get("Content-Type"));
+		assertTrue(m2.chunked);
+
+		publish("u1", "M1/Task_1", "Inhalt_1");
+		publish("u1", "M2/Task_1", "Inhalt_2");
+		publish("u3", "M1/Task_1", "Inhalt_3");
+		assertEquals("[Inhalt_1, Inhalt_2]", all.contents().toString());
+		assertEquals("[Inhalt_1]", m1.contents().toString());
+		assertTrue(other.frames.isEmpty());
+		assertTrue(m2.body().contains("data: {"));
+		assertTrue(m2.body().contains("\"Inhalt_2\""));
+		assertFalse(m2.body().contains("Inhalt_1"));
+		JsonObject event = new JsonObject(m1.frames.get(0));
+		assertEquals("u1", event.getString("userId"));
+		assertEquals("M1/Task_1", event.getString("stepId"));
+		assertEquals(4L, statistics().getLong("pushed").longValue());
+	}
+
+	@Test
+	public void testMeasureIdUpdates() throws Exception {
+		Socket socket = subscribe("userId=u1&measureId=M1");
+		update(socket, "{\"measureId\":\"M2\"}");
+		publish("u1", "M1/Task_1", "Inhalt_1");
+		publish("u1", "M2/Task_1", "Inhalt_2");
+		assertEquals("[Inhalt_2]", socket.contents().toString());
+
+		// malformed updates keep the filter
+		update(socket, "{\"measureId\":5}");
+		update(socket, "{\"measureId\":{\"id\":\"M1\"}}");
+		update(socket, "{\"other\":\"M1\"}");
+		update(socket, "M1");
+		update(socket, "[\"M1\"]");
+		publish("u1", "M1/Task_1", "Inhalt_3");
+		assertEquals("[Inhalt_2]", socket.contents().toString());
+
+		update(socket, "{\"measureId\":null}");
+		publish("u1", "M1/Task_1", "Inhalt_4");
+		update(socket, "{\"measureId\":\"M3\"}");
+		update(socket, "{\"measureId\":\"\"}");
+		publish("u1", "M1/Task_1", "Inhalt_5");
+		assertEquals("[Inhalt_2, Inhalt_4, Inhalt_5]", socket.contents().toString());
+	}
+
+	@Test
+	public void testEventsAreDroppedForSlowSubscribers() throws Exception {
+		Socket slow = subscribe("userId=u1");
+		Socket fast = subscribe("userId=u1");
+		RecordedResponse stream = subscribe("u1", null);
+		slow.writeQueueFull = true;
+		stream.writeQueueFull = true;
+		publish("u1", "M1/Task_1", "Inhalt_1");
+		assertTrue(slow.frames.isEmpty());
+		assertEquals("[Inhalt_1]", fast.contents().toString());
+		assertFalse(stream.body().contains("Inhalt_1"));
+
+		slow.writeQueueFull = false;
+		publish("u1", "M1/Task_2", "Inhalt_2");
+		assertEquals("[Inhalt_2]", slow.contents().toString());
+		JsonObject statistics = statistics();
+		assertEquals(3L, statistics.getLong("pushed").longValue());
+		assertEquals(3L, statistics.getLong("dropped").longValue());
+	}
+
+	@Test
+	public void testSubscriptionCounts() throws Exception {
+		Socket first = subscribe("userId=u1");
+		subscribe("userId=u1&measureId=M1");
+		RecordedResponse stream = subscribe("u2", null);
+		subscribe("userId=u4");
+		assertEquals(2, counts.get("u1").intValue());
+		assertEquals(1, counts.get("u2").intValue());
+
+		// the hub is full, subscriptions without a user are rejected as well
+		Socket full = subscribe("userId=u3");
+		assertTrue(full.rejected);
+		assertEquals(503, subscribe("u3", null).status);
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub.subscribe(request(null, null));
+			}
+		});
+		assertFalse(counts.containsKey("u3"));
+		assertEquals(3L, statistics().getLong("rejected").longValue());
+
+		close(first.closeHandler);
+		close(first.closeHandler);
+		close(stream.closeHandler);
+		assertEquals(1, counts.get("u1").intValue());
+		assertFalse(counts.containsKey("u2"));
+		assertEquals(2, statistics().getInteger("subscribers").intValue());
+
+		// the hub of another instance keeps its subscriptions when this one is closed
+		final AtomicReference<ContentPushHub> otherHub = new AtomicReference<ContentPushHub>();
+		run(new Runnable() {
+			@Override
+			public void run() {
+				otherHub.set(createHub(10));
+			}
+		});
+		final Socket other = new Socket("userId=u1");
+		run(new Runnable() {
+			@Override
+			public void run() {
+				otherHub.get().subscribe(other.proxy);
+			}
+		});
+		assertEquals(2, counts.get("u1").intValue());
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub.close();
+			}
+		});
+		assertEquals(1, counts.get("u1").intValue());
+		publish("u1", "M1/Task_1", "Inhalt_1");
+		assertEquals("[Inhalt_1]", other.contents().toString());
+	}
+
+	private ContentPushHub createHub(int maxSubscribers) {
+		return new ContentPushHub(vertx, new JsonObject().putString("address", ADDRESS)
+				.putNumber("maxSubscribers", maxSubscribers).putNumber("heartbeatInterval", 0));
+	}
+
+	private Socket subscribe(String query) throws InterruptedException {
+		final Socket socket = new Socket(query);
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub.subscribe(socket.proxy);
+			}
+		});
+		return socket;
+	}
+
+	private RecordedResponse subscribe(String userId, String measureId) throws InterruptedException {
+		final HttpServerRequest request = request(userId, measureId);
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub.subscribe(request);
+			}
+		});
+		return (RecordedResponse) Proxy.getInvocationHandler(request.response());
+	}
+
+	private void update(final Socket socket, final String message) throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				socket.dataHandler.handle(new Buffer(message));
+			}
+		});
+	}
+
+	private void close(final Handler<Void> closeHandler) throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				closeHandler.handle(null);
+			}
+		});
+	}
+
+	// publishes a step and waits until it has been delivered on the event loop of the hub
+	private void publish(final String userId, final String stepId, final String contentId)
+			throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				hub.publish(userId, stepId, contentId);
+			}
+		});
+		run(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+	}
+
+	private JsonObject statistics() throws InterruptedException {
+		final AtomicReference<JsonObject> statistics = new AtomicReference<JsonObject>();
+		run(new Runnable() {
+			@Override
+			public void run() {
+				statistics.set(hub.getStatistics());
+			}
+		});
+		return statistics.get();
+	}
+
+	// runs a task on the event loop of the hub and waits for it
+	private void run(final Runnable task) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		context.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					failure.set(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+
+	private static HttpServerRequest request(String userId, String measureId) {
+		final RecordedResponse response = new RecordedResponse();
+		final MultiMap params = new CaseInsensitiveMultiMap();
+		if (userId != null) {
+			params.add("userId", userId);
+		}
+		if (measureId != null) {
+			params.add("measureId", measureId);
+		}
+		return (HttpServerRequest) Proxy.newProxyInstance(ContentPushHubTest.class.getClassLoader(),
+				new Class<?>[] { HttpServerRequest.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "params":
+							return params;
+						case "response":
+							return response.proxy;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+	}
+}
@@ -0,0 +1,98 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Contents served from the {@link ContentSnapshot} compared with the contents queried from the ontology for the same
+ * small ontology.
+ */
+public class ContentSnapshotTest {
+	private static final String MEASURES = TestOntology.ONTOLOGY + "massnahmen/";
+	private static final String CONTENTS = TestOntology.ONTOLOGY + "inhalte/";
+	private static final String SKILLED = TestOntology.ONTOLOGY + "Fachkraft";
+	private static final String UNSKILLED = TestOntology.ONTOLOGY + "Laie";
+	private static final String TRAINEE = TestOntology.ONTOLOGY + "Azubi";
+
+	private static final String[] REQUESTS = {
+			"/contentForTask?measureId=M1&elementId=Task_1&userId=u1",
+			"/contentForTask?measureId=M1&elementId=Task_2&userId=u1",
+			"/contentForTask?measureId=M1&elementId=Task_3&userId=u1",
+			"/contentForTask?measureId=M2&elementId=Task_1&userId=u2",
+			"/contentForTask?measureId=M9&elementId=Task_1&userId=u1",
+			"/contentForActivity?measureId=M2&elementId=Activity_1&userId=u2",
+			"/additionalContent?measureId=M1&elementId=Task_1&userId=u1",
+			"/additionalContent?measureId=M1&elementId=Task_1&userId=u2",
+			"/additionalContent?measureId=M1&elementId=Task_1&userId=u3",
+			"/additionalContent?measureId=M1&elementId=Task_1&userId=u4",
+			"/additionalContent?measureId=M1&elementId=Task_2&userId=u1",
+			"/additionalContent?measureId=M1&elementId=Task_2&userId=u2",
+			"/additionalContent?measureId=M2&elementId=Task_1&userId=u3",
+			"/additionalContent?measureId=M1&elementId=Task_3&userId=u1" };
+
+	@Test
+	public void testSnapshotMatchesQueries() throws Exception {
+		List<String> queried = serve(false);
+		List<String> snapshot = serve(true);
+		assertEquals(queried, snapshot);
+		// the fixture distinguishes instructions, target groups and missing contents
+		assertTrue(queried.get(0), queried.get(0).contains("Inhalt_1"));
+		assertTrue(queried.get(1), queried.get(1).contains("Inhalt_2a"));
+		assertTrue(queried.get(6), queried.get(6).contains("Zusatz_B"));
+		assertTrue(queried.get(7), queried.get(7).contains("Zusatz_A"));
+		assertTrue(queried.get(8), queried.get(8).contains("Zusatz_B"));
+		assertTrue(queried.get(9), queried.get(9).contains("Zusatz_C"));
+		assertTrue(queried.get(12), queried.get(12).contains("Zusatz_D"));
+	}
+
+	// serves all requests by a new service and returns the status and body of each response
+	private static List<String> serve(boolean snapshot) throws Exception {
+		TestOntology ontology = new TestOntology()
+				.measure(MEASURES + "M1")
+				.measure(MEASURES + "M2")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_1")
+				.instruction(MEASURES + "M1/Task_2", CONTENTS + "Inhalt_2b")
+				.instruction(MEASURES + "M1/Task_2", CONTENTS + "Inhalt_2a")
+				.instruction(MEASURES + "M2/Task_1", CONTENTS + "Inhalt_3")
+				.instruction(MEASURES + "M2/Activity_1", CONTENTS + "Inhalt_4")
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_A", UNSKILLED)
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_B", SKILLED, TRAINEE)
+				.additionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_C")
+				.additionalContent(MEASURES + "M1/Task_2", CONTENTS + "Zusatz_A", SKILLED)
+				.additionalContent(MEASURES + "M2/Task_1", CONTENTS + "Zusatz_D");
+		ServiceFixture service = new ServiceFixture(ontology, new JsonObject().putObject("snapshot",
+				new JsonObject().putBoolean("enabled", snapshot)));
+		service.employeeType("u1", SKILLED);
+		service.employeeType("u2", UNSKILLED);
+		service.employeeType("u3", TRAINEE);
+		service.employeeType("u4", TestOntology.ONTOLOGY + "Meister");
+		service.start();
+		try {
+			List<String> responses = new ArrayList<String>();
+			for (String request : REQUESTS) {
+				ServiceFixture.Response response = service.get(request);
+				responses.add(response.status + " " + response.body);
+			}
+			JsonObject metrics = new JsonObject(service.get("/metrics").body);
+			if (snapshot) {
+				// all lookups have been answered by the snapshot
+				assertEquals(0, ontology.count("instructions") + ontology.count("additionalContents"));
+				JsonObject snapshotMetrics = metrics.getObject("contentSnapshot");
+				assertEquals(4, snapshotMetrics.getInteger("processElements").intValue());
+				assertTrue(snapshotMetrics.getLong("age") >= 0);
+			} else {
+				assertTrue(ontology.count("instructions") > 0);
+				assertEquals(null, metrics.getObject("contentSnapshot"));
+			}
+			return responses;
+		} finally {
+			service.stop();
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Bucket boundaries and percentile accuracy of the {@link Histogram}.
+ */
+public class HistogramTest {
+	private static final long MAX_VALUE = (1L << 40) - 1;
+
+	@Test
+	public void testSmallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int value = 63; value >= 0; value--) {
+			histogram.record(value);
+		}
+		assertEquals(64, histogram.getCount());
+		assertEquals(0, histogram.getMin());
+		assertEquals(63, histogram.getMax());
+		assertEquals(31.5, histogram.getMean(), 0);
+		assertEquals(0, histogram.getValueAtPercentile(0));
+		assertEquals(31, histogram.getValueAtPercentile(50));
+		assertEquals(47, histogram.getValueAtPercentile(75));
+		assertEquals(63, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testBucketBoundaries() {
+		// from 64 on, buckets hold 2, 4, 8, ... values each, 32 buckets per power of two
+		assertEquals(63, bucketEnd(63));
+		assertEquals(65, bucketEnd(64));
+		assertEquals(65, bucketEnd(65));
+		assertEquals(67, bucketEnd(66));
+		assertEquals(127, bucketEnd(126));
+		assertEquals(127, bucketEnd(127));
+		assertEquals(131, bucketEnd(128));
+		assertEquals(131, bucketEnd(131));
+		assertEquals(135, bucketEnd(132));
+		assertEquals(1007, bucketEnd(1000));
+		assertEquals(1055, bucketEnd(1024));
+		assertEquals((1L << 39) + (1L << 34) - 1, bucketEnd(1L << 39));
+	}
+
+	@Test
+	public void testRelativeError() {
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long value = random.nextLong() >>> (24 + random.nextInt(40));
+			long end = bucketEnd(value);
+			assertTrue(value + " in bucket ending at " + end, end >= value);
+			assertTrue(value + " in bucket ending at " + end, end - value <= value / 32);
+		}
+		for (int bits = 6; bits < 39; bits++) {
+			long value = 1L << bits;
+			assertEquals(value - 1, bucketEnd(value - 1));
+			assertTrue(bucketEnd(value) >= value);
+		}
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		long[] values = new long[100000];
+		Random random = new Random(7);
+		for (int i = 0; i < values.length; i++) {
+			// long tail as in latencies
+			values[i] = (long) (1000 * Math.exp(random.nextGaussian()));
+			histogram.record(values[i]);
+		}
+		Arrays.sort(values);
+		for (double percentile : new double[] { 0, 1, 10, 50, 90, 99, 99.9 }) {
+			long exact = values[Math.max(0, (int) Math.ceil(percentile / 100 * values.length) - 1)];
+			long reported = histogram.getValueAtPercentile(percentile);
+			assertTrue(percentile + ": " + reported + " for " + exact, reported >= exact);
+			assertTrue(percentile + ": " + reported + " for " + exact, reported - exact <= exact / 32);
+		}
+		assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+		assertEquals(values[values.length - 1], histogram.getValueAtPercentile(150));
+	}
+
+	@Test
+	public void testPercentileIsWithinMinAndMax() {
+		Histogram histogram = new Histogram();
+		histogram.record(1000);
+		histogram.record(1001);
+		// both values share the bucket ending at 1007
+		assertEquals(1001, histogram.getValueAtPercentile(50));
+		assertEquals(1001, histogram.getValueAtPercentile(99));
+	}
+
+	@Test
+	public void testValuesOutOfRange() {
+		Histogram histogram = new Histogram();
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getMin());
+		assertEquals(MAX_VALUE, histogram.getMax());
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testEmptyAndReset() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getValueAtPercentile(50));
+		assertEquals(0, histogram.getMin());
+		assertEquals(0, histogram.getMax());
+		assertEquals(0, histogram.getMean(), 0);
+		histogram.record(100);
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getValueAtPercentile(100));
+		histogram.record(7);
+		assertEquals(7, histogram.getMin());
+		assertEquals(7, histogram.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void testJson() {
+		Histogram histogram = new Histogram();
+		for (int value = 1; value <= 1000; value++) {
+			histogram.record(value);
+		}
+		JsonObject json = histogram.toJson();
+		assertEquals(1000L, json.getLong("count").longValue());
+		assertEquals(501L, json.getLong("mean").longValue());
+		assertEquals(1L, json.getLong("min").longValue());
+		assertEquals(1000L, json.getLong("max").longValue());
+		assertEquals(histogram.getValueAtPercentile(50), json.getLong("p50").longValue());
+		assertEquals(histogram.getValueAtPercentile(90), json.getLong("p90").longValue());
+		assertEquals(histogram.getValueAtPercentile(99), json.getLong("p99").longValue());
+		assertEquals(histogram.getValueAtPercentile(99.9), json.getLong("p999").longValue());
+	}
+
+	// the largest value counted in the bucket of the given value, read back as the percentile of that bucket
+	private static long bucketEnd(long value) {
+		Histogram histogram = new Histogram();
+		histogram.record(value);
+		histogram.record(MAX_VALUE);
+		return histogram.getValueAtPercentile(50);
+	}
+}
@@ -0,0 +1,181 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URLDecoder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Queries sent by the {@link HttpSparqlTransport} to a stub of the SparQL endpoint, which answers by the query:
+ * with a result, not at all, with a server error or with a gzip-compressed result.
+ */
+public class HttpSparqlTransportTest {
+	// characters which have to be encoded in the form
+	private static final String QUERY = "SELECT ?inhalt WHERE { ?inhalt ?p \"\u00fc&=\" }";
+	private static final String RESULT = "{\"head\":{\"vars\":[\"inhalt\"]},\"results\":{\"bindings\":[]}}";
+
+	private Vertx vertx;
+	private int port;
+	// headers and form of the last request received by the stub
+	private volatile String contentType;
+	private volatile String accept;
+	private volatile String acceptEncoding;
+	private volatile String receivedQuery;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = VertxFactory.newVertx();
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		HttpServer server = vertx.createHttpServer().requestHandler(new Handler<HttpServerRequest>() {
+			@Override
+			public void handle(final HttpServerRequest request) {
+				contentType = request.headers().get("Content-Type");
+				accept = request.headers().get("Accept");
+				acceptEncoding = request.headers().get("Accept-Encoding");
+				request.bodyHandler(new Handler<Buffer>() {
+					@Override
+					public void handle(Buffer body) {
+						try {
+							receivedQuery = URLDecoder.decode(body.toString("UTF-8").substring("query=".length()),
+									"UTF-8");
+							answer(request, receivedQuery);
+						} catch (IOException e) {
+							request.response().setStatusCode(400).end();
+						}
+					}
+				});
+			}
+		});
+		final CountDownLatch listening = new CountDownLatch(1);
+		server.listen(port, "localhost", new Handler<AsyncResult<HttpServer>>() {
+			@Override
+			public void handle(AsyncResult<HttpServer> result) {
+				listening.countDown();
+			}
+		});
+		assertTrue(listening.await(5, TimeUnit.SECONDS));
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testResult() throws Exception {
+		AsyncResult<String> result = send(transport(true), QUERY, 5000);
+		assertTrue(result.succeeded());
+		assertEquals(RESULT, result.result());
+		assertEquals(QUERY, receivedQuery);
+		assertTrue(contentType.startsWith("application/x-www-form-urlencoded"));
+		assertEquals("application/sparql-results+json", accept);
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		long start = System.currentTimeMillis();
+		AsyncResult<String> result = send(transport(true), "slow", 200);
+		assertTrue(result.failed());
+		assertTrue(result.cause() instanceof TimeoutException);
+		assertTrue(System.currentTimeMillis() - start < 4000);
+	}
+
+	@Test
+	public void testServerError() throws Exception {
+		AsyncResult<String> result = send(transport(true), "error", 5000);
+		assertTrue(result.failed());
+		assertTrue(result.cause() instanceof IOException);
+		assertTrue(result.cause().getMessage().contains("503"));
+	}
+
+	@Test
+	public void testCompressedResult() throws Exception {
+		AsyncResult<String> result = send(transport(true), "gzip", 5000);
+		assertTrue(result.succeeded());
+		assertEquals(RESULT, result.result());
+		assertTrue(acceptEncoding.contains("gzip"));
+
+		// without compression the stub answers uncompressed
+		result = send(transport(false), "gzip", 5000);
+		assertTrue(result.succeeded());
+		assertEquals(RESULT, result.result());
+		assertNull(acceptEncoding);
+	}
+
+	private HttpSparqlTransport transport(boolean compression) {
+		return new HttpSparqlTransport(vertx, new JsonObject().putString("reqBaseUrl", "http://localhost")
+				.putNumber("reqBasePort", port).putBoolean("compression", compression));
+	}
+
+	// sends a query from an event loop like a verticle and waits for the result
+	private AsyncResult<String> send(final HttpSparqlTransport transport, final String query, final long timeout)
+			throws InterruptedException {
+		final AtomicReference<AsyncResult<String>> result = new AtomicReference<AsyncResult<String>>();
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(1);
+		vertx.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				transport.send(query, timeout, new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> reply) {
+						calls.incrementAndGet();
+						result.set(reply);
+						done.countDown();
+					}
+				});
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertEquals(1, calls.get());
+		return result.get();
+	}
+
+	private void answer(HttpServerRequest request, String query) throws IOException {
+		switch (query) {
+		case "slow":
+			// never answered
+			break;
+		case "error":
+			request.response().setStatusCode(503).setStatusMessage("Service Unavailable").end();
+			break;
+		case "gzip":
+			if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+					out.write(RESULT.getBytes("UTF-8"));
+				}
+				request.response().putHeader("Content-Encoding", "gzip").end(new Buffer(compressed.toByteArray()));
+			} else {
+				request.response().end(RESULT);
+			}
+			break;
+		default:
+			request.response().putHeader("Content-Type", "application/sparql-results+json").end(RESULT);
+		}
+	}
+}
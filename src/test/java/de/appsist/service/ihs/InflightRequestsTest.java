@@ -0,0 +1,114 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+
+/**
+ * Coalescing of lookups by {@link InflightRequests}.
+ */
+public class InflightRequestsTest {
+
+	/**
+	 * Lookup started through the registry, counting the queries it sends.
+	 */
+	private static final class Lookup {
+		final InflightRequests<String> inflight;
+		final List<String> queries = new ArrayList<String>();
+
+		Lookup(InflightRequests<String> inflight) {
+			this.inflight = inflight;
+		}
+
+		void lookup(String key, Handler<String> handler) {
+			if (inflight.join(key, handler)) {
+				queries.add(key);
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentLookupsShareOneQuery() {
+		Lookup lookup = new Lookup(new InflightRequests<String>());
+		List<String> results = new ArrayList<String>();
+		lookup.lookup("a", collect(results, "1"));
+		lookup.lookup("a", collect(results, "2"));
+		lookup.lookup("b", collect(results, "3"));
+		lookup.lookup("a", collect(results, "4"));
+		assertEquals(Arrays.asList("a", "b"), lookup.queries);
+		assertEquals(2, lookup.inflight.size());
+
+		lookup.inflight.complete("a", "A");
+		assertEquals(Arrays.asList("1:A", "2:A", "4:A"), results);
+		assertEquals(1, lookup.inflight.size());
+		lookup.inflight.complete("b", null);
+		assertEquals(Arrays.asList("1:A", "2:A", "4:A", "3:null"), results);
+		assertEquals(0, lookup.inflight.size());
+	}
+
+	@Test
+	public void testCompletedKeyIsQueriedAgain() {
+		Lookup lookup = new Lookup(new InflightRequests<String>());
+		List<String> results = new ArrayList<String>();
+		lookup.lookup("a", collect(results, "1"));
+		lookup.inflight.complete("a", "A");
+		lookup.lookup("a", collect(results, "2"));
+		assertEquals(Arrays.asList("a", "a"), lookup.queries);
+		// completing an unknown key is ignored
+		lookup.inflight.complete("unknown", "X");
+		assertEquals(Arrays.asList("1:A"), results);
+	}
+
+	@Test
+	public void testLostLookupIsRetried() throws InterruptedException {
+		Lookup lookup = new Lookup(new InflightRequests<String>(50));
+		List<String> results = new ArrayList<String>();
+		lookup.lookup("a", collect(results, "1"));
+		lookup.lookup("a", collect(results, "2"));
+		assertEquals(1, lookup.queries.size());
+		Thread.sleep(100);
+		// the reply of the first query is considered lost
+		lookup.lookup("a", collect(results, "3"));
+		lookup.lookup("a", collect(results, "4"));
+		assertEquals(Arrays.asList("a", "a"), lookup.queries);
+		assertEquals(1, lookup.inflight.size());
+
+		// the result of the new query is passed to the waiting handlers of both
+		lookup.inflight.complete("a", "A");
+		assertEquals(Arrays.asList("1:A", "2:A", "3:A", "4:A"), results);
+		assertEquals(0, lookup.inflight.size());
+	}
+
+	@Test
+	public void testThrowingHandler() {
+		InflightRequests<String> inflight = new InflightRequests<String>();
+		List<String> results = new ArrayList<String>();
+		assertTrue(inflight.join("a", collect(results, "1")));
+		assertFalse(inflight.join("a", new Handler<String>() {
+			@Override
+			public void handle(String result) {
+				throw new IllegalStateException("failed");
+			}
+		}));
+		assertFalse(inflight.join("a", collect(results, "3")));
+		inflight.complete("a", "A");
+		assertEquals(Arrays.asList("1:A", "3:A"), results);
+		assertEquals(0, inflight.size());
+	}
+
+	private static Handler<String> collect(final List<String> results, final String name) {
+		return new Handler<String>() {
+			@Override
+			public void handle(String result) {
+				results.add(name + ":" + result);
+			}
+		};
+	}
+}
@@ -0,0 +1,109 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Counters and request traces of the {@link PipelineMetrics}.
+ */
+public class PipelineMetricsTest {
+
+	@Test
+	public void testTraces() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		PipelineMetrics.Trace found = metrics.startRequest();
+		PipelineMetrics.Trace empty = metrics.startRequest();
+		PipelineMetrics.Trace failed = metrics.startRequest();
+		metrics.startRequest();
+		JsonObject json = metrics.toJson();
+		assertEquals(4L, json.getLong("requests").longValue());
+		assertEquals(4L, json.getLong("inFlight").longValue());
+		assertEquals(0.0, json.getNumber("errorRate").doubleValue(), 0);
+
+		found.finish(false);
+		empty.finish(true);
+		failed.fail();
+		json = metrics.toJson();
+		assertEquals(1L, json.getLong("inFlight").longValue());
+		assertEquals(1L, json.getLong("errors").longValue());
+		assertEquals(1L, json.getLong("emptyResults").longValue());
+		assertEquals(1 / 3.0, json.getNumber("errorRate").doubleValue(), 1e-9);
+		assertEquals(1 / 3.0, json.getNumber("emptyResultRate").doubleValue(), 1e-9);
+		assertEquals(3L, json.getObject("stages").getObject(PipelineMetrics.REQUEST).getLong("count").longValue());
+	}
+
+	@Test
+	public void testTraceIsFinishedOnce() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		PipelineMetrics.Trace trace = metrics.startRequest();
+		trace.finish(true);
+		trace.finish(true);
+		trace.fail();
+		PipelineMetrics.Trace failed = metrics.startRequest();
+		failed.fail();
+		failed.fail();
+		failed.finish(true);
+		JsonObject json = metrics.toJson();
+		assertEquals(0L, json.getLong("inFlight").longValue());
+		assertEquals(1L, json.getLong("errors").longValue());
+		assertEquals(1L, json.getLong("emptyResults").longValue());
+		assertEquals(2L, json.getObject("stages").getObject(PipelineMetrics.REQUEST).getLong("count").longValue());
+	}
+
+	@Test
+	public void testSemwikiQueries() {
+		PipelineMetrics metrics = new PipelineMetrics();
+		PipelineMetrics.Trace first = metrics.startRequest();
+		PipelineMetrics.Trace second = metrics.startRequest();
+		first.semwikiQuery();
+		first.semwikiQuery();
+		first.semwikiQuery();
+		second.semwikiQuery();
+		// queries for indexes do not belong to a request
+		metrics.semwikiQuery();
+		first.finish(false);
+		second.finish(false);
+		JsonObject json = metrics.toJson();
+		assertEquals(5L, json.getLong("semwikiQueries").longValue());
+		JsonObject perRequest = json.getObject("semwikiQueriesPerRequest");
+		assertEquals(2L, perRequest.getLong("count").longValue());
+		assertEquals(1L, perRequest.getLong("min").longValue());
+		assertEquals(3L, perRequest.getLong("max").longValue());
+		assertEquals(2L, perRequest.getLong("mean").longValue());
+	}
+
+	@Test
+	public void testStageDurations() throws InterruptedException {
+		PipelineMetrics metrics = new PipelineMetrics();
+		long start = System.nanoTime();
+		Thread.sleep(20);
+		metrics.record(PipelineMetrics.CONTENT_QUERY, start);
+		metrics.record(PipelineMetrics.USER_LOOKUP, System.nanoTime());
+		JsonObject stages = metrics.toJson().getObject("stages");
+		// durations are recorded in microseconds
+		long contentQuery = stages.getObject(PipelineMetrics.CONTENT_QUERY).getLong("max");
+		assertTrue(String.valueOf(contentQuery), contentQuery >= 20000 && contentQuery < 20000000);
+		assertTrue(stages.getObject(PipelineMetrics.USER_LOOKUP).getLong("max") < 20000);
+		assertEquals(0L, stages.getObject(PipelineMetrics.KVD_PUBLISH).getLong("count").longValue());
+		assertEquals(6, stages.size());
+	}
+
+	@Test
+	public void testThroughput() throws InterruptedException {
+		PipelineMetrics metrics = new PipelineMetrics();
+		metrics.tick();
+		for (int i = 0; i < 100; i++) {
+			metrics.startRequest().finish(false);
+		}
+		Thread.sleep(100);
+		metrics.tick();
+		double requestsPerSecond = metrics.toJson().getNumber("requestsPerSecond").doubleValue();
+		// 100 requests in at least 100 ms
+		assertTrue(String.valueOf(requestsPerSecond), requestsPerSecond > 0 && requestsPerSecond <= 1000);
+		metrics.tick();
+		assertEquals(0.0, metrics.toJson().getNumber("requestsPerSecond").doubleValue(), 0);
+	}
+}
@@ -0,0 +1,104 @@
+package de.appsist.service.ihs;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.http.HttpServerResponse;
+
+/**
+ * Records the status, headers and body written to a response. The body is kept as the bytes written, the response
+ * given by {@link #proxy} throws for methods which are not recorded.
+ */
+final class RecordedResponse implements InvocationHandler {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	final HttpServerResponse proxy;
+	final Map<String, String> headers = new HashMap<String, String>();
+	private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+	int status = 200;
+	int writes;
+	boolean chunked;
+	boolean ended;
+	boolean closed;
+	// reported by writeQueueFull()
+	volatile boolean writeQueueFull;
+	Handler<Void> closeHandler;
+
+	RecordedResponse() {
+		proxy = (HttpServerResponse) Proxy.newProxyInstance(RecordedResponse.class.getClassLoader(),
+				new Class<?>[] { HttpServerResponse.class }, this);
+	}
+
+	@Override
+	public synchronized Object invoke(Object proxy, Method method, Object[] args) {
+		if (ended && !method.getName().equals("close")) {
+			throw new IllegalStateException(method.getName() + " after the response has ended");
+		}
+		switch (method.getName()) {
+		case "setStatusCode":
+			status = (Integer) args[0];
+			break;
+		case "setChunked":
+			chunked = (Boolean) args[0];
+			break;
+		case "putHeader":
+			headers.put(args[0].toString(), args[1].toString());
+			break;
+		case "write":
+			writes++;
+			append(args[0]);
+			break;
+		case "end":
+			if (args != null) {
+				append(args[0]);
+			}
+			ended = true;
+			notifyAll();
+			break;
+		case "close":
+			closed = true;
+			break;
+		case "writeQueueFull":
+			return writeQueueFull;
+		case "closeHandler":
+			@SuppressWarnings("unchecked")
+			Handler<Void> handler = (Handler<Void>) args[0];
+			closeHandler = handler;
+			break;
+		default:
+			throw new UnsupportedOperationException(method.getName());
+		}
+		return method.getReturnType().isInstance(proxy) ? proxy : null;
+	}
+
+	synchronized String body() {
+		return new String(body.toByteArray(), UTF8);
+	}
+
+	synchronized byte[] bytes() {
+		return body.toByteArray();
+	}
+
+	/**
+	 * Waits until the response has been ended, e.g., by a handler running on an event loop.
+	 */
+	synchronized boolean awaitEnd(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!ended && System.currentTimeMillis() < deadline) {
+			wait(Math.max(1, deadline - System.currentTimeMillis()));
+		}
+		return ended;
+	}
+
+	private void append(Object data) {
+		byte[] bytes = data instanceof Buffer ? ((Buffer) data).getBytes() : data.toString().getBytes(UTF8);
+		body.write(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,145 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.ihs.ResultCache.EvictionPolicy;
+
+/**
+ * Eviction and expiration of the {@link ResultCache}.
+ */
+public class ResultCacheTest {
+	private static final long TTL = 60000;
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		ResultCache<String> cache = new ResultCache<String>(TTL, 2, EvictionPolicy.LRU);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		assertEquals("A", cache.get("a"));
+		cache.put("c", "C");
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+		assertEquals(1L, cache.getStatistics().getLong("evictions").longValue());
+	}
+
+	@Test
+	public void testLfuEvictsLeastFrequentlyUsed() {
+		ResultCache<String> cache = new ResultCache<String>(TTL, 2, EvictionPolicy.LFU);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.get("a");
+		cache.get("a");
+		cache.get("b");
+		cache.put("c", "C");
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals("A", cache.get("a"));
+		assertEquals("C", cache.get("c"));
+	}
+
+	@Test
+	public void testLfuKeepsNewEntries() {
+		ResultCache<String> cache = new ResultCache<String>(TTL, 3, EvictionPolicy.LFU);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.put("c", "C");
+		use(cache, "a", 5);
+		use(cache, "b", 2);
+		use(cache, "c", 2);
+		// b is evicted, d starts with its count of two
+		cache.put("d", "D");
+		// c and d have the same count, the older one is evicted
+		cache.put("e", "E");
+		assertEquals(3, cache.size());
+		assertNull(cache.get("b"));
+		assertNull(cache.get("c"));
+		assertEquals("D", cache.get("d"));
+		assertEquals("E", cache.get("e"));
+		assertEquals("A", cache.get("a"));
+	}
+
+	@Test
+	public void testLfuReplacedEntryIsNotEvicted() {
+		ResultCache<String> cache = new ResultCache<String>(TTL, 2, EvictionPolicy.LFU);
+		cache.put("a", "A");
+		cache.put("b", "B");
+		cache.put("a", "A2");
+		assertEquals(2, cache.size());
+		assertEquals("A2", cache.get("a"));
+		assertEquals("B", cache.get("b"));
+	}
+
+	@Test
+	public void testExpiration() throws InterruptedException {
+		for (EvictionPolicy policy : EvictionPolicy.values()) {
+			ResultCache<String> cache = new ResultCache<String>(50, 10, policy);
+			cache.put("a", "A");
+			assertEquals("A", cache.get("a"));
+			Thread.sleep(100);
+			assertNull(cache.get("a"));
+			assertEquals(0, cache.size());
+			JsonObject statistics = cache.getStatistics();
+			assertEquals(1L, statistics.getLong("expirations").longValue());
+			assertEquals(1L, statistics.getLong("hits").longValue());
+			assertEquals(1L, statistics.getLong("misses").longValue());
+		}
+	}
+
+	@Test
+	public void testExpiredEntryIsEvictedFirst() throws InterruptedException {
+		ResultCache<String> cache = new ResultCache<String>(50, 1, EvictionPolicy.LRU);
+		cache.put("a", "A");
+		Thread.sleep(100);
+		cache.put("b", "B");
+		JsonObject statistics = cache.getStatistics();
+		assertEquals(1L, statistics.getLong("expirations").longValue());
+		assertEquals(0L, statistics.getLong("evictions").longValue());
+	}
+
+	@Test
+	public void testDisabled() {
+		ResultCache<String> cache = new ResultCache<String>(new JsonObject().putBoolean("enabled", false));
+		cache.put("a", "A");
+		assertNull(cache.get("a"));
+		cache = new ResultCache<String>(0, 10, EvictionPolicy.LRU);
+		cache.put("a", "A");
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testConfiguration() {
+		ResultCache<String> cache = new ResultCache<String>(new JsonObject().putString("eviction", "LFU")
+				.putNumber("maxEntries", 5));
+		JsonObject statistics = cache.getStatistics();
+		assertEquals("lfu", statistics.getString("eviction"));
+		assertEquals(5, statistics.getInteger("maxEntries").intValue());
+	}
+
+	@Test
+	public void testInvalidateAndClear() {
+		for (EvictionPolicy policy : EvictionPolicy.values()) {
+			ResultCache<String> cache = new ResultCache<String>(TTL, 10, policy);
+			cache.put("a", "A");
+			cache.put("b", "B");
+			cache.put("c", null);
+			cache.invalidate("a");
+			assertNull(cache.get("a"));
+			assertEquals(1, cache.size());
+			cache.clear();
+			assertNull(cache.get("b"));
+			assertEquals(0, cache.size());
+		}
+	}
+
+	private static void use(ResultCache<String> cache, String key, int times) {
+		for (int i = 0; i < times; i++) {
+			cache.get(key);
+		}
+	}
+}
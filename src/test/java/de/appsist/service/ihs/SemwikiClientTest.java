@@ -0,0 +1,262 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Circuit breaker and queue of the {@link SemwikiClient}, with a transport whose queries are completed by the test.
+ * The client runs on a single event loop like the client of a verticle.
+ */
+public class SemwikiClientTest {
+	private Vertx vertx;
+	private Context context;
+	private Transport transport;
+	private SemwikiClient client;
+	// outcomes of the queries by the order they were sent by the test
+	private List<AsyncResult<String>> results;
+
+	/*
+	 * Transport keeping the queries sent until the test completes them.
+	 */
+	private static class Transport implements SparqlTransport {
+		final List<String> queries = new ArrayList<String>();
+		final List<Handler<AsyncResult<String>>> handlers = new ArrayList<Handler<AsyncResult<String>>>();
+
+		@Override
+		public void send(String query, long timeout, Handler<AsyncResult<String>> resultHandler) {
+			queries.add(query);
+			handlers.add(resultHandler);
+		}
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = VertxFactory.newVertx();
+		final AtomicReference<Context> clientContext = new AtomicReference<Context>();
+		final CountDownLatch started = new CountDownLatch(1);
+		vertx.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				clientContext.set(vertx.currentContext());
+				started.countDown();
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		context = clientContext.get();
+		transport = new Transport();
+		results = new ArrayList<AsyncResult<String>>();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testCircuitOpensAfterThreshold() throws Exception {
+		createClient(new JsonObject().putNumber("failureThreshold", 3).putNumber("resetTimeout", 60000));
+		query("q1");
+		query("q2");
+		fail(0);
+		fail(1);
+		assertEquals("closed", statistics().getString("circuit"));
+		query("q3");
+		fail(2);
+		assertEquals("open", statistics().getString("circuit"));
+
+		// queries are rejected at once without reaching the transport
+		query("q4");
+		assertEquals(3, transport.queries.size());
+		assertUnavailable(3);
+		JsonObject statistics = statistics();
+		assertEquals(3L, statistics.getLong("failed").longValue());
+		assertEquals(1L, statistics.getLong("rejected").longValue());
+	}
+
+	@Test
+	public void testSuccessResetsFailures() throws Exception {
+		createClient(new JsonObject().putNumber("failureThreshold", 2).putNumber("resetTimeout", 60000));
+		query("q1");
+		fail(0);
+		query("q2");
+		succeed(1);
+		query("q3");
+		fail(2);
+		assertEquals("closed", statistics().getString("circuit"));
+		assertEquals("r1", results.get(1).result());
+	}
+
+	@Test
+	public void testSingleProbeAndRecovery() throws Exception {
+		createClient(new JsonObject().putNumber("failureThreshold", 1).putNumber("resetTimeout", 100));
+		query("q1");
+		fail(0);
+		assertEquals("open", statistics().getString("circuit"));
+		Thread.sleep(200);
+
+		// the first query after the reset timeout probes the backend, the others are rejected meanwhile
+		query("probe");
+		query("q3");
+		assertEquals("[q1, probe]", transport.queries.toString());
+		assertEquals("half_open", statistics().getString("circuit"));
+		assertUnavailable(2);
+		succeed(1);
+		assertEquals("closed", statistics().getString("circuit"));
+		query("q4");
+		query("q5");
+		assertEquals("[q1, probe, q4, q5]", transport.queries.toString());
+	}
+
+	@Test
+	public void testFailedProbeOpensCircuitAgain() throws Exception {
+		createClient(new JsonObject().putNumber("failureThreshold", 1).putNumber("resetTimeout", 100));
+		query("q1");
+		fail(0);
+		Thread.sleep(200);
+		query("probe");
+		fail(1);
+		assertEquals("open", statistics().getString("circuit"));
+		query("q3");
+		assertUnavailable(2);
+		assertEquals(2, transport.queries.size());
+	}
+
+	@Test
+	public void testQueuedQueries() throws Exception {
+		createClient(new JsonObject().putNumber("maxInFlight", 1).putNumber("maxQueued", 1).putNumber("timeout", 5000));
+		query("q1");
+		query("q2");
+		// the queue is full
+		query("q3");
+		assertUnavailable(2);
+		assertEquals(1, statistics().getInteger("queued").intValue());
+
+		// the queued query is sent once a slot is free
+		succeed(0);
+		assertEquals("[q1, q2]", transport.queries.toString());
+		succeed(1);
+		assertEquals("r1", results.get(1).result());
+		assertEquals(0, statistics().getInteger("queued").intValue());
+	}
+
+	@Test
+	public void testQueuedQueryTimesOut() throws Exception {
+		createClient(new JsonObject().putNumber("maxInFlight", 1).putNumber("maxQueued", 4).putNumber("timeout", 100));
+		query("q1");
+		query("q2");
+		Thread.sleep(300);
+		assertUnavailable(1);
+		JsonObject statistics = statistics();
+		assertEquals(1L, statistics.getLong("timedOut").longValue());
+		assertEquals(0, statistics.getInteger("queued").intValue());
+
+		// the query timed out is not sent when the slot is freed
+		succeed(0);
+		assertEquals("[q1]", transport.queries.toString());
+		assertEquals(2, results.size());
+	}
+
+	private void createClient(final JsonObject config) throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				client = new SemwikiClient(vertx, config, transport);
+			}
+		});
+	}
+
+	private void query(final String query) throws InterruptedException {
+		final int index = results.size();
+		results.add(null);
+		run(new Runnable() {
+			@Override
+			public void run() {
+				client.query(query, new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> result) {
+						results.set(index, result);
+					}
+				});
+			}
+		});
+	}
+
+	// completes the query sent as the given one by the transport
+	private void succeed(final int sent) throws InterruptedException {
+		complete(sent, new DefaultFutureResult<String>("r" + sent));
+	}
+
+	private void fail(int sent) throws InterruptedException {
+		complete(sent, new DefaultFutureResult<String>(new IllegalStateException("failed")));
+	}
+
+	private void complete(final int sent, final AsyncResult<String> result) throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				transport.handlers.get(sent).handle(result);
+			}
+		});
+	}
+
+	private void assertUnavailable(final int query) throws InterruptedException {
+		// wait for timers which fired meanwhile
+		run(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+		assertTrue(results.get(query).failed());
+		assertTrue(results.get(query).cause() instanceof SemwikiUnavailableException);
+	}
+
+	private JsonObject statistics() throws InterruptedException {
+		final AtomicReference<JsonObject> statistics = new AtomicReference<JsonObject>();
+		run(new Runnable() {
+			@Override
+			public void run() {
+				statistics.set(client.getStatistics());
+			}
+		});
+		return statistics.get();
+	}
+
+	// runs a task on the event loop of the client and waits for it
+	private void run(final Runnable task) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		context.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					failure.set(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package de.appsist.service.ihs;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.PlatformLocator;
+import org.vertx.java.platform.PlatformManager;
+
+/**
+ * Runs the service against a {@link TestOntology} answering the semwiki queries and a user model knowing the
+ * employee types of the users added. The service is deployed on a free port and requests are sent with blocking
+ * HTTP calls.
+ */
+final class ServiceFixture {
+	static final String BASE_PATH = "/services/ihs";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Status and body of a response.
+	 */
+	static final class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private final PlatformManager platformManager;
+	private final Map<String, String> employeeTypes = new HashMap<String, String>();
+	private final JsonObject config;
+	private final int port;
+
+	/**
+	 * Creates the fixture with a configuration whose sections replace those of the minimal configuration of the
+	 * service. The content snapshot is disabled unless enabled by the configuration.
+	 */
+	ServiceFixture(TestOntology ontology, JsonObject config) throws IOException {
+		port = freePort();
+		JsonObject webserverConfig = new JsonObject();
+		webserverConfig.putNumber("port", port);
+		webserverConfig.putString("basePath", BASE_PATH);
+		webserverConfig.putString("statics", new File("src/main/resources/www").getAbsolutePath());
+		this.config = new JsonObject();
+		this.config.putObject("webserver", webserverConfig);
+		this.config.putObject("snapshot", new JsonObject().putBoolean("enabled", false));
+		this.config.putObject("metrics", new JsonObject().putNumber("publishInterval", 0));
+		this.config.mergeIn(config);
+
+		platformManager = PlatformLocator.factory.createPlatformManager();
+		ontology.register(platformManager.vertx(), "appsist:requests:semwiki");
+		platformManager.vertx().eventBus().registerHandler("appsist:service:usermodel#getUserInformation",
+				new Handler<Message<JsonObject>>() {
+					@Override
+					public void handle(Message<JsonObject> message) {
+						String employeeType;
+						synchronized (employeeTypes) {
+							employeeType = employeeTypes.get(message.body().getString("userId"));
+						}
+						JsonObject reply = new JsonObject();
+						if (employeeType != null) {
+							reply.putObject("userInformation", new JsonObject().putString("employeeType", employeeType));
+						}
+						message.reply(reply);
+					}
+				});
+	}
+
+	void employeeType(String userId, String employeeType) {
+		synchronized (employeeTypes) {
+			employeeTypes.put(userId, employeeType);
+		}
+	}
+
+	/**
+	 * Deploys the service and waits until it has loaded its labels and its measure index, and the content snapshot
+	 * if it is enabled.
+	 */
+	void start() throws Exception {
+		final CountDownLatch deployed = new CountDownLatch(1);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		platformManager.deployVerticle(IHSMainVerticle.class.getName(), config, classpath(), 1, null,
+				new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> result) {
+						failure.set(result.cause());
+						deployed.countDown();
+					}
+				});
+		if (!deployed.await(10, TimeUnit.SECONDS) || failure.get() != null) {
+			throw new IllegalStateException("Failed to deploy the service.", failure.get());
+		}
+		boolean snapshot = config.getObject("snapshot").getBoolean("enabled", true);
+		long deadline = System.currentTimeMillis() + 10000;
+		while (System.currentTimeMillis() < deadline) {
+			Response response;
+			try {
+				response = get("/ready");
+			} catch (ConnectException e) {
+				// the deployment completes before the server is listening
+				Thread.sleep(50);
+				continue;
+			}
+			if (response.status == 200) {
+				JsonObject readiness = new JsonObject(response.body);
+				if (readiness.getBoolean("measureIndexLoaded")
+						&& (!snapshot || readiness.getBoolean("contentSnapshotLoaded"))) {
+					return;
+				}
+			}
+			Thread.sleep(50);
+		}
+		throw new IllegalStateException("The service did not load its data.");
+	}
+
+	void stop() {
+		platformManager.stop();
+	}
+
+	Response get(String path) throws IOException {
+		return send("GET", path, null);
+	}
+
+	Response post(String path, String body) throws IOException {
+		return send("POST", path, body.getBytes(UTF8));
+	}
+
+	Response send(String method, String path, byte[] body) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + BASE_PATH + path)
+				.openConnection();
+		connection.setRequestMethod(method);
+		connection.setReadTimeout(10000);
+		if (body != null) {
+			connection.setDoOutput(true);
+			connection.setFixedLengthStreamingMode(body.length);
+			try (OutputStream out = connection.getOutputStream()) {
+				out.write(body);
+			} catch (IOException e) {
+				// the service may reject the request before the body has been sent
+			}
+		}
+		int status = connection.getResponseCode();
+		InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		if (in != null) {
+			try {
+				byte[] buffer = new byte[4096];
+				for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+					content.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		return new Response(status, new String(content.toByteArray(), UTF8));
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static URL[] classpath() throws IOException {
+		List<URL> urls = new ArrayList<URL>();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			urls.add(new File(entry).toURI().toURL());
+		}
+		return urls.toArray(new URL[urls.size()]);
+	}
+}
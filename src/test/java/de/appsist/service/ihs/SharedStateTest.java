@@ -0,0 +1,105 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Registration of the {@link SharedState} by instances starting one after another and concurrently.
+ */
+public class SharedStateTest {
+	private Vertx vertx;
+	private AtomicInteger created;
+	private SharedState.Factory factory;
+
+	@Before
+	public void setUp() {
+		vertx = VertxFactory.newVertx();
+		created = new AtomicInteger();
+		factory = new SharedState.Factory() {
+			@Override
+			public SharedState create() {
+				created.incrementAndGet();
+				return new SharedState(new StepLabelService(vertx, new TestOntology(), 10, 0), new MeasureIdIndex(),
+						new ResultCache<String>(new JsonObject()), new ResultCache<String>(new JsonObject()));
+			}
+		};
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testStateIsCreatedOnce() {
+		assertNull(SharedState.get(vertx));
+		SharedState first = SharedState.register(vertx, factory);
+		SharedState second = SharedState.register(vertx, factory);
+		assertSame(first, second);
+		assertSame(first, SharedState.get(vertx));
+		assertEquals(1, created.get());
+		assertTrue(first.claimLoader());
+		assertFalse(second.claimLoader());
+		assertEquals(0, first.addInstance());
+		assertEquals(1, second.addInstance());
+
+		// once the loader has stopped, the next instance creates a new state and loads it
+		SharedState.unregister(vertx, first);
+		SharedState third = SharedState.register(vertx, factory);
+		assertNotSame(first, third);
+		assertEquals(2, created.get());
+		assertTrue(third.claimLoader());
+	}
+
+	@Test
+	public void testConcurrentInstancesShareOneState() throws Exception {
+		final int instances = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(instances);
+		try {
+			List<Future<SharedState>> states = new ArrayList<Future<SharedState>>();
+			final AtomicInteger loaders = new AtomicInteger();
+			for (int i = 0; i < instances; i++) {
+				states.add(executor.submit(new Callable<SharedState>() {
+					@Override
+					public SharedState call() throws Exception {
+						start.await();
+						SharedState state = SharedState.register(vertx, factory);
+						if (state.claimLoader()) {
+							loaders.incrementAndGet();
+						}
+						return state;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<SharedState> state : states) {
+				assertSame(states.get(0).get(), state.get());
+			}
+			assertEquals(1, created.get());
+			assertEquals(1, loaders.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Writing and restoring the {@link SnapshotFile}, and files which must be ignored.
+ */
+public class SnapshotFileTest {
+	private static final String MEASURES = TestOntology.ONTOLOGY + "massnahmen/";
+	private static final String CONTENTS = TestOntology.ONTOLOGY + "inhalte/";
+	private static final String SKILLED = TestOntology.ONTOLOGY + "Fachkraft";
+
+	private Vertx vertx;
+	private Path directory;
+	private Path path;
+	private StepLabelService labels;
+	private MeasureIdIndex index;
+	private ContentSnapshot snapshot;
+
+	@Before
+	public void setUp() throws IOException {
+		vertx = VertxFactory.newVertx();
+		directory = Files.createTempDirectory("snapshot");
+		path = directory.resolve("ihs-snapshot.bin");
+		TestOntology ontology = new TestOntology()
+				.label(MEASURES + "M1/Task_1", "Schritt 1")
+				.label(MEASURES + "M1/Task_2", "Schritt \u00fcber 2");
+		labels = new StepLabelService(vertx, ontology, 10, 0);
+		labels.refresh();
+		UriDictionary measureUris = new UriDictionary(1, 0);
+		measureUris.add(MEASURES + "M1");
+		measureUris.add(MEASURES + "M2");
+		measureUris.trim();
+		index = new MeasureIdIndex();
+		index.replace(measureUris);
+		snapshot = new ContentSnapshot(0);
+		snapshot.addInstruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_1");
+		snapshot.addAdditionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_A", SKILLED);
+		snapshot.addAdditionalContent(MEASURES + "M1/Task_1", CONTENTS + "Zusatz_B", null);
+		snapshot.trim();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		vertx.stop();
+		File[] files = directory.toFile().listFiles();
+		for (File file : files != null ? files : new File[0]) {
+			Files.delete(file.toPath());
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		new SnapshotFile(path.toString()).write(labels, index, snapshot);
+		assertFalse(Files.exists(directory.resolve("ihs-snapshot.bin.tmp")));
+
+		StepLabelService restoredLabels = emptyLabels();
+		MeasureIdIndex restoredIndex = new MeasureIdIndex();
+		ContentSnapshot restored = new SnapshotFile(path.toString()).restore(restoredLabels, restoredIndex);
+		assertTrue(restoredLabels.isReady());
+		assertEquals(2, restoredLabels.size());
+		assertEquals("Schritt \u00fcber 2", restoredLabels.getLabel("M1/Task_2"));
+		assertTrue(restoredIndex.isLoaded());
+		assertEquals(MEASURES + "M2", restoredIndex.resolve("M2"));
+		assertEquals(snapshot.getCreatedAt(), restored.getCreatedAt());
+		assertEquals("Inhalt_1", restored.getInstruction(MEASURES + "M1/Task_1"));
+		assertEquals("Zusatz_A", restored.getAdditionalContent(MEASURES + "M1/Task_1", SKILLED));
+		assertEquals("Zusatz_B", restored.getAdditionalContent(MEASURES + "M1/Task_1", TestOntology.ONTOLOGY + "Laie"));
+
+		// sections which are not loaded are skipped
+		new SnapshotFile(path.toString()).write(emptyLabels(), new MeasureIdIndex(), null);
+		restoredLabels = emptyLabels();
+		restoredIndex = new MeasureIdIndex();
+		assertNull(new SnapshotFile(path.toString()).restore(restoredLabels, restoredIndex));
+		assertFalse(restoredLabels.isReady());
+		assertFalse(restoredIndex.isLoaded());
+	}
+
+	@Test
+	public void testInvalidFilesAreIgnored() throws IOException {
+		assertNotRestored();
+		new SnapshotFile(path.toString()).write(labels, index, snapshot);
+		byte[] bytes = Files.readAllBytes(path);
+
+		Files.write(path, Arrays.copyOf(bytes, bytes.length / 2));
+		assertNotRestored();
+		Files.write(path, Arrays.copyOf(bytes, 12));
+		assertNotRestored();
+
+		byte[] corrupted = bytes.clone();
+		corrupted[corrupted.length / 2] ^= 1;
+		Files.write(path, corrupted);
+		assertNotRestored();
+
+		byte[] otherVersion = bytes.clone();
+		otherVersion[7]++;
+		Files.write(path, otherVersion);
+		assertNotRestored();
+	}
+
+	@Test
+	public void testUnreadableSectionChangesNothing() throws IOException {
+		new SnapshotFile(path.toString()).write(labels, index, snapshot);
+		byte[] bytes = Files.readAllBytes(path);
+		// drop the end of the content snapshot but keep the checksum valid, labels and index are read completely
+		byte[] truncated = Arrays.copyOf(bytes, bytes.length - 12);
+		CRC32 crc = new CRC32();
+		crc.update(truncated, 0, truncated.length - 4);
+		ByteBuffer.wrap(truncated).putInt(truncated.length - 4, (int) crc.getValue());
+		Files.write(path, truncated);
+		assertNotRestored();
+	}
+
+	@Test
+	public void testServiceWritesFile() throws Exception {
+		TestOntology ontology = new TestOntology()
+				.measure(MEASURES + "M1")
+				.label(MEASURES + "M1/Task_1", "Schritt 1")
+				.instruction(MEASURES + "M1/Task_1", CONTENTS + "Inhalt_1");
+		JsonObject snapshotConfig = new JsonObject().putBoolean("enabled", true).putString("file", path.toString())
+				.putNumber("writeDelay", 1);
+		ServiceFixture service = new ServiceFixture(ontology, new JsonObject().putObject("snapshot", snapshotConfig));
+		service.start();
+		StepLabelService restoredLabels = emptyLabels();
+		ContentSnapshot restored = null;
+		try {
+			long deadline = System.currentTimeMillis() + 10000;
+			while (System.currentTimeMillis() < deadline) {
+				if (Files.exists(path)) {
+					restoredLabels = emptyLabels();
+					restored = new SnapshotFile(path.toString()).restore(restoredLabels, new MeasureIdIndex());
+					if (restored != null && restoredLabels.isReady()) {
+						break;
+					}
+				}
+				Thread.sleep(50);
+			}
+		} finally {
+			service.stop();
+		}
+		assertEquals("Schritt 1", restoredLabels.getLabel("M1/Task_1"));
+		assertEquals("Inhalt_1", restored.getInstruction(MEASURES + "M1/Task_1"));
+	}
+
+	private StepLabelService emptyLabels() {
+		return new StepLabelService(vertx, new TestOntology(), 10, 0);
+	}
+
+	// restores the file into empty structures, which must stay empty
+	private void assertNotRestored() {
+		StepLabelService restoredLabels = emptyLabels();
+		MeasureIdIndex restoredIndex = new MeasureIdIndex();
+		assertNull(new SnapshotFile(path.toString()).restore(restoredLabels, restoredIndex));
+		assertFalse(restoredLabels.isReady());
+		assertFalse(restoredIndex.isLoaded());
+	}
+}
@@ -0,0 +1,103 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Reading SparQL JSON results with the {@link SparqlResultReader}.
+ */
+public class SparqlResultReaderTest {
+	private static final String[] VARIABLES = { "p", "inhalt" };
+	private static final String REPLY = "{\"head\":{\"vars\":[\"p\",\"inhalt\"]},\"results\":{\"bindings\":["
+			+ "{\"p\":{\"type\":\"uri\",\"value\":\"http://a/p1\"},"
+			+ "\"inhalt\":{\"type\":\"uri\",\"value\":\"http://a/i1\"}},"
+			+ "{\"inhalt\":{\"type\":\"literal\",\"xml:lang\":\"de\",\"value\":\"Inhalt \\\"2\\\"\"},"
+			+ "\"other\":{\"type\":\"uri\",\"value\":\"http://a/o\"}},"
+			+ "{\"p\":{\"type\":\"uri\",\"value\":\"http://a/p3\"}}]}}";
+
+	@Test
+	public void testAllBindings() throws IOException {
+		assertEquals(Arrays.asList("http://a/p1|http://a/i1", "null|Inhalt \"2\"", "http://a/p3|null"),
+				read(REPLY, Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void testFirstValue() throws IOException {
+		assertEquals("http://a/i1", SparqlResultReader.readFirstValue(REPLY, "inhalt"));
+		assertEquals("http://a/p1", SparqlResultReader.readFirstValue(REPLY, "p"));
+		assertEquals("http://a/o", SparqlResultReader.readFirstValue(REPLY, "other"));
+		assertNull(SparqlResultReader.readFirstValue(REPLY, "missing"));
+	}
+
+	@Test
+	public void testStopsReading() throws IOException {
+		// everything after the first binding is malformed and must not be read
+		String reply = "{\"results\":{\"bindings\":[{\"inhalt\":{\"type\":\"uri\",\"value\":\"http://a/i1\"}},"
+				+ "{\"inhalt\":{\"value\" oops";
+		assertEquals("http://a/i1", SparqlResultReader.readFirstValue(reply, "inhalt"));
+		assertEquals(Arrays.asList("null|http://a/i1"), read(reply, 1));
+	}
+
+	@Test
+	public void testResultsBeforeHead() throws IOException {
+		String reply = "{\"results\":{\"distinct\":false,\"bindings\":[{\"p\":{\"value\":\"x\"}}]},"
+				+ "\"head\":{\"vars\":[\"p\"]}}";
+		assertEquals("x", SparqlResultReader.readFirstValue(reply, "p"));
+	}
+
+	@Test
+	public void testNoBindings() throws IOException {
+		assertEquals(0, read("{\"head\":{\"vars\":[]},\"results\":{\"bindings\":[]}}", 10).size());
+		assertEquals(0, read("{\"head\":{\"vars\":[]},\"results\":{}}", 10).size());
+		assertEquals(0, read("{\"head\":{\"vars\":[]}}", 10).size());
+		assertEquals(0, read("{\"results\":{\"bindings\":{}}}", 10).size());
+		assertNull(SparqlResultReader.readFirstValue("{\"boolean\":true}", "p"));
+	}
+
+	@Test
+	public void testTermWithoutValue() throws IOException {
+		String reply = "{\"results\":{\"bindings\":[{\"p\":{\"type\":\"bnode\"}},{\"p\":{\"value\":\"x\"}}]}}";
+		assertEquals(Arrays.asList("null|null", "x|null"), read(reply, 10));
+		assertEquals("x", SparqlResultReader.readFirstValue(reply, "p"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAnObject() throws IOException {
+		SparqlResultReader.readFirstValue("[]", "p");
+	}
+
+	@Test(expected = IOException.class)
+	public void testEmptyBody() throws IOException {
+		SparqlResultReader.readFirstValue("", "p");
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformedBinding() throws IOException {
+		SparqlResultReader.readFirstValue("{\"results\":{\"bindings\":[{\"p\":{\"value\":}}]}}", "p");
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncatedReply() throws IOException {
+		read("{\"results\":{\"bindings\":[{\"p\":{\"value\":\"x\"}},", 10);
+	}
+
+	// reads up to the given number of bindings as "p|inhalt"
+	private static List<String> read(String reply, final int limit) throws IOException {
+		final List<String> bindings = new ArrayList<String>();
+		SparqlResultReader.readBindings(reply, VARIABLES, new SparqlResultReader.BindingHandler() {
+			@Override
+			public boolean handle(String[] values) {
+				bindings.add(values[0] + "|" + values[1]);
+				return bindings.size() < limit;
+			}
+		});
+		return bindings;
+	}
+}
@@ -0,0 +1,114 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Binding parameters to a {@link SparqlTemplate}.
+ */
+public class SparqlTemplateTest {
+	private static final SparqlTemplate LABEL = SparqlTemplate.compile("label",
+			"SELECT ?uri WHERE {\n\t?uri rdfs:label {string} .\n}");
+	private static final SparqlTemplate CONTENT = SparqlTemplate.compile("content",
+			"SELECT ?inhalt WHERE { {iri} app:hatInhalt ?inhalt }");
+	private static final SparqlTemplate CONTENTS = SparqlTemplate.compile("contents",
+			"SELECT ?inhalt WHERE { VALUES ?p { {iris} } VALUES ?label { {strings} } }");
+
+	@Test
+	public void testWhitespaceIsCollapsed() {
+		assertEquals("SELECT ?uri WHERE { ?uri rdfs:label \"a\" . }", LABEL.bind("a"));
+	}
+
+	@Test
+	public void testStringEscaping() {
+		assertEquals(literal("\\\"quoted\\\""), bindString("\"quoted\""));
+		assertEquals(literal("it\\'s"), bindString("it's"));
+		assertEquals(literal("back\\\\slash"), bindString("back\\slash"));
+		assertEquals(literal("a\\nb\\rc\\td\\be\\ff"), bindString("a\nb\rc\td\be\ff"));
+		assertEquals(literal("a\\\\nb"), bindString("a\\nb"));
+		assertEquals(literal(""), bindString(""));
+	}
+
+	@Test
+	public void testStringCannotLeaveTheLiteral() {
+		String query = bindString("x\" } ; DROP ALL ; SELECT * WHERE { \"");
+		assertEquals(literal("x\\\" } ; DROP ALL ; SELECT * WHERE { \\\""), query);
+	}
+
+	@Test
+	public void testOtherCharactersArePassedThrough() {
+		// characters allowed unescaped in a SparQL string literal
+		assertEquals(literal("a\u0001b\u007f"), bindString("a\u0001b\u007f"));
+		assertEquals(literal("Ma\u00dfnahme \u20ac"), bindString("Ma\u00dfnahme \u20ac"));
+		// a supplementary character as a surrogate pair
+		assertEquals(literal("\ud83d\ude00"), bindString("\ud83d\ude00"));
+	}
+
+	@Test
+	public void testValidIris() {
+		assertTrue(SparqlTemplate.isValidIri("http://www.appsist.de/ontology/Massnahme_1/Step_1"));
+		assertTrue(SparqlTemplate.isValidIri("urn:appsist:step"));
+		assertTrue(SparqlTemplate.isValidIri("http://www.appsist.de/ontology/Ma%C3%9Fnahme?a=b&c=d#e"));
+		assertTrue(SparqlTemplate.isValidIri("http://www.appsist.de/ontology/Ma\u00dfnahme"));
+	}
+
+	@Test
+	public void testInvalidIris() {
+		assertFalse(SparqlTemplate.isValidIri(null));
+		assertFalse(SparqlTemplate.isValidIri(""));
+		assertFalse(SparqlTemplate.isValidIri("Step_1"));
+		assertFalse(SparqlTemplate.isValidIri(":Step_1"));
+		for (char c : "<>\"{}|^`\\ \t\n\r\u0000\u001f".toCharArray()) {
+			String iri = "http://www.appsist.de/ontology/Step" + c + "1";
+			assertFalse(iri, SparqlTemplate.isValidIri(iri));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidIriIsRejected() {
+		CONTENT.bind("http://www.appsist.de/ontology/Step_1> ?p ?o } #");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidIriInListIsRejected() {
+		CONTENTS.bind(Arrays.asList("http://www.appsist.de/a", "http://www.appsist.de/b>"), Arrays.asList("x"));
+	}
+
+	@Test
+	public void testListsAreSortedAndDeduplicated() {
+		String query = CONTENTS.bind(
+				Arrays.asList("http://www.appsist.de/b", "http://www.appsist.de/a", "http://www.appsist.de/b"),
+				Arrays.asList("y\"", "x"));
+		assertEquals("SELECT ?inhalt WHERE { VALUES ?p { <http://www.appsist.de/a> <http://www.appsist.de/b> } "
+				+ "VALUES ?label { \"x\" \"y\\\"\" } }", query);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEmptyList() {
+		CONTENTS.bind(Collections.<String> emptyList(), Arrays.asList("x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongParameterCount() {
+		CONTENT.bind("http://www.appsist.de/a", "http://www.appsist.de/b");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongParameterType() {
+		CONTENT.bind(Arrays.asList("http://www.appsist.de/a"));
+	}
+
+	private static String bindString(String value) {
+		return LABEL.bind(value);
+	}
+
+	private static String literal(String escaped) {
+		return "SELECT ?uri WHERE { ?uri rdfs:label \"" + escaped + "\" . }";
+	}
+}
@@ -0,0 +1,120 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.impl.DefaultFutureResult;
+
+/**
+ * Completion of a {@link StageJoin}: the done handler is called exactly once, after all stages have succeeded or
+ * right after the first failure.
+ */
+public class StageJoinTest {
+	private StageJoin join;
+	private List<StageJoin> calls;
+	private Handler<StageJoin> doneHandler;
+
+	@Before
+	public void setUp() {
+		join = new StageJoin();
+		calls = new ArrayList<StageJoin>();
+		doneHandler = new Handler<StageJoin>() {
+			@Override
+			public void handle(StageJoin result) {
+				calls.add(result);
+			}
+		};
+	}
+
+	@Test
+	public void testAllStagesSucceed() {
+		StageJoin.Stage<String> first = join.stage();
+		StageJoin.Stage<Integer> second = join.stage();
+		join.whenDone(doneHandler);
+		first.complete("a");
+		assertTrue(calls.isEmpty());
+		second.handle(new DefaultFutureResult<Integer>(42));
+		assertEquals(1, calls.size());
+		assertSame(join, calls.get(0));
+		assertFalse(join.failed());
+		assertEquals("a", first.result());
+		assertEquals(42, second.result().intValue());
+
+		// later completions are ignored
+		first.complete("b");
+		second.fail(new IllegalStateException());
+		assertEquals(1, calls.size());
+		assertEquals("a", first.result());
+		assertFalse(second.failed());
+	}
+
+	@Test
+	public void testStagesCompletedBeforeWhenDone() {
+		StageJoin.Stage<String> first = join.stage();
+		StageJoin.Stage<String> second = join.stage();
+		second.valueHandler().handle("b");
+		first.complete(null);
+		assertTrue(calls.isEmpty());
+		join.whenDone(doneHandler);
+		assertEquals(1, calls.size());
+		assertNull(first.result());
+		assertEquals("b", second.result());
+	}
+
+	@Test
+	public void testJoinWithoutStages() {
+		join.whenDone(doneHandler);
+		assertEquals(1, calls.size());
+		try {
+			join.stage();
+			fail("stage added to a join which is done");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testFirstFailureCompletesJoin() {
+		StageJoin.Stage<String> first = join.stage();
+		StageJoin.Stage<String> second = join.stage();
+		StageJoin.Stage<String> third = join.stage();
+		join.whenDone(doneHandler);
+		first.complete("a");
+		IllegalStateException cause = new IllegalStateException("first");
+		second.handle(new DefaultFutureResult<String>(cause));
+		assertEquals(1, calls.size());
+		assertTrue(join.failed());
+		assertSame(cause, join.cause());
+		assertTrue(second.failed());
+		assertFalse(third.isCompleted());
+
+		// the stages still running complete without calling the handler again
+		third.fail(new IllegalStateException("second"));
+		assertEquals(1, calls.size());
+		assertSame(cause, join.cause());
+		assertTrue(third.failed());
+	}
+
+	@Test
+	public void testFailureBeforeWhenDone() {
+		StageJoin.Stage<String> first = join.stage();
+		StageJoin.Stage<String> second = join.stage();
+		IllegalStateException cause = new IllegalStateException();
+		first.fail(cause);
+		join.whenDone(doneHandler);
+		assertEquals(1, calls.size());
+		assertSame(cause, join.cause());
+		second.complete("b");
+		assertEquals(1, calls.size());
+	}
+}
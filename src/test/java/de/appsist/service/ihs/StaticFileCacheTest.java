@@ -0,0 +1,184 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.MultiMap;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.http.CaseInsensitiveMultiMap;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Conditional requests and encoding variants of the {@link StaticFileCache}.
+ */
+public class StaticFileCacheTest {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Vertx vertx;
+	private Path directory;
+	private StaticFileCache cache;
+	private byte[] content;
+
+	@Before
+	public void setUp() throws IOException {
+		vertx = VertxFactory.newVertx();
+		directory = Files.createTempDirectory("statics");
+		StringBuilder html = new StringBuilder("<html><body>");
+		for (int i = 0; i < 100; i++) {
+			html.append("<p>Schritt ").append(i).append("</p>");
+		}
+		content = html.append("</body></html>").toString().getBytes(UTF8);
+		Files.write(directory.resolve("index.html"), content);
+		Files.write(directory.resolve("app.js"), "var a = 1;".getBytes(UTF8));
+		Files.write(directory.resolve("app.js.br"), new byte[] { 1, 2, 3 });
+		cache = new StaticFileCache(vertx, directory.toString(), new JsonObject().putNumber("revalidateInterval", 0));
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		vertx.stop();
+		for (String file : new String[] { "index.html", "app.js", "app.js.br" }) {
+			Files.deleteIfExists(directory.resolve(file));
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void testNotModified() throws Exception {
+		RecordedResponse response = serve("/index.html");
+		assertEquals(200, response.status);
+		assertArrayEquals(content, response.bytes());
+		assertEquals("text/html", response.headers.get("Content-Type"));
+		assertEquals("Accept-Encoding", response.headers.get("Vary"));
+		String etag = response.headers.get("ETag");
+		assertTrue(etag, etag.matches("\"[0-9a-f]+-[0-9a-f]+\""));
+
+		response = serve("/index.html", "If-None-Match", etag);
+		assertEquals(304, response.status);
+		assertEquals(0, response.bytes().length);
+		assertEquals(etag, response.headers.get("ETag"));
+		assertEquals(304, serve("/index.html", "If-None-Match", "\"other\", W/" + etag).status);
+		assertEquals(304, serve("/index.html", "If-None-Match", "*").status);
+		assertEquals(200, serve("/index.html", "If-None-Match", "\"other\"").status);
+
+		String lastModified = response.headers.get("Last-Modified");
+		assertEquals(304, serve("/index.html", "If-Modified-Since", lastModified).status);
+		assertEquals(200, serve("/index.html", "If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT").status);
+		// If-None-Match takes precedence
+		assertEquals(200, serve("/index.html", "If-None-Match", "\"other\"", "If-Modified-Since", lastModified).status);
+	}
+
+	@Test
+	public void testVariantsHaveTheirOwnEtag() throws Exception {
+		RecordedResponse identity = serve("/index.html");
+		RecordedResponse gzip = serve("/index.html", "Accept-Encoding", "gzip, deflate");
+		assertEquals("gzip", gzip.headers.get("Content-Encoding"));
+		assertEquals("Accept-Encoding", gzip.headers.get("Vary"));
+		assertArrayEquals(content, gunzip(gzip.bytes()));
+		String identityEtag = identity.headers.get("ETag");
+		String gzipEtag = gzip.headers.get("ETag");
+		assertEquals(identityEtag.substring(0, identityEtag.length() - 1) + "-gz\"", gzipEtag);
+
+		// a cached copy of one variant does not validate the other
+		assertEquals(304, serve("/index.html", "Accept-Encoding", "gzip", "If-None-Match", gzipEtag).status);
+		assertEquals(200, serve("/index.html", "Accept-Encoding", "gzip", "If-None-Match", identityEtag).status);
+		assertEquals(200, serve("/index.html", "If-None-Match", gzipEtag).status);
+		RecordedResponse refused = serve("/index.html", "Accept-Encoding", "gzip;q=0");
+		assertNull(refused.headers.get("Content-Encoding"));
+		assertEquals(identityEtag, refused.headers.get("ETag"));
+
+		RecordedResponse brotli = serve("/app.js", "Accept-Encoding", "gzip, br");
+		assertEquals("br", brotli.headers.get("Content-Encoding"));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, brotli.bytes());
+		assertTrue(brotli.headers.get("ETag").endsWith("-br\""));
+		// the file is too small to be compressed
+		RecordedResponse small = serve("/app.js", "Accept-Encoding", "gzip");
+		assertNull(small.headers.get("Content-Encoding"));
+		assertNotEquals(brotli.headers.get("ETag"), small.headers.get("ETag"));
+		assertEquals(304, serve("/app.js", "Accept-Encoding", "br", "If-None-Match", brotli.headers.get("ETag")).status);
+	}
+
+	@Test
+	public void testParentDirectoryIsRejected() throws Exception {
+		Files.write(directory.getParent().resolve("secret.txt"), content);
+		try {
+			String name = directory.getFileName().toString();
+			assertEquals(404, serve("/../secret.txt").status);
+			assertEquals(404, serve("/../" + name + "/index.html").status);
+			assertEquals(404, serve("/a/..").status);
+			assertEquals(0, cache.getStatistics().getInteger("files").intValue());
+		} finally {
+			Files.delete(directory.getParent().resolve("secret.txt"));
+		}
+	}
+
+	@Test
+	public void testFilesAreCachedOnce() throws Exception {
+		serve("/index.html");
+		serve("/index.html", "Accept-Encoding", "gzip");
+		JsonObject statistics = cache.getStatistics();
+		assertEquals(1, statistics.getInteger("files").intValue());
+		// the file is served from memory after it has been deleted
+		Files.delete(directory.resolve("index.html"));
+		assertArrayEquals(content, serve("/index.html").bytes());
+	}
+
+	// serves a request with the given header names and values and waits for the response
+	private RecordedResponse serve(final String path, String... headers) throws InterruptedException {
+		final RecordedResponse response = new RecordedResponse();
+		final MultiMap requestHeaders = new CaseInsensitiveMultiMap();
+		for (int i = 0; i < headers.length; i += 2) {
+			requestHeaders.add(headers[i], headers[i + 1]);
+		}
+		HttpServerRequest request = (HttpServerRequest) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { HttpServerRequest.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName()) {
+						case "path":
+							return path;
+						case "headers":
+							return requestHeaders;
+						case "response":
+							return response.proxy;
+						default:
+							throw new UnsupportedOperationException(method.getName());
+						}
+					}
+				});
+		cache.serve(request);
+		assertTrue("no response for " + path, response.awaitEnd(5000));
+		return response;
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+			byte[] buffer = new byte[4096];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,171 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Context;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Deduplication of the events queued by the {@link StepEventPublisher}: only events which have been queued count as
+ * the last step of a user. The publisher runs on a single event loop like the publisher of a verticle.
+ */
+public class StepEventPublisherTest {
+	private static final String ADDRESS = "test:steps";
+
+	private Vertx vertx;
+	private Context context;
+	private StepLabelService labels;
+	private StepEventPublisher publisher;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = VertxFactory.newVertx();
+		TestOntology ontology = new TestOntology()
+				.label(TestOntology.ONTOLOGY + "massnahmen/M1/Task_1", "Schritt 1")
+				.label(TestOntology.ONTOLOGY + "massnahmen/M1/Task_2", "Schritt 2");
+		labels = new StepLabelService(vertx, ontology, 10, 0);
+		final AtomicReference<Context> publisherContext = new AtomicReference<Context>();
+		final CountDownLatch started = new CountDownLatch(1);
+		vertx.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				publisherContext.set(vertx.currentContext());
+				publisher = new StepEventPublisher(vertx, labels, new PipelineMetrics(), new JsonObject()
+						.putString("address", ADDRESS).putNumber("maxBatchSize", 1).putNumber("maxQueued", 1));
+				started.countDown();
+			}
+		});
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		context = publisherContext.get();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testRepeatedStepsAreDropped() throws Exception {
+		final CountDownLatch received = new CountDownLatch(1);
+		final AtomicReference<JsonObject> event = new AtomicReference<JsonObject>();
+		vertx.eventBus().registerHandler(ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				event.compareAndSet(null, message.body());
+				received.countDown();
+			}
+		});
+		loadLabels();
+		publish("u1", "M1/Task_1");
+		publish("u1", "M1/Task_1");
+		publish("u2", "M1/Task_1");
+		publish("u1", "M1/Task_2");
+		publish("u1", "M1/Task_1");
+		JsonObject statistics = statistics();
+		assertEquals(4L, statistics.getLong("published").longValue());
+		assertEquals(1L, statistics.getLong("duplicates").longValue());
+		assertTrue(received.await(5, TimeUnit.SECONDS));
+		assertEquals("u1", event.get().getString("userId"));
+		assertEquals("Schritt 1", event.get().getString("stepLabel"));
+	}
+
+	@Test
+	public void testDroppedEventIsNotTheLastStep() throws Exception {
+		// the labels are not loaded yet, so the first event stays in the queue and fills it
+		publish("u1", "M1/Task_1");
+		publish("u2", "M1/Task_2");
+		assertEquals(1L, statistics().getLong("dropped").longValue());
+		loadLabels();
+		assertEquals(1L, statistics().getLong("published").longValue());
+
+		publish("u2", "M1/Task_2");
+		publish("u1", "M1/Task_1");
+		JsonObject statistics = statistics();
+		assertEquals(2L, statistics.getLong("published").longValue());
+		assertEquals(1L, statistics.getLong("duplicates").longValue());
+	}
+
+	@Test
+	public void testUnknownStepIsNotTheLastStep() throws Exception {
+		publish("u1", "M1/Task_9");
+		loadLabels();
+		assertEquals(1L, statistics().getLong("unknown").longValue());
+
+		// once the labels are known, unknown steps are not queued at all
+		publish("u1", "M1/Task_9");
+		publish("u1", "M1/Task_9");
+		JsonObject statistics = statistics();
+		assertEquals(3L, statistics.getLong("unknown").longValue());
+		assertEquals(0L, statistics.getLong("duplicates").longValue());
+		assertEquals(0, statistics.getInteger("queued").intValue());
+	}
+
+	// loads the labels and waits for the queued events to be flushed
+	private void loadLabels() throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				labels.refresh();
+			}
+		});
+		run(new Runnable() {
+			@Override
+			public void run() {
+			}
+		});
+	}
+
+	private void publish(final String userId, final String stepId) throws InterruptedException {
+		run(new Runnable() {
+			@Override
+			public void run() {
+				publisher.publish(userId, stepId);
+			}
+		});
+	}
+
+	private JsonObject statistics() throws InterruptedException {
+		final AtomicReference<JsonObject> statistics = new AtomicReference<JsonObject>();
+		run(new Runnable() {
+			@Override
+			public void run() {
+				statistics.set(publisher.getStatistics());
+			}
+		});
+		return statistics.get();
+	}
+
+	// runs a task on the event loop of the publisher and waits for it
+	private void run(final Runnable task) throws InterruptedException {
+		final CountDownLatch done = new CountDownLatch(1);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		context.runOnContext(new Handler<Void>() {
+			@Override
+			public void handle(Void event) {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					failure.set(e);
+				} finally {
+					done.countDown();
+				}
+			}
+		});
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.VertxFactory;
+
+/**
+ * Paged loading, replacement and retries of the {@link StepLabelService}.
+ */
+public class StepLabelServiceTest {
+	private static final String MEASURE = TestOntology.ONTOLOGY + "massnahmen/M1/";
+
+	private Vertx vertx;
+	private TestOntology ontology;
+	private List<String> events;
+
+	@Before
+	public void setUp() {
+		vertx = VertxFactory.newVertx();
+		ontology = new TestOntology();
+		for (int i = 1; i <= 5; i++) {
+			ontology.label(MEASURE + "Task_" + i, "Schritt " + i);
+		}
+		events = new ArrayList<String>();
+	}
+
+	@After
+	public void tearDown() {
+		vertx.stop();
+	}
+
+	@Test
+	public void testLoadsAllPages() {
+		StepLabelService service = new StepLabelService(vertx, ontology, 2, 0);
+		service.refresh();
+		assertEquals(3, ontology.count("stepLabels"));
+		assertTrue(service.isReady());
+		assertEquals(5, service.size());
+		assertEquals("Schritt 1", service.getLabel("M1/Task_1"));
+		assertEquals("Schritt 5", service.getLabel("M1/Task_5"));
+		assertNull(service.getLabel("M1/Task_6"));
+		assertNull(service.getLabel("Task_1"));
+
+		// a full last page is followed by an empty one
+		ontology.label(MEASURE + "Task_6", "Schritt 6");
+		service.refresh();
+		assertEquals(3 + 4, ontology.count("stepLabels"));
+		assertEquals("Schritt 6", service.getLabel("M1/Task_6"));
+	}
+
+	@Test
+	public void testLabelsAreReplacedWhenComplete() {
+		StepLabelService service = new StepLabelService(vertx, ontology, 2, 0);
+		service.updateHandler(record("update"));
+		service.refresh();
+		ontology.label(MEASURE + "Task_1", "Neu 1").label(MEASURE + "Task_6", "Schritt 6");
+
+		ontology.hold();
+		service.refresh();
+		ontology.release();
+		ontology.release();
+		// two of four pages have been read and the third is requested, readers still see the previous labels
+		assertEquals(3 + 3, ontology.count("stepLabels"));
+		assertEquals("Schritt 1", service.getLabel("M1/Task_1"));
+		assertNull(service.getLabel("M1/Task_6"));
+		assertEquals(5, service.size());
+		assertEquals(1, events.size());
+
+		ontology.resume();
+		assertEquals("Neu 1", service.getLabel("M1/Task_1"));
+		assertEquals("Schritt 6", service.getLabel("M1/Task_6"));
+		assertEquals(6, service.size());
+		assertEquals(2, events.size());
+	}
+
+	@Test
+	public void testFailedLoadKeepsLabels() {
+		StepLabelService service = new StepLabelService(vertx, ontology, 2, 0);
+		service.updateHandler(record("update"));
+		service.refresh();
+		ontology.label(MEASURE + "Task_1", "Neu 1");
+
+		// the second page fails
+		ontology.failAfter(ontology.getQueries().size() + 1);
+		service.refresh();
+		assertEquals(3 + 2, ontology.count("stepLabels"));
+		assertTrue(service.isReady());
+		assertEquals(5, service.size());
+		assertEquals("Schritt 1", service.getLabel("M1/Task_1"));
+		assertEquals(1, events.size());
+
+		ontology.failAfter(-1);
+		service.refresh();
+		assertEquals("Neu 1", service.getLabel("M1/Task_1"));
+		assertEquals(2, events.size());
+	}
+
+	@Test
+	public void testWhenReady() {
+		StepLabelService service = new StepLabelService(vertx, ontology, 10, 0);
+		service.whenReady(record("first"));
+		service.whenReady(record("second"));
+		assertFalse(service.isReady());
+
+		ontology.failAfter(0);
+		service.refresh();
+		assertFalse(service.isReady());
+		assertTrue(events.isEmpty());
+
+		ontology.failAfter(-1);
+		service.refresh();
+		assertTrue(service.isReady());
+		assertEquals("[first, second]", events.toString());
+		service.whenReady(record("third"));
+		assertEquals("[first, second, third]", events.toString());
+		// ready handlers are called once
+		service.refresh();
+		assertEquals(3, events.size());
+	}
+
+	@Test
+	public void testRefreshDuringLoad() {
+		StepLabelService service = new StepLabelService(vertx, ontology, 10, 0);
+		ontology.hold();
+		service.refresh();
+		service.refresh();
+		service.refresh();
+		assertEquals(1, ontology.count("stepLabels"));
+		// the refreshes requested meanwhile start a single load afterwards
+		ontology.resume();
+		assertEquals(2, ontology.count("stepLabels"));
+		assertTrue(service.isReady());
+	}
+
+	@Test
+	public void testFailedInitialLoadIsRetried() throws InterruptedException {
+		StepLabelService service = new StepLabelService(vertx, ontology, 10, 50);
+		ontology.failAfter(0);
+		service.refresh();
+		Thread.sleep(120);
+		assertFalse(service.isReady());
+		assertTrue(ontology.count("stepLabels") >= 2);
+
+		ontology.failAfter(-1);
+		assertTrue(await(service, 5000));
+		assertEquals(5, service.size());
+
+		// once ready, a failed refresh is not retried
+		int loads = ontology.count("stepLabels");
+		ontology.failAfter(loads);
+		service.refresh();
+		Thread.sleep(200);
+		assertEquals(loads + 1, ontology.count("stepLabels"));
+		assertEquals(5, service.size());
+	}
+
+	private static boolean await(StepLabelService service, long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (!service.isReady() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return service.isReady();
+	}
+
+	private Handler<Void> record(final String event) {
+		return new Handler<Void>() {
+			@Override
+			public void handle(Void nothing) {
+				events.add(event);
+			}
+		};
+	}
+}
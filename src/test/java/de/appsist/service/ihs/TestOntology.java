@@ -0,0 +1,395 @@
+package de.appsist.service.ihs;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.impl.DefaultFutureResult;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Small ontology answering the SparQL queries of {@link SparqlTemplates} like the Information Workbench. Queries are
+ * recognized by their shape and answered from the measures, labels, contents, previews and successors added to the
+ * fixture.
+ * Contents are returned in the order of their URIs.
+ * <p>
+ * The queries answered are recorded by the name of their template. Replies can be held back and released later, and
+ * queries can be made to fail after a number of answered queries. The ontology must not be changed once queries are
+ * sent from another thread.
+ */
+final class TestOntology implements SparqlEndpoint {
+	static final String ONTOLOGY = "http://www.appsist.de/ontology/";
+
+	private static final Pattern IRI_PATTERN = Pattern.compile("<([^>]+)>");
+	private static final Pattern STRING_PATTERN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final Pattern PAGE_PATTERN = Pattern.compile("LIMIT (\\d+)(?: OFFSET (\\d+))?");
+
+	private final TreeSet<String> measures = new TreeSet<String>();
+	private final TreeMap<String, String> labels = new TreeMap<String, String>();
+	private final TreeMap<String, TreeSet<String>> instructions = new TreeMap<String, TreeSet<String>>();
+	// target groups of the additional contents of each process element, empty if the content is not restricted
+	private final TreeMap<String, TreeMap<String, TreeSet<String>>> additionalContents = new TreeMap<String, TreeMap<String, TreeSet<String>>>();
+	private final Map<String, String> previews = new LinkedHashMap<String, String>();
+	private final Map<String, String> successors = new LinkedHashMap<String, String>();
+	private final List<String> queries = new ArrayList<String>();
+	private final List<Runnable> heldReplies = new ArrayList<Runnable>();
+	private boolean holding;
+	private volatile int failAfter = -1;
+
+	TestOntology measure(String measureUri) {
+		measures.add(measureUri);
+		return this;
+	}
+
+	TestOntology label(String processElementUri, String label) {
+		labels.put(processElementUri, label);
+		return this;
+	}
+
+	TestOntology instruction(String processElementUri, String contentUri) {
+		TreeSet<String> contents = instructions.get(processElementUri);
+		if (contents == null) {
+			contents = new TreeSet<String>();
+			instructions.put(processElementUri, contents);
+		}
+		contents.add(contentUri);
+		return this;
+	}
+
+	/**
+	 * Adds an additional content, restricted to the given target groups or to none.
+	 */
+	TestOntology additionalContent(String processElementUri, String contentUri, String... targetGroupUris) {
+		TreeMap<String, TreeSet<String>> contents = additionalContents.get(processElementUri);
+		if (contents == null) {
+			contents = new TreeMap<String, TreeSet<String>>();
+			additionalContents.put(processElementUri, contents);
+		}
+		TreeSet<String> targetGroups = new TreeSet<String>();
+		for (String targetGroupUri : targetGroupUris) {
+			targetGroups.add(targetGroupUri);
+		}
+		contents.put(contentUri, targetGroups);
+		return this;
+	}
+
+	TestOntology preview(String contentUri, String previewUri) {
+		previews.put(contentUri, previewUri);
+		return this;
+	}
+
+	TestOntology successor(String processElementUri, String successorUri) {
+		successors.put(processElementUri, successorUri);
+		return this;
+	}
+
+	/**
+	 * Returns the names of the templates of the queries received so far.
+	 */
+	List<String> getQueries() {
+		synchronized (queries) {
+			return new ArrayList<String>(queries);
+		}
+	}
+
+	int count(String templateName) {
+		int count = 0;
+		for (String query : getQueries()) {
+			if (query.equals(templateName)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Holds back the replies until they are released.
+	 */
+	void hold() {
+		holding = true;
+	}
+
+	/**
+	 * Sends the replies held back so far, replies to the queries sent meanwhile are still held back.
+	 */
+	void release() {
+		List<Runnable> replies = new ArrayList<Runnable>(heldReplies);
+		heldReplies.clear();
+		for (Runnable reply : replies) {
+			reply.run();
+		}
+	}
+
+	/**
+	 * Sends the replies held back and answers further queries right away.
+	 */
+	void resume() {
+		holding = false;
+		release();
+	}
+
+	/**
+	 * Fails all queries once the given number of queries has been received, a negative number lets all queries
+	 * succeed again.
+	 */
+	void failAfter(int queryCount) {
+		failAfter = queryCount;
+	}
+
+	/**
+	 * Answers queries sent to the semwiki service over the event bus.
+	 */
+	void register(Vertx vertx, String address) {
+		vertx.eventBus().registerHandler(address, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(final Message<JsonObject> message) {
+				query(message.body().getObject("sparql").getString("query"), new Handler<AsyncResult<String>>() {
+					@Override
+					public void handle(AsyncResult<String> result) {
+						if (result.succeeded()) {
+							message.reply(result.result());
+						} else {
+							message.fail(500, result.cause().getMessage());
+						}
+					}
+				});
+			}
+		});
+	}
+
+	@Override
+	public void query(final String query, final Handler<AsyncResult<String>> resultHandler) {
+		final Rows rows = answer(query);
+		final boolean failed;
+		synchronized (queries) {
+			failed = failAfter >= 0 && queries.size() >= failAfter;
+			queries.add(rows.templateName);
+		}
+		Runnable reply = new Runnable() {
+			@Override
+			public void run() {
+				if (failed) {
+					resultHandler.handle(new DefaultFutureResult<String>(new IllegalStateException("Query failed.")));
+				} else {
+					resultHandler.handle(new DefaultFutureResult<String>(rows.page(query)));
+				}
+			}
+		};
+		if (holding) {
+			heldReplies.add(reply);
+		} else {
+			reply.run();
+		}
+	}
+
+	private Rows answer(String query) {
+		if (query.contains("MIN(?v)")) {
+			// the process element and the target group follow WHERE, the cursor is the last string
+			List<String> iris = new ArrayList<String>();
+			Matcher matcher = IRI_PATTERN.matcher(query).region(query.indexOf("WHERE"), query.length());
+			while (matcher.find()) {
+				iris.add(matcher.group(1));
+			}
+			List<String> strings = strings(query);
+			String cursor = strings.get(strings.size() - 1);
+			TreeSet<String> contents = new TreeSet<String>();
+			Rows rows;
+			if (query.contains("NOT EXISTS")) {
+				rows = new Rows("additionalContentList", "inhalt", "vorschau");
+				if (additionalContents.containsKey(iris.get(0))) {
+					for (Map.Entry<String, TreeSet<String>> content : additionalContents.get(iris.get(0)).entrySet()) {
+						if (content.getValue().isEmpty() || content.getValue().contains(iris.get(1))) {
+							contents.add(content.getKey());
+						}
+					}
+				}
+			} else {
+				rows = new Rows("instructionList", "inhalt", "vorschau");
+				if (instructions.containsKey(iris.get(0))) {
+					contents.addAll(instructions.get(iris.get(0)));
+				}
+			}
+			for (String content : contents.tailSet(cursor, false)) {
+				rows.add(content, previews.get(content));
+			}
+			return rows;
+		}
+		if (query.contains("?label")) {
+			Rows rows = new Rows("stepLabels", "uri", "label");
+			for (Map.Entry<String, String> label : labels.entrySet()) {
+				rows.add(label.getKey(), label.getValue());
+			}
+			return rows;
+		}
+		if (query.contains("VALUES ?id")) {
+			Rows rows = new Rows("measuresByIds", "id", "uri");
+			for (String measureId : strings(query)) {
+				for (String measure : measures) {
+					if (measure.endsWith(measureId)) {
+						rows.add(measureId, measure);
+					}
+				}
+			}
+			return rows;
+		}
+		if (query.contains("STRENDS")) {
+			Rows rows = new Rows("measureById", "uri");
+			for (String measure : measures) {
+				if (measure.endsWith(strings(query).get(0))) {
+					rows.add(measure);
+				}
+			}
+			return rows;
+		}
+		if (query.contains("?zielgruppe")) {
+			Rows rows = new Rows("allAdditionalContents", "p", "inhalt", "zielgruppe");
+			for (Map.Entry<String, TreeMap<String, TreeSet<String>>> element : additionalContents.entrySet()) {
+				for (Map.Entry<String, TreeSet<String>> content : element.getValue().entrySet()) {
+					if (content.getValue().isEmpty()) {
+						rows.add(element.getKey(), content.getKey(), null);
+					}
+					for (String targetGroup : content.getValue()) {
+						rows.add(element.getKey(), content.getKey(), targetGroup);
+					}
+				}
+			}
+			return rows;
+		}
+		if (query.contains("?vorschau")) {
+			Rows rows = new Rows("additionalContents", "p", "inhalt", "vorschau");
+			List<String> iris = iris(query);
+			String targetGroup = iris.remove(iris.size() - 1);
+			for (String processElement : iris) {
+				if (additionalContents.containsKey(processElement)) {
+					for (Map.Entry<String, TreeSet<String>> content : additionalContents.get(processElement).entrySet()) {
+						if (content.getValue().isEmpty() || content.getValue().contains(targetGroup)) {
+							rows.add(processElement, content.getKey(), null);
+						}
+					}
+				}
+			}
+			return rows;
+		}
+		if (query.contains("VALUES ?s")) {
+			Rows rows = new Rows("successorInstructions", "p", "inhalt");
+			for (String processElement : iris(query)) {
+				String successor = successors.get(processElement);
+				if (successor == null) {
+					continue;
+				}
+				if (!instructions.containsKey(successor)) {
+					rows.add(successor, null);
+					continue;
+				}
+				for (String content : instructions.get(successor)) {
+					rows.add(successor, content);
+				}
+			}
+			return rows;
+		}
+		if (query.contains("VALUES ?p")) {
+			Rows rows = new Rows("instructions", "p", "inhalt");
+			for (String processElement : iris(query)) {
+				if (instructions.containsKey(processElement)) {
+					for (String content : instructions.get(processElement)) {
+						rows.add(processElement, content);
+					}
+				}
+			}
+			return rows;
+		}
+		if (query.contains("ORDER BY ?p ?inhalt")) {
+			Rows rows = new Rows("allInstructions", "p", "inhalt");
+			for (Map.Entry<String, TreeSet<String>> element : instructions.entrySet()) {
+				for (String content : element.getValue()) {
+					rows.add(element.getKey(), content);
+				}
+			}
+			return rows;
+		}
+		if (query.contains("ORDER BY ?uri")) {
+			Rows rows = new Rows("allMeasures", "uri");
+			for (String measure : measures) {
+				rows.add(measure);
+			}
+			return rows;
+		}
+		return new Rows("unknown");
+	}
+
+	// IRIs bound in the VALUES clause followed by those bound after it, e.g., the target group
+	private static List<String> iris(String query) {
+		List<String> iris = new ArrayList<String>();
+		Matcher matcher = IRI_PATTERN.matcher(query).region(query.indexOf("VALUES"), query.length());
+		while (matcher.find()) {
+			iris.add(matcher.group(1));
+		}
+		return iris;
+	}
+
+	private static List<String> strings(String query) {
+		List<String> strings = new ArrayList<String>();
+		Matcher matcher = STRING_PATTERN.matcher(query);
+		while (matcher.find()) {
+			strings.add(matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\"));
+		}
+		return strings;
+	}
+
+	/**
+	 * Solutions of a query, encoded as SparQL JSON result.
+	 */
+	private static final class Rows {
+		final String templateName;
+		final String[] variables;
+		final List<String[]> solutions = new ArrayList<String[]>();
+
+		Rows(String templateName, String... variables) {
+			this.templateName = templateName;
+			this.variables = variables;
+		}
+
+		void add(String... values) {
+			solutions.add(values);
+		}
+
+		// the solutions selected by LIMIT and OFFSET of the query, all if it is not paged
+		String page(String query) {
+			int start = 0;
+			int end = solutions.size();
+			Matcher matcher = PAGE_PATTERN.matcher(query);
+			if (matcher.find()) {
+				start = matcher.group(2) != null ? Math.min(end, Integer.parseInt(matcher.group(2))) : 0;
+				end = Math.min(end, start + Integer.parseInt(matcher.group(1)));
+			}
+			JsonArray bindings = new JsonArray();
+			for (String[] values : solutions.subList(start, end)) {
+				JsonObject binding = new JsonObject();
+				for (int i = 0; i < variables.length; i++) {
+					if (values[i] != null) {
+						binding.putObject(variables[i], new JsonObject()
+								.putString("type", values[i].startsWith("http://") ? "uri" : "literal")
+								.putString("value", values[i]));
+					}
+				}
+				bindings.addObject(binding);
+			}
+			JsonArray vars = new JsonArray();
+			for (String variable : variables) {
+				vars.addString(variable);
+			}
+			return new JsonObject().putObject("head", new JsonObject().putArray("vars", vars))
+					.putObject("results", new JsonObject().putArray("bindings", bindings)).encode();
+		}
+	}
+}
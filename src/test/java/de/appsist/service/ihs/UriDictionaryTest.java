@@ -0,0 +1,145 @@
+package de.appsist.service.ihs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Filling, growing and reading the {@link UriDictionary}.
+ */
+public class UriDictionaryTest {
+	private static final String ONTOLOGY = "http://www.appsist.de/ontology/";
+	private static final String CONTENTS = "http://www.appsist.de/inhalte/";
+
+	@Test
+	public void testGrowBeyondExpectedSize() {
+		UriDictionary dictionary = new UriDictionary(2, 4);
+		int count = 1000;
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, dictionary.add(ONTOLOGY + "Massnahme_" + (i / 20) + "/Element_" + i));
+		}
+		assertEquals(count, dictionary.size());
+		for (int i = 0; i < count; i++) {
+			String localName = "Massnahme_" + (i / 20) + "/Element_" + i;
+			assertEquals(i, dictionary.findLocal(localName));
+			assertEquals(i, dictionary.find(ONTOLOGY + localName));
+			assertEquals(ONTOLOGY + localName, dictionary.getUri(i));
+			assertEquals(localName, dictionary.getLocalName(i));
+		}
+	}
+
+	@Test
+	public void testDuplicateUri() {
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		int id = dictionary.add(ONTOLOGY + "Step_1");
+		dictionary.add(ONTOLOGY + "Step_2");
+		assertEquals(id, dictionary.add(ONTOLOGY + "Step_1"));
+		assertEquals(2, dictionary.size());
+	}
+
+	@Test
+	public void testSameLocalNameInOtherNamespaces() {
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		int ontology = dictionary.add(ONTOLOGY + "Step_1");
+		int contents = dictionary.add(CONTENTS + "Step_1");
+		assertNotEquals(ontology, contents);
+		assertEquals(contents, dictionary.add(CONTENTS + "Step_1"));
+		assertEquals(ontology, dictionary.find(ONTOLOGY + "Step_1"));
+		assertEquals(contents, dictionary.find(CONTENTS + "Step_1"));
+		assertEquals(-1, dictionary.find("http://www.appsist.de/other/Step_1"));
+		// the entry added first wins a lookup by local name
+		assertEquals(ontology, dictionary.findLocal("Step_1"));
+		assertEquals(CONTENTS + "Step_1", dictionary.getUri(contents));
+	}
+
+	@Test
+	public void testCollidingHashes() {
+		// "Aa" and "BB" have the same hash code
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		int aa = dictionary.add(ONTOLOGY + "Aa");
+		int bb = dictionary.add(ONTOLOGY + "BB");
+		assertNotEquals(aa, bb);
+		assertEquals(aa, dictionary.findLocal("Aa"));
+		assertEquals(bb, dictionary.findLocal("BB"));
+	}
+
+	@Test
+	public void testLookupInCharSequence() {
+		UriDictionary dictionary = new UriDictionary(2, 16);
+		int id = dictionary.add(ONTOLOGY + "Massnahme_1/Step_1");
+		String path = "/services/ihs/Massnahme_1/Step_1?all=true";
+		int end = path.indexOf('?');
+		int start = dictionary.localStart(path, end);
+		assertEquals("Massnahme_1/Step_1", path.substring(start, end));
+		assertEquals(id, dictionary.findLocal(path, start, end));
+		assertEquals(-1, dictionary.findLocal(path, start, end - 1));
+	}
+
+	@Test
+	public void testNonAsciiLocalName() {
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		int id = dictionary.add(ONTOLOGY + "Ma\u00dfnahme_\u00dcbergabe");
+		assertEquals(id, dictionary.findLocal("Ma\u00dfnahme_\u00dcbergabe"));
+		assertEquals(ONTOLOGY + "Ma\u00dfnahme_\u00dcbergabe", dictionary.getUri(id));
+	}
+
+	@Test
+	public void testTooFewSegments() {
+		UriDictionary dictionary = new UriDictionary(2, 16);
+		assertEquals(-1, dictionary.add("Step_1"));
+		assertEquals(-1, dictionary.find("Step_1"));
+		assertEquals(0, dictionary.size());
+		// an empty local name is not added either
+		assertEquals(-1, new UriDictionary(1, 16).add(ONTOLOGY));
+	}
+
+	@Test
+	public void testDecodedUriIsKept() {
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		int id = dictionary.add(ONTOLOGY + "Step_1");
+		assertSame(dictionary.getUri(id), dictionary.getUri(id));
+	}
+
+	@Test
+	public void testAddAfterTrim() {
+		UriDictionary dictionary = new UriDictionary(1, 16);
+		dictionary.add(ONTOLOGY + "Step_1");
+		dictionary.trim();
+		int id = dictionary.add(ONTOLOGY + "Step_2");
+		assertEquals(1, id);
+		assertEquals(ONTOLOGY + "Step_2", dictionary.getUri(id));
+		assertEquals(0, dictionary.findLocal("Step_1"));
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		UriDictionary dictionary = new UriDictionary(2, 16);
+		for (int i = 0; i < 100; i++) {
+			dictionary.add(ONTOLOGY + "Massnahme_" + i + "/Step");
+			dictionary.add(CONTENTS + "Massnahme_" + i + "/Step");
+		}
+		dictionary.trim();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		dictionary.write(out);
+		out.close();
+
+		UriDictionary read = UriDictionary.read(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(dictionary.size(), read.size());
+		for (int id = 0; id < dictionary.size(); id++) {
+			assertEquals(dictionary.getUri(id), read.getUri(id));
+			assertEquals(id, read.find(dictionary.getUri(id)));
+		}
+		assertEquals(0, read.findLocal("Massnahme_0/Step"));
+		int added = read.add(ONTOLOGY + "Massnahme_100/Step");
+		assertEquals(dictionary.size(), added);
+		assertEquals(added, read.findLocal("Massnahme_100/Step"));
+	}
+}